@@ -0,0 +1,80 @@
+package org.learn.reactive.java8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The table backup path, export, save to a file and copy to staging, with the simulated
+ * export latency shrunk to nanoseconds so what remains is the work itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dbackup.latency.unit=NANOSECONDS")
+public class BackupOperationsBenchmark {
+	private Path _workDir;
+	private Path _stagingDir;
+	private Path _exported;
+	private List<String> _rows;
+
+	@Setup(Level.Trial)
+	public void createDirectories() throws IOException {
+		_workDir = Files.createTempDirectory("backup-bench");
+		_stagingDir = Files.createDirectory(_workDir.resolve("staging"));
+		_exported = _workDir.resolve("table.dat");
+		_rows = BackupOperations.exportRowsFromTable("table").get();
+		BackupOperations.saveToFile(_exported).apply(_rows);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteDirectories() throws IOException {
+		try (Stream<Path> paths = Files.walk(_workDir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public List<String> export() {
+		return BackupOperations.exportRowsFromTable("table").get();
+	}
+
+	@Benchmark
+	public Path save() {
+		return BackupOperations.saveToFile(_workDir.resolve("saved.dat")).apply(_rows);
+	}
+
+	//-- Includes deleting the staged copy, since staging refuses to overwrite
+	@Benchmark
+	public boolean stage() throws IOException {
+		BackupOperations.moveToStagingDir(_stagingDir).accept(_exported);
+		return Files.deleteIfExists(_stagingDir.resolve(_exported.getFileName()));
+	}
+
+	@Benchmark
+	public boolean exportSaveAndStage() throws IOException {
+		final Path saved = BackupOperations.saveToFile(_exported)
+				.apply(BackupOperations.exportRowsFromTable("table").get());
+		BackupOperations.moveToStagingDir(_stagingDir).accept(saved);
+		return Files.deleteIfExists(_stagingDir.resolve(saved.getFileName()));
+	}
+}
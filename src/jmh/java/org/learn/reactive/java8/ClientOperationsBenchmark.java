@@ -0,0 +1,67 @@
+package org.learn.reactive.java8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parsing of HN and DZone responses, on canned responses of realistic size. The HN item
+ * fetches themselves are network calls and are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientOperationsBenchmark {
+	static private final String LS = System.lineSeparator();
+
+	private String _topStories;
+	private String _story;
+	private String _dzonePage;
+
+	@Setup(Level.Trial)
+	public void cannedResponses() {
+		//-- Shaped like the real responses: 500 ids, a pretty-printed item, a page of article links
+		_topStories = IntStream.range(0, 500).mapToObj(i -> String.valueOf(15_000_000 + i * 37))
+				.collect(Collectors.joining(", ", "[ ", " ]"));
+		_story = String.join(LS, "{", "  \"by\" : \"someone\",", "  \"descendants\" : 42,", "  \"id\" : 15000037,",
+				"  \"score\" : 128,", "  \"time\" : 1506000000,", "  \"title\" : \"A story\",", "  \"type\" : \"story\",",
+				"  \"url\" : \"https://example.org/a-story\"", "}");
+		_dzonePage = IntStream.range(0, 2_000)
+				.mapToObj(i -> i % 10 == 0
+						? "<a class=\"title\" href=\"/articles/java-article-" + i + "\">Article " + i + "</a>"
+						: "<div class=\"dzone filler\">line " + i + "</div>")
+				.collect(Collectors.joining(LS));
+	}
+
+	@Benchmark
+	public List<String> parseHNStoryIds() {
+		return ClientOperations.parseStoryIds(_topStories);
+	}
+
+	@Benchmark
+	public Optional<String> parseHNStoryUrl() {
+		return ClientOperations.parseStoryUrl(_story);
+	}
+
+	@Benchmark
+	public List<String> parseDzoneTop10() {
+		return ClientOperations.parseDzoneOutput(_dzonePage, 10);
+	}
+}
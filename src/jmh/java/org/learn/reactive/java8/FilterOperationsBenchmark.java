@@ -0,0 +1,65 @@
+package org.learn.reactive.java8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The discount pipeline, carts after the end of the financial year and then customers
+ * above a purchase value, over seeded carts on the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FilterOperationsBenchmark {
+	static private final LocalDate END_OF_FY = LocalDate.of(2017, 3, 31);
+
+	@Param({ "10000", "100000", "1000000" })
+	public int carts;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private List<ShoppingCart> _carts;
+
+	@Setup(Level.Trial)
+	public void generateCarts() {
+		_carts = new DatasetGeneratorBuilder().withSeed(43).withCustomerCount(Math.max(1, carts / 10)).build()
+				.carts(carts).parallel().collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public long filterCartsByDate() {
+		return FilterOperations.filterCartsByDate(END_OF_FY).apply(carts()).count();
+	}
+
+	@Benchmark
+	public long filterCustomersByDateAndPurchases() {
+		return FilterOperations.filterCartsByDate(END_OF_FY)
+				.andThen(FilterOperations.filterCustomersByPurchases(50_000))
+				.apply(carts())
+				.count();
+	}
+
+	private Stream<ShoppingCart> carts() {
+		return parallel ? _carts.parallelStream() : _carts.stream();
+	}
+}
@@ -0,0 +1,71 @@
+package org.learn.reactive.java8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One order through each scatter-gather strategy, against partners stubbed in process:
+ * {@link ScatterGatherPurchaseAction} asks the primary partner only and spins until every
+ * item is answered; {@link ScatterGatherAndDecidePurchaseAction} asks primary and fallback
+ * for every item and joins on {@code allOf}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PurchaseActionBenchmark {
+	@Param({ "0", "5" })
+	public int partnerLatencyMillis;
+
+	private PartnerStubServer _server;
+	private String _fulfillment;
+	private String _failures;
+	private DatasetGenerator _orders;
+	private long _next;
+
+	@Setup(Level.Trial)
+	public void startPartners() throws Exception {
+		_server = new PartnerStubServer(0, 43).start();
+		final Duration latency = Duration.ofMillis(partnerLatencyMillis);
+		OrderHelper.routeVendorsTo(_server.endpoint("/primary").withLatency(latency).getUrl(),
+				_server.endpoint("/fallback").withLatency(latency).getUrl());
+		_fulfillment = _server.endpoint("/fulfillment").getUrl();
+		_failures = _server.endpoint("/failures").getUrl();
+		_orders = new DatasetGeneratorBuilder().withSeed(43).withCustomerCount(100).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopPartners() {
+		_server.close();
+	}
+
+	@Benchmark
+	public Order spinOnPrimary() throws Exception {
+		final Order order = _orders.order(_next++);
+		new ScatterGatherPurchaseAction(_fulfillment).execute(order);
+		return order;
+	}
+
+	@Benchmark
+	public Order allOfPrimaryAndFallback() throws Exception {
+		final Order order = _orders.order(_next++);
+		new ScatterGatherAndDecidePurchaseAction(_fulfillment, _failures).execute(order);
+		return order;
+	}
+}
@@ -0,0 +1,227 @@
+package org.learn.reactive.java8;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the calls in flight to each partner endpoint and adapts the bound to what the
+ * endpoint sustains, in the style of TCP Vegas. The lowest round-trip time seen stands for
+ * the endpoint's unloaded latency; a sample taking longer means requests are queueing at
+ * the partner, about {@code limit * (1 - minRtt / rtt)} of them. While that queue is short
+ * the limit grows by one, once it is long the limit shrinks by one, and a failed call cuts
+ * the limit by the backoff ratio at once, at most once per round trip. The unloaded latency
+ * is re-learnt every few hundred samples so that a partner that got slower for good is not
+ * starved.
+ * <p>
+ * Calls beyond the limit wait for a permit, at most {@code maxQueued} of them and for no
+ * longer than {@code maxWait}, or than the caller's {@link Deadline} leaves; any others are shed
+ * with a {@link RejectedExecutionException} without reaching the partner. Build instances with {@link AdaptiveConcurrencyLimiterBuilder}.
+ */
+public class AdaptiveConcurrencyLimiter {
+	static private final double ALPHA = 3;
+	static private final double BETA = 6;
+	static private final int RELEARN_INTERVAL = 500;
+
+	private final int _initialLimit;
+	private final int _minLimit;
+	private final int _maxLimit;
+	private final int _maxQueued;
+	private final Duration _maxWait;
+	private final double _backoffRatio;
+	private final Map<String,Limit> _limits = new ConcurrentHashMap<>();
+
+	AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued,
+	                           Duration maxWait, double backoffRatio) {
+		this._initialLimit = initialLimit;
+		this._minLimit = minLimit;
+		this._maxLimit = maxLimit;
+		this._maxQueued = maxQueued;
+		this._maxWait = maxWait;
+		this._backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * The limiter the purchase actions and {@link ClientOperations} share, so that every
+	 * outbound call to a partner counts against the same limit.
+	 */
+	static public AdaptiveConcurrencyLimiter getDefault() {
+		return DefaultHolder.LIMITER;
+	}
+
+	static private final class DefaultHolder {
+		static private final AdaptiveConcurrencyLimiter LIMITER = new AdaptiveConcurrencyLimiterBuilder()
+				.withInitialLimit(Integer.getInteger("partner.limit.initial", 10))
+				.withLimitRange(1, Integer.getInteger("partner.limit.max", 200))
+				.build();
+	}
+
+	/**
+	 * A permit to call {@code endpoint}, waiting for one if the endpoint is at its limit.
+	 *
+	 * @throws RejectedExecutionException if the call is shed; the endpoint is not called
+	 */
+	public Permit acquire(String endpoint) {
+		return acquire(endpoint, Deadline.none());
+	}
+
+	/**
+	 * Like {@link #acquire(String)}, but waiting no longer than {@code deadline} leaves; once it
+	 * has expired a call is let through only if the endpoint has a permit free.
+	 *
+	 * @throws RejectedExecutionException if the call is shed; the endpoint is not called
+	 */
+	public Permit acquire(String endpoint, Deadline deadline) {
+		final Limit limit = _limits.computeIfAbsent(endpoint, key -> new Limit(_initialLimit));
+		try {
+			limit.acquire(_maxQueued, Math.min(_maxWait.toNanos(), deadline.remaining(TimeUnit.NANOSECONDS)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			limit._shed.increment();
+			throw new RejectedExecutionException("Interrupted waiting to call " + endpoint, e);
+		}
+		return new Permit(limit);
+	}
+
+	/**
+	 * The scheme, host and port of {@code url}, for calls that share a partner but not a path,
+	 * e.g. one item per request; the url itself if it has no host.
+	 */
+	static public String hostOf(String url) {
+		try {
+			final URI uri = URI.create(url);
+			if (null == uri.getHost()) return url;
+			return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort());
+		} catch (IllegalArgumentException e) {
+			return url;
+		}
+	}
+
+	/** Current in-flight limit of {@code endpoint}, the initial limit if it was never called */
+	public int getLimit(String endpoint) {
+		final Limit limit = _limits.get(endpoint);
+		return null == limit ? _initialLimit : limit.getLimit();
+	}
+
+	public int getInFlightCount(String endpoint) {
+		final Limit limit = _limits.get(endpoint);
+		return null == limit ? 0 : limit.getInFlight();
+	}
+
+	public long getShedCount(String endpoint) {
+		final Limit limit = _limits.get(endpoint);
+		return null == limit ? 0 : limit._shed.sum();
+	}
+
+	/**
+	 * Current limit of every endpoint called so far, by endpoint.
+	 */
+	public Map<String,Integer> getLimits() {
+		final Map<String,Integer> limits = new TreeMap<>();
+		_limits.forEach((endpoint, limit) -> limits.put(endpoint, limit.getLimit()));
+		return limits;
+	}
+
+	/**
+	 * One call's claim on its endpoint's limit; releasing it reports how the call went.
+	 */
+	public final class Permit {
+		private final Limit _limit;
+		private final long _startedNanos = System.nanoTime();
+		private final AtomicBoolean _released = new AtomicBoolean();
+
+		private Permit(Limit limit) {
+			this._limit = limit;
+		}
+
+		/**
+		 * Returns the permit. A call that failed, timed out or was turned away by the
+		 * partner as overloaded should report {@code succeeded} false. Only the first release counts.
+		 */
+		public void release(boolean succeeded) {
+			release(succeeded, System.nanoTime() - _startedNanos);
+		}
+
+		void release(boolean succeeded, long rttNanos) {
+			if (_released.compareAndSet(false, true)) _limit.release(succeeded, rttNanos);
+		}
+	}
+
+	//-- Guarded by its own monitor; calls held here are about to block on the network anyway
+	private final class Limit {
+		private final LongAdder _shed = new LongAdder();
+		private int _limit;
+		private int _inFlight;
+		private int _waiting;
+		private long _minRtt = Long.MAX_VALUE;
+		private long _samples;
+		private long _lastBackoffNanos;
+
+		private Limit(int initialLimit) {
+			this._limit = initialLimit;
+			this._lastBackoffNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+		}
+
+		private synchronized int getLimit() {
+			return _limit;
+		}
+
+		private synchronized int getInFlight() {
+			return _inFlight;
+		}
+
+		private synchronized void acquire(int maxQueued, long maxWaitNanos) throws InterruptedException {
+			if (_inFlight < _limit) {
+				_inFlight++;
+				return;
+			}
+			if (_waiting >= maxQueued || maxWaitNanos <= 0) {
+				_shed.increment();
+				throw new RejectedExecutionException("Limit of " + _limit + " calls in flight reached");
+			}
+			_waiting++;
+			try {
+				final long deadline = System.nanoTime() + maxWaitNanos;
+				while (_inFlight >= _limit) {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						_shed.increment();
+						throw new RejectedExecutionException("No call slot freed up within " + Duration.ofNanos(maxWaitNanos));
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+				_inFlight++;
+			} finally {
+				_waiting--;
+			}
+		}
+
+		private synchronized void release(boolean succeeded, long rttNanos) {
+			_inFlight--;
+			if (!succeeded) {
+				//-- Calls failing together are one overload; back off once per round trip, as TCP does per window
+				final long now = System.nanoTime();
+				if (_minRtt == Long.MAX_VALUE || now - _lastBackoffNanos >= _minRtt) {
+					_limit = Math.max(_minLimit, (int) (_limit * _backoffRatio));
+					_lastBackoffNanos = now;
+				}
+			} else {
+				if (++_samples % RELEARN_INTERVAL == 0 || rttNanos < _minRtt) _minRtt = Math.max(1, rttNanos);
+				final double queued = _limit * (1 - _minRtt / (double) Math.max(1, rttNanos));
+				//-- Grows only while the limit is in use; an idle endpoint says nothing about a larger one
+				if (queued < ALPHA && 2 * (_inFlight + 1) >= _limit) {
+					_limit = Math.min(_maxLimit, _limit + 1);
+				} else if (queued > BETA) {
+					_limit = Math.max(_minLimit, _limit - 1);
+				}
+			}
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.learn.reactive.java8;
+
+import java.time.Duration;
+
+public class AdaptiveConcurrencyLimiterBuilder {
+	private int _initialLimit = 10;
+	private int _minLimit = 1;
+	private int _maxLimit = 200;
+	private int _maxQueued = 100;
+	private Duration _maxWait = Duration.ofSeconds(1);
+	private double _backoffRatio = 0.9;
+
+	/**
+	 * Calls allowed in flight to an endpoint before anything has been observed of it.
+	 */
+	public AdaptiveConcurrencyLimiterBuilder withInitialLimit(int initialLimit) {
+		this._initialLimit = initialLimit;
+		return this;
+	}
+
+	public AdaptiveConcurrencyLimiterBuilder withLimitRange(int minLimit, int maxLimit) {
+		this._minLimit = minLimit;
+		this._maxLimit = maxLimit;
+		return this;
+	}
+
+	/**
+	 * Calls waiting for a permit per endpoint; further calls are shed at once. 0 sheds every
+	 * call beyond the limit.
+	 */
+	public AdaptiveConcurrencyLimiterBuilder withMaxQueued(int maxQueued) {
+		this._maxQueued = maxQueued;
+		return this;
+	}
+
+	public AdaptiveConcurrencyLimiterBuilder withMaxWait(Duration maxWait) {
+		this._maxWait = maxWait;
+		return this;
+	}
+
+	/**
+	 * Factor the limit is multiplied by when a call fails.
+	 */
+	public AdaptiveConcurrencyLimiterBuilder withBackoffRatio(double backoffRatio) {
+		this._backoffRatio = backoffRatio;
+		return this;
+	}
+
+	public AdaptiveConcurrencyLimiter build() {
+		if (_minLimit < 1 || _maxLimit < _minLimit) {
+			throw new IllegalArgumentException("Limit range " + _minLimit + ".." + _maxLimit + " is empty or not positive");
+		}
+		if (_initialLimit < _minLimit || _initialLimit > _maxLimit) {
+			throw new IllegalArgumentException("Initial limit " + _initialLimit + " is outside " + _minLimit + ".." + _maxLimit);
+		}
+		if (_maxQueued < 0) throw new IllegalArgumentException("Queue length must not be negative");
+		if (_maxWait.isNegative()) throw new IllegalArgumentException("Wait must not be negative");
+		if (!(_backoffRatio > 0 && _backoffRatio < 1)) {
+			throw new IllegalArgumentException("Backoff ratio must be between 0 and 1, got " + _backoffRatio);
+		}
+		return new AdaptiveConcurrencyLimiter(_initialLimit, _minLimit, _maxLimit, _maxQueued, _maxWait, _backoffRatio);
+	}
+}
@@ -0,0 +1,245 @@
+package org.learn.reactive.java8;
+
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the backup artifact: a plain tar whose entries hold the staged files as a
+ * sequence of independently deflated blocks, followed by an index entry and a
+ * fixed-size footer pointing at that index.
+ * <pre>
+ *   entry data  : { int rawLength, int storedLength, int crc32(raw), byte[storedLength] }*
+ *   .backup-index : name \t dataOffset \t storedSize \t rawSize \t blocks \t sha256(raw)   per line
+ *   .backup-footer: "BACKUP-INDEX dataOffset length" padded to one tar record
+ * </pre>
+ * Blocks are compressed in parallel here and inflated in parallel by {@link RestoreEngine},
+ * the CRCs and digests let it verify every entry while streaming it out, and the footer
+ * lets it find any entry without reading the archive front to back.
+ */
+public class BackupArchive {
+	static final Logger logger = LoggerFactory.getLogger(BackupArchive.class);
+
+	static public final String INDEX_ENTRY = ".backup-index";
+	static public final String FOOTER_ENTRY = ".backup-footer";
+	static final String FOOTER_MAGIC = "BACKUP-INDEX";
+	static final int BLOCK_SIZE = 1024 * 1024;
+	static final int BLOCK_HEADER_SIZE = 3 * Integer.BYTES;
+	static final int TAR_RECORD_SIZE = 512;
+	//-- Two empty records mark the end of a tar; no further padding since records are also blocks
+	static final int TAR_TRAILER_SIZE = 2 * TAR_RECORD_SIZE;
+	static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	static private final int BLOCKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+	static public Path write(Path stagingDir, Path artifact) throws IOException {
+		final List<Path> staged;
+		try (Stream<Path> files = Files.walk(stagingDir)) {
+			staged = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+
+		final List<IndexEntry> index = new ArrayList<>(staged.size());
+		final Path spool = Files.createTempFile(artifact.toAbsolutePath().getParent(), "archive", ".spool");
+		try (CountingOutputStream counted = new CountingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(artifact)));
+		     TarArchiveOutputStream tar = new TarArchiveOutputStream(counted, TAR_RECORD_SIZE)) {
+			tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+			for (Path file : staged) {
+				final String name = stagingDir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+				final IndexEntry entry = compressInto(file, spool, name);
+				final TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+				tarEntry.setSize(entry._storedSize);
+				tarEntry.setModTime(Files.getLastModifiedTime(file).toMillis());
+				tar.putArchiveEntry(tarEntry);
+				tar.flush();
+				entry._dataOffset = counted.getBytesWritten();
+				Files.copy(spool, tar);
+				tar.closeArchiveEntry();
+				index.add(entry);
+			}
+
+			final byte[] indexBytes = index.stream()
+					.map(IndexEntry::toLine)
+					.collect(Collectors.joining("\n", "", "\n"))
+					.getBytes(StandardCharsets.UTF_8);
+			tar.putArchiveEntry(sized(new TarArchiveEntry(INDEX_ENTRY), indexBytes.length));
+			tar.flush();
+			final long indexOffset = counted.getBytesWritten();
+			tar.write(indexBytes);
+			tar.closeArchiveEntry();
+
+			final byte[] footer = Arrays.copyOf(
+					(FOOTER_MAGIC + " " + indexOffset + " " + indexBytes.length + "\n").getBytes(StandardCharsets.US_ASCII),
+					TAR_RECORD_SIZE);
+			tar.putArchiveEntry(sized(new TarArchiveEntry(FOOTER_ENTRY), footer.length));
+			tar.write(footer);
+			tar.closeArchiveEntry();
+			tar.finish();
+		} finally {
+			Files.deleteIfExists(spool);
+		}
+		logger.info("{} wrote {} entries to {}", Thread.currentThread().getName(), index.size(), artifact.toString());
+		return artifact;
+	}
+
+	//-- Reads a window of blocks, deflates it in parallel and appends the blocks in order
+	static private IndexEntry compressInto(Path file, Path spool, String name) throws IOException {
+		final MessageDigest sha256 = sha256();
+		long rawSize = 0;
+		long storedSize = 0;
+		int blockCount = 0;
+		try (InputStream in = Files.newInputStream(file);
+		     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool)))) {
+			boolean eof = false;
+			while (!eof) {
+				final List<byte[]> window = new ArrayList<>(BLOCKS_IN_FLIGHT);
+				while (!eof && window.size() < BLOCKS_IN_FLIGHT) {
+					final byte[] block = readBlock(in);
+					if (block.length < BLOCK_SIZE) eof = true;
+					if (block.length > 0) window.add(block);
+				}
+				final List<byte[]> deflated = window.parallelStream()
+						.map(BackupArchive::deflate)
+						.collect(Collectors.toList());
+				for (int i = 0; i < window.size(); i++) {
+					final byte[] raw = window.get(i);
+					final byte[] stored = deflated.get(i);
+					sha256.update(raw);
+					out.writeInt(raw.length);
+					out.writeInt(stored.length);
+					out.writeInt(crc32(raw, raw.length));
+					out.write(stored);
+					rawSize += raw.length;
+					storedSize += BLOCK_HEADER_SIZE + stored.length;
+					blockCount++;
+				}
+			}
+		}
+		return new IndexEntry(name, -1, storedSize, rawSize, blockCount, HEX.encode(sha256.digest()));
+	}
+
+	static private byte[] readBlock(InputStream in) throws IOException {
+		final byte[] block = new byte[BLOCK_SIZE];
+		int filled = 0;
+		int read;
+		while (filled < BLOCK_SIZE && (read = in.read(block, filled, BLOCK_SIZE - filled)) >= 0) {
+			filled += read;
+		}
+		return filled == BLOCK_SIZE ? block : Arrays.copyOf(block, filled);
+	}
+
+	static private byte[] deflate(byte[] raw) {
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] stored = new byte[raw.length + raw.length / 1000 + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == stored.length) stored = Arrays.copyOf(stored, stored.length * 2);
+				length += deflater.deflate(stored, length, stored.length - length);
+			}
+			return Arrays.copyOf(stored, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static private TarArchiveEntry sized(TarArchiveEntry entry, long size) {
+		entry.setSize(size);
+		return entry;
+	}
+
+	static int crc32(byte[] data, int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		return (int) crc.getValue();
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Where an entry's blocks live in the artifact and what they must add up to.
+	 */
+	static public final class IndexEntry {
+		private final String _name;
+		private long _dataOffset;
+		private final long _storedSize;
+		private final long _rawSize;
+		private final int _blockCount;
+		private final String _sha256;
+
+		IndexEntry(String name, long dataOffset, long storedSize, long rawSize, int blockCount, String sha256) {
+			this._name = name;
+			this._dataOffset = dataOffset;
+			this._storedSize = storedSize;
+			this._rawSize = rawSize;
+			this._blockCount = blockCount;
+			this._sha256 = sha256;
+		}
+
+		static IndexEntry parse(String line) {
+			final String[] fields = line.split("\t");
+			return new IndexEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+					Long.parseLong(fields[3]), Integer.parseInt(fields[4]), fields[5]);
+		}
+
+		String toLine() {
+			return String.join("\t", _name, Long.toString(_dataOffset), Long.toString(_storedSize),
+					Long.toString(_rawSize), Integer.toString(_blockCount), _sha256);
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public long getDataOffset() {
+			return _dataOffset;
+		}
+
+		public long getStoredSize() {
+			return _storedSize;
+		}
+
+		public long getRawSize() {
+			return _rawSize;
+		}
+
+		public int getBlockCount() {
+			return _blockCount;
+		}
+
+		public String getSha256() {
+			return _sha256;
+		}
+	}
+}
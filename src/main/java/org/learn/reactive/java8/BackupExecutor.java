@@ -0,0 +1,323 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import static java.util.stream.Collectors.toList;
+import static org.learn.reactive.java8.BackupOperations.*;
+
+/**
+ * Runs a {@link BackupTask} as a graph of stages:
+ * <pre>
+ *   table : EXPORT -> SAVE -> COMPRESS -> STAGE --\
+ *   file  :                   COMPRESS -> STAGE ---+--> ARCHIVE
+ *   dir   :     WALK ==batches==> COMPRESS -> STAGE --/
+ * </pre>
+ * Every stage runs on the lane of the resource it consumes, and each lane has its own
+ * concurrency limit. Lanes queue rather than reject; instead the number of sources
+ * in flight is bounded, so a large task holds back new sources until earlier ones
+ * drain out of the lanes. Directories are walked in parallel and every batch of files
+ * found is compressed and staged while the rest of the tree is still being walked; the
+ * walk of a directory pauses while {@code maxBatchesInFlight} of its batches are not yet
+ * staged, so a huge directory cannot flood the lanes either.
+ */
+public class BackupExecutor implements AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(BackupExecutor.class);
+	static private final String LS = System.lineSeparator();
+
+	private final Map<BackupStage.Resource,InstrumentedExecutor> _lanes = new EnumMap<>(BackupStage.Resource.class);
+	private final ExecutorService _scheduler;
+	private final Semaphore _sourcesInFlight;
+	private final int _maxBatchesInFlight;
+	private final DedupChunkStore _dedupStore;
+	private final ParallelDirectoryWalker _walker;
+	private final ForkJoinPool _walkerPool;
+	private final StageTracer _tracer;
+
+	BackupExecutor(Map<BackupStage.Resource,Integer> concurrency, int maxSourcesInFlight, int maxBatchesInFlight,
+	               DedupChunkStore dedupStore, ParallelDirectoryWalker walker, StageTracer tracer) {
+		for (BackupStage.Resource resource : BackupStage.Resource.values()) {
+			final int threads = concurrency.get(resource);
+			_lanes.put(resource, InstrumentedExecutors.newFixedThreadPool(
+					"Backup-" + resource.name().toLowerCase(), threads));
+		}
+		this._scheduler = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("Backup-Scheduler-%d").setDaemon(true).build());
+		this._sourcesInFlight = new Semaphore(maxSourcesInFlight);
+		this._maxBatchesInFlight = maxBatchesInFlight;
+		this._dedupStore = dedupStore;
+		this._tracer = tracer;
+		//-- Only a walker created here is ours to shut down
+		this._walkerPool = null == walker ? new ForkJoinPool(concurrency.get(BackupStage.Resource.DISK)) : null;
+		this._walker = null == walker ? new ParallelDirectoryWalker(_walkerPool) : walker;
+	}
+
+	/**
+	 * Schedules every source of the task and completes once the artifact has been written.
+	 */
+	public CompletableFuture<BackupReport> execute(BackupTask task) {
+		return execute(task, new BackupProgress());
+	}
+
+	/**
+	 * Same as {@link #execute(BackupTask)}, reporting to {@code progress} as stages finish.
+	 */
+	public CompletableFuture<BackupReport> execute(BackupTask task, BackupProgress progress) {
+		final long started = System.nanoTime();
+		final Run run = new Run(progress);
+		final Path stagingDir = task.getStagingDirLocation();
+		final Path workDir = stagingDir.getParent();
+		progress.bindLaneDepth(resource -> _lanes.get(resource).getQueuedCount());
+
+		//-- Admission blocks while too many sources are in flight, so it runs off the caller's thread
+		final CompletableFuture<List<CompletableFuture<Path>>> admitted = CompletableFuture.supplyAsync(() -> {
+			final List<String> tables = task.getSourceTables().collect(toList());
+			final List<Path> files = task.getSourceFileLocation().collect(toList());
+			final List<Path> dirs = task.getSourceDirLocation().collect(toList());
+			//-- Directories plan their stages as batches are found
+			tables.forEach(table -> progress.planStages(table, 4));
+			files.forEach(file -> progress.planStages(file.toString(), 2));
+			progress.planStages(task.getTargetArtifactLocation().toString(), 1);
+
+			final List<CompletableFuture<Path>> pipelines = new ArrayList<>();
+			tables.forEach(table -> pipelines.add(admit(() ->
+					submit(BackupStage.EXPORT, table, exportRowsFromTable(table), BackupExecutor::charsOf, rows -> 0, run)
+							.thenCompose(rows -> submit(BackupStage.SAVE, table,
+									() -> saveToFile(workDir.resolve(table)).apply(rows),
+									file -> charsOf(rows) + (long) rows.size() * LS.length(), file -> 1, run))
+							.thenCompose(file -> compressAndStage(table, file, stagingDir, workDir, run)))));
+			files.forEach(file -> pipelines.add(admit(() ->
+					compressAndStage(file.toString(), file, stagingDir, workDir, run))));
+			dirs.forEach(dir -> pipelines.add(admit(() ->
+					walkCompressAndStage(dir, stagingDir, workDir, run))));
+			return pipelines;
+		}, _scheduler);
+
+		return admitted
+				.thenCompose(BackupExecutor::allOf)
+				.thenCompose(none -> submit(BackupStage.ARCHIVE, task.getTargetArtifactLocation().toString(),
+						() -> SizedFile.of(archive(task.getTargetArtifactLocation()).apply(stagingDir)),
+						SizedFile::getBytes, artifact -> 1, run))
+				.thenApply(SizedFile::getPath)
+				.thenApply(artifact -> {
+					final BackupReport report = new BackupReport(artifact, new ArrayList<>(run._timings),
+							System.nanoTime() - started);
+					progress.backupCompleted(report);
+					return report;
+				});
+	}
+
+	private CompletableFuture<Path> compressAndStage(String label, Path source, Path stagingDir, Path workDir,
+	                                                 Run run) {
+		return submit(BackupStage.COMPRESS, label, () -> SizedFile.of(compressOrDeduplicate(source, workDir)),
+				SizedFile::getBytes, compressed -> 1, run)
+				.thenCompose(compressed -> submit(BackupStage.STAGE, label, () -> {
+					moveToStagingDir(stagingDir).accept(compressed.getPath());
+					return compressed;
+				}, SizedFile::getBytes, staged -> 1, run))
+				.thenApply(SizedFile::getPath);
+	}
+
+	private CompletableFuture<Path> walkCompressAndStage(Path dir, Path stagingDir, Path workDir,
+	                                                     Run run) {
+		final Queue<CompletableFuture<Void>> batches = new ConcurrentLinkedQueue<>();
+		final Path recipeDir = workDir.resolve(dir.getFileName() + DedupChunkStore.RECIPE_SUFFIX);
+		final Consumer<Path> stage = null == _dedupStore ? moveToStagingDir(stagingDir, dir) : moveToStagingDir(stagingDir, recipeDir);
+		final Semaphore batchesInFlight = new Semaphore(_maxBatchesInFlight);
+
+		return _walker.walk(dir, batch -> {
+			awaitPermit(batchesInFlight);
+			run._progress.planStages(dir.toString(), 2);
+			batches.add(submit(BackupStage.COMPRESS, dir.toString(), () -> {
+					final List<SizedFile> compressed = new ArrayList<>(batch.size());
+					for (Path file : batch) {
+						//-- Recipes are laid out like the files so that staging keeps the tree intact
+						final Path recipe = recipeDir.resolve(dir.relativize(file));
+						compressed.add(SizedFile.of(null == _dedupStore ? compress(file).get() : deduplicateInto(recipe, compress(file).get())));
+					}
+					return compressed;
+				}, SizedFile::bytesOf, List::size, run).thenCompose(compressed -> submit(BackupStage.STAGE, dir.toString(), () -> {
+					compressed.forEach(file -> stage.accept(file.getPath()));
+					return compressed;
+				}, SizedFile::bytesOf, List::size, run)).whenComplete((staged, error) -> batchesInFlight.release()).thenApply(staged -> null));
+		})
+				.thenCompose(fileCount -> allOf(batches))
+				.thenApply(none -> dir);
+	}
+
+	private Path compressOrDeduplicate(Path source, Path workDir) {
+		final Path compressed = compress(source).get();
+		if (null == _dedupStore || !Files.isRegularFile(compressed)) return compressed;
+		return deduplicate(_dedupStore, workDir).apply(compressed);
+	}
+
+	private Path deduplicateInto(Path recipe, Path file) {
+		try {
+			Files.createDirectories(recipe.getParent());
+			return _dedupStore.deduplicate(file, recipe);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//-- Blocks a walker thread; as a managed block, so its pool can start another worker meanwhile
+	static private void awaitPermit(Semaphore permits) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					permits.acquire();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return permits.tryAcquire();
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	static private CompletableFuture<Void> allOf(Collection<? extends CompletableFuture<?>> futures) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	private CompletableFuture<Path> admit(Supplier<CompletableFuture<Path>> pipeline) {
+		try {
+			_sourcesInFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+		final CompletableFuture<Path> future;
+		try {
+			future = pipeline.get();
+		} catch (RuntimeException e) {
+			_sourcesInFlight.release();
+			throw e;
+		}
+		return future.whenComplete((path, error) -> _sourcesInFlight.release());
+	}
+
+	//-- bytesOf and filesOf measure the output of the work, on the lane thread that ran it
+	private <T> CompletableFuture<T> submit(BackupStage stage, String source, Supplier<T> work,
+	                                        ToLongFunction<? super T> bytesOf, ToIntFunction<? super T> filesOf,
+	                                        Run run) {
+		final long submitted = System.nanoTime();
+		run._progress.stageSubmitted(stage, source);
+		return CompletableFuture.supplyAsync(() -> {
+			final long startedAt = System.nanoTime();
+			T output = null;
+			boolean failed = true;
+			try {
+				output = work.get();
+				failed = false;
+				return output;
+			} finally {
+				final long finishedAt = System.nanoTime();
+				final StageTiming timing = new StageTiming(stage, source, Thread.currentThread().getName(),
+						submitted, startedAt, finishedAt);
+				if (null != _tracer) _tracer.record(stage.name(), submitted, startedAt, finishedAt);
+				run._timings.add(timing);
+				run._progress.stageCompleted(timing, failed ? 0 : bytesOf.applyAsLong(output),
+						failed ? 0 : filesOf.applyAsInt(output), failed);
+			}
+		}, _lanes.get(stage.getResource()));
+	}
+
+	/**
+	 * Queue wait, run time and utilization of each lane since it was created or last reset,
+	 * e.g. to size the lanes from a representative backup.
+	 */
+	public Map<BackupStage.Resource,InstrumentedExecutor.Snapshot> getLaneStatistics() {
+		final Map<BackupStage.Resource,InstrumentedExecutor.Snapshot> statistics = new EnumMap<>(BackupStage.Resource.class);
+		_lanes.forEach((resource, lane) -> statistics.put(resource, lane.snapshot()));
+		return statistics;
+	}
+
+	public void resetLaneStatistics() {
+		_lanes.values().forEach(InstrumentedExecutor::reset);
+	}
+
+	static private long charsOf(List<String> rows) {
+		long chars = 0;
+		for (String row : rows) { chars += row.length(); }
+		return chars;
+	}
+
+	//-- A file passed from stage to stage with its size, measured once by the stage that produced it
+	static private final class SizedFile {
+		private final Path _path;
+		private final long _bytes;
+
+		private SizedFile(Path path, long bytes) {
+			this._path = path;
+			this._bytes = bytes;
+		}
+
+		static private SizedFile of(Path path) {
+			try {
+				return new SizedFile(path, Files.isRegularFile(path) ? Files.size(path) : 0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		static private long bytesOf(List<SizedFile> files) {
+			long bytes = 0;
+			for (SizedFile file : files) { bytes += file._bytes; }
+			return bytes;
+		}
+
+		private Path getPath() {
+			return _path;
+		}
+
+		private long getBytes() {
+			return _bytes;
+		}
+	}
+
+	//-- Bookkeeping of a single execute() call
+	static private final class Run {
+		private final Queue<StageTiming> _timings = new ConcurrentLinkedQueue<>();
+		private final BackupProgress _progress;
+
+		private Run(BackupProgress progress) {
+			this._progress = progress;
+		}
+	}
+
+	@Override
+	public void close() {
+		_scheduler.shutdown();
+		_lanes.values().forEach(ExecutorService::shutdown);
+		if (null != _walkerPool) _walkerPool.shutdown();
+	}
+}
@@ -0,0 +1,74 @@
+package org.learn.reactive.java8;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+public class BackupExecutorBuilder {
+	private final int _cores = Runtime.getRuntime().availableProcessors();
+	private final Map<BackupStage.Resource,Integer> _concurrency = new EnumMap<>(BackupStage.Resource.class);
+	private int _maxSourcesInFlight = 4 * _cores;
+	private int _maxBatchesInFlight = 2 * _cores;
+	private DedupChunkStore _dedupStore;
+	private ParallelDirectoryWalker _walker;
+	private StageTracer _tracer;
+
+	public BackupExecutorBuilder() {
+		_concurrency.put(BackupStage.Resource.CPU, _cores);
+		_concurrency.put(BackupStage.Resource.DISK, _cores);
+		_concurrency.put(BackupStage.Resource.NETWORK, 2 * _cores);
+	}
+
+	public BackupExecutorBuilder withConcurrency(BackupStage.Resource resource, int limit) {
+		this._concurrency.put(resource, limit);
+		return this;
+	}
+
+	public BackupExecutorBuilder withMaxSourcesInFlight(int maxSourcesInFlight) {
+		this._maxSourcesInFlight = maxSourcesInFlight;
+		return this;
+	}
+
+	/**
+	 * Batches of one directory compressed or staged at a time; its walk waits for the oldest
+	 * to be staged beyond that.
+	 */
+	public BackupExecutorBuilder withMaxBatchesInFlight(int maxBatchesInFlight) {
+		this._maxBatchesInFlight = maxBatchesInFlight;
+		return this;
+	}
+
+	public BackupExecutorBuilder withDeduplication(DedupChunkStore dedupStore) {
+		this._dedupStore = dedupStore;
+		return this;
+	}
+
+	/**
+	 * Walker used to list source directories, e.g. one carrying include/exclude globs.
+	 * By default directories are walked on a pool as large as the disk lane.
+	 */
+	public BackupExecutorBuilder withDirectoryWalker(ParallelDirectoryWalker walker) {
+		this._walker = walker;
+		return this;
+	}
+
+	/**
+	 * Tracer every stage is recorded to, from submission to the lane until it finishes.
+	 */
+	public BackupExecutorBuilder withTracer(StageTracer tracer) {
+		this._tracer = tracer;
+		return this;
+	}
+
+	public BackupExecutor build() {
+		_concurrency.forEach((resource, limit) -> {
+			if (limit < 1) throw new IllegalArgumentException("Concurrency for " + resource + " must be positive");
+		});
+		if (_maxSourcesInFlight < 1) {
+			throw new IllegalArgumentException("At least one source must be allowed in flight");
+		}
+		if (_maxBatchesInFlight < 1) {
+			throw new IllegalArgumentException("At least one batch per directory must be allowed in flight");
+		}
+		return new BackupExecutor(_concurrency, _maxSourcesInFlight, _maxBatchesInFlight, _dedupStore, _walker, _tracer);
+	}
+}
@@ -4,8 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -16,6 +18,7 @@ import java.util.stream.IntStream;
 
 public class BackupOperations {
 	static final Logger logger = LoggerFactory.getLogger(BackupOperations.class);
+	static private volatile TimeUnit latencyUnit = TimeUnit.valueOf(System.getProperty("backup.latency.unit", "SECONDS"));
 
 	static public Supplier<Path> compress(Path srcFile) {
 		return () -> {
@@ -62,10 +65,66 @@ public class BackupOperations {
 		};
 	}
 
+	/**
+	 * Stores the content of a file in the chunk repository and returns the recipe which
+	 * references those chunks. Staging the recipe instead of the file keeps repeated
+	 * content out of the backup artifact.
+	 */
+	static public Function<Path,Path> deduplicate(DedupChunkStore store, Path recipeDir) {
+		return srcFile -> {
+			try {
+				return store.deduplicate(srcFile,
+						recipeDir.resolve(srcFile.getFileName() + DedupChunkStore.RECIPE_SUFFIX));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Bundles everything under the staging directory into a tar artifact that
+	 * {@link RestoreEngine} can verify and restore from, see {@link BackupArchive}.
+	 */
+	static public Function<Path,Path> archive(Path targetArtifact) {
+		return stagingDir -> {
+			try {
+				return BackupArchive.write(stagingDir, targetArtifact);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Copies a file found under {@code sourceRoot} to the staging directory, keeping its
+	 * location relative to that root so that files of the same name do not collide.
+	 */
+	static public Consumer<Path> moveToStagingDir(Path stagingDir, Path sourceRoot) {
+		return cFile -> {
+			final Path target = stagingDir
+					.resolve(sourceRoot.getFileName())
+					.resolve(sourceRoot.relativize(cFile));
+			try {
+				Files.createDirectories(target.getParent());
+				Files.copy(cFile, target, StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Unit of the simulated latencies, seconds unless {@code -Dbackup.latency.unit} says
+	 * otherwise; benchmarks shrink it to measure the rest of the path.
+	 */
+	static public void setLatencyUnit(TimeUnit unit) {
+		latencyUnit = unit;
+	}
+
 	static public void addLatency(int durationInSeconds) {
 		try
 		{
-			Thread.sleep(TimeUnit.SECONDS.toMillis(durationInSeconds));
+			latencyUnit.sleep(durationInSeconds);
 		}
 		catch (InterruptedException ignore)
 		{
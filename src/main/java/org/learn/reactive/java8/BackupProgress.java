@@ -0,0 +1,384 @@
+package org.learn.reactive.java8;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Live progress of a backup, fed by the pipeline itself as stages are submitted and
+ * finish. Counters are {@link LongAdder}s and latencies go to a {@link LatencyHistogram},
+ * so updating costs a handful of uncontended increments per stage. Sizes are reported by
+ * the stages themselves; nothing here touches the file system.
+ * <p>
+ * Callers either poll {@link #snapshot()} whenever they like, or {@link #subscribe}
+ * to be called back on the pipeline thread that finished a stage; nothing spins or
+ * sleeps on their behalf.
+ */
+public class BackupProgress {
+	static final Logger logger = LoggerFactory.getLogger(BackupProgress.class);
+	private static final String LS = System.lineSeparator();
+
+	public interface Listener {
+		/** Called on the thread that ran the stage, so it must return quickly */
+		void onStageCompleted(StageTiming timing, BackupProgress progress);
+
+		default void onBackupCompleted(BackupReport report, BackupProgress progress) { }
+	}
+
+	private final long _startedNanos = System.nanoTime();
+	private final Map<BackupStage,StageCounters> _stages = new EnumMap<>(BackupStage.class);
+	private final Map<String,SourceCounters> _sources = new ConcurrentHashMap<>();
+	private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+	private final LongAdder _plannedStages = new LongAdder();
+	private final LongAdder _completedStages = new LongAdder();
+	private volatile ToIntFunction<BackupStage.Resource> _laneDepth = resource -> 0;
+
+	public BackupProgress() {
+		for (BackupStage stage : BackupStage.values()) { _stages.put(stage, new StageCounters()); }
+	}
+
+	public BackupProgress subscribe(Listener listener) {
+		_listeners.add(listener);
+		return this;
+	}
+
+	public void unsubscribe(Listener listener) {
+		_listeners.remove(listener);
+	}
+
+	//-- Pipeline side --
+
+	void bindLaneDepth(ToIntFunction<BackupStage.Resource> laneDepth) {
+		this._laneDepth = laneDepth;
+	}
+
+	void planStages(String source, int count) {
+		_plannedStages.add(count);
+		sourceOf(source)._plannedStages.add(count);
+	}
+
+	void stageSubmitted(BackupStage stage, String source) {
+		_stages.get(stage)._submitted.increment();
+		sourceOf(source).submitted(System.nanoTime());
+	}
+
+	/**
+	 * Accounts a finished stage; {@code bytes} and {@code files} are what it processed, as
+	 * measured by the stage. A source is credited with them on {@link BackupStage#STAGE} only,
+	 * the one stage every source passes exactly once per piece of its data.
+	 */
+	void stageCompleted(StageTiming timing, long bytes, int files, boolean failed) {
+		final StageCounters stage = _stages.get(timing.getStage());
+		if (failed) {
+			bytes = 0;
+			files = 0;
+		}
+		stage._completed.increment();
+		if (failed) stage._failed.increment();
+		stage._bytes.add(bytes);
+		stage._files.add(files);
+		stage._queueWait.record(timing.getStartedNanos() - timing.getSubmittedNanos());
+		stage._service.record(timing.getFinishedNanos() - timing.getStartedNanos());
+
+		final SourceCounters source = sourceOf(timing.getSource());
+		if (timing.getStage() == BackupStage.STAGE) {
+			source._bytes.add(bytes);
+			source._files.add(files);
+		}
+		source._serviceNanos.add(timing.getFinishedNanos() - timing.getStartedNanos());
+		if (timing.getFinishedNanos() - source._finishedNanos > 0) source._finishedNanos = timing.getFinishedNanos();
+		source._lastStage = timing.getStage();
+		source._completedStages.increment();
+		_completedStages.increment();
+
+		for (Listener listener : _listeners) {
+			try {
+				listener.onStageCompleted(timing, this);
+			} catch (RuntimeException e) {
+				logger.warn("Progress listener failed", e);
+			}
+		}
+	}
+
+	void backupCompleted(BackupReport report) {
+		for (Listener listener : _listeners) {
+			try {
+				listener.onBackupCompleted(report, this);
+			} catch (RuntimeException e) {
+				logger.warn("Progress listener failed", e);
+			}
+		}
+	}
+
+	//-- Reader side --
+
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(System.nanoTime() - _startedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Remaining time extrapolated from the rate at which planned stages complete, or -1
+	 * before anything has completed. Directories add stages as they are walked, so the
+	 * estimate only settles once the walks are done.
+	 */
+	public long getEta(TimeUnit unit) {
+		final long completed = _completedStages.sum();
+		if (completed == 0) return -1;
+		final long remaining = Math.max(0, _plannedStages.sum() - completed);
+		return extrapolate(System.nanoTime() - _startedNanos, completed, remaining, unit);
+	}
+
+	public StageProgress getStage(BackupStage stage) {
+		return new StageProgress(stage, _stages.get(stage), _laneDepth.applyAsInt(stage.getResource()),
+				System.nanoTime() - _startedNanos);
+	}
+
+	public Map<String,SourceProgress> getSources() {
+		final Map<String,SourceProgress> sources = new ConcurrentHashMap<>();
+		final long now = System.nanoTime();
+		_sources.forEach((name, counters) -> {
+			//-- Sources only planned so far have not started
+			if (counters._started) sources.put(name, new SourceProgress(name, counters, now));
+		});
+		return sources;
+	}
+
+	/**
+	 * Point-in-time view of every stage, for logging or dashboards.
+	 */
+	public String snapshot() {
+		final StringBuilder snapshot = new StringBuilder(String.format(
+				"Backup progress after %d ms: %d of %d stage(s) done, ETA %s",
+				getElapsed(TimeUnit.MILLISECONDS),
+				_completedStages.sum(),
+				_plannedStages.sum(),
+				getEta(TimeUnit.MILLISECONDS) < 0 ? "unknown" : getEta(TimeUnit.MILLISECONDS) + " ms"));
+		for (BackupStage stage : BackupStage.values()) {
+			final StageProgress progress = getStage(stage);
+			if (progress.getSubmitted() == 0) continue;
+			snapshot.append(LS).append(progress);
+		}
+		return snapshot.toString();
+	}
+
+	private SourceCounters sourceOf(String source) {
+		return _sources.computeIfAbsent(source, name -> new SourceCounters());
+	}
+
+	static private long extrapolate(long elapsedNanos, long completed, long remaining, TimeUnit unit) {
+		return unit.convert((long) (elapsedNanos * ((double) remaining / completed)), TimeUnit.NANOSECONDS);
+	}
+
+	static private final class StageCounters {
+		private final LongAdder _submitted = new LongAdder();
+		private final LongAdder _completed = new LongAdder();
+		private final LongAdder _failed = new LongAdder();
+		private final LongAdder _bytes = new LongAdder();
+		private final LongAdder _files = new LongAdder();
+		private final LatencyHistogram _queueWait = new LatencyHistogram();
+		private final LatencyHistogram _service = new LatencyHistogram();
+	}
+
+	static private final class SourceCounters {
+		private final LongAdder _bytes = new LongAdder();
+		private final LongAdder _files = new LongAdder();
+		private final LongAdder _plannedStages = new LongAdder();
+		private final LongAdder _completedStages = new LongAdder();
+		private final LongAdder _serviceNanos = new LongAdder();
+		private volatile boolean _started;
+		private volatile long _startedNanos;
+		private volatile long _finishedNanos;
+		private volatile BackupStage _lastStage;
+
+		private void submitted(long nanos) {
+			if (_started) return;
+			synchronized (this) {
+				if (_started) return;
+				_startedNanos = nanos;
+				_finishedNanos = nanos;
+				_started = true;
+			}
+		}
+	}
+
+	/**
+	 * Counters of one stage at the time it was read.
+	 */
+	static public final class StageProgress {
+		private final BackupStage _stage;
+		private final long _submitted;
+		private final long _completed;
+		private final long _failed;
+		private final long _bytes;
+		private final long _files;
+		private final int _laneDepth;
+		private final long _elapsedNanos;
+		private final LatencyHistogram _service;
+		private final LatencyHistogram _queueWait;
+
+		private StageProgress(BackupStage stage, StageCounters counters, int laneDepth, long elapsedNanos) {
+			this._stage = stage;
+			this._completed = counters._completed.sum();
+			this._submitted = Math.max(counters._submitted.sum(), _completed);
+			this._failed = counters._failed.sum();
+			this._bytes = counters._bytes.sum();
+			this._files = counters._files.sum();
+			this._laneDepth = laneDepth;
+			this._elapsedNanos = elapsedNanos;
+			this._service = counters._service;
+			this._queueWait = counters._queueWait;
+		}
+
+		public BackupStage getStage() {
+			return _stage;
+		}
+
+		public long getSubmitted() {
+			return _submitted;
+		}
+
+		public long getCompleted() {
+			return _completed;
+		}
+
+		public long getFailed() {
+			return _failed;
+		}
+
+		public long getBytes() {
+			return _bytes;
+		}
+
+		public long getFiles() {
+			return _files;
+		}
+
+		/** Stages submitted but not finished yet, queued or running */
+		public long getPending() {
+			return _submitted - _completed;
+		}
+
+		/** Tasks waiting in the queue of the lane this stage runs on, shared with other stages of the same resource */
+		public int getLaneDepth() {
+			return _laneDepth;
+		}
+
+		public double getBytesPerSecond() {
+			return _elapsedNanos == 0 ? 0 : _bytes / (_elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+
+		public double getFilesPerSecond() {
+			return _elapsedNanos == 0 ? 0 : _files / (_elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+
+		public double getLatencyAtPercentile(double percentile, TimeUnit unit) {
+			return _service.getValueAtPercentile(percentile, unit);
+		}
+
+		public double getQueueWaitAtPercentile(double percentile, TimeUnit unit) {
+			return _queueWait.getValueAtPercentile(percentile, unit);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-8s %d/%d done (%d failed), %d pending, lane depth %d, %d files, %d bytes, "
+							+ "%.1f KB/s, latency p50 %.1f ms p99 %.1f ms, queue wait p99 %.1f ms",
+					_stage, _completed, _submitted, _failed, getPending(), _laneDepth, _files, _bytes,
+					getBytesPerSecond() / 1024,
+					getLatencyAtPercentile(50, TimeUnit.MILLISECONDS),
+					getLatencyAtPercentile(99, TimeUnit.MILLISECONDS),
+					getQueueWaitAtPercentile(99, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * What has been processed for one table, file or directory so far, timed from the
+	 * submission of its first stage.
+	 */
+	static public final class SourceProgress {
+		private final String _source;
+		private final long _bytes;
+		private final long _files;
+		private final long _plannedStages;
+		private final long _completedStages;
+		private final long _elapsedNanos;
+		private final long _serviceNanos;
+		private final BackupStage _lastStage;
+
+		private SourceProgress(String source, SourceCounters counters, long nowNanos) {
+			this._source = source;
+			this._bytes = counters._bytes.sum();
+			this._files = counters._files.sum();
+			this._completedStages = counters._completedStages.sum();
+			this._plannedStages = Math.max(counters._plannedStages.sum(), _completedStages);
+			this._serviceNanos = counters._serviceNanos.sum();
+			this._lastStage = counters._lastStage;
+			final long until = _completedStages == _plannedStages ? counters._finishedNanos : nowNanos;
+			this._elapsedNanos = Math.max(0, until - counters._startedNanos);
+		}
+
+		public String getSource() {
+			return _source;
+		}
+
+		/** Bytes staged, i.e. written to the staging directory for the artifact */
+		public long getBytes() {
+			return _bytes;
+		}
+
+		public long getFiles() {
+			return _files;
+		}
+
+		public BackupStage getLastStage() {
+			return _lastStage;
+		}
+
+		/**
+		 * Whether every stage planned so far has finished; a directory plans more stages as
+		 * its walk finds batches, so it may look done between two of them.
+		 */
+		public boolean isDone() {
+			return _completedStages == _plannedStages;
+		}
+
+		/** Time from the first stage submitted until the last one finished, or until now while running */
+		public long getLatency(TimeUnit unit) {
+			return unit.convert(_elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/** Time spent running stages, without waiting in lane queues */
+		public long getServiceTime(TimeUnit unit) {
+			return unit.convert(_serviceNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public double getBytesPerSecond() {
+			return _elapsedNanos == 0 ? 0 : _bytes / (_elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+
+		/**
+		 * Remaining time of this source extrapolated from the rate at which its stages
+		 * complete, 0 once done and -1 before any has completed.
+		 */
+		public long getEta(TimeUnit unit) {
+			if (_completedStages == 0) return -1;
+			return extrapolate(_elapsedNanos, _completedStages, _plannedStages - _completedStages, unit);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d/%d stage(s) done, last %s, %d files, %d bytes, %.1f KB/s, latency %d ms, ETA %s",
+					_source, _completedStages, _plannedStages, _lastStage, _files, _bytes, getBytesPerSecond() / 1024,
+					getLatency(TimeUnit.MILLISECONDS),
+					getEta(TimeUnit.MILLISECONDS) < 0 ? "unknown" : getEta(TimeUnit.MILLISECONDS) + " ms");
+		}
+	}
+}
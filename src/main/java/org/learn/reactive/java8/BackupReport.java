@@ -0,0 +1,68 @@
+package org.learn.reactive.java8;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of a {@link BackupExecutor} run: the artifact and the timing of every stage.
+ */
+public class BackupReport {
+	private static final String LS = System.lineSeparator();
+
+	private final Path _artifact;
+	private final List<StageTiming> _timings;
+	private final long _elapsedNanos;
+
+	public BackupReport(Path artifact, List<StageTiming> timings, long elapsedNanos) {
+		this._artifact = artifact;
+		this._timings = Collections.unmodifiableList(timings);
+		this._elapsedNanos = elapsedNanos;
+	}
+
+	public Path getArtifact() {
+		return _artifact;
+	}
+
+	public List<StageTiming> getTimings() {
+		return _timings;
+	}
+
+	public List<StageTiming> getTimings(BackupStage stage) {
+		return _timings.stream()
+				.filter(timing -> timing.getStage() == stage)
+				.collect(Collectors.toList());
+	}
+
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(_elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * One line per stage with run count, mean/max service time and mean queue wait in ms.
+	 */
+	public String summary() {
+		final StringBuilder summary = new StringBuilder("Backup of ")
+				.append(_artifact)
+				.append(" took ")
+				.append(getElapsed(TimeUnit.MILLISECONDS))
+				.append(" ms");
+		for (BackupStage stage : BackupStage.values()) {
+			final List<StageTiming> timings = getTimings(stage);
+			if (timings.isEmpty()) continue;
+			final LongSummaryStatistics service = timings.stream()
+					.mapToLong(timing -> timing.getDuration(TimeUnit.MILLISECONDS))
+					.summaryStatistics();
+			final double meanWait = timings.stream()
+					.mapToLong(timing -> timing.getQueueWait(TimeUnit.MILLISECONDS))
+					.average()
+					.orElse(0);
+			summary.append(LS).append(String.format("%-8s x%-4d service avg %.1f ms, max %d ms, queue wait avg %.1f ms",
+					stage, timings.size(), service.getAverage(), service.getMax(), meanWait));
+		}
+		return summary.toString();
+	}
+}
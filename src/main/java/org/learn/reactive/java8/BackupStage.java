@@ -0,0 +1,28 @@
+package org.learn.reactive.java8;
+
+/**
+ * Stages a backup source goes through, each bound to the resource it mostly consumes.
+ */
+public enum BackupStage {
+	EXPORT(Resource.NETWORK),
+	SAVE(Resource.DISK),
+	COMPRESS(Resource.CPU),
+	STAGE(Resource.DISK),
+	ARCHIVE(Resource.DISK);
+
+	public enum Resource {
+		DISK,
+		NETWORK,
+		CPU
+	}
+
+	private final Resource _resource;
+
+	BackupStage(Resource resource) {
+		this._resource = resource;
+	}
+
+	public Resource getResource() {
+		return _resource;
+	}
+}
@@ -0,0 +1,115 @@
+package org.learn.reactive.java8;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Shopping carts bucketed by the day they were created, with the buckets kept sorted by
+ * epoch day. A range query walks only the buckets inside the range and never looks at the
+ * creation date of an individual cart.
+ * <p>
+ * Carts can be added and removed while other threads query; a query sees every cart
+ * added before it started and may or may not see ones added while it runs. A bucket that
+ * empties out stays in place, which costs one empty set per calendar day.
+ */
+public class CartDateIndex {
+	private final ConcurrentSkipListMap<Long,Set<ShoppingCart>> _buckets = new ConcurrentSkipListMap<>();
+	private final LongAdder _size = new LongAdder();
+
+	static public CartDateIndex of(Stream<ShoppingCart> carts) {
+		final CartDateIndex index = new CartDateIndex();
+		carts.forEach(index::add);
+		return index;
+	}
+
+	public CartDateIndex add(ShoppingCart cart) {
+		if (_buckets.computeIfAbsent(cart.getCreationEpochDay(), day -> ConcurrentHashMap.newKeySet()).add(cart)) {
+			_size.increment();
+		}
+		return this;
+	}
+
+	public boolean remove(ShoppingCart cart) {
+		final Set<ShoppingCart> bucket = _buckets.get(cart.getCreationEpochDay());
+		if (null == bucket || !bucket.remove(cart)) return false;
+		_size.decrement();
+		return true;
+	}
+
+	public long size() {
+		return _size.sum();
+	}
+
+	public int getBucketCount() {
+		return _buckets.size();
+	}
+
+	/**
+	 * Carts created strictly after {@code date}.
+	 */
+	public Stream<ShoppingCart> createdAfter(LocalDate date) {
+		return flatten(_buckets.tailMap(date.toEpochDay(), false));
+	}
+
+	/**
+	 * Carts created strictly after {@code after} and strictly before {@code before}.
+	 */
+	public Stream<ShoppingCart> createdBetween(LocalDate after, LocalDate before) {
+		if (!before.isAfter(after)) return Stream.empty();
+		return flatten(_buckets.subMap(after.toEpochDay(), false, before.toEpochDay(), false));
+	}
+
+	public long countCreatedBetween(LocalDate after, LocalDate before) {
+		if (!before.isAfter(after)) return 0;
+		long count = 0;
+		for (Set<ShoppingCart> bucket : _buckets.subMap(after.toEpochDay(), false, before.toEpochDay(), false).values()) {
+			count += bucket.size();
+		}
+		return count;
+	}
+
+	static private Stream<ShoppingCart> flatten(NavigableMap<Long,Set<ShoppingCart>> buckets) {
+		return buckets.values().stream().flatMap(Set::stream);
+	}
+
+	//-- Compares a full scan with an index range query over the same carts
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final LocalDate after = LocalDate.of(2017, 3, 31);
+		final LocalDate before = LocalDate.of(2017, 5, 30);
+		//-- One cart per customer, spread over every day of 2017 rather than the first of each month
+		final SplittableRandom random = new SplittableRandom(7);
+		final List<ShoppingCart> carts = OrderHelper.createCarts(count)
+				.map(cart -> new ShoppingCart(cart.getOrderedBy(), cart.getItems(), LocalDateTime.of(
+						LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), cart.getCreationDateTime().toLocalTime())))
+				.collect(Collectors.toList());
+		final CartDateIndex index = CartDateIndex.of(carts.stream());
+
+		for (int round = 0; round < 5; round++) {
+			long started = System.nanoTime();
+			final long scanned = carts.stream()
+					.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(after)
+							&& cart.getCreationDateTime().toLocalDate().isBefore(before))
+					.count();
+			final long scanNanos = System.nanoTime() - started;
+
+			started = System.nanoTime();
+			final long indexed = index.createdBetween(after, before).count();
+			final long indexNanos = System.nanoTime() - started;
+
+			System.out.printf("Round %d: %d carts in %d buckets, scan %d matches in %d ms, index %d matches in %d ms %n",
+					round, count, index.getBucketCount(), scanned, TimeUnit.NANOSECONDS.toMillis(scanNanos),
+					indexed, TimeUnit.NANOSECONDS.toMillis(indexNanos));
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.learn.reactive.java8;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Something that happened to a shopping cart. Updates carry only the line items that
+ * changed, so consumers can adjust what they know about the cart without rereading it.
+ */
+public class CartEvent {
+	public enum Type {CREATED, UPDATED, CLOSED}
+
+	private final Type _type;
+	private final ShoppingCart _cart;
+	private final List<LineItem> _added;
+	private final List<LineItem> _removed;
+
+	private CartEvent(Type type, ShoppingCart cart, List<LineItem> added, List<LineItem> removed) {
+		this._type = type;
+		this._cart = cart;
+		this._added = added;
+		this._removed = removed;
+	}
+
+	static public CartEvent created(ShoppingCart cart) {
+		return new CartEvent(Type.CREATED, cart, cart.getItems(), Collections.emptyList());
+	}
+
+	static public CartEvent updated(ShoppingCart cart, List<LineItem> added, List<LineItem> removed) {
+		return new CartEvent(Type.UPDATED, cart, added, removed);
+	}
+
+	static public CartEvent closed(ShoppingCart cart) {
+		return new CartEvent(Type.CLOSED, cart, Collections.emptyList(), Collections.emptyList());
+	}
+
+	public Type getType() {
+		return _type;
+	}
+
+	public ShoppingCart getCart() {
+		return _cart;
+	}
+
+	/** Items in the cart when it was created, or put into it by this update */
+	public List<LineItem> getAdded() {
+		return _added;
+	}
+
+	/** Items taken out of the cart by this update */
+	public List<LineItem> getRemoved() {
+		return _removed;
+	}
+}
@@ -0,0 +1,317 @@
+package org.learn.reactive.java8;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Shopping carts laid out column by column: the cart id as two {@code long}s, the creation
+ * date as an epoch day, the cart total as fixed-point {@code long} cents computed once on
+ * load, and the customer as an ordinal into a side table.
+ * <p>
+ * The filters are plain loops over those arrays producing a {@link CartSelection} of
+ * matching rows, so scanning millions of carts touches a few contiguous arrays instead of
+ * chasing {@link ShoppingCart} and {@link LineItem} objects and re-summing every cart.
+ * <p>
+ * Loading is single threaded; once loaded, any number of threads may filter concurrently.
+ */
+public class CartStore {
+	static private final int INITIAL_CAPACITY = 1024;
+
+	private long[] _idMostSigBits;
+	private long[] _idLeastSigBits;
+	private int[] _createdOnEpochDay;
+	private long[] _totalCents;
+	private int[] _customerOrdinal;
+	private int _size;
+
+	private final List<Customer> _customers = new ArrayList<>();
+	private final Map<Customer,Integer> _ordinalByCustomer = new HashMap<>();
+
+	public CartStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public CartStore(int capacity) {
+		capacity = Math.max(1, capacity);
+		this._idMostSigBits = new long[capacity];
+		this._idLeastSigBits = new long[capacity];
+		this._createdOnEpochDay = new int[capacity];
+		this._totalCents = new long[capacity];
+		this._customerOrdinal = new int[capacity];
+	}
+
+	static public CartStore of(Stream<ShoppingCart> carts) {
+		final CartStore store = new CartStore();
+		carts.forEachOrdered(store::add);
+		return store;
+	}
+
+	/**
+	 * Appends a cart and returns its row.
+	 */
+	public int add(ShoppingCart cart) {
+		if (_size == _totalCents.length) grow();
+		final int row = _size;
+		_idMostSigBits[row] = cart.getId().getMostSignificantBits();
+		_idLeastSigBits[row] = cart.getId().getLeastSignificantBits();
+		_createdOnEpochDay[row] = Math.toIntExact(cart.getCreationEpochDay());
+		_totalCents[row] = totalCents(cart);
+		_customerOrdinal[row] = ordinalOf(cart.getOrderedBy());
+		_size++;
+		return row;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public UUID getCartId(int row) {
+		return new UUID(_idMostSigBits[checkRow(row)], _idLeastSigBits[row]);
+	}
+
+	public long getCreationEpochDay(int row) {
+		return _createdOnEpochDay[checkRow(row)];
+	}
+
+	public long getTotalCents(int row) {
+		return _totalCents[checkRow(row)];
+	}
+
+	public Customer getCustomer(int row) {
+		return _customers.get(_customerOrdinal[checkRow(row)]);
+	}
+
+	public int getCustomerCount() {
+		return _customers.size();
+	}
+
+	public CartSelection all() {
+		final int[] rows = new int[_size];
+		for (int row = 0; row < rows.length; row++) { rows[row] = row; }
+		return new CartSelection(this, rows, rows.length);
+	}
+
+	/**
+	 * Carts created strictly after {@code date}, the columnar form of
+	 * {@link FilterOperations#filterCartsByDate}.
+	 */
+	public CartSelection createdAfter(LocalDate date) {
+		final long day = date.toEpochDay();
+		final int size = _size;
+		final int[] createdOn = _createdOnEpochDay;
+		final int[] rows = new int[size];
+		int matched = 0;
+		for (int row = 0; row < size; row++) {
+			if (createdOn[row] > day) rows[matched++] = row;
+		}
+		return new CartSelection(this, rows, matched);
+	}
+
+	public CartSelection createdAfter(CartSelection selection, LocalDate date) {
+		final long day = date.toEpochDay();
+		final int[] createdOn = _createdOnEpochDay;
+		final int[] rows = new int[selection.size()];
+		int matched = 0;
+		for (int i = 0; i < selection.size(); i++) {
+			final int row = selection._rows[i];
+			if (createdOn[row] > day) rows[matched++] = row;
+		}
+		return new CartSelection(this, rows, matched);
+	}
+
+	/**
+	 * Carts whose total is at least {@code value}, the columnar form of
+	 * {@link FilterOperations#filterCustomersByPurchases} before mapping to customers.
+	 */
+	public CartSelection purchasesAtLeast(CartSelection selection, double value) {
+		final long cents = toCents(value);
+		final long[] totals = _totalCents;
+		final int[] rows = new int[selection.size()];
+		int matched = 0;
+		for (int i = 0; i < selection.size(); i++) {
+			final int row = selection._rows[i];
+			if (totals[row] >= cents) rows[matched++] = row;
+		}
+		return new CartSelection(this, rows, matched);
+	}
+
+	/**
+	 * Customers of the selected carts, one per cart as the object filters emit them.
+	 */
+	public Stream<Customer> customersOf(CartSelection selection) {
+		final int[] ordinals = _customerOrdinal;
+		final int[] rows = selection._rows;
+		return IntStream.range(0, selection.size()).mapToObj(i -> _customers.get(ordinals[rows[i]]));
+	}
+
+	/**
+	 * Rows present when called, halving on every split so parallel scans get even shares.
+	 */
+	public Spliterator.OfInt rowSpliterator() {
+		return new RowSpliterator(0, _size);
+	}
+
+	boolean isCreatedAfter(int row, long epochDay) {
+		return _createdOnEpochDay[row] > epochDay;
+	}
+
+	boolean hasTotalAtLeast(int row, long cents) {
+		return _totalCents[row] >= cents;
+	}
+
+	int getCustomerOrdinal(int row) {
+		return _customerOrdinal[row];
+	}
+
+	Customer getCustomerByOrdinal(int ordinal) {
+		return _customers.get(ordinal);
+	}
+
+	CartSelection selectionOf(int[] rows, int size) {
+		return new CartSelection(this, rows, size);
+	}
+
+	static long toCents(double value) {
+		return Math.round(value * 100);
+	}
+
+	static private long totalCents(ShoppingCart cart) {
+		long cents = 0;
+		for (LineItem item : cart.getItems()) { cents += toCents(item.getValue()); }
+		return cents;
+	}
+
+	private int ordinalOf(Customer customer) {
+		return _ordinalByCustomer.computeIfAbsent(customer, c -> {
+			_customers.add(c);
+			return _customers.size() - 1;
+		});
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= _size) throw new IndexOutOfBoundsException("Row " + row + ", size " + _size);
+		return row;
+	}
+
+	private void grow() {
+		final int capacity = _totalCents.length + (_totalCents.length >> 1) + 1;
+		_idMostSigBits = Arrays.copyOf(_idMostSigBits, capacity);
+		_idLeastSigBits = Arrays.copyOf(_idLeastSigBits, capacity);
+		_createdOnEpochDay = Arrays.copyOf(_createdOnEpochDay, capacity);
+		_totalCents = Arrays.copyOf(_totalCents, capacity);
+		_customerOrdinal = Arrays.copyOf(_customerOrdinal, capacity);
+	}
+
+	static private final class RowSpliterator implements Spliterator.OfInt {
+		private int _origin;
+		private final int _fence;
+
+		private RowSpliterator(int origin, int fence) {
+			this._origin = origin;
+			this._fence = fence;
+		}
+
+		@Override
+		public OfInt trySplit() {
+			final int mid = (_origin + _fence) >>> 1;
+			if (mid <= _origin) return null;
+			final RowSpliterator prefix = new RowSpliterator(_origin, mid);
+			_origin = mid;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (_origin >= _fence) return false;
+			action.accept(_origin++);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			final int fence = _fence;
+			for (int row = _origin; row < fence; row++) { action.accept(row); }
+			_origin = fence;
+		}
+
+		@Override
+		public long estimateSize() {
+			return _fence - _origin;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+		}
+	}
+
+	/**
+	 * Rows of a {@link CartStore} that passed a filter, in ascending order.
+	 */
+	static public final class CartSelection {
+		private final CartStore _store;
+		private final int[] _rows;
+		private final int _size;
+
+		private CartSelection(CartStore store, int[] rows, int size) {
+			this._store = store;
+			this._rows = rows;
+			this._size = size;
+		}
+
+		public CartStore getStore() {
+			return _store;
+		}
+
+		public int size() {
+			return _size;
+		}
+
+		public int getRow(int index) {
+			if (index < 0 || index >= _size) throw new IndexOutOfBoundsException("Index " + index + ", size " + _size);
+			return _rows[index];
+		}
+
+		public IntStream rows() {
+			return Arrays.stream(_rows, 0, _size);
+		}
+	}
+
+	//-- Compares the object stream filters against the columnar ones on the same carts
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final LocalDate after = LocalDate.of(2017, 3, 31);
+		final double value = 1_000.00;
+		final List<ShoppingCart> carts = OrderHelper.createCarts(count).collect(Collectors.toList());
+		final CartStore store = CartStore.of(carts.stream());
+
+		for (int round = 0; round < 5; round++) {
+			long started = System.nanoTime();
+			final long objects = carts.stream()
+					.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(after))
+					.filter(cart -> cart.getItems().stream().mapToDouble(LineItem::getValue).sum() >= value)
+					.map(ShoppingCart::getOrderedBy)
+					.count();
+			final long objectNanos = System.nanoTime() - started;
+
+			started = System.nanoTime();
+			final long columns = store.customersOf(store.purchasesAtLeast(store.createdAfter(after), value)).count();
+			final long columnNanos = System.nanoTime() - started;
+
+			System.out.printf("Round %d: %d carts, objects %d matches in %d ms, columns %d matches in %d ms %n",
+					round, count, objects, TimeUnit.NANOSECONDS.toMillis(objectNanos),
+					columns, TimeUnit.NANOSECONDS.toMillis(columnNanos));
+		}
+	}
+}
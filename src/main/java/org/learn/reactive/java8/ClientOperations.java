@@ -19,12 +19,15 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class ClientOperations {
 	private static final Logger logger = LoggerFactory.getLogger(ClientOperations.class);
+	private static final EventJournal journal = EventJournal.getDefault();
+	private static final AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getDefault();
 	public static final String TOP_STORIES_FROM_HN = "https://hacker-news.firebaseio.com/v0/topstories.json?print=pretty";
 	public static final String FIRST_TOP_STORY_HN = "https://hacker-news.firebaseio.com/v0/item/%s.json?print=pretty";
 	public static final String LATEST_FROM_DZONE = "https://dzone.com/java-jdk-development-tutorials-tools-news";
@@ -38,6 +41,9 @@ public class ClientOperations {
 
 		Optional<String> result = Optional.empty();
 
+		final AdaptiveConcurrencyLimiter.Permit permit = acquirePermit(endpoint);
+		if (null == permit) return result;
+
 		Client client = ClientBuilder.newClient();
 		WebTarget webTarget = client.target(endpoint);
 		try
@@ -47,9 +53,11 @@ public class ClientOperations {
 					.request(MediaType.TEXT_PLAIN)
 					.get();
 			result = Optional.of(response.readEntity(String.class));
+			permit.release(response.getStatus() < 500);
 		}
 		catch (Exception cause)
 		{
+			permit.release(false);
 			logger.error("Could not reach endpoint {}",endpoint,cause.getCause());
 			cause.printStackTrace();
 		}
@@ -62,12 +70,24 @@ public class ClientOperations {
 
 	static public Optional<String> fetchResultAsync(String endpoint)
 	{
+		final AdaptiveConcurrencyLimiter.Permit permit = acquirePermit(endpoint);
+		if (null == permit) return Optional.empty();
+
 		final AsyncHttpClient asyncHttpClient = new DefaultAsyncHttpClient();
-		final CompletableFuture<org.asynchttpclient.Response> futureResponse =
-				asyncHttpClient.prepareGet(endpoint)
-						.execute()
-						.toCompletableFuture()
-						.exceptionally(logAndReturnNothing(endpoint));
+		final CompletableFuture<org.asynchttpclient.Response> futureResponse;
+		try
+		{
+			futureResponse = asyncHttpClient.prepareGet(endpoint)
+					.execute()
+					.toCompletableFuture()
+					.exceptionally(logAndReturnNothing(endpoint))
+					.whenComplete((response, error) -> permit.release(null != response && response.getStatusCode() < 500));
+		}
+		catch (RuntimeException cause)
+		{
+			permit.release(false);
+			throw cause;
+		}
 
 
 		try
@@ -82,6 +102,20 @@ public class ClientOperations {
 		}
 	}
 
+	//-- Calls share the limit of their host, e.g. one per story id; null when the call is shed
+	static private AdaptiveConcurrencyLimiter.Permit acquirePermit(String endpoint)
+	{
+		try
+		{
+			return limiter.acquire(AdaptiveConcurrencyLimiter.hostOf(endpoint));
+		}
+		catch (RejectedExecutionException shed)
+		{
+			logger.warn("Call to {} was shed by the concurrency limiter",endpoint);
+			return null;
+		}
+	}
+
 	static private Function<org.asynchttpclient.Response,Optional<String>> extractContentFromResponse(String endpoint)
 	{
 		return response -> {
@@ -119,10 +153,8 @@ public class ClientOperations {
 		return parseHNOutput(response,topN);
 	}
 
-	private static List<String> parseDzoneOutput(String result, int topN) {
-		System.out.printf("%s -- parsing Dzone response to return top %d result(s) %n",
-				Thread.currentThread().getName(),
-				topN);
+	static List<String> parseDzoneOutput(String result, int topN) {
+		journal.log(EventJournal.Type.DZONE_PARSED, topN);
 		final Set<String> links = Arrays.asList(result.split(System.lineSeparator()))
 				.stream()
 				.filter(line -> line.contains("/articles"))
@@ -135,27 +167,33 @@ public class ClientOperations {
 	}
 
 	private static List<String> parseHNOutput(String response, int topN) {
-		System.out.printf("%s -- parsing HN response to return top %d result(s) %n",
-				Thread.currentThread().getName(),
-				topN);
+		journal.log(EventJournal.Type.HN_PARSED, topN);
+		final Set<String> links = parseStoryIds(response)
+				.stream()
+				.parallel()
+				.map(id -> fetchResultAsync(String.format(FIRST_TOP_STORY_HN,id)))
+				.map(or -> parseStoryUrl(or.get()))
+				.filter(ol -> ol.isPresent())
+				.map(ol -> ol.get())
+				.collect(Collectors.toSet());
+		return links.stream().limit(topN).collect(Collectors.toList());
+	}
+
+	//-- The HN parsing steps that need no network, e.g. for benchmarks
+	static List<String> parseStoryIds(String response) {
 		final String result = response
 				.replaceAll("\\[","")
 				.replaceAll("]","")
 				.replaceAll(", ",",")
 				.trim();
+		return Arrays.asList(result.split(","));
+	}
 
-		final Set<String> links = Arrays.asList(result.split(","))
+	static Optional<String> parseStoryUrl(String story) {
+		return Arrays.asList(story.split(System.lineSeparator()))
 				.stream()
-				.parallel()
-				.map(id -> fetchResultAsync(String.format(FIRST_TOP_STORY_HN,id)))
-				.map(or -> Arrays.asList(
-						or.get().split(System.lineSeparator()))
-						.stream()
-						.filter(line -> line.contains("url")).findFirst())
-				.filter(ol -> ol.isPresent())
-				.map(ol -> ol.get().split(": ")[1].replaceAll("\"",""))
-				.collect(Collectors.toSet());
-		return links.stream().limit(topN).collect(Collectors.toList());
+				.filter(line -> line.contains("url")).findFirst()
+				.map(line -> line.split(": ")[1].replaceAll("\"",""));
 	}
 
 	public static Optional<List<String>> readFromDiskBlocking(Path filePath)
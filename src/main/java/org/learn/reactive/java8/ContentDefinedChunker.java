@@ -0,0 +1,82 @@
+package org.learn.reactive.java8;
+
+import java.util.SplittableRandom;
+
+/**
+ * Splits a byte sequence at content-defined boundaries using a gear rolling hash
+ * (FastCDC style normalized chunking). Since a cut point depends only on the bytes
+ * preceding it, an insertion at the start of a file shifts the first chunk only and
+ * the remaining chunks keep their digests.
+ */
+public class ContentDefinedChunker {
+	static public final int DEFAULT_MIN_SIZE = 2 * 1024;
+	static public final int DEFAULT_AVG_SIZE = 8 * 1024;
+	static public final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+	//-- Fixed seed so that the same content is cut at the same offsets across runs
+	static private final long[] GEAR = new long[256];
+	static {
+		final SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	private final int _minSize;
+	private final int _avgSize;
+	private final int _maxSize;
+	private final long _strictMask;
+	private final long _looseMask;
+
+	public ContentDefinedChunker() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+		if (minSize <= 0 || minSize > avgSize || avgSize > maxSize || Integer.bitCount(avgSize) != 1) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid chunk sizes min=%d avg=%d max=%d (avg must be a power of two)",
+					minSize, avgSize, maxSize));
+		}
+		this._minSize = minSize;
+		this._avgSize = avgSize;
+		this._maxSize = maxSize;
+		final int bits = Integer.numberOfTrailingZeros(avgSize);
+		//-- The high bits of the gear hash carry the widest window of input bytes
+		this._strictMask = topBits(bits + 1);
+		this._looseMask = topBits(bits - 1);
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * Returns the length of the chunk starting at {@code offset}, never more than
+	 * {@code length}. A chunk shorter than the minimum size is only returned at the
+	 * end of the input.
+	 */
+	public int nextChunkLength(byte[] data, int offset, int length) {
+		if (length <= _minSize) return length;
+
+		final int limit = Math.min(length, _maxSize);
+		final int normal = Math.min(limit, _avgSize);
+		long hash = 0;
+		int i = _minSize;
+		// Below the average size use a stricter mask so that tiny chunks are rare...
+		for (; i < normal; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+			if ((hash & _strictMask) == 0) return i + 1;
+		}
+		// ...and a looser one beyond it so that chunks rarely reach the maximum size
+		for (; i < limit; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+			if ((hash & _looseMask) == 0) return i + 1;
+		}
+		return limit;
+	}
+
+	static private long topBits(int count) {
+		return count <= 0 ? 0L : -1L << (64 - count);
+	}
+}
@@ -1,17 +1,49 @@
 package org.learn.reactive.java8;
 
+import java.util.Objects;
+
+/**
+ * A customer as known to a {@link CustomerDictionary}, which hands out the id and makes
+ * sure there is one instance per customer. Ids are dense and only unique within their
+ * dictionary: two customers of the same dictionary are equal when their ids are, any other
+ * two, e.g. of different dictionaries or read back from a record file, when their names,
+ * address and contact number are.
+ */
 public class Customer {
+	private final CustomerDictionary _dictionary;
+	private final long _id;
 	private final String _firstName;
 	private final String _lastName;
 	private final String _shippingAddress;
 	private final String _contactNumber;
+	private final int _hash;
 
+	/**
+	 * A customer outside any dictionary, told apart from others by its names, address and
+	 * contact number; its id is -1.
+	 */
 	public Customer(String firstName, String lastName,
 	                String shippingAddress, String contactNumber) {
+		this(null, -1, firstName, lastName, shippingAddress, contactNumber);
+	}
+
+	/**
+	 * @param dictionary the dictionary that handed out {@code id}, null for customers outside any
+	 */
+	Customer(CustomerDictionary dictionary, long id, String firstName, String lastName,
+	         String shippingAddress, String contactNumber) {
+		this._dictionary = dictionary;
+		this._id = id;
 		this._firstName = firstName;
 		this._lastName = lastName;
 		this._shippingAddress = shippingAddress;
 		this._contactNumber = contactNumber;
+		this._hash = Objects.hash(firstName, lastName, shippingAddress, contactNumber);
+	}
+
+	/** Id handed out by the customer's dictionary, -1 for one built outside any */
+	public long getId() {
+		return _id;
 	}
 
 	public String getFirstName() {
@@ -29,4 +61,29 @@ public class Customer {
 	public String getContactNumber() {
 		return _contactNumber;
 	}
+
+	/** Whether {@link #getId()} was handed out by {@code dictionary} */
+	public boolean isInternedIn(CustomerDictionary dictionary) {
+		return null != dictionary && _dictionary == dictionary;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		Customer customer = (Customer) o;
+
+		if (null != _dictionary && _dictionary == customer._dictionary) return _id == customer._id;
+		return _hash == customer._hash
+				&& Objects.equals(_firstName, customer._firstName)
+				&& Objects.equals(_lastName, customer._lastName)
+				&& Objects.equals(_shippingAddress, customer._shippingAddress)
+				&& Objects.equals(_contactNumber, customer._contactNumber);
+	}
+
+	@Override
+	public int hashCode() {
+		return _hash;
+	}
 }
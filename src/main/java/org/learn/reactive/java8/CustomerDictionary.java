@@ -0,0 +1,111 @@
+package org.learn.reactive.java8;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One {@link Customer} per name, address and contact number, each with a dense numeric id
+ * assigned on first sight. The strings of interned customers are interned too, so the
+ * thousands of customers sharing an address or a surname share one copy of it.
+ * <p>
+ * Safe for concurrent use. Interning a known customer is a hash lookup; a new customer
+ * is created exactly once however many threads ask for it at the same time.
+ */
+public class CustomerDictionary {
+	static private final int CHUNK_BITS = 14;
+	static private final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static private final int MAX_CHUNKS = 1 << 16;
+
+	private final Map<NaturalKey,Customer> _customers = new ConcurrentHashMap<>();
+	private final Map<String,String> _strings = new ConcurrentHashMap<>();
+	//-- Dense ids index straight into fixed size chunks, allocated as ids reach them
+	private final AtomicReferenceArray<AtomicReferenceArray<Customer>> _byId = new AtomicReferenceArray<>(MAX_CHUNKS);
+	private final AtomicInteger _nextId = new AtomicInteger();
+
+	public Customer intern(String firstName, String lastName, String shippingAddress, String contactNumber) {
+		final NaturalKey key = new NaturalKey(firstName, lastName, shippingAddress, contactNumber);
+		final Customer known = _customers.get(key);
+		if (null != known) return known;
+		return _customers.computeIfAbsent(key, k -> {
+			final int id = _nextId.getAndIncrement();
+			final Customer customer = new Customer(this, id, string(firstName), string(lastName),
+					string(shippingAddress), string(contactNumber));
+			chunkOf(id).set(id & (CHUNK_SIZE - 1), customer);
+			return customer;
+		});
+	}
+
+	/**
+	 * The customer with {@code id}, or null if this dictionary never handed it out.
+	 */
+	public Customer get(long id) {
+		if (id < 0 || id >= _nextId.get()) return null;
+		final AtomicReferenceArray<Customer> chunk = _byId.get((int) (id >>> CHUNK_BITS));
+		return null == chunk ? null : chunk.get((int) id & (CHUNK_SIZE - 1));
+	}
+
+	/**
+	 * This dictionary's instance of {@code customer}, which may come from another dictionary
+	 * or none, or null if it was never interned here.
+	 */
+	public Customer find(Customer customer) {
+		if (customer.isInternedIn(this)) return customer;
+		return _customers.get(new NaturalKey(customer.getFirstName(), customer.getLastName(),
+				customer.getShippingAddress(), customer.getContactNumber()));
+	}
+
+	public int size() {
+		return _customers.size();
+	}
+
+	private String string(String value) {
+		if (null == value) return null;
+		final String known = _strings.putIfAbsent(value, value);
+		return null == known ? value : known;
+	}
+
+	private AtomicReferenceArray<Customer> chunkOf(int id) {
+		final int index = id >>> CHUNK_BITS;
+		AtomicReferenceArray<Customer> chunk = _byId.get(index);
+		if (null == chunk) {
+			_byId.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+			chunk = _byId.get(index);
+		}
+		return chunk;
+	}
+
+	static private final class NaturalKey {
+		private final String _firstName;
+		private final String _lastName;
+		private final String _shippingAddress;
+		private final String _contactNumber;
+
+		private NaturalKey(String firstName, String lastName, String shippingAddress, String contactNumber) {
+			this._firstName = firstName;
+			this._lastName = lastName;
+			this._shippingAddress = shippingAddress;
+			this._contactNumber = contactNumber;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			NaturalKey key = (NaturalKey) o;
+
+			return Objects.equals(_firstName, key._firstName)
+					&& Objects.equals(_lastName, key._lastName)
+					&& Objects.equals(_shippingAddress, key._shippingAddress)
+					&& Objects.equals(_contactNumber, key._contactNumber);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(_firstName, _lastName, _shippingAddress, _contactNumber);
+		}
+	}
+}
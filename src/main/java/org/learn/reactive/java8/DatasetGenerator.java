@@ -0,0 +1,287 @@
+package org.learn.reactive.java8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Generates carts and orders for benchmarks, reproducibly and in parallel. Record {@code i}
+ * draws every value, ids included, from its own {@link SplittableRandom} seeded from the
+ * generator seed and {@code i}, so the same seed gives the same records in the same order
+ * however the stream is split, and generating threads share nothing but read-only tables.
+ * <p>
+ * Customers are interned up front, in order, so a fresh {@link CustomerDictionary} hands
+ * out the same ids on every run. Build instances with {@link DatasetGeneratorBuilder}.
+ */
+public class DatasetGenerator {
+	static private final long CART_STREAM = 0x43415254L;
+	static private final long ORDER_STREAM = 0x4f524452L;
+	static private final int BATCH_SIZE = 64 * 1024;
+
+	private final long _seed;
+	private final List<Customer> _customers;
+	private final Distribution<Integer> _itemCounts;
+	private final Distribution<String> _itemTypes;
+	private final Distribution<String> _vendors;
+	private final Distribution<Double> _values;
+	private final Distribution<LocalDateTime> _dates;
+
+	DatasetGenerator(long seed, List<Customer> customers, Distribution<Integer> itemCounts,
+	                 Distribution<String> itemTypes, Distribution<String> vendors,
+	                 Distribution<Double> values, Distribution<LocalDateTime> dates) {
+		this._seed = seed;
+		this._customers = customers;
+		this._itemCounts = itemCounts;
+		this._itemTypes = itemTypes;
+		this._vendors = vendors;
+		this._values = values;
+		this._dates = dates;
+	}
+
+	public long getSeed() {
+		return _seed;
+	}
+
+	public List<Customer> getCustomers() {
+		return Collections.unmodifiableList(_customers);
+	}
+
+	/**
+	 * Cart {@code index} of this generator's sequence.
+	 */
+	public ShoppingCart cart(long index) {
+		final SplittableRandom random = randomFor(CART_STREAM, index);
+		final UUID id = new UUID(random.nextLong(), random.nextLong());
+		final Customer customer = _customers.get(random.nextInt(_customers.size()));
+		final LocalDateTime createdOn = _dates.sample(random);
+		return new ShoppingCart(id, customer, items(random), createdOn);
+	}
+
+	/**
+	 * Order {@code index} of this generator's sequence, independent of the cart sequence.
+	 */
+	public Order order(long index) {
+		final SplittableRandom random = randomFor(ORDER_STREAM, index);
+		final UUID id = new UUID(random.nextLong(), random.nextLong());
+		final Customer customer = _customers.get(random.nextInt(_customers.size()));
+		final LocalDateTime purchasedOn = _dates.sample(random);
+		return new Order(id, purchasedOn, items(random), customer);
+	}
+
+	/**
+	 * The first {@code count} carts; call {@code parallel()} on the result to generate on the common pool.
+	 */
+	public Stream<ShoppingCart> carts(long count) {
+		return LongStream.range(0, count).mapToObj(this::cart);
+	}
+
+	public Stream<Order> orders(long count) {
+		return LongStream.range(0, count).mapToObj(this::order);
+	}
+
+	/**
+	 * Appends the first {@code carts} carts and {@code orders} orders to {@code writer}.
+	 * Records are generated in parallel batches and written in sequence order.
+	 */
+	public void writeTo(RecordFileWriter writer, long carts, long orders) throws IOException {
+		try {
+			inBatches(carts, this::cart, cart -> {
+				try {
+					writer.write(cart);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			inBatches(orders, this::order, order -> {
+				try {
+					writer.write(order);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Adds the first {@code count} carts to {@code store}, generated in parallel batches.
+	 */
+	public void addTo(OffHeapCartStore store, long count) {
+		inBatches(count, this::cart, store::add);
+	}
+
+	//-- Bounded memory however large the count: one batch is generated while nothing is consumed
+	static private <T> void inBatches(long count, LongFunction<T> generator, Consumer<T> consumer) {
+		for (long start = 0; start < count; start += BATCH_SIZE) {
+			final long base = start;
+			final Object[] batch = IntStream.range(0, (int) Math.min(BATCH_SIZE, count - start)).parallel()
+					.mapToObj(i -> generator.apply(base + i))
+					.toArray();
+			for (Object record : batch) {
+				@SuppressWarnings("unchecked") final T typed = (T) record;
+				consumer.accept(typed);
+			}
+		}
+	}
+
+	private List<LineItem> items(SplittableRandom random) {
+		final int count = _itemCounts.sample(random);
+		final List<LineItem> items = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			items.add(new LineItem(new UUID(random.nextLong(), random.nextLong()),
+					_itemTypes.sample(random),
+					_vendors.sample(random),
+					Math.round(_values.sample(random) * LineItem.VALUE_SCALE),
+					i));
+		}
+		return items;
+	}
+
+	private SplittableRandom randomFor(long stream, long index) {
+		return new SplittableRandom(mix64(mix64(_seed ^ stream) + index));
+	}
+
+	//-- Seeds of neighbouring records must not be neighbours: SplittableRandom(s) and
+	//-- SplittableRandom(s + gamma) would produce the same values shifted by one
+	static long mix64(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * Draws a value using only the random source it is given, so samples are reproducible.
+	 */
+	@FunctionalInterface
+	public interface Distribution<T> {
+		T sample(SplittableRandom random);
+
+		static <T> Distribution<T> constant(T value) {
+			return random -> value;
+		}
+
+		static <T> Distribution<T> uniform(List<T> values) {
+			final List<T> copy = new ArrayList<>(values);
+			if (copy.isEmpty()) throw new IllegalArgumentException("Nothing to sample from");
+			return random -> copy.get(random.nextInt(copy.size()));
+		}
+
+		/**
+		 * Each key with probability proportional to its weight.
+		 */
+		static <T> Distribution<T> weighted(Map<T,Double> weights) {
+			final List<T> values = new ArrayList<>(weights.size());
+			final double[] cumulative = new double[weights.size()];
+			double total = 0;
+			for (Map.Entry<T,Double> entry : weights.entrySet()) {
+				if (!(entry.getValue() >= 0)) throw new IllegalArgumentException("Negative weight for " + entry.getKey());
+				if (entry.getValue() == 0) continue;
+				total += entry.getValue();
+				cumulative[values.size()] = total;
+				values.add(entry.getKey());
+			}
+			if (values.isEmpty()) throw new IllegalArgumentException("Weights must not all be zero");
+			final double sum = total;
+			final int last = values.size() - 1;
+			return random -> {
+				//-- Key k owns [cumulative[k - 1], cumulative[k])
+				final int found = Arrays.binarySearch(cumulative, 0, last + 1, random.nextDouble() * sum);
+				return values.get(Math.min(last, found < 0 ? -found - 1 : found + 1));
+			};
+		}
+
+		/**
+		 * Integers from {@code min} to {@code max}, both inclusive, with equal probability.
+		 */
+		static Distribution<Integer> between(int min, int max) {
+			if (max < min) throw new IllegalArgumentException("Empty range " + min + ".." + max);
+			return random -> min + random.nextInt(max - min + 1);
+		}
+
+		/**
+		 * Times from {@code from}, inclusive, to {@code to}, exclusive, to the second, uniformly.
+		 */
+		static Distribution<LocalDateTime> between(LocalDateTime from, LocalDateTime to) {
+			final long origin = from.toEpochSecond(ZoneOffset.UTC);
+			final long bound = to.toEpochSecond(ZoneOffset.UTC);
+			if (bound <= origin) throw new IllegalArgumentException("Empty range " + from + ".." + to);
+			return random -> LocalDateTime.ofEpochSecond(random.nextLong(origin, bound), 0, ZoneOffset.UTC);
+		}
+
+		/**
+		 * Durations from {@code min}, inclusive, to {@code max}, exclusive, to the microsecond, uniformly.
+		 */
+		static Distribution<Duration> between(Duration min, Duration max) {
+			final long origin = TimeUnit.NANOSECONDS.toMicros(min.toNanos());
+			final long bound = TimeUnit.NANOSECONDS.toMicros(max.toNanos());
+			if (bound <= origin) throw new IllegalArgumentException("Empty range " + min + ".." + max);
+			return random -> Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(random.nextLong(origin, bound)));
+		}
+
+		/**
+		 * {@code min} plus an exponentially distributed excess, so the mean is {@code mean}:
+		 * the usual model for service time, with a long tail above a fixed floor.
+		 */
+		static Distribution<Duration> exponential(Duration min, Duration mean) {
+			final double excess = mean.minus(min).toNanos();
+			if (excess < 0) throw new IllegalArgumentException("Mean " + mean + " is below the minimum " + min);
+			return random -> min.plusNanos((long) (-excess * Math.log(1 - random.nextDouble())));
+		}
+	}
+
+	//-- Generation rate with the old shared-Random helper, then this generator sequential and parallel
+	public static void main(String[] args) throws IOException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		final DatasetGenerator generator = new DatasetGeneratorBuilder().withSeed(40).build();
+
+		for (int round = 0; round < 3; round++) {
+			long started = System.nanoTime();
+			final long helperSum = OrderHelper.createCarts(count).parallel()
+					.mapToLong(cart -> cart.getId().getLeastSignificantBits()).sum();
+			report(round, "OrderHelper         ", count, started);
+
+			started = System.nanoTime();
+			final long sequentialSum = generator.carts(count).mapToLong(cart -> cart.getId().getLeastSignificantBits()).sum();
+			report(round, "generator sequential", count, started);
+
+			started = System.nanoTime();
+			final long parallelSum = generator.carts(count).parallel().mapToLong(cart -> cart.getId().getLeastSignificantBits()).sum();
+			report(round, "generator parallel  ", count, started);
+			if (helperSum == 0 || sequentialSum != parallelSum) throw new IllegalStateException("Parallel generation is not deterministic");
+		}
+
+		final Path file = Files.createTempFile("carts", ".rec");
+		try (RecordFileWriter writer = new RecordFileWriter(file)) {
+			final long started = System.nanoTime();
+			generator.writeTo(writer, count, count / 10);
+			report(0, "record file         ", count + count / 10, started);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	static private void report(int round, String name, long records, long started) {
+		final double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+		System.out.printf("%s -- Round %d %s: %d records, %.0f records/s %n",
+				Thread.currentThread().getName(), round, name, records, records / seconds);
+	}
+}
@@ -0,0 +1,80 @@
+package org.learn.reactive.java8;
+
+import org.learn.reactive.java8.DatasetGenerator.Distribution;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DatasetGeneratorBuilder {
+	private long _seed = 40;
+	private int _customerCount = 100_000;
+	private CustomerDictionary _customers = new CustomerDictionary();
+	private Distribution<Integer> _itemCounts = Distribution.between(1, 3);
+	private Distribution<String> _itemTypes = Distribution.uniform(OrderHelper.getItemTypes());
+	private Distribution<String> _vendors = Distribution.uniform(OrderHelper.getVendors());
+	private Distribution<Double> _values = Distribution.uniform(OrderHelper.getValues());
+	private Distribution<LocalDateTime> _dates = Distribution.between(
+			LocalDate.of(2017, 1, 1).atStartOfDay(), LocalDate.of(2018, 1, 1).atStartOfDay());
+
+	public DatasetGeneratorBuilder() { }
+
+	public DatasetGeneratorBuilder withSeed(long seed) {
+		this._seed = seed;
+		return this;
+	}
+
+	/**
+	 * Number of distinct customers carts and orders are spread over, uniformly.
+	 */
+	public DatasetGeneratorBuilder withCustomerCount(int customerCount) {
+		this._customerCount = customerCount;
+		return this;
+	}
+
+	/**
+	 * Dictionary the customers are interned in, by default a fresh one per builder, which gives
+	 * the same ids on every run. {@link OrderHelper#getCustomerDictionary()} shares the customers
+	 * with the rest of the application, at the cost of ids that depend on what was interned
+	 * before and of entries kept for the life of the JVM.
+	 */
+	public DatasetGeneratorBuilder withCustomerDictionary(CustomerDictionary customers) {
+		this._customers = customers;
+		return this;
+	}
+
+	public DatasetGeneratorBuilder withItemCounts(Distribution<Integer> itemCounts) {
+		this._itemCounts = itemCounts;
+		return this;
+	}
+
+	public DatasetGeneratorBuilder withItemTypes(Distribution<String> itemTypes) {
+		this._itemTypes = itemTypes;
+		return this;
+	}
+
+	public DatasetGeneratorBuilder withVendors(Distribution<String> vendors) {
+		this._vendors = vendors;
+		return this;
+	}
+
+	public DatasetGeneratorBuilder withValues(Distribution<Double> values) {
+		this._values = values;
+		return this;
+	}
+
+	public DatasetGeneratorBuilder withDates(Distribution<LocalDateTime> dates) {
+		this._dates = dates;
+		return this;
+	}
+
+	public DatasetGenerator build() {
+		if (_customerCount < 1) throw new IllegalArgumentException("At least one customer is needed");
+		final List<Customer> customers = new ArrayList<>(_customerCount);
+		for (int num = 1; num <= _customerCount; num++) {
+			customers.add(_customers.intern("John-" + num, "Wick-" + num, "1st, Developer Street", "91-999-999-9999"));
+		}
+		return new DatasetGenerator(_seed, customers, _itemCounts, _itemTypes, _vendors, _values, _dates);
+	}
+}
@@ -0,0 +1,182 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * The time left to finish a piece of work, e.g. an order, handed to everything done on its
+ * behalf. Calls size their timeouts from {@link #remaining}, and work started with
+ * {@link #supplyAsync} is cut short when the deadline expires: its future fails with a
+ * {@link TimeoutException}, a task not yet started never runs and a running one is interrupted.
+ * Only work that heeds interrupts, e.g. sleeps and lock or queue waits, gives its pool thread
+ * back at once; blocking socket I/O, such as an HTTP call over {@code HttpURLConnection},
+ * ignores them and holds the thread until its own timeouts fire, which is why calls size those
+ * from {@link #remaining} too.
+ * <p>
+ * A deadline runs a timer until it expires or is {@link #release() released}; release it once
+ * the work is done.
+ */
+public final class Deadline {
+	static private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("Deadline-timer-%d").setDaemon(true).build());
+	//-- Runs expiry actions, which may block, e.g. on whatever runs on the futures they complete
+	static private final ExecutorService expiry = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setNameFormat("Deadline-expiry-%d").setDaemon(true).build());
+	static private final Deadline NONE = new Deadline();
+
+	private final long _budgetNanos;
+	private final long _expiresAtNanos;
+	private final Queue<Runnable> _onExpiry = new ConcurrentLinkedQueue<>();
+	private final ScheduledFuture<?> _timer;
+	private volatile boolean _expired;
+
+	private Deadline() {
+		this._budgetNanos = Long.MAX_VALUE;
+		this._expiresAtNanos = Long.MAX_VALUE;
+		this._timer = null;
+	}
+
+	private Deadline(long budgetNanos) {
+		this._budgetNanos = budgetNanos;
+		this._expiresAtNanos = System.nanoTime() + budgetNanos;
+		this._timer = timer.schedule(this::expire, budgetNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * A deadline {@code budget} from now.
+	 */
+	static public Deadline after(Duration budget) {
+		if (budget.isNegative()) throw new IllegalArgumentException("Budget must not be negative, got " + budget);
+		return new Deadline(budget.toNanos());
+	}
+
+	/**
+	 * A deadline that never expires, for work without a time budget.
+	 */
+	static public Deadline none() {
+		return NONE;
+	}
+
+	public boolean isBounded() {
+		return this != NONE;
+	}
+
+	public boolean isExpired() {
+		return _expired || isBounded() && System.nanoTime() - _expiresAtNanos >= 0;
+	}
+
+	/**
+	 * Time left, 0 once expired and {@link Long#MAX_VALUE} if unbounded.
+	 */
+	public long remaining(TimeUnit unit) {
+		if (!isBounded()) return Long.MAX_VALUE;
+		return unit.convert(Math.max(0, _expiresAtNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs {@code action} on a pool of its own when the deadline expires, at once on the calling
+	 * thread if it already has. An action registered as the deadline expires may run twice.
+	 */
+	public void onExpiry(Runnable action) {
+		if (!isBounded()) return;
+		_onExpiry.add(action);
+		if (_expired && _onExpiry.remove(action)) action.run();
+	}
+
+	/**
+	 * Like {@link CompletableFuture#supplyAsync(Supplier, Executor)}, but failing with a
+	 * {@link TimeoutException} when the deadline expires, skipping the supplier if it has not
+	 * started and interrupting it if it has.
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final Runner runner = new Runner();
+		onExpiry(() -> {
+			result.completeExceptionally(timeout());
+			runner.interrupt();
+		});
+		executor.execute(() -> {
+			if (result.isDone()) return;
+			//-- Expiry actions run one by one, so this task's may not have run yet
+			if (isExpired()) {
+				result.completeExceptionally(timeout());
+				return;
+			}
+			if (!runner.enter()) return;
+			try {
+				result.complete(supplier.get());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			} finally {
+				runner.exit();
+			}
+		});
+		return result;
+	}
+
+	private TimeoutException timeout() {
+		return new TimeoutException("Deadline of " + Duration.ofNanos(_budgetNanos) + " expired");
+	}
+
+	/**
+	 * Stops the timer; work still registered is left alone. Call once the work is done.
+	 */
+	public void release() {
+		if (null != _timer) _timer.cancel(false);
+		_onExpiry.clear();
+	}
+
+	//-- On the timer thread every deadline shares, so the actions are handed off rather than holding up
+	//-- other deadlines; not to the common pool, whose few threads the work being cut short may hold
+	private void expire() {
+		_expired = true;
+		expiry.execute(() -> {
+			Runnable action;
+			while (null != (action = _onExpiry.poll())) { action.run(); }
+		});
+	}
+
+	@Override
+	public String toString() {
+		return isBounded() ? "deadline in " + Duration.ofNanos(remaining(TimeUnit.NANOSECONDS)) : "no deadline";
+	}
+
+	//-- Interrupts its thread only while the task runs, never a pool thread that moved on
+	static private final class Runner {
+		private Thread _thread;
+		private boolean _interrupted;
+
+		private synchronized boolean enter() {
+			if (_interrupted) return false;
+			_thread = Thread.currentThread();
+			return true;
+		}
+
+		private synchronized void interrupt() {
+			_interrupted = true;
+			if (null != _thread) _thread.interrupt();
+		}
+
+		private void exit() {
+			final boolean interrupted;
+			synchronized (this) {
+				_thread = null;
+				interrupted = _interrupted;
+			}
+			//-- An interrupt that came too late for the task is not left for the pool's next one
+			if (interrupted) Thread.interrupted();
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package org.learn.reactive.java8;
+
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Local repository that stores every distinct chunk of backed up data exactly once.
+ * <p>
+ * Files are split by a {@link ContentDefinedChunker}, chunks are addressed by their
+ * SHA-256 digest and appended to pack files under {@code packs/}. The location of every
+ * chunk is kept in an append-only {@code index.dat} which is replayed when the repository
+ * is opened. A deduplicated file is represented by a small recipe listing its chunks, and
+ * it is the recipe rather than the content that goes into the backup artifact.
+ */
+public class DedupChunkStore implements Closeable {
+	static final Logger logger = LoggerFactory.getLogger(DedupChunkStore.class);
+	static public final String RECIPE_SUFFIX = ".chunks";
+
+	static private final String PACK_DIR = "packs";
+	static private final String INDEX_FILE = "index.dat";
+	static private final String PACK_NAME = "pack-%05d.pack";
+	static private final String RECIPE_HEADER = "#dedup-recipe";
+	static private final long MAX_PACK_SIZE = 256L * 1024 * 1024;
+	static private final int DIGEST_LENGTH = 32;
+	static private final int INDEX_RECORD_SIZE = DIGEST_LENGTH + Integer.BYTES + Long.BYTES + Integer.BYTES;
+	static private final int READ_WINDOW = 4 * 1024 * 1024;
+	static private final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+	static private final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private final Path _repository;
+	private final ContentDefinedChunker _chunker;
+	private final Map<ChunkId,ChunkLocation> _index = new ConcurrentHashMap<>();
+	private final Map<Integer,FileChannel> _packReaders = new ConcurrentHashMap<>();
+	private final Object _appendLock = new Object();
+	private final FileChannel _indexChannel;
+	private FileChannel _packWriter;
+	private int _packId;
+	private long _packPosition;
+
+	private final LongAdder _logicalBytes = new LongAdder();
+	private final LongAdder _storedBytes = new LongAdder();
+	private final LongAdder _chunkCount = new LongAdder();
+	private final LongAdder _uniqueChunkCount = new LongAdder();
+
+	private DedupChunkStore(Path repository, ContentDefinedChunker chunker) throws IOException {
+		this._repository = repository;
+		this._chunker = chunker;
+		Files.createDirectories(repository.resolve(PACK_DIR));
+		this._indexChannel = FileChannel.open(repository.resolve(INDEX_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		replayIndex();
+		openPackWriter(_packId);
+	}
+
+	static public DedupChunkStore open(Path repository) throws IOException {
+		return open(repository, new ContentDefinedChunker());
+	}
+
+	static public DedupChunkStore open(Path repository, ContentDefinedChunker chunker) throws IOException {
+		return new DedupChunkStore(repository, chunker);
+	}
+
+	/**
+	 * Chunks {@code source}, stores the chunks that are not yet known and writes the
+	 * recipe needed to reassemble the file to {@code recipeFile}.
+	 */
+	public Path deduplicate(Path source, Path recipeFile) throws IOException {
+		final long started = System.nanoTime();
+		final long storedBefore = _storedBytes.sum();
+		long size = 0;
+		int chunks = 0;
+
+		try (InputStream in = Files.newInputStream(source);
+		     BufferedWriter recipe = Files.newBufferedWriter(recipeFile, StandardCharsets.UTF_8)) {
+			recipe.write(RECIPE_HEADER + " " + source.getFileName());
+			recipe.newLine();
+
+			final byte[] window = new byte[READ_WINDOW + _chunker.getMaxSize()];
+			int buffered = 0;
+			boolean eof = false;
+			while (!eof || buffered > 0) {
+				while (!eof && buffered < window.length) {
+					final int read = in.read(window, buffered, window.length - buffered);
+					if (read < 0) { eof = true; } else { buffered += read; }
+				}
+
+				// Boundaries are found sequentially, digests are computed in parallel
+				final List<byte[]> slices = new ArrayList<>();
+				int offset = 0;
+				while (buffered - offset > 0 && (eof || buffered - offset >= _chunker.getMaxSize())) {
+					final int length = _chunker.nextChunkLength(window, offset, buffered - offset);
+					slices.add(Arrays.copyOfRange(window, offset, offset + length));
+					offset += length;
+				}
+				final List<ChunkId> ids = slices.parallelStream()
+						.map(slice -> store(slice, 0, slice.length))
+						.collect(Collectors.toList());
+
+				for (int i = 0; i < ids.size(); i++) {
+					recipe.write(ids.get(i).toString() + " " + slices.get(i).length);
+					recipe.newLine();
+					size += slices.get(i).length;
+				}
+				chunks += ids.size();
+				System.arraycopy(window, offset, window, 0, buffered - offset);
+				buffered -= offset;
+			}
+		}
+
+		final long elapsed = Math.max(1, System.nanoTime() - started);
+		logger.info("{} deduplicated {} ({} bytes, {} chunks, {} new bytes) at {} MB/s",
+				Thread.currentThread().getName(),
+				source.toString(),
+				size,
+				chunks,
+				_storedBytes.sum() - storedBefore,
+				String.format("%.1f", megabytesPerSecond(size, elapsed)));
+		return recipeFile;
+	}
+
+	/**
+	 * Reassembles the file described by {@code recipeFile} into {@code target}, verifying
+	 * every chunk against its digest and the length the recipe gives for it.
+	 */
+	public Path restore(Path recipeFile, Path target) throws IOException {
+		try (InputStream recipe = Files.newInputStream(recipeFile)) {
+			return restore(recipe, target);
+		}
+	}
+
+	public Path restore(InputStream recipe, Path target) throws IOException {
+		final BufferedReader lines = new BufferedReader(new InputStreamReader(recipe, StandardCharsets.UTF_8));
+		try (OutputStream out = Files.newOutputStream(target)) {
+			String line;
+			while (null != (line = lines.readLine())) {
+				if (line.isEmpty() || line.startsWith(RECIPE_HEADER)) continue;
+				final int separator = line.indexOf(' ');
+				final byte[] chunk;
+				try {
+					chunk = load(ChunkId.parse(line.substring(0, separator)));
+					if (chunk.length != Integer.parseInt(line.substring(separator + 1))) {
+						throw new IOException("Chunk of " + chunk.length + " bytes does not match recipe line " + line);
+					}
+				} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+					throw new IOException("Malformed recipe line " + line, e);
+				}
+				out.write(chunk);
+			}
+		}
+		return target;
+	}
+
+	public ChunkId store(byte[] data, int offset, int length) {
+		final MessageDigest digest = SHA_256.get();
+		digest.update(data, offset, length);
+		final ChunkId id = new ChunkId(digest.digest());
+		_logicalBytes.add(length);
+		_chunkCount.increment();
+		if (_index.containsKey(id)) return id;
+
+		synchronized (_appendLock) {
+			if (_index.containsKey(id)) return id;
+			try {
+				if (_packPosition + length > MAX_PACK_SIZE && _packPosition > 0) {
+					_packWriter.close();
+					openPackWriter(_packId + 1);
+				}
+				final ChunkLocation location = new ChunkLocation(_packId, _packPosition, length);
+				writeFully(_packWriter, ByteBuffer.wrap(data, offset, length), _packPosition);
+				_packPosition += length;
+				writeFully(_indexChannel, location.toIndexRecord(id), _indexChannel.size());
+				_index.put(id, location);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		_storedBytes.add(length);
+		_uniqueChunkCount.increment();
+		return id;
+	}
+
+	public byte[] load(ChunkId id) throws IOException {
+		final ChunkLocation location = _index.get(id);
+		if (null == location) {
+			throw new IOException("Chunk " + id + " is not present in repository " + _repository);
+		}
+		final FileChannel reader = _packReaders.computeIfAbsent(location._packId, packId -> {
+			try {
+				return FileChannel.open(packPath(packId), StandardOpenOption.READ);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		final ByteBuffer chunk = ByteBuffer.allocate(location._length);
+		while (chunk.hasRemaining()) {
+			if (reader.read(chunk, location._offset + chunk.position()) < 0) {
+				throw new IOException("Pack " + location._packId + " is truncated at chunk " + id);
+			}
+		}
+		//-- Content is only handed out once it still hashes to the id it is stored under
+		final MessageDigest digest = SHA_256.get();
+		digest.update(chunk.array());
+		if (!Arrays.equals(id._digest, digest.digest())) {
+			throw new IOException("Chunk " + id + " in pack " + location._packId + " is corrupt");
+		}
+		return chunk.array();
+	}
+
+	public boolean contains(ChunkId id) {
+		return _index.containsKey(id);
+	}
+
+	public long getLogicalBytes() {
+		return _logicalBytes.sum();
+	}
+
+	public long getStoredBytes() {
+		return _storedBytes.sum();
+	}
+
+	public long getChunkCount() {
+		return _chunkCount.sum();
+	}
+
+	public long getUniqueChunkCount() {
+		return _uniqueChunkCount.sum();
+	}
+
+	/**
+	 * Bytes handed to the store divided by the bytes it had to write, since it was opened.
+	 */
+	public double getDedupRatio() {
+		final long stored = getStoredBytes();
+		return stored == 0 ? 1.0 : (double) getLogicalBytes() / stored;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (_appendLock) {
+			_packWriter.force(false);
+			_packWriter.close();
+			_indexChannel.force(false);
+			_indexChannel.close();
+		}
+		for (FileChannel reader : _packReaders.values()) {
+			reader.close();
+		}
+	}
+
+	//-- Drops index records pointing past the end of their pack, i.e. torn writes of a crashed run
+	private void replayIndex() throws IOException {
+		final long records = _indexChannel.size() / INDEX_RECORD_SIZE;
+		final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+		long validRecords = 0;
+		for (long i = 0; i < records; i++) {
+			record.clear();
+			while (record.hasRemaining()) {
+				_indexChannel.read(record, i * INDEX_RECORD_SIZE + record.position());
+			}
+			record.flip();
+			final byte[] digest = new byte[DIGEST_LENGTH];
+			record.get(digest);
+			final ChunkLocation location = new ChunkLocation(record.getInt(), record.getLong(), record.getInt());
+			final Path pack = packPath(location._packId);
+			if (!Files.exists(pack) || Files.size(pack) < location._offset + location._length) break;
+			_index.put(new ChunkId(digest), location);
+			_packId = Math.max(_packId, location._packId);
+			validRecords++;
+		}
+		_indexChannel.truncate(validRecords * INDEX_RECORD_SIZE);
+		if (!_index.isEmpty()) {
+			logger.info("Loaded {} chunk(s) from repository {}", _index.size(), _repository.toString());
+		}
+	}
+
+	private void openPackWriter(int packId) throws IOException {
+		_packId = packId;
+		_packWriter = FileChannel.open(packPath(packId),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		_packPosition = _packWriter.size();
+	}
+
+	private Path packPath(int packId) {
+		return _repository.resolve(PACK_DIR).resolve(String.format(PACK_NAME, packId));
+	}
+
+	static private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	static private double megabytesPerSecond(long bytes, long elapsedNanos) {
+		return (bytes / (1024.0 * 1024.0)) / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	/**
+	 * SHA-256 digest addressing a chunk.
+	 */
+	static public final class ChunkId {
+		private final byte[] _digest;
+		private final int _hash;
+
+		private ChunkId(byte[] digest) {
+			this._digest = digest;
+			this._hash = Arrays.hashCode(digest);
+		}
+
+		static public ChunkId parse(String hex) {
+			return new ChunkId(HEX.decode(hex));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			return Arrays.equals(_digest, ((ChunkId) o)._digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public String toString() {
+			return HEX.encode(_digest);
+		}
+	}
+
+	static private final class ChunkLocation {
+		private final int _packId;
+		private final long _offset;
+		private final int _length;
+
+		private ChunkLocation(int packId, long offset, int length) {
+			this._packId = packId;
+			this._offset = offset;
+			this._length = length;
+		}
+
+		private ByteBuffer toIndexRecord(ChunkId id) {
+			final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+			record.put(id._digest).putInt(_packId).putLong(_offset).putInt(_length);
+			record.flip();
+			return record;
+		}
+	}
+
+	//-- Backs up synthetic files sharing most of their content and reports the savings
+	public static void main(String[] args) throws IOException {
+		final int fileCount = 8;
+		final int fileSize = 32 * 1024 * 1024;
+		final Path workDir = Files.createTempDirectory("dedup");
+		final byte[] base = new byte[fileSize];
+		final SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < base.length; i++) { base[i] = (byte) random.nextInt(256); }
+
+		final List<Path> sources = new ArrayList<>();
+		for (int f = 0; f < fileCount; f++) {
+			// Every copy gets a few local edits, including inserts that shift the following bytes
+			final byte[] copy = Arrays.copyOf(base, base.length);
+			for (int edit = 0; edit < 16; edit++) {
+				copy[random.nextInt(copy.length)] ^= 0x5a;
+			}
+			final Path source = workDir.resolve(String.format("data_file-%d.dat", f));
+			try (OutputStream out = Files.newOutputStream(source)) {
+				final int insertAt = random.nextInt(copy.length);
+				out.write(copy, 0, insertAt);
+				out.write(("inserted-" + f).getBytes(StandardCharsets.UTF_8));
+				out.write(copy, insertAt, copy.length - insertAt);
+			}
+			sources.add(source);
+		}
+
+		final Path recipes = Files.createDirectories(workDir.resolve("recipes"));
+		final long started = System.nanoTime();
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			sources.parallelStream().forEach(source -> {
+				try {
+					store.deduplicate(source, recipes.resolve(source.getFileName() + RECIPE_SUFFIX));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			final long elapsed = System.nanoTime() - started;
+			System.out.printf("Logical bytes: %d, stored bytes: %d, chunks: %d (%d unique) %n",
+					store.getLogicalBytes(), store.getStoredBytes(),
+					store.getChunkCount(), store.getUniqueChunkCount());
+			System.out.printf("Dedup ratio: %.2f:1, throughput: %.1f MB/s %n",
+					store.getDedupRatio(), megabytesPerSecond(store.getLogicalBytes(), elapsed));
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.learn.reactive.java8;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Customers eligible for the discount, kept up to date from {@link CartEvent}s instead of
+ * recomputed by fetching and filtering every cart.
+ * <p>
+ * A cart counts when it was created strictly after the cut-off date and its total is at
+ * least the threshold, the same rules as {@link FilterOperations#filterCartsByDate} and
+ * {@link FilterOperations#filterCustomersByPurchases}. The view remembers each open cart's
+ * total in cents and how many eligible carts each customer has, so an event costs one
+ * pass over the items it changed and every read is a counter or set lookup.
+ * <p>
+ * Events for the same cart are applied one at a time; events for different carts may be
+ * applied from any number of threads. An update or close for a cart the view has not seen
+ * created, or has already seen closed, is counted and otherwise ignored.
+ */
+public class DiscountEligibilityView implements Consumer<CartEvent> {
+	private final long _createdAfterEpochDay;
+	private final long _minimumCents;
+
+	private final Map<UUID,CartState> _carts = new ConcurrentHashMap<>();
+	private final Map<Customer,Integer> _eligibleCartsByCustomer = new ConcurrentHashMap<>();
+	private final Set<Customer> _eligibleCustomers = Collections.unmodifiableSet(_eligibleCartsByCustomer.keySet());
+	private final AtomicLong _eligibleCarts = new AtomicLong();
+	private final LongAdder _ignoredEvents = new LongAdder();
+
+	public DiscountEligibilityView(LocalDate createdAfter, double minimumValue) {
+		this._createdAfterEpochDay = createdAfter.toEpochDay();
+		this._minimumCents = CartStore.toCents(minimumValue);
+	}
+
+	@Override
+	public void accept(CartEvent event) {
+		final ShoppingCart cart = event.getCart();
+		switch (event.getType()) {
+			case CREATED:
+				_carts.compute(cart.getId(), (id, state) -> {
+					if (null != state) {
+						_ignoredEvents.increment();
+						return state;
+					}
+					final CartState created = new CartState(cart.getOrderedBy(), cart.getCreationEpochDay() > _createdAfterEpochDay);
+					created._totalCents = centsOf(event.getAdded());
+					transition(created, false);
+					return created;
+				});
+				break;
+			case UPDATED:
+				if (null == _carts.computeIfPresent(cart.getId(), (id, state) -> {
+					final boolean wasEligible = isEligible(state);
+					state._totalCents += centsOf(event.getAdded()) - centsOf(event.getRemoved());
+					transition(state, wasEligible);
+					return state;
+				})) {
+					_ignoredEvents.increment();
+				}
+				break;
+			case CLOSED:
+				final CartState closed = _carts.remove(cart.getId());
+				if (null == closed) {
+					_ignoredEvents.increment();
+				} else if (isEligible(closed)) {
+					leave(closed._customer);
+				}
+				break;
+		}
+	}
+
+	public long getEligibleCartCount() {
+		return _eligibleCarts.get();
+	}
+
+	public int getEligibleCustomerCount() {
+		return _eligibleCartsByCustomer.size();
+	}
+
+	/** Live, read-only view; iterating it sees a consistent-enough picture for reporting */
+	public Set<Customer> getEligibleCustomers() {
+		return _eligibleCustomers;
+	}
+
+	public boolean isEligible(Customer customer) {
+		return _eligibleCartsByCustomer.containsKey(customer);
+	}
+
+	public int getOpenCartCount() {
+		return _carts.size();
+	}
+
+	public long getIgnoredEventCount() {
+		return _ignoredEvents.sum();
+	}
+
+	private boolean isEligible(CartState state) {
+		return state._createdInWindow && state._totalCents >= _minimumCents;
+	}
+
+	private void transition(CartState state, boolean wasEligible) {
+		final boolean eligible = isEligible(state);
+		if (eligible && !wasEligible) {
+			_eligibleCarts.incrementAndGet();
+			_eligibleCartsByCustomer.merge(state._customer, 1, Integer::sum);
+		} else if (!eligible && wasEligible) {
+			leave(state._customer);
+		}
+	}
+
+	private void leave(Customer customer) {
+		_eligibleCarts.decrementAndGet();
+		_eligibleCartsByCustomer.computeIfPresent(customer, (c, carts) -> carts == 1 ? null : carts - 1);
+	}
+
+	static private long centsOf(List<LineItem> items) {
+		long cents = 0;
+		for (LineItem item : items) { cents += CartStore.toCents(item.getValue()); }
+		return cents;
+	}
+
+	//-- Guarded by the cart map: only touched inside compute for the cart's id
+	static private final class CartState {
+		private final Customer _customer;
+		private final boolean _createdInWindow;
+		private long _totalCents;
+
+		private CartState(Customer customer, boolean createdInWindow) {
+			this._customer = customer;
+			this._createdInWindow = createdInWindow;
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured replacement for {@code System.out.printf} on hot paths. A caller publishes an
+ * event type and its raw arguments into a preallocated slot of a ring; a background thread
+ * formats the events with the messages they used to print and writes them out in batches.
+ * <p>
+ * Publishing claims a slot with a single compare-and-set and stores a few references and
+ * primitives: no lock, no allocation and no I/O on the caller's thread. When the writer
+ * falls a full ring behind, events are dropped and counted rather than holding up callers.
+ * Events from one thread are written in the order they were published.
+ * <p>
+ * The default journal writes to stdout, or to the file named by {@code -Djournal.file},
+ * and drains itself when the JVM exits.
+ */
+public class EventJournal implements Closeable {
+	static private final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+	static private final int BATCH_SIZE = 256;
+	static private final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * What happened; each type knows the message it is written as and which arguments fill it.
+	 */
+	public enum Type {
+		ORDER_EXECUTED("%s -- Order with id %s was executed %n", Arg.THREAD, Arg.A),
+		ORDER_PROCESSED("%s -- All line items for order %s have been processed %n", Arg.THREAD, Arg.A),
+		ORDER_DEADLINE_EXPIRED("%s -- Order %s ran out of time with %d line items unfulfilled %n", Arg.THREAD, Arg.A, Arg.N),
+		FULFILLMENT_CHECKED("%s -- checking fulfillment criteria...%n", Arg.THREAD),
+		ENDPOINT_RESPONDED("%s -- Endpoint %s responded with: %s %n", Arg.THREAD, Arg.A, Arg.B),
+		ENDPOINT_TIMED_OUT("%s -- Call to endpoint %s was cut short by its deadline %n", Arg.THREAD, Arg.A),
+		ENDPOINT_SHED("%s -- Call to endpoint %s was shed by the concurrency limiter %n", Arg.THREAD, Arg.A),
+		PARTNER_RESPONDED("%s -- Received partner response %s for line item %s %n", Arg.THREAD, Arg.A, Arg.B),
+		PARTNER_RESPONSE_PROCESSED("%s -- processing partner response for line item %s %n", Arg.THREAD, Arg.A),
+		CARTS_FILTERED_BY_DATE("%s -- started filtering cart by date %s %n", Arg.THREAD, Arg.A),
+		CARTS_FILTERED_BY_VALUE("%s -- started filtering cart by purchase value %f %n", Arg.THREAD, Arg.D),
+		ROWS_FILTERED_BY_DATE("%s -- started filtering %d cart rows by date %s %n", Arg.THREAD, Arg.N, Arg.A),
+		ROWS_FILTERED_BY_VALUE("%s -- started filtering %d cart rows by purchase value %f %n",
+				Arg.THREAD, Arg.N, Arg.D),
+		CARTS_SCANNED("%s -- started scanning %d carts on %d workers by date %s and purchase value %f %n",
+				Arg.THREAD, Arg.N, Arg.M, Arg.A, Arg.D),
+		TOP_CUSTOMERS_RANKED("%s -- started ranking top %d customers by purchase value between %s and %s %n",
+				Arg.THREAD, Arg.N, Arg.A, Arg.B),
+		DZONE_PARSED("%s -- parsing Dzone response to return top %d result(s) %n", Arg.THREAD, Arg.N),
+		HN_PARSED("%s -- parsing HN response to return top %d result(s) %n", Arg.THREAD, Arg.N),
+		//-- A message already formatted by the caller, e.g. because it is also posted elsewhere
+		MESSAGE("%s%n", Arg.A);
+
+		private final String _template;
+		private final Arg[] _args;
+
+		Type(String template, Arg... args) {
+			this._template = template;
+			this._args = args;
+		}
+
+		public String getTemplate() {
+			return _template;
+		}
+	}
+
+	private enum Arg { THREAD, A, B, N, M, D }
+
+	//-- Preallocated; written by the publisher that claimed it, read by the writer once published
+	static private final class Event {
+		private Type _type;
+		private Thread _thread;
+		private Object _a;
+		private Object _b;
+		private long _n;
+		private long _m;
+		private double _d;
+	}
+
+	private final Writer _out;
+	private final boolean _closeOut;
+	private final int _mask;
+	private final Event[] _events;
+	private final AtomicLongArray _published;
+	private final AtomicLong _claimed = new AtomicLong();
+	private final AtomicLong _consumed = new AtomicLong();
+	private final AtomicLong _flushed = new AtomicLong();
+	private final LongAdder _dropped = new LongAdder();
+	private final Thread _writer;
+	private volatile boolean _running = true;
+
+	/**
+	 * A journal holding up to {@code capacity} unwritten events, rounded up to a power of two.
+	 */
+	public EventJournal(Writer out, int capacity) {
+		this(out, capacity, true);
+	}
+
+	public EventJournal(Path file, int capacity) throws IOException {
+		this(Files.newBufferedWriter(file, StandardCharsets.UTF_8), capacity, true);
+	}
+
+	private EventJournal(Writer out, int capacity, boolean closeOut) {
+		if (capacity < 1 || capacity > 1 << 24) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^24, got " + capacity);
+		}
+		final int slots = Integer.highestOneBit(Math.max(1, 2 * capacity - 1));
+		this._out = out;
+		this._closeOut = closeOut;
+		this._mask = slots - 1;
+		this._events = new Event[slots];
+		this._published = new AtomicLongArray(slots);
+		for (int slot = 0; slot < slots; slot++) {
+			_events[slot] = new Event();
+			_published.set(slot, -1);
+		}
+		this._writer = new ThreadFactoryBuilder().setNameFormat("Event-journal-%d").setDaemon(true).build()
+				.newThread(this::drain);
+		_writer.start();
+	}
+
+	/**
+	 * The journal the application's hot paths write to.
+	 */
+	static public EventJournal getDefault() {
+		return DefaultHolder.JOURNAL;
+	}
+
+	static private final class DefaultHolder {
+		static private final EventJournal JOURNAL = createDefault();
+
+		static private EventJournal createDefault() {
+			final String file = System.getProperty("journal.file");
+			final int capacity = Integer.getInteger("journal.capacity", 64 * 1024);
+			final EventJournal journal;
+			try {
+				journal = null == file
+						? new EventJournal(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), capacity, false)
+						: new EventJournal(Paths.get(file), capacity);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "Event-journal-shutdown"));
+			return journal;
+		}
+	}
+
+	public void log(Type type) {
+		publish(type, null, null, 0, 0, 0);
+	}
+
+	public void log(Type type, Object a) {
+		publish(type, a, null, 0, 0, 0);
+	}
+
+	public void log(Type type, Object a, Object b) {
+		publish(type, a, b, 0, 0, 0);
+	}
+
+	public void log(Type type, long n) {
+		publish(type, null, null, n, 0, 0);
+	}
+
+	public void log(Type type, double d) {
+		publish(type, null, null, 0, 0, d);
+	}
+
+	public void log(Type type, long n, Object a) {
+		publish(type, a, null, n, 0, 0);
+	}
+
+	public void log(Type type, long n, double d) {
+		publish(type, null, null, n, 0, d);
+	}
+
+	public void log(Type type, long n, Object a, Object b) {
+		publish(type, a, b, n, 0, 0);
+	}
+
+	public void log(Type type, long n, long m, Object a, double d) {
+		publish(type, a, null, n, m, d);
+	}
+
+	private void publish(Type type, Object a, Object b, long n, long m, double d) {
+		long sequence;
+		do {
+			sequence = _claimed.get();
+			if (sequence - _consumed.get() > _mask || !_running) {
+				_dropped.increment();
+				return;
+			}
+		} while (!_claimed.compareAndSet(sequence, sequence + 1));
+
+		final int slot = (int) sequence & _mask;
+		final Event event = _events[slot];
+		event._type = type;
+		event._thread = Thread.currentThread();
+		event._a = a;
+		event._b = b;
+		event._n = n;
+		event._m = m;
+		event._d = d;
+		_published.lazySet(slot, sequence);
+	}
+
+	/**
+	 * Blocks until every event published before the call has been written and flushed.
+	 */
+	public void flush() {
+		final long target = _claimed.get();
+		while (_flushed.get() < target && _writer.isAlive()) { LockSupport.parkNanos(IDLE_PARK_NANOS / 10); }
+	}
+
+	/**
+	 * Events turned away because the writer was a full ring behind, or after close.
+	 */
+	public long getDroppedCount() {
+		return _dropped.sum();
+	}
+
+	/**
+	 * Writes out what was published and stops the writer; later events are dropped.
+	 */
+	@Override
+	public void close() {
+		if (!_running) return;
+		_running = false;
+		try {
+			_writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final long dropped = getDroppedCount();
+		if (dropped > 0) logger.warn("{} journal events were dropped", dropped);
+	}
+
+	private void drain() {
+		final StringBuilder batch = new StringBuilder(BATCH_SIZE * 96);
+		final Formatter formatter = new Formatter(batch);
+		long next = _consumed.get();
+		int pending = 0;
+		try {
+			while (_running || next < _claimed.get()) {
+				final int slot = (int) next & _mask;
+				if (_published.get(slot) == next) {
+					format(formatter, _events[slot]);
+					_consumed.lazySet(++next);
+					if (++pending < BATCH_SIZE) continue;
+				} else if (pending == 0) {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+				_out.append(batch);
+				_out.flush();
+				batch.setLength(0);
+				pending = 0;
+				_flushed.set(next);
+			}
+			_out.append(batch);
+			_out.flush();
+			_flushed.set(next);
+			if (_closeOut) _out.close();
+		} catch (IOException e) {
+			logger.error("Journal output failed, {} events are lost", _claimed.get() - next, e);
+		}
+	}
+
+	static private void format(Formatter formatter, Event event) {
+		final Arg[] args = event._type._args;
+		final Object[] values = new Object[args.length];
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case THREAD: values[i] = event._thread.getName(); break;
+				case A: values[i] = event._a; break;
+				case B: values[i] = event._b; break;
+				case N: values[i] = event._n; break;
+				case M: values[i] = event._m; break;
+				case D: values[i] = event._d; break;
+			}
+		}
+		formatter.format(event._type._template, values);
+		//-- Nothing the slot points to is kept alive until it is reused
+		event._thread = null;
+		event._a = null;
+		event._b = null;
+	}
+}
@@ -1,29 +1,79 @@
 package org.learn.reactive.java8;
 
 import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class FilterOperations {
+	private static final EventJournal journal = EventJournal.getDefault();
+
 	public static Function<Stream<ShoppingCart>,Stream<ShoppingCart>> filterCartsByDate(LocalDate date) {
 		return carts -> {
-			System.out.printf("%s -- started filtering cart by date %s %n",
-					Thread.currentThread().getName(),
-					date.toString());
-			return carts.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(date));
+			journal.log(EventJournal.Type.CARTS_FILTERED_BY_DATE, date);
+			final long day = date.toEpochDay();
+			return carts.filter(cart -> cart.getCreationEpochDay() > day);
 		};
 	}
 
 	public static Function<Stream<ShoppingCart>,Stream<Customer>> filterCustomersByPurchases(double value) {
 		Function<Stream<ShoppingCart>,Stream<Customer>> customersByValue = carts -> {
-			System.out.printf("%s -- started filtering cart by purchase value %f %n",
-					Thread.currentThread().getName(),
-					value);
+			journal.log(EventJournal.Type.CARTS_FILTERED_BY_VALUE, value);
 			return carts
-					.filter(cart -> cart.getItems().stream().mapToDouble(item -> item.getValue()).sum() >= value)
-					.map(cart -> cart.getOrderedBy());
+					.filter(cart -> cart.getTotalValue() >= value)
+					.map(cart -> cart.getOrderedBy())
+					.filter(distinctCustomers());
 		};
 
 		return customersByValue;
 	}
+
+	public static Function<CartStore.CartSelection,CartStore.CartSelection> filterCartRowsByDate(LocalDate date) {
+		return selection -> {
+			journal.log(EventJournal.Type.ROWS_FILTERED_BY_DATE, selection.size(), date);
+			return selection.getStore().createdAfter(selection, date);
+		};
+	}
+
+	public static Function<CartStore.CartSelection,Stream<Customer>> filterCustomerRowsByPurchases(double value) {
+		return selection -> {
+			journal.log(EventJournal.Type.ROWS_FILTERED_BY_VALUE, selection.size(), value);
+			final CartStore store = selection.getStore();
+			return store.customersOf(store.purchasesAtLeast(selection, value)).filter(distinctCustomers());
+		};
+	}
+
+	public static Function<CartStore,Stream<Customer>> scanCustomersByDateAndPurchases(ParallelCartScanner scanner,
+	                                                                                   LocalDate date, double value) {
+		return store -> {
+			journal.log(EventJournal.Type.CARTS_SCANNED, store.size(), scanner.getParallelism(), date, value);
+			return store.customersOf(scanner.scan(store, date, value).getSelection()).filter(distinctCustomers());
+		};
+	}
+
+	public static Function<Stream<ShoppingCart>,List<TopCustomers.CustomerSpend>> topCustomersByPurchases(
+			LocalDate createdAfter, LocalDate createdBefore, int k) {
+		final TopCustomers topCustomers = new TopCustomers(createdAfter, createdBefore, k);
+		return carts -> {
+			journal.log(EventJournal.Type.TOP_CUSTOMERS_RANKED, k, createdAfter, createdBefore);
+			return topCustomers.rank(carts);
+		};
+	}
+
+	//-- A customer with several qualifying carts is eligible once; the lock only matters to parallel streams.
+	//-- Ids are only unique within a dictionary, so customers unknown to the shared one are told apart by value
+	private static Predicate<Customer> distinctCustomers() {
+		final CustomerDictionary dictionary = OrderHelper.getCustomerDictionary();
+		final LongHashSet seen = new LongHashSet();
+		final Set<Customer> others = new HashSet<>();
+		return customer -> {
+			final Customer known = dictionary.find(customer);
+			synchronized (seen) {
+				return null != known ? seen.add(known.getId()) : others.add(customer);
+			}
+		};
+	}
 }
@@ -0,0 +1,38 @@
+package org.learn.reactive.java8;
+
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Prints how many bytes the in-memory order model takes, using JOL to walk the object
+ * graphs. Shared objects such as interned customers and constant strings are counted
+ * once per graph, so the per-order figure over many orders is what an order really costs.
+ * JOL is a provided dependency, so run the report with jol-core on the classpath.
+ */
+public class FootprintReport {
+
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+		System.out.println(ClassLayout.parseClass(LineItem.class).toPrintable());
+		System.out.println(ClassLayout.parseClass(Order.class).toPrintable());
+
+		final Order single = OrderHelper.generateOrder();
+		System.out.printf("One order with %d items: %d bytes %n", single.getItems().size(),
+				GraphLayout.parseInstance(single).totalSize());
+		System.out.println(GraphLayout.parseInstance(single).toFootprint());
+
+		final List<Order> orders = IntStream.range(0, count)
+				.mapToObj(i -> OrderHelper.generateOrder())
+				.collect(Collectors.toList());
+		final GraphLayout all = GraphLayout.parseInstance(orders);
+		System.out.printf("%d orders: %d bytes, %.1f bytes per order, %.1f bytes per line item %n",
+				count, all.totalSize(), all.totalSize() / (double) count,
+				all.totalSize() / (double) (count * single.getItems().size()));
+		System.out.println(all.toFootprint());
+	}
+}
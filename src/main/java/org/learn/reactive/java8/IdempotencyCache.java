@@ -0,0 +1,328 @@
+package org.learn.reactive.java8;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the responses to partner notifications by idempotency key, so that a line item
+ * notified again, by a retry, a redelivery or a reprocessed order, gets the earlier response
+ * instead of reaching the partner twice. Concurrent sends of one key make a single call and
+ * share its response. Only responses that settle the notification are kept, e.g. an acceptance;
+ * empty responses, from failed or shed calls, are never kept.
+ * <p>
+ * The cache holds at most {@code maxEntries} responses, evicting the oldest first, each for
+ * {@code timeToLive}. Given a file, kept responses are appended to it and reloaded on the next
+ * start, one tab-separated line of expiry, key and Base64 response per entry; the file is
+ * rewritten with the live entries when loaded and whenever they are outnumbered by the lines of
+ * expired or evicted ones. Build instances with {@link IdempotencyCacheBuilder}.
+ */
+public class IdempotencyCache implements Closeable {
+	static private final Logger logger = LoggerFactory.getLogger(IdempotencyCache.class);
+	//-- Lines the file may hold before dead ones are worth compacting away
+	static private final int MIN_COMPACTION_LINES = 1024;
+
+	private final int _maxEntries;
+	private final long _timeToLiveMillis;
+	//-- Kept and in-flight entries, by key
+	private final Map<String,Entry> _entries = new ConcurrentHashMap<>();
+	//-- Kept entries, oldest first, for eviction; guarded by itself
+	private final LinkedHashMap<String,Entry> _kept = new LinkedHashMap<>();
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+	private final LongAdder _evictions = new LongAdder();
+	private final Path _file;
+	//-- Guards the writer and the line count, which compaction replaces
+	private final Object _fileLock = new Object();
+	private BufferedWriter _out;
+	private int _lines;
+
+	IdempotencyCache(int maxEntries, Duration timeToLive, Path file) throws IOException {
+		this._maxEntries = maxEntries;
+		this._timeToLiveMillis = timeToLive.toMillis();
+		this._file = file;
+		if (null != file) load();
+	}
+
+	/**
+	 * The cache the purchase actions share, so that a line item is notified once whichever
+	 * path notifies it. Persisted to {@code -Didempotency.file} if given.
+	 */
+	static public IdempotencyCache getDefault() {
+		return DefaultHolder.CACHE;
+	}
+
+	static private final class DefaultHolder {
+		static private final IdempotencyCache CACHE = createDefault();
+
+		static private IdempotencyCache createDefault() {
+			final String file = System.getProperty("idempotency.file");
+			try {
+				return new IdempotencyCacheBuilder()
+						.withMaxEntries(Integer.getInteger("idempotency.maxEntries", 100_000))
+						.withTimeToLive(Duration.ofMinutes(Long.getLong("idempotency.ttlMinutes", 60)))
+						.withFile(null == file ? null : Paths.get(file))
+						.build();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * The key of notifying {@code item} of order {@code orderId}; {@code attemptClass} tells
+	 * apart notifications of one item that are not duplicates, e.g. to different partners.
+	 */
+	static public String keyOf(UUID orderId, LineItem item, String attemptClass) {
+		return orderId + "/" + item.getItemId() + "/" + attemptClass;
+	}
+
+	/**
+	 * The response kept for {@code key}, else the response of {@code call}, kept if present.
+	 */
+	public Optional<String> send(String key, Supplier<Optional<String>> call) {
+		return send(key, call, response -> true);
+	}
+
+	/**
+	 * The response kept for {@code key}, else the response of {@code call}, kept if present and
+	 * {@code settles} it. Waits for a call of the same key already in flight rather than calling again.
+	 */
+	public Optional<String> send(String key, Supplier<Optional<String>> call, Predicate<String> settles) {
+		return send(key, call, settles, Deadline.none());
+	}
+
+	/**
+	 * Like {@link #send(String, Supplier, Predicate)}, but waiting for a call of the same key
+	 * already in flight only until {@code deadline} expires, then answering empty like a failed call.
+	 */
+	public Optional<String> send(String key, Supplier<Optional<String>> call, Predicate<String> settles, Deadline deadline) {
+		while (true) {
+			final Entry existing = _entries.get(key);
+			if (null != existing) {
+				if (existing.isExpired(System.currentTimeMillis())) {
+					forget(existing);
+					continue;
+				}
+				_hits.increment();
+				return await(existing, deadline);
+			}
+
+			final Entry entry = new Entry(key);
+			if (null != _entries.putIfAbsent(key, entry)) continue;
+			_misses.increment();
+
+			final Optional<String> response;
+			final boolean settled;
+			try {
+				response = call.get();
+				settled = response.isPresent() && settles.test(response.get());
+			} catch (Throwable e) {
+				//-- Whatever the call threw, callers that joined it are not left waiting
+				_entries.remove(key, entry);
+				entry._response.completeExceptionally(e);
+				throw e;
+			}
+			if (!settled) _entries.remove(key, entry);
+			//-- Callers that joined this call get its response, kept or not
+			entry._response.complete(response);
+			if (settled) keep(entry, response.get());
+			return response;
+		}
+	}
+
+	public long getHitCount() {
+		return _hits.sum();
+	}
+
+	public long getMissCount() {
+		return _misses.sum();
+	}
+
+	/** Share of sends answered without a call, 0 before the first send */
+	public double getHitRate() {
+		final long hits = getHitCount();
+		final long total = hits + getMissCount();
+		return total == 0 ? 0 : hits / (double) total;
+	}
+
+	/** Entries dropped to stay within the size bound */
+	public long getEvictionCount() {
+		return _evictions.sum();
+	}
+
+	public int size() {
+		return _entries.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (_fileLock) {
+			if (null != _out) _out.close();
+		}
+	}
+
+	static private Optional<String> await(Entry entry, Deadline deadline) {
+		if (!deadline.isBounded()) return entry._response.join();
+		try {
+			return entry._response.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			return Optional.empty();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Optional.empty();
+		} catch (ExecutionException e) {
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+	private void keep(Entry entry, String response) {
+		entry._expiresAtMillis = System.currentTimeMillis() + _timeToLiveMillis;
+		synchronized (_kept) {
+			_kept.put(entry._key, entry);
+			evictOverflow();
+		}
+		persist(entry, response);
+	}
+
+	private void forget(Entry entry) {
+		_entries.remove(entry._key, entry);
+		synchronized (_kept) {
+			_kept.remove(entry._key, entry);
+		}
+	}
+
+	//-- Caller holds _kept
+	private void evictOverflow() {
+		final Iterator<Entry> oldest = _kept.values().iterator();
+		while (_kept.size() > _maxEntries) {
+			final Entry entry = oldest.next();
+			oldest.remove();
+			if (_entries.remove(entry._key, entry)) _evictions.increment();
+		}
+	}
+
+	private void persist(Entry entry, String response) {
+		if (null == _file) return;
+		synchronized (_fileLock) {
+			try {
+				writeLine(_out, entry, response);
+				_out.flush();
+				_lines++;
+				if (_lines > MIN_COMPACTION_LINES && _lines > 2 * size()) compact();
+			} catch (IOException e) {
+				//-- The response is still kept in memory; only a restart would forget it
+				logger.warn("Could not persist idempotency key {}", entry._key, e);
+			}
+		}
+	}
+
+	static private void writeLine(BufferedWriter out, Entry entry, String response) throws IOException {
+		out.write(Long.toString(entry._expiresAtMillis));
+		out.write('\t');
+		out.write(entry._key);
+		out.write('\t');
+		out.write(Base64.getEncoder().encodeToString(response.getBytes(StandardCharsets.UTF_8)));
+		out.newLine();
+	}
+
+	private void load() throws IOException {
+		final long now = System.currentTimeMillis();
+		if (Files.exists(_file)) {
+			try (BufferedReader in = Files.newBufferedReader(_file, StandardCharsets.UTF_8)) {
+				String line;
+				while (null != (line = in.readLine())) {
+					final String[] fields = line.split("\t", -1);
+					//-- A line cut short by a crash has too few fields or does not parse
+					if (fields.length != 3) continue;
+					try {
+						final Entry entry = new Entry(fields[1]);
+						entry._expiresAtMillis = Long.parseLong(fields[0]);
+						if (entry.isExpired(now)) continue;
+						final String response = new String(Base64.getDecoder().decode(fields[2]), StandardCharsets.UTF_8);
+						entry._response.complete(Optional.of(response));
+						//-- A key written again, e.g. by a compaction racing its persist, keeps its latest line
+						final Entry replaced = _entries.put(entry._key, entry);
+						synchronized (_kept) {
+							if (null != replaced) _kept.remove(replaced._key);
+							_kept.put(entry._key, entry);
+							evictOverflow();
+						}
+					} catch (IllegalArgumentException e) {
+						logger.warn("Skipping unreadable idempotency entry in {}", _file);
+					}
+				}
+			}
+		}
+		synchronized (_fileLock) {
+			compact();
+		}
+		logger.info("Loaded {} idempotency keys from {}", _entries.size(), _file);
+	}
+
+	//-- Rewrites the file with the live kept entries and reopens it for appending; caller holds _fileLock
+	private void compact() throws IOException {
+		final long now = System.currentTimeMillis();
+		final List<Entry> live;
+		synchronized (_kept) {
+			live = new ArrayList<>(_kept.values());
+		}
+		final Path compacted = _file.resolveSibling(_file.getFileName() + ".tmp");
+		int lines = 0;
+		try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+			for (Entry entry : live) {
+				if (entry.isExpired(now)) continue;
+				writeLine(out, entry, entry._response.join().get());
+				lines++;
+			}
+		}
+		if (null != _out) _out.close();
+		Files.move(compacted, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		_out = Files.newBufferedWriter(_file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+		_lines = lines;
+	}
+
+	static private final class Entry {
+		private final String _key;
+		private final CompletableFuture<Optional<String>> _response = new CompletableFuture<>();
+		//-- Never expires while its call is in flight
+		private volatile long _expiresAtMillis = Long.MAX_VALUE;
+
+		private Entry(String key) {
+			this._key = key;
+		}
+
+		private boolean isExpired(long now) {
+			return _expiresAtMillis <= now;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package org.learn.reactive.java8;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class IdempotencyCacheBuilder {
+	private int _maxEntries = 100_000;
+	private Duration _timeToLive = Duration.ofHours(1);
+	private Path _file;
+
+	public IdempotencyCacheBuilder withMaxEntries(int maxEntries) {
+		this._maxEntries = maxEntries;
+		return this;
+	}
+
+	/**
+	 * How long a response is kept after it was received.
+	 */
+	public IdempotencyCacheBuilder withTimeToLive(Duration timeToLive) {
+		this._timeToLive = timeToLive;
+		return this;
+	}
+
+	/**
+	 * File the kept responses are persisted to and reloaded from; none keeps them in memory only.
+	 */
+	public IdempotencyCacheBuilder withFile(Path file) {
+		this._file = file;
+		return this;
+	}
+
+	public IdempotencyCache build() throws IOException {
+		if (_maxEntries < 1) throw new IllegalArgumentException("Entries must be positive, got " + _maxEntries);
+		if (_timeToLive.isNegative() || _timeToLive.isZero()) {
+			throw new IllegalArgumentException("Time to live must be positive, got " + _timeToLive);
+		}
+		return new IdempotencyCache(_maxEntries, _timeToLive, _file);
+	}
+}
@@ -0,0 +1,268 @@
+package org.learn.reactive.java8;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link ExecutorService} that times every task it hands to the pool behind it: how long
+ * the task waited to be picked up and how long it ran, along with how many tasks are queued,
+ * running and were turned away. Counters are {@link LongAdder}s and timings go to
+ * {@link LatencyHistogram}s, so recording costs a few uncontended increments per task.
+ * <p>
+ * Only tasks submitted through this executor are seen, so wrapping a shared pool such as
+ * the common pool measures the callers that use the wrapper, not everyone else. Create
+ * instances with {@link InstrumentedExecutors}.
+ */
+public class InstrumentedExecutor extends AbstractExecutorService {
+	private final String _name;
+	private final ExecutorService _delegate;
+	private final int _threads;
+	private final LongAdder _queued = new LongAdder();
+	private final LongAdder _active = new LongAdder();
+	private final LongAdder _submitted = new LongAdder();
+	private final LongAdder _completed = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private final LongAdder _busyNanos = new LongAdder();
+	private final LatencyHistogram _queueWait = new LatencyHistogram();
+	private final LatencyHistogram _execution = new LatencyHistogram();
+	private volatile long _sinceNanos = System.nanoTime();
+
+	InstrumentedExecutor(String name, ExecutorService delegate, int threads) {
+		this._name = name;
+		this._delegate = delegate;
+		this._threads = threads;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/** Threads the pool behind this executor can run tasks on at most */
+	public int getThreads() {
+		return _threads;
+	}
+
+	public int getQueuedCount() {
+		return (int) Math.max(0, _queued.sum());
+	}
+
+	public int getActiveCount() {
+		return (int) Math.max(0, _active.sum());
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (null == command) throw new NullPointerException();
+		final TimedTask task = new TimedTask(command);
+		//-- Counted before handing over, so a task picked up at once never shows a negative queue
+		_queued.increment();
+		try {
+			_delegate.execute(task);
+		} catch (RejectedExecutionException e) {
+			_queued.decrement();
+			_rejected.increment();
+			throw e;
+		}
+		_submitted.increment();
+	}
+
+	/**
+	 * Counters and timings as they are now; the histograms are copies. A task is recorded once
+	 * it returns, so a snapshot may lag work the task already made visible, e.g. a future it
+	 * completed; shut down and await termination first for a snapshot that covers every task.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Starts a new measurement period; queued and running tasks are still counted as such.
+	 */
+	public void reset() {
+		_submitted.reset();
+		_completed.reset();
+		_rejected.reset();
+		_busyNanos.reset();
+		_queueWait.reset();
+		_execution.reset();
+		_sinceNanos = System.nanoTime();
+	}
+
+	@Override
+	public void shutdown() {
+		_delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return _delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return _delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return _delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return _delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	private final class TimedTask implements Runnable {
+		private final Runnable _task;
+		private final long _enqueuedNanos = System.nanoTime();
+
+		private TimedTask(Runnable task) {
+			this._task = task;
+		}
+
+		@Override
+		public void run() {
+			final long started = System.nanoTime();
+			_queued.decrement();
+			_active.increment();
+			_queueWait.record(started - _enqueuedNanos);
+			try {
+				_task.run();
+			} finally {
+				final long ran = System.nanoTime() - started;
+				_execution.record(ran);
+				_busyNanos.add(ran);
+				_active.decrement();
+				_completed.increment();
+			}
+		}
+	}
+
+	/**
+	 * What an executor did since it was created or last reset.
+	 */
+	static public final class Snapshot {
+		private final String _name;
+		private final int _threads;
+		private final long _elapsedNanos;
+		private final int _queued;
+		private final int _active;
+		private final long _submitted;
+		private final long _completed;
+		private final long _rejected;
+		private final long _busyNanos;
+		private final LatencyHistogram _queueWait = new LatencyHistogram();
+		private final LatencyHistogram _execution = new LatencyHistogram();
+
+		private Snapshot(InstrumentedExecutor executor) {
+			this._name = executor._name;
+			this._threads = executor._threads;
+			this._elapsedNanos = Math.max(1, System.nanoTime() - executor._sinceNanos);
+			this._queued = executor.getQueuedCount();
+			this._active = executor.getActiveCount();
+			this._submitted = executor._submitted.sum();
+			this._completed = executor._completed.sum();
+			this._rejected = executor._rejected.sum();
+			this._busyNanos = executor._busyNanos.sum();
+			this._queueWait.add(executor._queueWait);
+			this._execution.add(executor._execution);
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public int getThreads() {
+			return _threads;
+		}
+
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(_elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public int getQueuedCount() {
+			return _queued;
+		}
+
+		public int getActiveCount() {
+			return _active;
+		}
+
+		public long getSubmittedCount() {
+			return _submitted;
+		}
+
+		public long getCompletedCount() {
+			return _completed;
+		}
+
+		public long getRejectedCount() {
+			return _rejected;
+		}
+
+		/** Submission to start, per task */
+		public LatencyHistogram getQueueWait() {
+			return _queueWait;
+		}
+
+		/** Start to finish, per task */
+		public LatencyHistogram getExecutionTime() {
+			return _execution;
+		}
+
+		/** Tasks finished per second */
+		public double getThroughput() {
+			return _completed * (double) TimeUnit.SECONDS.toNanos(1) / _elapsedNanos;
+		}
+
+		/**
+		 * Share of the pool's thread time spent running tasks, from 0 to 1.
+		 */
+		public double getUtilization() {
+			return Math.min(1.0, _busyNanos / ((double) _elapsedNanos * _threads));
+		}
+
+		/**
+		 * Tasks waiting or running per thread at the moment of the snapshot; above 1 the
+		 * pool has more work than threads and tasks queue.
+		 */
+		public double getSaturation() {
+			return (_active + _queued) / (double) _threads;
+		}
+
+		/**
+		 * Threads needed to carry the observed throughput at {@code targetUtilization}, by
+		 * Little's law: throughput times mean execution time is the number of tasks running
+		 * on average. Only meaningful when the pool was not already the bottleneck, or when
+		 * it queued: a saturated pool under-reports the demand it turned away.
+		 */
+		public int getSuggestedThreads(double targetUtilization) {
+			if (!(targetUtilization > 0 && targetUtilization <= 1)) {
+				throw new IllegalArgumentException("Target utilization must be in (0, 1], got " + targetUtilization);
+			}
+			final double running = getThroughput() * _execution.getMean() / TimeUnit.SECONDS.toNanos(1);
+			return Math.max(1, (int) Math.ceil(running / targetUtilization));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d threads, %d done, %d queued, %d active, %d rejected, %.1f tasks/s, " +
+							"utilization %.0f%%, wait p50=%.2fms p99=%.2fms, run p50=%.2fms p99=%.2fms",
+					_name, _threads, _completed, _queued, _active, _rejected, getThroughput(), 100 * getUtilization(),
+					_queueWait.getValueAtPercentile(50, TimeUnit.MILLISECONDS),
+					_queueWait.getValueAtPercentile(99, TimeUnit.MILLISECONDS),
+					_execution.getValueAtPercentile(50, TimeUnit.MILLISECONDS),
+					_execution.getValueAtPercentile(99, TimeUnit.MILLISECONDS));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory methods for {@link InstrumentedExecutor}s, mirroring {@link java.util.concurrent.Executors}.
+ * Threads are named {@code <name>-<n>} as with the pools configured by hand elsewhere.
+ */
+public final class InstrumentedExecutors {
+
+	private InstrumentedExecutors() {
+	}
+
+	static public InstrumentedExecutor newFixedThreadPool(String name, int threads) {
+		return new InstrumentedExecutor(name, new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), threadsNamed(name)), threads);
+	}
+
+	static public InstrumentedExecutor newSingleThreadExecutor(String name) {
+		return newFixedThreadPool(name, 1);
+	}
+
+	/**
+	 * A pool that grows from {@code coreThreads} to {@code maxThreads} once {@code queueCapacity}
+	 * tasks are waiting, and rejects tasks beyond that; rejections are counted.
+	 */
+	static public InstrumentedExecutor newBoundedThreadPool(String name, int coreThreads, int maxThreads,
+	                                                        long keepAlive, TimeUnit unit, int queueCapacity) {
+		return new InstrumentedExecutor(name, new ThreadPoolExecutor(coreThreads, maxThreads, keepAlive, unit,
+				new ArrayBlockingQueue<>(queueCapacity), threadsNamed(name)), maxThreads);
+	}
+
+	/**
+	 * The common pool as seen by the tasks submitted through the returned executor. Shutting
+	 * it down has no effect on the common pool.
+	 */
+	static public InstrumentedExecutor commonPool() {
+		return instrument("ForkJoinPool.commonPool", ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+
+	static public InstrumentedExecutor instrument(String name, ForkJoinPool pool) {
+		return instrument(name, pool, pool.getParallelism());
+	}
+
+	static public InstrumentedExecutor instrument(String name, ThreadPoolExecutor pool) {
+		return instrument(name, pool, pool.getMaximumPoolSize());
+	}
+
+	/**
+	 * Wraps any pool; {@code threads} is what utilization and saturation are measured against.
+	 */
+	static public InstrumentedExecutor instrument(String name, ExecutorService pool, int threads) {
+		if (threads < 1) throw new IllegalArgumentException("Thread count must be positive");
+		return new InstrumentedExecutor(name, pool, threads);
+	}
+
+	static private ThreadFactory threadsNamed(String name) {
+		return new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+	}
+}
@@ -0,0 +1,117 @@
+package org.learn.reactive.java8;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (usually nanoseconds) with log-linear
+ * buckets in the spirit of HdrHistogram: values below 64 are counted exactly, larger
+ * values land in buckets no wider than 1/32 of their magnitude (~3% relative error).
+ * Recording is a couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+	static private final int PRECISION_BITS = 6;
+	static private final int SUB_BUCKETS = 1 << PRECISION_BITS;
+	static private final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	static private final int BUCKETS = SUB_BUCKETS + (63 - PRECISION_BITS + 1) * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+		_counts.incrementAndGet(indexOf(value));
+		_count.increment();
+		_sum.add(value);
+		long max;
+		while (value > (max = _max.get()) && !_max.compareAndSet(max, value)) { }
+	}
+
+	public void recordNanosSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return _count.sum();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) _sum.sum() / count;
+	}
+
+	/**
+	 * Smallest bucket bound below which {@code percentile} percent of the values fall,
+	 * e.g. {@code getValueAtPercentile(99.9)}.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long count = getCount();
+		if (count == 0) return 0;
+		final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += _counts.get(index);
+			if (seen >= rank) return Math.min(highestValueIn(index), getMax());
+		}
+		return getMax();
+	}
+
+	public double getValueAtPercentile(double percentile, TimeUnit unit) {
+		return getValueAtPercentile(percentile) / (double) unit.toNanos(1);
+	}
+
+	/**
+	 * Adds the counts of {@code other} to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int index = 0; index < BUCKETS; index++) {
+			final long count = other._counts.get(index);
+			if (count != 0) _counts.addAndGet(index, count);
+		}
+		_count.add(other._count.sum());
+		_sum.add(other._sum.sum());
+		final long otherMax = other.getMax();
+		long max;
+		while (otherMax > (max = _max.get()) && !_max.compareAndSet(max, otherMax)) { }
+	}
+
+	public void reset() {
+		for (int index = 0; index < BUCKETS; index++) { _counts.set(index, 0); }
+		_count.reset();
+		_sum.reset();
+		_max.set(0);
+	}
+
+	/**
+	 * p50/p99/p99.9/max in milliseconds, for log lines.
+	 */
+	public String summary() {
+		return String.format("count=%d p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+				getCount(),
+				getValueAtPercentile(50, TimeUnit.MILLISECONDS),
+				getValueAtPercentile(99, TimeUnit.MILLISECONDS),
+				getValueAtPercentile(99.9, TimeUnit.MILLISECONDS),
+				getMax() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		final int shift = (63 - Long.numberOfLeadingZeros(value)) - (PRECISION_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+	}
+
+	static long highestValueIn(int index) {
+		if (index < SUB_BUCKETS) return index;
+		final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		final long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
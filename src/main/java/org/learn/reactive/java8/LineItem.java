@@ -2,40 +2,73 @@ package org.learn.reactive.java8;
 
 import java.util.UUID;
 
+/**
+ * A line item kept compact, since millions of them are held in memory during
+ * reconciliation: the id as two {@code long}s, the description and vendor as ordinals into
+ * shared dictionaries, and the value as a fixed-point {@code long} with {@link #VALUE_SCALE}
+ * units per currency unit. The getters rebuild the original representations on demand.
+ * <p>
+ * The dictionaries are shared by all line items and never forget a string, so their size
+ * is the number of distinct descriptions and vendors ever seen; there is no fixed cap.
+ * A null description or vendor stays null.
+ */
 public class LineItem {
-	private final String _itemId;
+	static public final long VALUE_SCALE = 10_000;
+	static private final StringDictionary descriptions = new StringDictionary();
+	static private final StringDictionary vendors = new StringDictionary();
 
-	public String getItemId() {
-		return _itemId;
-	}
-
-	private final String _description;
-	private final String _fulfilledBy;
-	private final double _value;
+	private final long _idMostSigBits;
+	private final long _idLeastSigBits;
+	private final long _value;
 	private final int _quantity;
+	//-- ints rather than shorts cost nothing, the object is padded to 48 bytes either way
+	private final int _description;
+	private final int _fulfilledBy;
 
 	public LineItem(String description, String fulfilledBy, double value, int quantity) {
-		this._itemId = UUID.randomUUID().toString();
-		this._description = description;
-		this._fulfilledBy = fulfilledBy;
-		this._value = value;
+		this(UUID.randomUUID(), description, fulfilledBy, Math.round(value * VALUE_SCALE), quantity);
+	}
+
+	LineItem(UUID id, String description, String fulfilledBy, long scaledValue, int quantity) {
+		this._idMostSigBits = id.getMostSignificantBits();
+		this._idLeastSigBits = id.getLeastSignificantBits();
+		this._description = descriptions.encode(description);
+		this._fulfilledBy = vendors.encode(fulfilledBy);
+		this._value = scaledValue;
 		this._quantity = quantity;
 	}
 
+	public String getItemId() {
+		return new UUID(_idMostSigBits, _idLeastSigBits).toString();
+	}
+
+	long getIdMostSigBits() {
+		return _idMostSigBits;
+	}
+
+	long getIdLeastSigBits() {
+		return _idLeastSigBits;
+	}
+
 	public int getQuantity() {
 		return _quantity;
 	}
 
 	public String getDescription() {
-
-		return _description;
+		return descriptions.decode(_description);
 	}
 
 	public String getFulfilledBy() {
-		return _fulfilledBy;
+		return vendors.decode(_fulfilledBy);
 	}
 
+	/** Value rounded to 1/{@link #VALUE_SCALE} of a currency unit */
 	public double getValue() {
+		return _value / (double) VALUE_SCALE;
+	}
+
+	/** Value in 1/{@link #VALUE_SCALE} currency units, for exact sums */
+	public long getScaledValue() {
 		return _value;
 	}
 
@@ -46,11 +79,11 @@ public class LineItem {
 
 		LineItem lineItem = (LineItem) o;
 
-		return _itemId.equals(lineItem._itemId);
+		return _idMostSigBits == lineItem._idMostSigBits && _idLeastSigBits == lineItem._idLeastSigBits;
 	}
 
 	@Override
 	public int hashCode() {
-		return _itemId.hashCode();
+		return Long.hashCode(_idMostSigBits ^ _idLeastSigBits);
 	}
 }
@@ -0,0 +1,64 @@
+package org.learn.reactive.java8;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of {@code long}s with linear probing, the set counterpart of
+ * {@link LongLongHashMap}. {@link Long#MIN_VALUE} is reserved. Not thread safe.
+ */
+public class LongHashSet {
+	static private final long EMPTY = Long.MIN_VALUE;
+	static private final int MIN_CAPACITY = 16;
+
+	private long[] _keys;
+	private int _size;
+	private int _mask;
+
+	public LongHashSet() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Adds {@code key} and returns true if it was not already present.
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+		int slot = find(key);
+		if (_keys[slot] == key) return false;
+		if (_size + 1 > (_keys.length >> 1)) {
+			rehash(_keys.length << 1);
+			slot = find(key);
+		}
+		_keys[slot] = key;
+		_size++;
+		return true;
+	}
+
+	public boolean contains(long key) {
+		return key != EMPTY && _keys[find(key)] == key;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	private int find(long key) {
+		int slot = LongLongHashMap.mix(key) & _mask;
+		while (_keys[slot] != EMPTY && _keys[slot] != key) { slot = (slot + 1) & _mask; }
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		final long[] keys = _keys;
+		allocate(capacity);
+		for (long key : keys) {
+			if (key != EMPTY) _keys[find(key)] = key;
+		}
+	}
+
+	private void allocate(int capacity) {
+		_keys = new long[capacity];
+		Arrays.fill(_keys, EMPTY);
+		_mask = capacity - 1;
+	}
+}
@@ -0,0 +1,122 @@
+package org.learn.reactive.java8;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from {@code long} to {@code long} with linear probing, for hot
+ * aggregation loops where boxing every key and value would dominate the cost.
+ * <p>
+ * {@link Long#MIN_VALUE} marks empty slots and cannot be used as a key. Absent keys read
+ * as 0. Not thread safe; aggregate per thread and {@link #addAll} the results.
+ */
+public class LongLongHashMap {
+	static private final long EMPTY = Long.MIN_VALUE;
+	static private final int MIN_CAPACITY = 16;
+
+	private long[] _keys;
+	private long[] _values;
+	private int _size;
+	private int _mask;
+
+	public LongLongHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongLongHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	public long get(long key) {
+		final int slot = find(key);
+		return _keys[slot] == EMPTY ? 0 : _values[slot];
+	}
+
+	public boolean containsKey(long key) {
+		return _keys[find(key)] != EMPTY;
+	}
+
+	/**
+	 * Adds {@code delta} to the value of {@code key}, inserting it at 0 first if absent,
+	 * and returns the new value.
+	 */
+	public long addTo(long key, long delta) {
+		if (key == EMPTY) throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+		int slot = find(key);
+		if (_keys[slot] == EMPTY) {
+			if (_size + 1 > (_keys.length >> 1)) {
+				rehash(_keys.length << 1);
+				slot = find(key);
+			}
+			_keys[slot] = key;
+			_size++;
+		}
+		return _values[slot] += delta;
+	}
+
+	public void addAll(LongLongHashMap other) {
+		for (int slot = 0; slot < other._keys.length; slot++) {
+			if (other._keys[slot] != EMPTY) addTo(other._keys[slot], other._values[slot]);
+		}
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	//-- Slot level access, so callers can walk or split the table without an iterator
+	public int capacity() {
+		return _keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return _keys[slot] != EMPTY;
+	}
+
+	public long keyAt(int slot) {
+		return _keys[slot];
+	}
+
+	public long valueAt(int slot) {
+		return _values[slot];
+	}
+
+	private int find(long key) {
+		int slot = mix(key) & _mask;
+		while (_keys[slot] != EMPTY && _keys[slot] != key) { slot = (slot + 1) & _mask; }
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		final long[] keys = _keys;
+		final long[] values = _values;
+		allocate(capacity);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] == EMPTY) continue;
+			final int target = find(keys[slot]);
+			_keys[target] = keys[slot];
+			_values[target] = values[slot];
+		}
+	}
+
+	private void allocate(int capacity) {
+		_keys = new long[capacity];
+		_values = new long[capacity];
+		Arrays.fill(_keys, EMPTY);
+		_mask = capacity - 1;
+	}
+
+	static private int capacityFor(int expectedSize) {
+		final int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize) * 2 - 1) << 1;
+		return Math.max(MIN_CAPACITY, capacity);
+	}
+
+	//-- Murmur3 finalizer; sequential ordinals would otherwise cluster into long probe runs
+	static int mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,404 @@
+package org.learn.reactive.java8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Shopping carts kept outside the Java heap, one fixed-width slot per cart, so a cart
+ * history larger than the heap can be scanned without the collector ever tracing it.
+ * Slots live in direct buffers or, with a backing file, in buffers mapped from that file
+ * and paged in and out by the operating system.
+ * <pre>
+ *   slot : int itemCount (-1 when free), int epochDay, long idMsb (next free slot when free),
+ *          long idLsb, long customerId (-1 for none), long epochSecond, int nano, int reserved,
+ *          long totalScaledValue, item[itemsPerSlot]
+ *   item : long idMsb, long idLsb, long scaledValue, int quantity, u16 description, u16 vendor
+ * </pre>
+ * Removed slots are chained into a free list through the slots themselves and reused by
+ * later adds; updates overwrite a slot in place. Customers are stored by their id in the store's
+ * {@link CustomerDictionary}, those of other dictionaries after being interned into it. Scans hand out {@link CartView}s that read
+ * straight from the slot, so date and value filters allocate nothing per cart beyond the view.
+ * <p>
+ * Writes must come from one thread at a time. Scans may run in parallel while no one
+ * writes. A view reads whatever its slot holds when asked, so it changes with updates and
+ * is meaningless once the slot is removed; {@link CartView#detach()} takes a heap copy.
+ */
+public class OffHeapCartStore implements Closeable {
+	static public final int DEFAULT_ITEMS_PER_SLOT = 8;
+	static private final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+	static private final long NONE = -1;
+
+	//-- Offsets inside a slot
+	static private final int ITEM_COUNT = 0;
+	static private final int EPOCH_DAY = 4;
+	static private final int ID_MSB = 8;
+	static private final int NEXT_FREE = ID_MSB;
+	static private final int ID_LSB = 16;
+	static private final int CUSTOMER_ID = 24;
+	static private final int EPOCH_SECOND = 32;
+	static private final int NANO = 40;
+	static private final int TOTAL = 48;
+	static private final int SLOT_HEADER_SIZE = 56;
+
+	//-- Offsets inside an item
+	static private final int ITEM_SIZE = 32;
+	static private final int ITEM_ID_LSB = 8;
+	static private final int ITEM_VALUE = 16;
+	static private final int ITEM_QUANTITY = 24;
+	static private final int ITEM_DESCRIPTION = 28;
+	static private final int ITEM_VENDOR = 30;
+
+	private final FileChannel _channel;
+	private final CustomerDictionary _customers;
+	//-- Ordinals are stored as 16 bits, all ones standing for null
+	private final StringDictionary _strings = new StringDictionary(0xFFFF);
+	private final List<ByteBuffer> _chunks = new ArrayList<>();
+	private final int _itemsPerSlot;
+	private final int _slotSize;
+	private final int _slotsPerChunk;
+	private long _highWater;
+	private long _freeHead = NONE;
+	private long _size;
+
+	/**
+	 * A store in direct memory, which is bounded by {@code -XX:MaxDirectMemorySize}.
+	 */
+	public OffHeapCartStore() {
+		this(OrderHelper.getCustomerDictionary(), DEFAULT_ITEMS_PER_SLOT);
+	}
+
+	public OffHeapCartStore(CustomerDictionary customers, int itemsPerSlot) {
+		this(null, customers, itemsPerSlot, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * A store mapped from {@code file}, which is created or truncated and only bounded by
+	 * disk space. The file is scratch space: it is not readable once the store is closed.
+	 */
+	public OffHeapCartStore(Path file, CustomerDictionary customers, int itemsPerSlot) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING), customers, itemsPerSlot, DEFAULT_CHUNK_SIZE);
+	}
+
+	OffHeapCartStore(FileChannel channel, CustomerDictionary customers, int itemsPerSlot, int chunkSize) {
+		if (itemsPerSlot < 1) throw new IllegalArgumentException("Slots must hold at least one item, got " + itemsPerSlot);
+		this._channel = channel;
+		this._customers = customers;
+		this._itemsPerSlot = itemsPerSlot;
+		this._slotSize = SLOT_HEADER_SIZE + itemsPerSlot * ITEM_SIZE;
+		this._slotsPerChunk = Math.max(1, chunkSize / _slotSize);
+	}
+
+	/**
+	 * Copies {@code cart} into a free slot and returns the slot, which stays valid until removed.
+	 */
+	public long add(ShoppingCart cart) {
+		checkItems(cart);
+		final long slot;
+		if (_freeHead != NONE) {
+			slot = _freeHead;
+			_freeHead = chunkOf(slot).getLong(offsetOf(slot) + NEXT_FREE);
+		} else {
+			slot = _highWater;
+			if (slot == (long) _chunks.size() * _slotsPerChunk) allocateChunk();
+			_highWater++;
+		}
+		write(slot, cart);
+		_size++;
+		return slot;
+	}
+
+	/**
+	 * Overwrites the cart in {@code slot} with {@code cart}, for example after items were added.
+	 */
+	public void update(long slot, ShoppingCart cart) {
+		checkUsed(slot);
+		checkItems(cart);
+		write(slot, cart);
+	}
+
+	/**
+	 * Frees {@code slot} for reuse and returns true, or returns false if it was already free.
+	 */
+	public boolean remove(long slot) {
+		if (!isUsed(checkSlot(slot))) return false;
+		final ByteBuffer chunk = chunkOf(slot);
+		final int offset = offsetOf(slot);
+		chunk.putInt(offset + ITEM_COUNT, -1);
+		chunk.putLong(offset + NEXT_FREE, _freeHead);
+		_freeHead = slot;
+		_size--;
+		return true;
+	}
+
+	public CartView get(long slot) {
+		checkUsed(slot);
+		return new CartView(this, chunkOf(slot), offsetOf(slot), slot);
+	}
+
+	public long size() {
+		return _size;
+	}
+
+	/**
+	 * Bytes held in slots, used or free.
+	 */
+	public long getReservedBytes() {
+		return (long) _chunks.size() * _slotsPerChunk * _slotSize;
+	}
+
+	public int getItemsPerSlot() {
+		return _itemsPerSlot;
+	}
+
+	/**
+	 * Every cart in the store, in slot order.
+	 */
+	public Stream<ShoppingCart> carts() {
+		return slots().mapToObj(slot -> new CartView(this, chunkOf(slot), offsetOf(slot), slot));
+	}
+
+	/**
+	 * Carts created strictly after {@code date}. Only the day of each slot is read until one matches.
+	 */
+	public Stream<ShoppingCart> createdAfter(LocalDate date) {
+		final long day = date.toEpochDay();
+		return slots()
+				.filter(slot -> chunkOf(slot).getInt(offsetOf(slot) + EPOCH_DAY) > day)
+				.mapToObj(slot -> new CartView(this, chunkOf(slot), offsetOf(slot), slot));
+	}
+
+	@Override
+	public void close() throws IOException {
+		_chunks.clear();
+		_highWater = 0;
+		_freeHead = NONE;
+		_size = 0;
+		if (null != _channel) _channel.close();
+	}
+
+	private LongStream slots() {
+		return LongStream.range(0, _highWater).filter(this::isUsed);
+	}
+
+	private boolean isUsed(long slot) {
+		return chunkOf(slot).getInt(offsetOf(slot) + ITEM_COUNT) >= 0;
+	}
+
+	private ByteBuffer chunkOf(long slot) {
+		return _chunks.get((int) (slot / _slotsPerChunk));
+	}
+
+	private int offsetOf(long slot) {
+		return (int) (slot % _slotsPerChunk) * _slotSize;
+	}
+
+	private void allocateChunk() {
+		final int bytes = _slotsPerChunk * _slotSize;
+		final ByteBuffer chunk;
+		if (null == _channel) {
+			chunk = ByteBuffer.allocateDirect(bytes);
+		} else {
+			try {
+				chunk = _channel.map(FileChannel.MapMode.READ_WRITE, (long) _chunks.size() * bytes, bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		_chunks.add(chunk.order(ByteOrder.nativeOrder()));
+	}
+
+	private void write(long slot, ShoppingCart cart) {
+		final ByteBuffer chunk = chunkOf(slot);
+		final int offset = offsetOf(slot);
+		final List<LineItem> items = cart.getItems();
+		final LocalDateTime createdOn = cart.getCreationDateTime();
+		final Customer customer = cart.getOrderedBy();
+		long total = 0;
+		int item = offset + SLOT_HEADER_SIZE;
+		for (LineItem lineItem : items) {
+			chunk.putLong(item, lineItem.getIdMostSigBits())
+					.putLong(item + ITEM_ID_LSB, lineItem.getIdLeastSigBits())
+					.putLong(item + ITEM_VALUE, lineItem.getScaledValue())
+					.putInt(item + ITEM_QUANTITY, lineItem.getQuantity())
+					.putShort(item + ITEM_DESCRIPTION, (short) _strings.encode(lineItem.getDescription()))
+					.putShort(item + ITEM_VENDOR, (short) _strings.encode(lineItem.getFulfilledBy()));
+			total += lineItem.getScaledValue();
+			item += ITEM_SIZE;
+		}
+		chunk.putInt(offset + EPOCH_DAY, Math.toIntExact(cart.getCreationEpochDay()))
+				.putLong(offset + ID_MSB, cart.getId().getMostSignificantBits())
+				.putLong(offset + ID_LSB, cart.getId().getLeastSignificantBits())
+				.putLong(offset + CUSTOMER_ID, null == customer ? NONE : idOf(customer))
+				.putLong(offset + EPOCH_SECOND, createdOn.toEpochSecond(ZoneOffset.UTC))
+				.putInt(offset + NANO, createdOn.getNano())
+				.putLong(offset + TOTAL, total)
+				//-- Last, so a slot never looks used before the rest of it is written
+				.putInt(offset + ITEM_COUNT, items.size());
+	}
+
+	//-- Ids of other dictionaries collide with the store's own, so their customers are interned here first
+	private long idOf(Customer customer) {
+		if (customer.isInternedIn(_customers)) return customer.getId();
+		return _customers.intern(customer.getFirstName(), customer.getLastName(),
+				customer.getShippingAddress(), customer.getContactNumber()).getId();
+	}
+
+	private void checkItems(ShoppingCart cart) {
+		if (cart.getItems().size() > _itemsPerSlot) {
+			throw new IllegalArgumentException("At most " + _itemsPerSlot + " items per cart, got " + cart.getItems().size());
+		}
+	}
+
+	private long checkSlot(long slot) {
+		if (slot < 0 || slot >= _highWater) throw new IndexOutOfBoundsException("Slot " + slot + ", slots " + _highWater);
+		return slot;
+	}
+
+	private void checkUsed(long slot) {
+		if (!isUsed(checkSlot(slot))) throw new IllegalArgumentException("Slot " + slot + " is free");
+	}
+
+	private List<LineItem> items(ByteBuffer chunk, int offset) {
+		final int count = chunk.getInt(offset + ITEM_COUNT);
+		final List<LineItem> items = new ArrayList<>(count);
+		for (int i = 0, item = offset + SLOT_HEADER_SIZE; i < count; i++, item += ITEM_SIZE) {
+			items.add(new LineItem(new UUID(chunk.getLong(item), chunk.getLong(item + ITEM_ID_LSB)),
+					stringAt(chunk, item + ITEM_DESCRIPTION),
+					stringAt(chunk, item + ITEM_VENDOR),
+					chunk.getLong(item + ITEM_VALUE),
+					chunk.getInt(item + ITEM_QUANTITY)));
+		}
+		return items;
+	}
+
+	private String stringAt(ByteBuffer chunk, int offset) {
+		final int ordinal = chunk.getShort(offset) & 0xFFFF;
+		return _strings.decode(ordinal == 0xFFFF ? StringDictionary.NULL : ordinal);
+	}
+
+	/**
+	 * A cart read in place from its slot. Use {@link #detach()} to keep a heap copy.
+	 */
+	static public final class CartView extends ShoppingCart {
+		private final OffHeapCartStore _store;
+		private final ByteBuffer _chunk;
+		private final int _offset;
+		private final long _slot;
+
+		private CartView(OffHeapCartStore store, ByteBuffer chunk, int offset, long slot) {
+			this._store = store;
+			this._chunk = chunk;
+			this._offset = offset;
+			this._slot = slot;
+		}
+
+		public long getSlot() {
+			return _slot;
+		}
+
+		@Override
+		public UUID getId() {
+			return new UUID(_chunk.getLong(_offset + ID_MSB), _chunk.getLong(_offset + ID_LSB));
+		}
+
+		@Override
+		public Customer getOrderedBy() {
+			final long id = _chunk.getLong(_offset + CUSTOMER_ID);
+			return id == NONE ? null : _store._customers.get(id);
+		}
+
+		@Override
+		public List<LineItem> getItems() {
+			return _store.items(_chunk, _offset);
+		}
+
+		@Override
+		public LocalDateTime getCreationDateTime() {
+			return LocalDateTime.ofEpochSecond(_chunk.getLong(_offset + EPOCH_SECOND),
+					_chunk.getInt(_offset + NANO), ZoneOffset.UTC);
+		}
+
+		@Override
+		public long getCreationEpochDay() {
+			return _chunk.getInt(_offset + EPOCH_DAY);
+		}
+
+		@Override
+		public double getTotalValue() {
+			return _chunk.getLong(_offset + TOTAL) / (double) LineItem.VALUE_SCALE;
+		}
+
+		public ShoppingCart detach() {
+			return new ShoppingCart(getId(), getOrderedBy(), getItems(), getCreationDateTime());
+		}
+	}
+
+	//-- Runs the discount pipeline over carts on the heap and off it, reporting GC work for each
+	public static void main(String[] args) throws IOException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		final LocalDate endOfFY = LocalDate.of(2017, 3, 31);
+		final SplittableRandom random = new SplittableRandom(39);
+		final List<Customer> customers = new ArrayList<>();
+		OrderHelper.createCarts(100_000).forEach(cart -> customers.add(cart.getOrderedBy()));
+		final Path file = Files.createTempFile("carts", ".slots");
+
+		try (OffHeapCartStore store = new OffHeapCartStore(file, OrderHelper.getCustomerDictionary(), 4)) {
+			final List<ShoppingCart> heap = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				final ShoppingCart cart = new ShoppingCart(customers.get(random.nextInt(customers.size())),
+						OrderHelper.generateLineItems(1 + random.nextInt(3)),
+						LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), LocalTime.NOON));
+				heap.add(cart);
+				store.add(cart);
+			}
+			System.out.printf("%d carts, %.1f MB of slots %n", count, store.getReservedBytes() / (1024.0 * 1024.0));
+
+			for (int round = 0; round < 5; round++) {
+				run("heap    ", round, () -> heap.stream().filter(cart -> cart.getCreationEpochDay() > endOfFY.toEpochDay()));
+				run("off-heap", round, () -> OrderHelper.fetchAllShoppingCarts(store, endOfFY));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	static private void run(String name, int round, Supplier<Stream<ShoppingCart>> source) {
+		System.gc();
+		final long collections = collections();
+		final long started = System.nanoTime();
+		final long eligible = FilterOperations.filterCustomersByPurchases(50_000).apply(source.get()).count();
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+		System.out.printf("Round %d %s: %d eligible customers in %d ms, %d collections %n",
+				round, name, eligible, millis, collections() - collections);
+	}
+
+	static private long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+}
@@ -1,31 +1,58 @@
 package org.learn.reactive.java8;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * An order kept compact like its {@link LineItem}s: the id as two {@code long}s, the
+ * purchase time as seconds and nanos instead of a {@link LocalDateTime} graph, and the
+ * items as an exactly sized array.
+ */
 public class Order {
-	private final UUID _id = UUID.randomUUID();
-	private final LocalDateTime _purchaseDateTime;
-	private final List<LineItem> _items;
+	private final long _idMostSigBits;
+	private final long _idLeastSigBits;
+	private final long _purchasedAtEpochSecond;
+	private final int _purchasedAtNano;
+	private final LineItem[] _items;
 	private final Customer _customer;
 
 	public Order(LocalDateTime purchaseDateTime, List<LineItem> items, Customer customer) {
-		this._purchaseDateTime = purchaseDateTime;
-		this._items = items;
+		this(UUID.randomUUID(), purchaseDateTime, items, customer);
+	}
+
+	Order(UUID id, LocalDateTime purchaseDateTime, List<LineItem> items, Customer customer) {
+		this._idMostSigBits = id.getMostSignificantBits();
+		this._idLeastSigBits = id.getLeastSignificantBits();
+		this._purchasedAtEpochSecond = purchaseDateTime.toEpochSecond(ZoneOffset.UTC);
+		this._purchasedAtNano = purchaseDateTime.getNano();
+		this._items = items.toArray(new LineItem[0]);
 		this._customer = customer;
 	}
 
+	//-- For views that keep their state elsewhere and override every getter
+	protected Order() {
+		this._idMostSigBits = 0;
+		this._idLeastSigBits = 0;
+		this._purchasedAtEpochSecond = 0;
+		this._purchasedAtNano = 0;
+		this._items = null;
+		this._customer = null;
+	}
+
 	public UUID getId() {
-		return _id;
+		return new UUID(_idMostSigBits, _idLeastSigBits);
 	}
 
 	public LocalDateTime getPurchaseDateTime() {
-		return _purchaseDateTime;
+		return LocalDateTime.ofEpochSecond(_purchasedAtEpochSecond, _purchasedAtNano, ZoneOffset.UTC);
 	}
 
+	/** Fixed-size view over the order's items */
 	public List<LineItem> getItems() {
-		return _items;
+		return Arrays.asList(_items);
 	}
 
 	public Customer getCustomer() {
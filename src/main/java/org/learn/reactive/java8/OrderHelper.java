@@ -6,10 +6,11 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.Month;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -52,9 +53,10 @@ public class OrderHelper {
 		put("Patanjali", INVALID_VENDOR_SERVICE);
 	}};
 
-	static private final Random vendorIndex = new Random(vendors.length - 1);
-	static private final Random typeIndex = new Random(itemTypes.length - 1);
-	static private final Random valueIndex = new Random(values.length - 1);
+	static private final CustomerDictionary customers = new CustomerDictionary();
+
+	//-- Carts made up per fetch, to simulate some latency; -Dorders.fetch.volume raises it
+	static private final int fetchVolume = Integer.getInteger("orders.fetch.volume", 1_00);
 
 	public static List<LineItem> generateLineItems(int count) {
 		return IntStream.rangeClosed(1, count)
@@ -67,7 +69,7 @@ public class OrderHelper {
 	}
 
 	public static ShoppingCart createCart(Customer orderedBy) {
-		int month = new Random().nextInt(12); month = month == 0 ? 1 : month;
+		int month = ThreadLocalRandom.current().nextInt(12); month = month == 0 ? 1 : month;
 		return new ShoppingCart(
 				orderedBy,
 				generateLineItems(1),
@@ -75,9 +77,27 @@ public class OrderHelper {
 	}
 
 	public static Stream<ShoppingCart> fetchAllShoppingCarts(LocalDate dateAfter) {
-		//-- Simulate some latency by increasing the cart volume
-		return createCarts(1_00)
-				.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(dateAfter));
+		final long dayAfter = dateAfter.toEpochDay();
+		return createCarts(fetchVolume)
+				.filter(cart -> cart.getCreationEpochDay() > dayAfter);
+	}
+
+	public static Stream<ShoppingCart> fetchAllShoppingCarts(CartDateIndex index, LocalDate dateAfter) {
+		return index.createdAfter(dateAfter);
+	}
+
+	public static Stream<ShoppingCart> fetchAllShoppingCarts(CartDateIndex index, LocalDate dateAfter, LocalDate dateBefore) {
+		return index.createdBetween(dateAfter, dateBefore);
+	}
+
+	public static Stream<ShoppingCart> fetchAllShoppingCarts(OffHeapCartStore store, LocalDate dateAfter) {
+		return store.createdAfter(dateAfter);
+	}
+
+	public static Stream<ShoppingCart> fetchAllShoppingCarts(DatasetGenerator generator, long count, LocalDate dateAfter) {
+		final long dayAfter = dateAfter.toEpochDay();
+		return generator.carts(count)
+				.filter(cart -> cart.getCreationEpochDay() > dayAfter);
 	}
 
 	public static Stream<ShoppingCart> createCarts(int count) {
@@ -92,8 +112,33 @@ public class OrderHelper {
 		return fallbackEndpointByVendor.get(item.getFulfilledBy());
 	}
 
+	/**
+	 * Points every vendor at the given services, e.g. a {@link PartnerStubServer}, instead of
+	 * the default ones. Call before orders are processed.
+	 */
+	public static void routeVendorsTo(String primaryEndpoint, String fallbackEndpoint) {
+		primaryEndpointByVendor.replaceAll((vendor, endpoint) -> primaryEndpoint);
+		fallbackEndpointByVendor.replaceAll((vendor, endpoint) -> fallbackEndpoint);
+	}
+
+	public static CustomerDictionary getCustomerDictionary() {
+		return customers;
+	}
+
+	static List<String> getItemTypes() {
+		return Arrays.asList(itemTypes);
+	}
+
+	static List<String> getVendors() {
+		return Arrays.asList(vendors);
+	}
+
+	static List<Double> getValues() {
+		return Arrays.stream(values).boxed().collect(Collectors.toList());
+	}
+
 	private static Customer createCustomer(String firstName, String lastName) {
-		return new Customer(
+		return customers.intern(
 				StringUtils.isEmpty(firstName) ? "Dibakar" : firstName,
 				StringUtils.isEmpty(lastName) ? "Sen" : lastName,
 				"1st, Developer Street",
@@ -105,11 +150,13 @@ public class OrderHelper {
 				.mapToObj(num -> createCustomer("John-" + num, "Wick-" + num));
 	}
 
+	//-- ThreadLocalRandom, so parallel callers do not contend on one shared seed
 	private static LineItem createItem(int quantity) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
 		return new LineItem(
-				itemTypes[typeIndex.nextInt(itemTypes.length-1)],
-				vendors[vendorIndex.nextInt(vendors.length-1)],
-				values[valueIndex.nextInt(values.length-1)],
+				itemTypes[random.nextInt(itemTypes.length-1)],
+				vendors[random.nextInt(vendors.length-1)],
+				values[random.nextInt(values.length-1)],
 				quantity);
 	}
 }
@@ -0,0 +1,260 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.learn.reactive.java8.DatasetGenerator.Distribution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Drives a {@link PurchaseAction} with orders arriving at a fixed rate, open loop: order
+ * {@code i} is due at {@code start + i / rate} whether or not earlier orders have finished,
+ * as it would be with real customers. Each order runs on its own worker thread.
+ * <p>
+ * Latencies are measured from the time an order was due, not from the time it started,
+ * so a stall that delays the orders queued behind it shows up in every one of them rather
+ * than in a single sample: the coordinated-omission correction. Service time, from start
+ * to finish, is recorded alongside for comparison. Line items are timed the same way,
+ * from their order's due time to the moment the action reports them done.
+ * <p>
+ * Orders due while {@code maxInFlight} are still running are shed and counted, which marks
+ * the rate as beyond capacity. A shed order never finishes, so it has no latency to record,
+ * and the latency histograms of such a rate leave out exactly the orders that waited longest:
+ * their percentiles are flagged as invalid rather than reported as if they held. Build
+ * instances with {@link OrderLoadGeneratorBuilder}.
+ */
+public class OrderLoadGenerator implements AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(OrderLoadGenerator.class);
+
+	private final Function<Consumer<LineItem>,PurchaseAction<Order>> _actions;
+	private final LongFunction<Order> _orders;
+	private final Duration _warmup;
+	private final Duration _duration;
+	private final Duration _drainTimeout;
+	private final int _maxInFlight;
+	private final ExecutorService _workers = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setNameFormat("Load-worker-%d").setDaemon(true).build());
+	private long _nextOrder;
+
+	OrderLoadGenerator(Function<Consumer<LineItem>,PurchaseAction<Order>> actions, LongFunction<Order> orders,
+	                   Duration warmup, Duration duration, Duration drainTimeout, int maxInFlight) {
+		this._actions = actions;
+		this._orders = orders;
+		this._warmup = warmup;
+		this._duration = duration;
+		this._drainTimeout = drainTimeout;
+		this._maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Runs one warmup and one measured phase at {@code ordersPerSecond}.
+	 */
+	public Result run(double ordersPerSecond) throws InterruptedException {
+		if (!(ordersPerSecond > 0)) throw new IllegalArgumentException("Rate must be positive, got " + ordersPerSecond);
+		if (!_warmup.isZero()) drive(new Result(ordersPerSecond), _warmup);
+		final Result result = drive(new Result(ordersPerSecond), _duration);
+		logger.info("{} orders/s: {}", ordersPerSecond, result);
+		return result;
+	}
+
+	/**
+	 * Runs each rate in turn, e.g. to find where tail latency turns up.
+	 */
+	public List<Result> sweep(double... ordersPerSecond) throws InterruptedException {
+		final List<Result> results = new ArrayList<>();
+		for (double rate : ordersPerSecond) { results.add(run(rate)); }
+		return results;
+	}
+
+	@Override
+	public void close() {
+		_workers.shutdownNow();
+	}
+
+	private Result drive(Result result, Duration duration) throws InterruptedException {
+		final long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / result._targetRate));
+		final long start = System.nanoTime();
+		final long end = start + duration.toNanos();
+		long submitted = 0;
+		for (long due = start; due < end; due += interval) {
+			final long wait = due - System.nanoTime();
+			if (wait > 0) LockSupport.parkNanos(wait);
+			if (Thread.interrupted()) throw new InterruptedException();
+			if (result._inFlight.incrementAndGet() > _maxInFlight) {
+				result._inFlight.decrementAndGet();
+				result._shed.increment();
+				continue;
+			}
+			submit(result, _orders.apply(_nextOrder++), due);
+			submitted++;
+		}
+
+		final long deadline = System.nanoTime() + _drainTimeout.toNanos();
+		while (result._finished.sum() < submitted && System.nanoTime() < deadline) { Thread.sleep(5); }
+		result._elapsedNanos = Math.max(result._lastFinish.get(), end) - start;
+		if (result._finished.sum() < submitted) {
+			logger.warn("{} orders still running after {}", submitted - result._finished.sum(), _drainTimeout);
+		}
+		return result;
+	}
+
+	private void submit(Result result, Order order, long due) {
+		_workers.execute(() -> {
+			final long started = System.nanoTime();
+			try {
+				_actions.apply(item -> result._itemLatency.recordNanosSince(due)).execute(order);
+				result._succeeded.increment();
+			} catch (Exception e) {
+				logger.debug("Order {} failed", order.getId(), e);
+				result._failed.increment();
+			} finally {
+				final long finished = System.nanoTime();
+				result._orderLatency.record(finished - due);
+				result._serviceTime.record(finished - started);
+				result._lastFinish.accumulateAndGet(finished, Math::max);
+				result._inFlight.decrementAndGet();
+				result._finished.increment();
+			}
+		});
+	}
+
+	/**
+	 * Prints one line per rate: target, achieved throughput, latency percentiles and losses.
+	 * Latencies of a rate that shed orders are printed as {@code invalid}.
+	 */
+	static public void report(List<Result> results, PrintStream out) {
+		out.printf("%10s %10s %10s %10s %10s %10s %10s %8s %8s %n",
+				"target/s", "done/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99", "failed", "shed");
+		for (Result result : results) {
+			final LatencyHistogram latency = result.getOrderLatency();
+			out.printf("%10.1f %10.1f %10s %10s %10s %10s %10.2f %8d %8d %n",
+					result.getTargetRate(), result.getThroughput(),
+					millis(result, latency.getValueAtPercentile(50, TimeUnit.MILLISECONDS)),
+					millis(result, latency.getValueAtPercentile(99, TimeUnit.MILLISECONDS)),
+					millis(result, latency.getValueAtPercentile(99.9, TimeUnit.MILLISECONDS)),
+					millis(result, latency.getMax() / (double) TimeUnit.MILLISECONDS.toNanos(1)),
+					result.getServiceTime().getValueAtPercentile(99, TimeUnit.MILLISECONDS),
+					result.getFailedCount(), result.getShedCount());
+		}
+	}
+
+	static private String millis(Result result, double millis) {
+		return result.hasValidLatency() ? String.format("%.2f", millis) : "invalid";
+	}
+
+	/**
+	 * What one measured phase at a target rate produced.
+	 */
+	static public final class Result {
+		private final double _targetRate;
+		private final LatencyHistogram _orderLatency = new LatencyHistogram();
+		private final LatencyHistogram _itemLatency = new LatencyHistogram();
+		private final LatencyHistogram _serviceTime = new LatencyHistogram();
+		private final LongAdder _succeeded = new LongAdder();
+		private final LongAdder _failed = new LongAdder();
+		private final LongAdder _shed = new LongAdder();
+		private final LongAdder _finished = new LongAdder();
+		private final AtomicInteger _inFlight = new AtomicInteger();
+		private final AtomicLong _lastFinish = new AtomicLong(Long.MIN_VALUE);
+		private volatile long _elapsedNanos;
+
+		private Result(double targetRate) {
+			this._targetRate = targetRate;
+		}
+
+		public double getTargetRate() {
+			return _targetRate;
+		}
+
+		/**
+		 * Orders finished per second, from the first due time to the last finish.
+		 */
+		public double getThroughput() {
+			return _elapsedNanos == 0 ? 0 : _finished.sum() * (double) TimeUnit.SECONDS.toNanos(1) / _elapsedNanos;
+		}
+
+		/** Due time to finish, per order */
+		public LatencyHistogram getOrderLatency() {
+			return _orderLatency;
+		}
+
+		/** Due time of the order to completion of the item, per line item */
+		public LatencyHistogram getItemLatency() {
+			return _itemLatency;
+		}
+
+		/** Start to finish, per order; what a closed-loop client would have reported */
+		public LatencyHistogram getServiceTime() {
+			return _serviceTime;
+		}
+
+		public long getSucceededCount() {
+			return _succeeded.sum();
+		}
+
+		public long getFailedCount() {
+			return _failed.sum();
+		}
+
+		public long getShedCount() {
+			return _shed.sum();
+		}
+
+		/**
+		 * Whether the order and item latencies stand for every order due; false once any were
+		 * shed, as those would have waited longest and are missing from the histograms.
+		 */
+		public boolean hasValidLatency() {
+			return getShedCount() == 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.1f done/s, %d failed, %d shed, orders %s, items %s",
+					getThroughput(), getFailedCount(), getShedCount(),
+					hasValidLatency() ? _orderLatency.summary() : "invalid", hasValidLatency() ? _itemLatency.summary() : "invalid");
+		}
+	}
+
+	//-- Sweeps the scatter-gather purchase against stubbed partners
+	public static void main(String[] args) throws Exception {
+		final double[] rates = args.length > 0
+				? Arrays.stream(args).mapToDouble(Double::parseDouble).toArray()
+				: new double[] { 5, 10, 20, 40 };
+		try (PartnerStubServer server = new PartnerStubServer(0, 42).start()) {
+			final PartnerStubServer.Endpoint primary = server.endpoint("/partner/primary")
+					.withLatency(Distribution.exponential(Duration.ofMillis(5), Duration.ofMillis(20)))
+					.withFailureRate(0.02).withFailureStatus(200);
+			final PartnerStubServer.Endpoint fallback = server.endpoint("/partner/fallback")
+					.withLatency(Distribution.exponential(Duration.ofMillis(10), Duration.ofMillis(30)))
+					.withFailureRate(0.05).withFailureStatus(200);
+			final String fulfillment = server.endpoint("/fulfillment").getUrl();
+			final String failures = server.endpoint("/failures").getUrl();
+			OrderHelper.routeVendorsTo(primary.getUrl(), fallback.getUrl());
+
+			try (OrderLoadGenerator generator = new OrderLoadGeneratorBuilder()
+					.withActions(itemDone -> new ScatterGatherAndDecidePurchaseAction(fulfillment, failures, itemDone))
+					.withWarmup(Duration.ofSeconds(2))
+					.withDuration(Duration.ofSeconds(10))
+					.build()) {
+				final List<Result> results = generator.sweep(rates);
+				report(results, System.out);
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.learn.reactive.java8;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+public class OrderLoadGeneratorBuilder {
+	private Function<Consumer<LineItem>,PurchaseAction<Order>> _actions;
+	private LongFunction<Order> _orders;
+	private Duration _warmup = Duration.ofSeconds(5);
+	private Duration _duration = Duration.ofSeconds(30);
+	private Duration _drainTimeout = Duration.ofSeconds(30);
+	private int _maxInFlight = 1_000;
+
+	public OrderLoadGeneratorBuilder() { }
+
+	/**
+	 * Makes the action for one order. It is handed a callback to call as each line item is
+	 * done with, which actions that do not track items may ignore.
+	 */
+	public OrderLoadGeneratorBuilder withActions(Function<Consumer<LineItem>,PurchaseAction<Order>> actions) {
+		this._actions = actions;
+		return this;
+	}
+
+	/**
+	 * Order number {@code n} of the run; by default a seeded {@link DatasetGenerator}'s orders.
+	 */
+	public OrderLoadGeneratorBuilder withOrders(LongFunction<Order> orders) {
+		this._orders = orders;
+		return this;
+	}
+
+	/**
+	 * Time spent at each rate before measuring, e.g. for the JIT and connection pools.
+	 */
+	public OrderLoadGeneratorBuilder withWarmup(Duration warmup) {
+		this._warmup = warmup;
+		return this;
+	}
+
+	public OrderLoadGeneratorBuilder withDuration(Duration duration) {
+		this._duration = duration;
+		return this;
+	}
+
+	/**
+	 * How long to wait for orders still running when a phase ends.
+	 */
+	public OrderLoadGeneratorBuilder withDrainTimeout(Duration drainTimeout) {
+		this._drainTimeout = drainTimeout;
+		return this;
+	}
+
+	public OrderLoadGeneratorBuilder withMaxInFlight(int maxInFlight) {
+		this._maxInFlight = maxInFlight;
+		return this;
+	}
+
+	public OrderLoadGenerator build() {
+		if (null == _actions) throw new IllegalArgumentException("No purchase action to drive");
+		if (_maxInFlight < 1) throw new IllegalArgumentException("At least one order must be allowed in flight");
+		if (_duration.isNegative() || _duration.isZero()) throw new IllegalArgumentException("Duration must be positive");
+		if (_warmup.isNegative()) throw new IllegalArgumentException("Warmup must not be negative");
+		final LongFunction<Order> orders = null != _orders ? _orders
+				: new DatasetGeneratorBuilder().withSeed(42).withCustomerCount(1_000).build()::order;
+		return new OrderLoadGenerator(_actions, orders, _warmup, _duration, _drainTimeout, _maxInFlight);
+	}
+}
@@ -0,0 +1,162 @@
+package org.learn.reactive.java8;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs the discount-eligibility filters over a {@link CartStore} on a pool of its own.
+ * <p>
+ * Rows come from {@link CartStore#rowSpliterator()}, which splits in halves and reports
+ * its exact size, so every worker gets an even share without counting ahead. Each split
+ * accumulates into a private {@link Partial}, matching rows, cart count, value and the
+ * customers seen, and partials are merged pairwise in row order as the splits finish.
+ * Nothing is shared while scanning, and scans never queue behind other work on the
+ * common pool.
+ */
+public class ParallelCartScanner implements AutoCloseable {
+	private final ForkJoinPool _pool;
+
+	public ParallelCartScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelCartScanner(int parallelism) {
+		this._pool = new ForkJoinPool(parallelism, pool -> {
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("Cart-Scan-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	public int getParallelism() {
+		return _pool.getParallelism();
+	}
+
+	/**
+	 * Carts created strictly after {@code date} with a total of at least {@code value}.
+	 */
+	public EligibleCarts scan(CartStore store, LocalDate date, double value) {
+		final long day = date.toEpochDay();
+		final long cents = CartStore.toCents(value);
+		final Partial result;
+		try {
+			result = _pool.submit(() -> StreamSupport.intStream(store.rowSpliterator(), true)
+					.filter(row -> store.isCreatedAfter(row, day) && store.hasTotalAtLeast(row, cents))
+					.collect(Partial::new, (partial, row) -> partial.add(store, row), Partial::merge))
+					.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		} catch (ExecutionException e) {
+			throw new CompletionException(e.getCause());
+		}
+		return new EligibleCarts(store, result);
+	}
+
+	@Override
+	public void close() {
+		_pool.shutdown();
+	}
+
+	//-- Accumulated by one split at a time, never shared until merged
+	static private final class Partial {
+		private int[] _rows = new int[64];
+		private int _size;
+		private long _totalCents;
+		private final BitSet _customers = new BitSet();
+
+		private void add(CartStore store, int row) {
+			if (_size == _rows.length) _rows = Arrays.copyOf(_rows, _rows.length << 1);
+			_rows[_size++] = row;
+			_totalCents += store.getTotalCents(row);
+			_customers.set(store.getCustomerOrdinal(row));
+		}
+
+		//-- Called with the right-hand split, so appending keeps rows in ascending order
+		private void merge(Partial right) {
+			if (_size + right._size > _rows.length) _rows = Arrays.copyOf(_rows, _size + right._size);
+			System.arraycopy(right._rows, 0, _rows, _size, right._size);
+			_size += right._size;
+			_totalCents += right._totalCents;
+			_customers.or(right._customers);
+		}
+	}
+
+	/**
+	 * Outcome of one scan: the matching rows and what they add up to.
+	 */
+	static public final class EligibleCarts {
+		private final CartStore _store;
+		private final Partial _result;
+
+		private EligibleCarts(CartStore store, Partial result) {
+			this._store = store;
+			this._result = result;
+		}
+
+		public CartStore.CartSelection getSelection() {
+			return _store.selectionOf(_result._rows, _result._size);
+		}
+
+		public int getCartCount() {
+			return _result._size;
+		}
+
+		public long getTotalCents() {
+			return _result._totalCents;
+		}
+
+		public int getCustomerCount() {
+			return _result._customers.cardinality();
+		}
+
+		/** Each eligible customer once, however many of their carts matched */
+		public Stream<Customer> customers() {
+			return _result._customers.stream().mapToObj(_store::getCustomerByOrdinal);
+		}
+	}
+
+	//-- Scans the same store with 1 to N workers; pass the largest worker count and cart volume to try
+	public static void main(String[] args) {
+		final int maxParallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+		final LocalDate after = LocalDate.of(2017, 3, 31);
+		final SplittableRandom random = new SplittableRandom(11);
+		final List<ShoppingCart> carts = OrderHelper.createCarts(count)
+				.map(cart -> new ShoppingCart(cart.getOrderedBy(), cart.getItems(),
+						LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), cart.getCreationDateTime().toLocalTime())))
+				.collect(Collectors.toList());
+		final CartStore store = CartStore.of(carts.stream());
+		carts.clear();
+
+		System.out.printf("%d carts on %d available processor(s) %n", store.size(), Runtime.getRuntime().availableProcessors());
+		double baseline = 0;
+		for (int parallelism = 1; parallelism <= maxParallelism; parallelism++) {
+			try (ParallelCartScanner scanner = new ParallelCartScanner(parallelism)) {
+				long best = Long.MAX_VALUE;
+				EligibleCarts eligible = null;
+				for (int round = 0; round < 10; round++) {
+					final long started = System.nanoTime();
+					eligible = scanner.scan(store, after, 1_000.00);
+					best = Math.min(best, System.nanoTime() - started);
+				}
+				final double millis = best / (double) TimeUnit.MILLISECONDS.toNanos(1);
+				if (parallelism == 1) baseline = millis;
+				System.out.printf("Parallelism %d: %d eligible carts, %d customers, best of 10 %.2f ms, speedup %.2fx %n",
+						parallelism, eligible.getCartCount(), eligible.getCustomerCount(), millis, baseline / millis);
+			}
+		}
+	}
+}
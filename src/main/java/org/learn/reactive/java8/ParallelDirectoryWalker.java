@@ -0,0 +1,228 @@
+package org.learn.reactive.java8;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Walks a directory tree on a {@link ForkJoinPool}, one task per directory, so idle
+ * workers steal subtrees from busy ones. Discovered files are handed to the consumer in
+ * batches while the walk is still going, which lets compression start on the first batch
+ * instead of waiting for the whole tree.
+ * <p>
+ * Each directory is listed once and its entries are stat'ed in a single pass by the task
+ * that listed them; very large directories are split into several such passes.
+ */
+public class ParallelDirectoryWalker {
+	static final Logger logger = LoggerFactory.getLogger(ParallelDirectoryWalker.class);
+	static private final LinkOption[] NO_FOLLOW = { LinkOption.NOFOLLOW_LINKS };
+	static private final LinkOption[] FOLLOW = {};
+
+	public enum SymlinkPolicy {
+		/** Links are not reported and never traversed */
+		SKIP,
+		/** Links are resolved; linked directories are traversed once, cycles are cut */
+		FOLLOW,
+		/** Links are reported as files of their own without being resolved */
+		AS_LINK
+	}
+
+	private final ForkJoinPool _pool;
+	private final List<PathMatcher> _includes = new ArrayList<>();
+	private final List<PathMatcher> _excludes = new ArrayList<>();
+	private SymlinkPolicy _symlinkPolicy = SymlinkPolicy.SKIP;
+	private int _batchSize = 256;
+
+	public ParallelDirectoryWalker(ForkJoinPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * Only files whose path relative to the walked root matches one of the globs are reported.
+	 */
+	public ParallelDirectoryWalker withIncludes(String... globs) {
+		for (String glob : globs) { _includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob)); }
+		return this;
+	}
+
+	/**
+	 * Files and whole subtrees whose relative path matches one of the globs are skipped.
+	 */
+	public ParallelDirectoryWalker withExcludes(String... globs) {
+		for (String glob : globs) { _excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob)); }
+		return this;
+	}
+
+	public ParallelDirectoryWalker withSymlinkPolicy(SymlinkPolicy symlinkPolicy) {
+		this._symlinkPolicy = symlinkPolicy;
+		return this;
+	}
+
+	public ParallelDirectoryWalker withBatchSize(int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+		this._batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Walks {@code root} and completes with the number of files reported. The consumer is
+	 * called from several pool threads at once and must not block for long, except through
+	 * {@link ForkJoinPool#managedBlock} so the pool can make up for the blocked worker.
+	 */
+	public CompletableFuture<Long> walk(Path root, Consumer<List<Path>> batchConsumer) {
+		final Walk walk = new Walk(root, batchConsumer);
+		return CompletableFuture.supplyAsync(() -> {
+			_pool.invoke(walk.new DirectoryTask(root));
+			logger.info("{} walked {} and found {} file(s)",
+					Thread.currentThread().getName(),
+					root.toString(),
+					walk._files.sum());
+			return walk._files.sum();
+		}, _pool);
+	}
+
+	//-- State shared by all tasks of one walk
+	private final class Walk {
+		private final Path _root;
+		private final Consumer<List<Path>> _consumer;
+		private final Set<Object> _visitedDirs = ConcurrentHashMap.newKeySet();
+		private final LongAdder _files = new LongAdder();
+
+		private Walk(Path root, Consumer<List<Path>> consumer) {
+			this._root = root;
+			this._consumer = consumer;
+			if (_symlinkPolicy == SymlinkPolicy.FOLLOW) {
+				try {
+					final Object rootKey = Files.readAttributes(root, BasicFileAttributes.class).fileKey();
+					_visitedDirs.add(null == rootKey ? root.toAbsolutePath().normalize() : rootKey);
+				} catch (IOException e) {
+					logger.warn("Could not stat walk root {}", root.toString(), e);
+				}
+			}
+		}
+
+		private boolean isExcluded(Path path) {
+			final Path relative = _root.relativize(path);
+			for (PathMatcher exclude : _excludes) {
+				if (exclude.matches(relative)) return true;
+			}
+			return false;
+		}
+
+		private boolean isIncluded(Path file) {
+			if (_includes.isEmpty()) return true;
+			final Path relative = _root.relativize(file);
+			for (PathMatcher include : _includes) {
+				if (include.matches(relative)) return true;
+			}
+			return false;
+		}
+
+		private void publish(List<Path> batch) {
+			if (batch.isEmpty()) return;
+			_files.add(batch.size());
+			_consumer.accept(Collections.unmodifiableList(batch));
+		}
+
+		private final class DirectoryTask extends RecursiveAction {
+			static private final long serialVersionUID = 1L;
+			private final Path _dir;
+
+			private DirectoryTask(Path dir) {
+				this._dir = dir;
+			}
+
+			@Override
+			protected void compute() {
+				final List<Path> entries = new ArrayList<>();
+				try (DirectoryStream<Path> listing = Files.newDirectoryStream(_dir)) {
+					for (Path entry : listing) { entries.add(entry); }
+				} catch (IOException e) {
+					logger.warn("Skipping unreadable directory {}", _dir.toString(), e);
+					return;
+				}
+
+				final List<RecursiveAction> subtasks = new ArrayList<>();
+				for (int from = 0; from < entries.size(); from += _batchSize) {
+					subtasks.add(new EntriesTask(entries.subList(from, Math.min(entries.size(), from + _batchSize))));
+				}
+				invokeAll(subtasks);
+			}
+		}
+
+		private final class EntriesTask extends RecursiveAction {
+			static private final long serialVersionUID = 1L;
+			private final List<Path> _entries;
+
+			private EntriesTask(List<Path> entries) {
+				this._entries = entries;
+			}
+
+			@Override
+			protected void compute() {
+				final List<Path> files = new ArrayList<>(_entries.size());
+				final List<DirectoryTask> subdirs = new ArrayList<>();
+				for (Path entry : _entries) {
+					if (isExcluded(entry)) continue;
+					final BasicFileAttributes attributes = stat(entry, NO_FOLLOW);
+					if (null == attributes) continue;
+
+					if (attributes.isSymbolicLink()) {
+						if (_symlinkPolicy == SymlinkPolicy.AS_LINK) {
+							if (isIncluded(entry)) files.add(entry);
+							continue;
+						}
+						if (_symlinkPolicy == SymlinkPolicy.SKIP) continue;
+						final BasicFileAttributes target = stat(entry, FOLLOW);
+						if (null == target) continue;
+						visit(entry, target, files, subdirs);
+					} else {
+						visit(entry, attributes, files, subdirs);
+					}
+				}
+				//-- Hand over this batch before descending so compression overlaps with the walk
+				publish(files);
+				invokeAll(subdirs);
+			}
+
+			private void visit(Path entry, BasicFileAttributes attributes, List<Path> files, List<DirectoryTask> subdirs) {
+				if (attributes.isDirectory()) {
+					// fileKey is null on file systems without inode-like keys, in which case only links risk a cycle
+					final Object key = null == attributes.fileKey() ? entry.toAbsolutePath().normalize() : attributes.fileKey();
+					if (_symlinkPolicy != SymlinkPolicy.FOLLOW || _visitedDirs.add(key)) {
+						subdirs.add(new DirectoryTask(entry));
+					}
+				} else if (attributes.isRegularFile() && isIncluded(entry)) {
+					files.add(entry);
+				}
+			}
+
+			private BasicFileAttributes stat(Path entry, LinkOption[] options) {
+				try {
+					return Files.readAttributes(entry, BasicFileAttributes.class, options);
+				} catch (IOException e) {
+					logger.warn("Skipping {} which could not be stat'ed", entry.toString(), e);
+					return null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.learn.reactive.java8.DatasetGenerator.Distribution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process HTTP server standing in for partner and fulfillment services, so the
+ * scatter-gather paths can be exercised offline. Each {@link Endpoint} answers GET and POST
+ * on its path after a latency drawn from its own distribution, fails a configurable share
+ * of requests, turns away requests beyond its concurrency limit with 503, and counts what
+ * it did.
+ * <p>
+ * Request {@code n} of an endpoint draws its latency and outcome from a random source
+ * seeded from the server seed, the path and {@code n}, so a run with the same seed and
+ * the same request order sees the same delays and failures. Delays are timers, not
+ * sleeping threads, so thousands of requests can wait at once.
+ */
+public class PartnerStubServer implements Closeable {
+	static private final Logger logger = LoggerFactory.getLogger(PartnerStubServer.class);
+
+	private final HttpServer _server;
+	private final ExecutorService _handlers;
+	private final ScheduledExecutorService _timer;
+	private final long _seed;
+	private final Map<String,Endpoint> _endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * A server on {@code port} of the loopback interface; 0 picks a free port.
+	 */
+	public PartnerStubServer(int port, long seed) throws IOException {
+		this._seed = seed;
+		this._server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		this._handlers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+				new ThreadFactoryBuilder().setNameFormat("Stub-handler-%d").setDaemon(true).build());
+		this._timer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("Stub-timer-%d").setDaemon(true).build());
+		_server.setExecutor(_handlers);
+	}
+
+	/**
+	 * The endpoint at {@code path}, created with an immediate "ok" profile on first use.
+	 * Its profile can be changed at any time, including while the server runs.
+	 */
+	public Endpoint endpoint(String path) {
+		return _endpoints.computeIfAbsent(path, p -> {
+			final Endpoint endpoint = new Endpoint(p, DatasetGenerator.mix64(_seed ^ p.hashCode()));
+			_server.createContext(p, endpoint::handle);
+			return endpoint;
+		});
+	}
+
+	public PartnerStubServer start() {
+		_server.start();
+		logger.info("Partner stub listening on {}", getBaseUrl());
+		return this;
+	}
+
+	public int getPort() {
+		return _server.getAddress().getPort();
+	}
+
+	public String getBaseUrl() {
+		return "http://" + _server.getAddress().getHostString() + ":" + getPort();
+	}
+
+	@Override
+	public void close() {
+		_server.stop(0);
+		_timer.shutdownNow();
+		_handlers.shutdownNow();
+	}
+
+	/**
+	 * One stubbed service: its response profile and its counters.
+	 */
+	public final class Endpoint {
+		private final String _path;
+		private final long _seed;
+		private final AtomicLong _sequence = new AtomicLong();
+		private final AtomicInteger _inFlight = new AtomicInteger();
+		private final LongAdder _requests = new LongAdder();
+		private final LongAdder _succeeded = new LongAdder();
+		private final LongAdder _failed = new LongAdder();
+		private final LongAdder _rejected = new LongAdder();
+		private volatile Distribution<Duration> _latency = Distribution.constant(Duration.ZERO);
+		private volatile double _failureRate;
+		private volatile int _failureStatus = 500;
+		private volatile String _okBody = "ok";
+		private volatile String _failBody = "fail";
+		private volatile int _maxConcurrent = Integer.MAX_VALUE;
+
+		private Endpoint(String path, long seed) {
+			this._path = path;
+			this._seed = seed;
+		}
+
+		public String getUrl() {
+			return getBaseUrl() + _path;
+		}
+
+		public Endpoint withLatency(Distribution<Duration> latency) {
+			this._latency = latency;
+			return this;
+		}
+
+		public Endpoint withLatency(Duration latency) {
+			return withLatency(Distribution.constant(latency));
+		}
+
+		/**
+		 * Share of requests, from 0 to 1, answered with the failure status and body.
+		 */
+		public Endpoint withFailureRate(double failureRate) {
+			if (!(failureRate >= 0 && failureRate <= 1)) throw new IllegalArgumentException("Failure rate " + failureRate);
+			this._failureRate = failureRate;
+			return this;
+		}
+
+		/**
+		 * Status of failed responses; 200 makes failures visible in the body only, as the
+		 * partner services do.
+		 */
+		public Endpoint withFailureStatus(int failureStatus) {
+			this._failureStatus = failureStatus;
+			return this;
+		}
+
+		public Endpoint withBodies(String okBody, String failBody) {
+			this._okBody = okBody;
+			this._failBody = failBody;
+			return this;
+		}
+
+		/**
+		 * Requests held at once, waiting out their latency; any more are answered 503 at once.
+		 */
+		public Endpoint withMaxConcurrent(int maxConcurrent) {
+			if (maxConcurrent < 1) throw new IllegalArgumentException("Concurrency limit must be positive");
+			this._maxConcurrent = maxConcurrent;
+			return this;
+		}
+
+		public long getRequestCount() {
+			return _requests.sum();
+		}
+
+		public long getSucceededCount() {
+			return _succeeded.sum();
+		}
+
+		public long getFailedCount() {
+			return _failed.sum();
+		}
+
+		public long getRejectedCount() {
+			return _rejected.sum();
+		}
+
+		public int getInFlightCount() {
+			return _inFlight.get();
+		}
+
+		public void resetCounters() {
+			_requests.reset();
+			_succeeded.reset();
+			_failed.reset();
+			_rejected.reset();
+		}
+
+		private void handle(HttpExchange exchange) throws IOException {
+			_requests.increment();
+			drain(exchange);
+			if (_inFlight.incrementAndGet() > _maxConcurrent) {
+				_inFlight.decrementAndGet();
+				_rejected.increment();
+				respond(exchange, 503, "busy");
+				return;
+			}
+			final SplittableRandom random = new SplittableRandom(DatasetGenerator.mix64(_seed + _sequence.getAndIncrement()));
+			final long delayNanos = Math.max(0, _latency.sample(random).toNanos());
+			final boolean fails = random.nextDouble() < _failureRate;
+			final Runnable reply = () -> {
+				_inFlight.decrementAndGet();
+				(fails ? _failed : _succeeded).increment();
+				try {
+					respond(exchange, fails ? _failureStatus : 200, fails ? _failBody : _okBody);
+				} catch (IOException e) {
+					logger.debug("Client left {} before the response", _path, e);
+				}
+			};
+			if (delayNanos == 0) {
+				reply.run();
+			} else {
+				//-- The exchange stays open after handle returns; the timer completes it
+				_timer.schedule(() -> _handlers.execute(reply), delayNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	static private void drain(HttpExchange exchange) throws IOException {
+		final byte[] buffer = new byte[4096];
+		try (InputStream body = exchange.getRequestBody()) {
+			while (body.read(buffer) >= 0) { }
+		}
+	}
+
+	static private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	//-- Runs the scatter-gather purchase against stubbed partners and prints what each endpoint saw
+	public static void main(String[] args) throws Exception {
+		final int orders = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		try (PartnerStubServer server = new PartnerStubServer(0, 41).start()) {
+			final Endpoint primary = server.endpoint("/partner/primary")
+					.withLatency(Distribution.exponential(Duration.ofMillis(5), Duration.ofMillis(20)))
+					.withFailureRate(0.05).withFailureStatus(200);
+			final Endpoint fallback = server.endpoint("/partner/fallback")
+					.withLatency(Distribution.exponential(Duration.ofMillis(10), Duration.ofMillis(40)))
+					.withFailureRate(0.10).withFailureStatus(200).withMaxConcurrent(8);
+			final Endpoint fulfillment = server.endpoint("/fulfillment");
+			final Endpoint failures = server.endpoint("/failures");
+			OrderHelper.routeVendorsTo(primary.getUrl(), fallback.getUrl());
+
+			final long started = System.nanoTime();
+			for (int i = 0; i < orders; i++) {
+				new ScatterGatherAndDecidePurchaseAction(fulfillment.getUrl(), failures.getUrl())
+						.execute(OrderHelper.generateOrder());
+			}
+			final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+			System.out.printf("%s -- %d orders in %d ms %n", Thread.currentThread().getName(), orders, millis);
+			for (Endpoint endpoint : new Endpoint[] { primary, fallback, fulfillment, failures }) {
+				System.out.printf("%s -- %-20s requests %d, ok %d, failed %d, rejected %d %n",
+						Thread.currentThread().getName(), endpoint._path, endpoint.getRequestCount(),
+						endpoint.getSucceededCount(), endpoint.getFailedCount(), endpoint.getRejectedCount());
+			}
+		}
+	}
+}
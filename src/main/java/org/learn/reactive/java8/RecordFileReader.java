@@ -0,0 +1,364 @@
+package org.learn.reactive.java8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.learn.reactive.java8.RecordFileWriter.*;
+
+/**
+ * Memory-maps a file written by {@link RecordFileWriter} and streams its carts and orders
+ * as flyweight views that read every field straight from the mapping when asked. Date and
+ * value filters read a couple of fields per record and nothing is deserialized; only
+ * {@link ShoppingCart#getItems()} builds objects, for the records that need them.
+ * <p>
+ * Files larger than one mapping are mapped in segments. Each segment overlaps the next by
+ * the largest possible record, so a record that starts in a segment can always be read
+ * from it whole. Streams split at the writer's chunk index and can be scanned in parallel;
+ * they fail with an {@link UncheckedIOException} at a record whose length is corrupt.
+ * Views stay valid as long as they are reachable, even after the reader is closed.
+ */
+public class RecordFileReader implements Closeable {
+	static private final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	private final Path _file;
+	private final FileChannel _channel;
+	private final int _segmentSize;
+	private final MappedByteBuffer[] _segments;
+	private final long _end;
+	private final long _cartCount;
+	private final long _orderCount;
+	private final String[] _strings;
+	private final Map<Long,Customer> _customers = new HashMap<>();
+	private final long[] _chunkStarts;
+
+	public RecordFileReader(Path file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	RecordFileReader(Path file, int segmentSize) throws IOException {
+		this._file = file;
+		this._segmentSize = segmentSize;
+		this._channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			final long size = _channel.size();
+			if (size < HEADER_SIZE + TRAILER_SIZE) throw new IOException(file + " is not a record file");
+			final ByteBuffer header = read(0, HEADER_SIZE);
+			final ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+			if (header.getLong() != MAGIC || trailer.getLong() != MAGIC) {
+				throw new IOException(file + " is not a record file");
+			}
+			if (header.getInt() != VERSION) throw new IOException(file + " has an unsupported version");
+			this._end = trailer.getLong();
+			this._cartCount = trailer.getLong();
+			this._orderCount = trailer.getLong();
+
+			final ByteBuffer tables = read(_end, Math.toIntExact(size - TRAILER_SIZE - _end));
+			this._strings = new String[Math.toIntExact(tables.getLong())];
+			for (int i = 0; i < _strings.length; i++) { _strings[i] = getString(tables); }
+			for (long count = tables.getLong(); count > 0; count--) {
+				//-- Numbered by the writer, so outside any dictionary
+				final long ordinal = tables.getLong();
+				_customers.put(ordinal, new Customer(getString(tables), getString(tables), getString(tables), getString(tables)));
+			}
+			this._chunkStarts = new long[Math.toIntExact(tables.getLong())];
+			for (int i = 0; i < _chunkStarts.length; i++) { _chunkStarts[i] = tables.getLong(); }
+
+			final int segments = (int) Math.max(1, (_end - HEADER_SIZE + segmentSize - 1) / segmentSize);
+			this._segments = new MappedByteBuffer[segments];
+			for (int k = 0; k < segments; k++) {
+				final long base = HEADER_SIZE + (long) k * segmentSize;
+				final long length = Math.min((long) segmentSize + MAX_RECORD_SIZE, _end - base);
+				_segments[k] = _channel.map(FileChannel.MapMode.READ_ONLY, base, Math.max(0, length));
+				_segments[k].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException | RuntimeException e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	public long getCartCount() {
+		return _cartCount;
+	}
+
+	public long getOrderCount() {
+		return _orderCount;
+	}
+
+	public Stream<ShoppingCart> carts() {
+		return StreamSupport.stream(new RecordSpliterator<>(CART, HEADER_SIZE, _end, CartView::new), false);
+	}
+
+	public Stream<Order> orders() {
+		return StreamSupport.stream(new RecordSpliterator<>(ORDER, HEADER_SIZE, _end, OrderView::new), false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (_channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException(_file + " is truncated at offset " + (position + buffer.position()));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	static private String getString(ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0) return null;
+		final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	private Customer customer(long id) {
+		return id < 0 ? null : _customers.get(id);
+	}
+
+	private List<LineItem> items(ByteBuffer segment, int record) {
+		final int count = segment.getShort(record + ITEM_COUNT) & 0xFFFF;
+		final List<LineItem> items = new ArrayList<>(count);
+		for (int i = 0, item = record + RECORD_HEADER_SIZE; i < count; i++, item += ITEM_SIZE) {
+			items.add(new LineItem(new UUID(segment.getLong(item), segment.getLong(item + Long.BYTES)),
+					_strings[segment.getShort(item + ITEM_DESCRIPTION) & 0xFFFF],
+					_strings[segment.getShort(item + ITEM_VENDOR) & 0xFFFF],
+					segment.getLong(item + ITEM_VALUE),
+					segment.getInt(item + ITEM_QUANTITY)));
+		}
+		return items;
+	}
+
+	@FunctionalInterface
+	private interface ViewFactory<T> {
+		T view(RecordFileReader reader, ByteBuffer segment, int record);
+	}
+
+	//-- Walks records between two offsets; splits at chunk starts, the only known record boundaries
+	private final class RecordSpliterator<T> implements Spliterator<T> {
+		private final byte _type;
+		private final ViewFactory<T> _factory;
+		private long _position;
+		private final long _end;
+
+		private RecordSpliterator(byte type, long position, long end, ViewFactory<T> factory) {
+			this._type = type;
+			this._position = position;
+			this._end = end;
+			this._factory = factory;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			while (_position < _end) {
+				final int k = (int) ((_position - HEADER_SIZE) / _segmentSize);
+				final MappedByteBuffer segment = _segments[k];
+				final int record = (int) (_position - HEADER_SIZE - (long) k * _segmentSize);
+				//-- A corrupt length would stall the scan or run it off the records
+				final int length = _end - _position < RECORD_HEADER_SIZE ? -1 : segment.getInt(record + LENGTH);
+				if (length < RECORD_HEADER_SIZE || length > _end - _position
+						|| length != RECORD_HEADER_SIZE + (segment.getShort(record + ITEM_COUNT) & 0xFFFF) * ITEM_SIZE) {
+					throw new UncheckedIOException(new IOException(String.format("Corrupt record in %s at offset %d: %d bytes",
+							_file, _position, length)));
+				}
+				_position += length;
+				if (segment.get(record + TYPE) == _type) {
+					action.accept(_factory.view(RecordFileReader.this, segment, record));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			while (tryAdvance(action)) { }
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			int lo = Arrays.binarySearch(_chunkStarts, _position + 1);
+			lo = lo < 0 ? -lo - 1 : lo;
+			int hi = Arrays.binarySearch(_chunkStarts, _end);
+			hi = (hi < 0 ? -hi - 1 : hi) - 1;
+			if (lo > hi) return null;
+			final long split = _chunkStarts[(lo + hi) >>> 1];
+			if (split <= _position || split >= _end) return null;
+			final RecordSpliterator<T> prefix = new RecordSpliterator<>(_type, _position, split, _factory);
+			_position = split;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			final long records = _cartCount + _orderCount;
+			if (records == 0) return 0;
+			return Math.max(1, (_end - _position) * records / Math.max(1, RecordFileReader.this._end - HEADER_SIZE));
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * A cart read in place from the mapping. Use {@link #detach()} to keep a heap copy.
+	 */
+	static public final class CartView extends ShoppingCart {
+		private final RecordFileReader _reader;
+		private final ByteBuffer _segment;
+		private final int _record;
+
+		private CartView(RecordFileReader reader, ByteBuffer segment, int record) {
+			this._reader = reader;
+			this._segment = segment;
+			this._record = record;
+		}
+
+		@Override
+		public UUID getId() {
+			return new UUID(_segment.getLong(_record + ID_MSB), _segment.getLong(_record + ID_LSB));
+		}
+
+		@Override
+		public Customer getOrderedBy() {
+			return _reader.customer(_segment.getLong(_record + CUSTOMER_ID));
+		}
+
+		@Override
+		public List<LineItem> getItems() {
+			return _reader.items(_segment, _record);
+		}
+
+		@Override
+		public LocalDateTime getCreationDateTime() {
+			return LocalDateTime.ofEpochSecond(_segment.getLong(_record + EPOCH_SECOND),
+					_segment.getInt(_record + NANO), ZoneOffset.UTC);
+		}
+
+		@Override
+		public long getCreationEpochDay() {
+			return _segment.getInt(_record + EPOCH_DAY);
+		}
+
+		@Override
+		public double getTotalValue() {
+			return _segment.getLong(_record + TOTAL) / (double) LineItem.VALUE_SCALE;
+		}
+
+		public ShoppingCart detach() {
+			return new ShoppingCart(getId(), getOrderedBy(), getItems(), getCreationDateTime());
+		}
+	}
+
+	/**
+	 * An order read in place from the mapping. Use {@link #detach()} to keep a heap copy.
+	 */
+	static public final class OrderView extends Order {
+		private final RecordFileReader _reader;
+		private final ByteBuffer _segment;
+		private final int _record;
+
+		private OrderView(RecordFileReader reader, ByteBuffer segment, int record) {
+			this._reader = reader;
+			this._segment = segment;
+			this._record = record;
+		}
+
+		@Override
+		public UUID getId() {
+			return new UUID(_segment.getLong(_record + ID_MSB), _segment.getLong(_record + ID_LSB));
+		}
+
+		@Override
+		public LocalDateTime getPurchaseDateTime() {
+			return LocalDateTime.ofEpochSecond(_segment.getLong(_record + EPOCH_SECOND),
+					_segment.getInt(_record + NANO), ZoneOffset.UTC);
+		}
+
+		@Override
+		public List<LineItem> getItems() {
+			return _reader.items(_segment, _record);
+		}
+
+		@Override
+		public Customer getCustomer() {
+			return _reader.customer(_segment.getLong(_record + CUSTOMER_ID));
+		}
+
+		public Order detach() {
+			return new Order(getId(), getPurchaseDateTime(), getItems(), getCustomer());
+		}
+	}
+
+	//-- Writes carts to a temporary file and scans them through the FilterOperations functions
+	public static void main(String[] args) throws IOException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+		final Path file = Files.createTempFile("carts", ".rec");
+		final SplittableRandom random = new SplittableRandom(38);
+		final List<Customer> customers = new ArrayList<>();
+		OrderHelper.createCarts(100_000).forEach(cart -> customers.add(cart.getOrderedBy()));
+
+		long started = System.nanoTime();
+		try (RecordFileWriter writer = new RecordFileWriter(file)) {
+			for (int i = 0; i < count; i++) {
+				writer.write(new ShoppingCart(customers.get(random.nextInt(customers.size())),
+						OrderHelper.generateLineItems(1 + random.nextInt(3)),
+						LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), LocalTime.NOON)));
+			}
+		}
+		final double writeSeconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+		final double megabytes = Files.size(file) / (1024.0 * 1024.0);
+		System.out.printf("Wrote %d carts, %.1f MB in %.2f s %n", count, megabytes, writeSeconds);
+
+		final LocalDate after = LocalDate.of(2017, 3, 31);
+		try (RecordFileReader reader = new RecordFileReader(file)) {
+			for (int round = 0; round < 5; round++) {
+				for (boolean parallel : new boolean[] { false, true }) {
+					started = System.nanoTime();
+					final Stream<ShoppingCart> carts = parallel ? reader.carts().parallel() : reader.carts();
+					final long eligible = FilterOperations.filterCartsByDate(after)
+							.andThen(FilterOperations.filterCustomersByPurchases(50_000))
+							.apply(carts)
+							.count();
+					final double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+					System.out.printf("Round %d %s: %d eligible customers, %.0f carts/s, %.0f MB/s %n",
+							round, parallel ? "parallel  " : "sequential", eligible, count / seconds, megabytes / seconds);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package org.learn.reactive.java8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes orders and shopping carts to a compact binary file that {@link RecordFileReader}
+ * maps into memory and scans in place.
+ * <pre>
+ *   header  : long MAGIC, int VERSION, int reserved
+ *   record  : int length, byte type, byte reserved, u16 itemCount, long idMsb, long idLsb,
+ *             long customer (-1 for none), long epochSecond, int nano, int epochDay,
+ *             long totalScaledValue, item[itemCount]
+ *   item    : long idMsb, long idLsb, long scaledValue, int quantity, u16 description, u16 vendor
+ *   tables  : strings (u16 ordinals above), customers, chunk index
+ *   trailer : long MAGIC, long tablesOffset, long cartCount, long orderCount
+ * </pre>
+ * Times are UTC, values are {@link LineItem#VALUE_SCALE} fixed point, everything is little
+ * endian and 8-byte aligned. Customers are numbered by the writer in order of first sight,
+ * one number per distinct customer whichever dictionary it came from, and records refer to
+ * the customer table by that number. Each record stores its total and creation day next to its id,
+ * so date and value filters never touch the items. The chunk index holds the first record
+ * offset at every {@code chunkSize} bytes, which is where readers split a parallel scan.
+ */
+public class RecordFileWriter implements Closeable {
+	static final long MAGIC = 0x3143455254524143L; // "CARTREC1", little endian
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int TRAILER_SIZE = 32;
+	static final byte CART = 1;
+	static final byte ORDER = 2;
+	static final int RECORD_HEADER_SIZE = 56;
+	static final int ITEM_SIZE = 32;
+	static final int MAX_ITEMS = 0xFFFF;
+	static final int MAX_RECORD_SIZE = RECORD_HEADER_SIZE + MAX_ITEMS * ITEM_SIZE;
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	//-- Offsets inside a record
+	static final int LENGTH = 0;
+	static final int TYPE = 4;
+	static final int ITEM_COUNT = 6;
+	static final int ID_MSB = 8;
+	static final int ID_LSB = 16;
+	static final int CUSTOMER_ID = 24;
+	static final int EPOCH_SECOND = 32;
+	static final int NANO = 40;
+	static final int EPOCH_DAY = 44;
+	static final int TOTAL = 48;
+
+	//-- Offsets inside an item
+	static final int ITEM_VALUE = 16;
+	static final int ITEM_QUANTITY = 24;
+	static final int ITEM_DESCRIPTION = 28;
+	static final int ITEM_VENDOR = 30;
+
+	private final FileChannel _channel;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(2 * MAX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final int _chunkSize;
+	private final Map<String,Integer> _strings = new LinkedHashMap<>();
+	//-- Customers by value, numbered in order of first sight; their dictionary ids only hold within it
+	private final Map<Customer,Integer> _customers = new LinkedHashMap<>();
+	private final List<Long> _chunkStarts = new ArrayList<>();
+	private long _position = HEADER_SIZE;
+	private long _cartCount;
+	private long _orderCount;
+
+	public RecordFileWriter(Path file) throws IOException {
+		this(file, DEFAULT_CHUNK_SIZE);
+	}
+
+	RecordFileWriter(Path file, int chunkSize) throws IOException {
+		this._chunkSize = chunkSize;
+		this._channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		_buffer.putLong(MAGIC).putInt(VERSION).putInt(0);
+	}
+
+	public RecordFileWriter write(ShoppingCart cart) throws IOException {
+		writeRecord(CART, cart.getId().getMostSignificantBits(), cart.getId().getLeastSignificantBits(),
+				cart.getOrderedBy(), cart.getCreationDateTime(), cart.getItems());
+		_cartCount++;
+		return this;
+	}
+
+	public RecordFileWriter write(Order order) throws IOException {
+		writeRecord(ORDER, order.getId().getMostSignificantBits(), order.getId().getLeastSignificantBits(),
+				order.getCustomer(), order.getPurchaseDateTime(), order.getItems());
+		_orderCount++;
+		return this;
+	}
+
+	public long getCartCount() {
+		return _cartCount;
+	}
+
+	public long getOrderCount() {
+		return _orderCount;
+	}
+
+	private void writeRecord(byte type, long idMsb, long idLsb, Customer customer, LocalDateTime at,
+	                         List<LineItem> items) throws IOException {
+		if (items.size() > MAX_ITEMS) {
+			throw new IllegalArgumentException("At most " + MAX_ITEMS + " items per record, got " + items.size());
+		}
+		final int length = RECORD_HEADER_SIZE + items.size() * ITEM_SIZE;
+		if (_buffer.remaining() < length) flush();
+		//-- Every chunk boundary this record starts at or beyond points at it
+		while ((long) _chunkStarts.size() * _chunkSize + HEADER_SIZE <= _position) { _chunkStarts.add(_position); }
+
+		long total = 0;
+		for (LineItem item : items) { total += item.getScaledValue(); }
+
+		_buffer.putInt(length).put(type).put((byte) 0).putShort((short) items.size())
+				.putLong(idMsb).putLong(idLsb)
+				.putLong(null == customer ? -1 : ordinalOf(customer))
+				.putLong(at.toEpochSecond(ZoneOffset.UTC)).putInt(at.getNano())
+				.putInt(Math.toIntExact(at.toLocalDate().toEpochDay()))
+				.putLong(total);
+		for (LineItem item : items) {
+			_buffer.putLong(item.getIdMostSigBits()).putLong(item.getIdLeastSigBits())
+					.putLong(item.getScaledValue())
+					.putInt(item.getQuantity())
+					.putShort(ordinalOf(item.getDescription()))
+					.putShort(ordinalOf(item.getFulfilledBy()));
+		}
+		_position += length;
+	}
+
+	private int ordinalOf(Customer customer) {
+		final Integer known = _customers.get(customer);
+		if (null != known) return known;
+		_customers.put(customer, _customers.size());
+		return _customers.size() - 1;
+	}
+
+	private short ordinalOf(String value) {
+		final Integer known = _strings.get(value);
+		if (null != known) return (short) known.intValue();
+		if (_strings.size() == MAX_ITEMS + 1) throw new IllegalStateException("Too many distinct strings");
+		_strings.put(value, _strings.size());
+		return (short) (_strings.size() - 1);
+	}
+
+	private void flush() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining()) { _channel.write(_buffer); }
+		_buffer.clear();
+	}
+
+	//-- Tables are small next to the records, so they go through the same buffer in pieces
+	private void put(byte[] bytes) throws IOException {
+		if (_buffer.remaining() < Integer.BYTES + bytes.length) flush();
+		_buffer.putInt(bytes.length).put(bytes);
+	}
+
+	private void putString(String value) throws IOException {
+		if (null == value) {
+			if (_buffer.remaining() < Integer.BYTES) flush();
+			_buffer.putInt(-1);
+			return;
+		}
+		put(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void putLong(long value) throws IOException {
+		if (_buffer.remaining() < Long.BYTES) flush();
+		_buffer.putLong(value);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			final long tablesOffset = _position;
+			putLong(_strings.size());
+			for (String value : _strings.keySet()) { putString(value); }
+			putLong(_customers.size());
+			for (Map.Entry<Customer,Integer> entry : _customers.entrySet()) {
+				final Customer customer = entry.getKey();
+				putLong(entry.getValue());
+				putString(customer.getFirstName());
+				putString(customer.getLastName());
+				putString(customer.getShippingAddress());
+				putString(customer.getContactNumber());
+			}
+			putLong(_chunkStarts.size());
+			for (long start : _chunkStarts) { putLong(start); }
+			if (_buffer.remaining() < TRAILER_SIZE) flush();
+			_buffer.putLong(MAGIC).putLong(tablesOffset).putLong(_cartCount).putLong(_orderCount);
+			flush();
+		} finally {
+			_channel.close();
+		}
+	}
+}
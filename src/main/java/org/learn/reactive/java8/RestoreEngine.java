@@ -0,0 +1,352 @@
+package org.learn.reactive.java8;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Restores files from an artifact written by {@link BackupArchive}.
+ * <p>
+ * The index is located through the footer at the end of the artifact, so a single file
+ * or table is restored with positional reads of just its blocks. A full restore extracts
+ * entries in parallel on a {@link ForkJoinPool}, and inside an entry inflates a window of
+ * blocks in parallel. Every block is checked against its CRC32 and the whole entry against
+ * its SHA-256 as it is written out; a mismatch fails the restore of that entry.
+ * <p>
+ * The artifact is not trusted: entry names that are absolute or climb out of the target
+ * directory, and block headers pointing outside their entry, are rejected before anything
+ * is written.
+ * <p>
+ * When the backup ran with deduplication, give the engine the same {@link DedupChunkStore}
+ * and recipes are turned back into the files they describe.
+ */
+public class RestoreEngine implements Closeable {
+	static final Logger logger = LoggerFactory.getLogger(RestoreEngine.class);
+	static private final int BLOCKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final Path _artifact;
+	private final FileChannel _channel;
+	private final ForkJoinPool _pool;
+	private final Map<String,BackupArchive.IndexEntry> _index;
+	private DedupChunkStore _chunkStore;
+
+	public RestoreEngine(Path artifact, ForkJoinPool pool) throws IOException {
+		this._artifact = artifact;
+		this._pool = pool;
+		this._channel = FileChannel.open(artifact, StandardOpenOption.READ);
+		try {
+			this._index = readIndex();
+		} catch (IOException | RuntimeException e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	public RestoreEngine withChunkStore(DedupChunkStore chunkStore) {
+		this._chunkStore = chunkStore;
+		return this;
+	}
+
+	public List<String> getEntryNames() {
+		return new ArrayList<>(_index.keySet());
+	}
+
+	/**
+	 * Restores a single staged file or table, e.g. {@code "data_table-3"}, to {@code target}.
+	 */
+	public Path restore(String entryName, Path target) throws IOException {
+		final BackupArchive.IndexEntry entry = _index.get(entryName);
+		if (null == entry) {
+			throw new IOException("Artifact " + _artifact + " has no entry " + entryName);
+		}
+		checkName(entryName);
+		if (null != target.getParent()) Files.createDirectories(target.getParent());
+
+		try {
+			if (null != _chunkStore && isRecipe(entryName)) {
+				final ByteArrayOutputStream recipe = new ByteArrayOutputStream();
+				extract(entry, recipe);
+				//-- The store checks every chunk against its digest as it is loaded
+				return _chunkStore.restore(new ByteArrayInputStream(recipe.toByteArray()), target);
+			}
+			try (OutputStream out = Files.newOutputStream(target)) {
+				extract(entry, out);
+			}
+			return target;
+		} catch (IOException | RuntimeException e) {
+			//-- A file that failed verification is not left behind looking restored
+			Files.deleteIfExists(target);
+			throw e;
+		}
+	}
+
+	/**
+	 * Restores every entry below {@code targetDir} and returns the number of bytes written.
+	 */
+	public long restoreAll(Path targetDir) throws IOException {
+		final long started = System.nanoTime();
+		final LongAdder bytes = new LongAdder();
+		final Path root = targetDir.toAbsolutePath().normalize();
+		try {
+			_pool.submit(() -> _index.values().parallelStream().forEach(entry -> {
+				try {
+					final Path target = resolveWithin(root, targetName(entry.getName()));
+					restore(entry.getName(), target);
+					bytes.add(Files.size(target));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Restore of " + _artifact + " was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IOException("Restore of " + _artifact + " failed", e.getCause());
+		}
+		final long elapsed = Math.max(1, System.nanoTime() - started);
+		logger.info("{} restored {} entries ({} bytes) from {} at {} MB/s",
+				Thread.currentThread().getName(),
+				_index.size(),
+				bytes.sum(),
+				_artifact.toString(),
+				String.format("%.1f", bytes.sum() / (1024.0 * 1024.0) / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))));
+		return bytes.sum();
+	}
+
+	private void extract(BackupArchive.IndexEntry entry, OutputStream out) throws IOException {
+		final MessageDigest sha256 = BackupArchive.sha256();
+		final long end = entry.getDataOffset() + entry.getStoredSize();
+		long position = entry.getDataOffset();
+		int remainingBlocks = entry.getBlockCount();
+		long rawSize = 0;
+
+		while (remainingBlocks > 0) {
+			final List<StoredBlock> window = new ArrayList<>(BLOCKS_IN_FLIGHT);
+			while (remainingBlocks > 0 && window.size() < BLOCKS_IN_FLIGHT) {
+				if (end - position < BackupArchive.BLOCK_HEADER_SIZE) {
+					throw new IOException("Entry " + entry.getName() + " of " + _artifact + " ends before its last block");
+				}
+				final ByteBuffer header = read(position, BackupArchive.BLOCK_HEADER_SIZE);
+				final StoredBlock block = new StoredBlock(header.getInt(), header.getInt(), header.getInt());
+				//-- Lengths are checked before anything is allocated for them
+				if (block._rawLength < 0 || block._rawLength > BackupArchive.BLOCK_SIZE || block._storedLength < 0
+						|| block._storedLength > end - position - BackupArchive.BLOCK_HEADER_SIZE) {
+					throw new IOException(String.format("Corrupt block header in entry %s of %s at offset %d: %d raw, %d stored bytes",
+							entry.getName(), _artifact, position, block._rawLength, block._storedLength));
+				}
+				block._stored = read(position + BackupArchive.BLOCK_HEADER_SIZE, block._storedLength).array();
+				position += BackupArchive.BLOCK_HEADER_SIZE + block._storedLength;
+				window.add(block);
+				remainingBlocks--;
+			}
+
+			// Runs on the engine's pool when called from restoreAll, otherwise on the common pool
+			final List<byte[]> inflated;
+			try {
+				inflated = window.parallelStream()
+						.map(block -> block.inflate(entry.getName()))
+						.collect(Collectors.toList());
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			for (byte[] raw : inflated) {
+				sha256.update(raw);
+				out.write(raw);
+				rawSize += raw.length;
+			}
+		}
+
+		final String digest = BackupArchive.HEX.encode(sha256.digest());
+		if (rawSize != entry.getRawSize() || !digest.equals(entry.getSha256())) {
+			throw new IOException(String.format("Entry %s of %s failed verification: %d bytes with sha256 %s, expected %d bytes with %s",
+					entry.getName(), _artifact, rawSize, digest, entry.getRawSize(), entry.getSha256()));
+		}
+	}
+
+	private Map<String,BackupArchive.IndexEntry> readIndex() throws IOException {
+		final long footerOffset = _channel.size() - BackupArchive.TAR_TRAILER_SIZE - BackupArchive.TAR_RECORD_SIZE;
+		if (footerOffset < 0) {
+			throw new IOException(_artifact + " is too small to be a backup artifact");
+		}
+		final String footer = StandardCharsets.US_ASCII
+				.decode(read(footerOffset, BackupArchive.TAR_RECORD_SIZE)).toString().trim();
+		final String[] fields = footer.split(" ");
+		if (fields.length != 3 || !BackupArchive.FOOTER_MAGIC.equals(fields[0])) {
+			throw new IOException(_artifact + " has no backup index; it was not written by BackupArchive");
+		}
+
+		final long indexOffset;
+		final int indexLength;
+		try {
+			indexOffset = Long.parseLong(fields[1]);
+			indexLength = Integer.parseInt(fields[2]);
+		} catch (NumberFormatException e) {
+			throw new IOException(_artifact + " has a malformed backup index footer: " + footer, e);
+		}
+		//-- The index sits between the entries' data and the footer
+		if (indexOffset < 0 || indexLength < 0 || indexLength > footerOffset - indexOffset) {
+			throw new IOException(String.format("%s has a corrupt backup index footer: %d bytes at offset %d, footer at %d",
+					_artifact, indexLength, indexOffset, footerOffset));
+		}
+		final String index = StandardCharsets.UTF_8.decode(read(indexOffset, indexLength)).toString();
+		final Map<String,BackupArchive.IndexEntry> entries = new LinkedHashMap<>();
+		for (String line : index.split("\n")) {
+			if (line.isEmpty()) continue;
+			final BackupArchive.IndexEntry entry;
+			try {
+				entry = BackupArchive.IndexEntry.parse(line);
+			} catch (RuntimeException e) {
+				throw new IOException(_artifact + " has a malformed index line: " + line, e);
+			}
+			if (entry.getDataOffset() < 0 || entry.getStoredSize() < 0 || entry.getBlockCount() < 0 || entry.getRawSize() < 0
+					|| entry.getStoredSize() > footerOffset - entry.getDataOffset()) {
+				throw new IOException(_artifact + " indexes entry " + entry.getName() + " outside of its data");
+			}
+			entries.put(entry.getName(), entry);
+		}
+		return Collections.unmodifiableMap(entries);
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (_channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException(_artifact + " is truncated at offset " + (position + buffer.position()));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private boolean isRecipe(String entryName) {
+		return entryName.endsWith(DedupChunkStore.RECIPE_SUFFIX)
+				|| entryName.contains(DedupChunkStore.RECIPE_SUFFIX + "/");
+	}
+
+	//-- Entry names are relative paths of the staging directory, never absolute or climbing out of it
+	private void checkName(String entryName) throws IOException {
+		if (entryName.isEmpty() || entryName.startsWith("/") || entryName.contains("\\")
+				|| Paths.get(entryName).isAbsolute()) {
+			throw new IOException("Entry " + entryName + " of " + _artifact + " has an unsafe name");
+		}
+		for (String segment : entryName.split("/")) {
+			if (segment.equals("..")) throw new IOException("Entry " + entryName + " of " + _artifact + " has an unsafe name");
+		}
+	}
+
+	private Path resolveWithin(Path root, String name) throws IOException {
+		final Path target = root.resolve(name).normalize();
+		if (!target.startsWith(root) || target.equals(root)) {
+			throw new IOException("Entry " + name + " of " + _artifact + " would be restored outside of " + root);
+		}
+		return target;
+	}
+
+	//-- Recipes restore to the name of the file they describe
+	private String targetName(String entryName) {
+		if (null == _chunkStore || !isRecipe(entryName)) return entryName;
+		return entryName.replaceFirst("\\Q" + DedupChunkStore.RECIPE_SUFFIX + "\\E(/|$)", "$1");
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	static private final class StoredBlock {
+		private final int _rawLength;
+		private final int _storedLength;
+		private final int _crc32;
+		private byte[] _stored;
+
+		private StoredBlock(int rawLength, int storedLength, int crc32) {
+			this._rawLength = rawLength;
+			this._storedLength = storedLength;
+			this._crc32 = crc32;
+		}
+
+		private byte[] inflate(String entryName) {
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(_stored);
+				final byte[] raw = new byte[_rawLength];
+				int length = 0;
+				while (length < _rawLength && !inflater.finished()) {
+					final int inflated = inflater.inflate(raw, length, _rawLength - length);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+					length += inflated;
+				}
+				if (length != _rawLength || BackupArchive.crc32(raw, length) != _crc32) {
+					throw new UncheckedIOException(new IOException("Corrupt block in entry " + entryName));
+				}
+				return raw;
+			} catch (DataFormatException e) {
+				throw new UncheckedIOException(new IOException("Corrupt block in entry " + entryName, e));
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	//-- Restores synthetic artifacts of growing size and reports restore throughput
+	public static void main(String[] args) throws IOException {
+		final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		for (int sizeInMb : new int[] { 16, 64, 256 }) {
+			final Path workDir = Files.createTempDirectory("restore");
+			final Path stagingDir = Files.createDirectories(workDir.resolve("staging"));
+			final int files = 16;
+			final byte[] content = new byte[sizeInMb * 1024 * 1024 / files];
+			for (int f = 0; f < files; f++) {
+				// Half random, half repetitive, roughly what table dumps look like
+				final SplittableRandom random = new SplittableRandom(f);
+				for (int i = 0; i < content.length; i++) {
+					content[i] = i % 2 == 0 ? (byte) random.nextInt(256) : (byte) ('a' + i % 7);
+				}
+				Files.write(stagingDir.resolve(String.format("data_table-%d", f)), content);
+			}
+			final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+
+			try (RestoreEngine engine = new RestoreEngine(artifact, pool)) {
+				final long started = System.nanoTime();
+				final long bytes = engine.restoreAll(workDir.resolve("restored"));
+				final double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+				System.out.printf("Artifact %d MB (%d bytes on disk): restored %d bytes in %.2f s, %.1f MB/s %n",
+						sizeInMb, Files.size(artifact), bytes, seconds, bytes / (1024.0 * 1024.0) / seconds);
+
+				final long single = System.nanoTime();
+				engine.restore("data_table-7", workDir.resolve("single"));
+				System.out.printf("Single table restored in %.2f ms %n",
+						(System.nanoTime() - single) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+			}
+		}
+		pool.shutdown();
+	}
+}
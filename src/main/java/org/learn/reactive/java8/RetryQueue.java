@@ -0,0 +1,482 @@
+package org.learn.reactive.java8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * A durable queue of line items a partner rejected, so that they alone can be redelivered
+ * instead of their whole order. Every change is appended to a log of memory-mapped segment
+ * files in one directory:
+ * <pre>
+ *   segment  : long MAGIC, int VERSION, int reserved, record*, zeros
+ *   record   : int length, int crc32 (of the bytes after the header), int type, int reserved, body
+ *   ENQUEUED : long entryId, long orderMsb, long orderLsb, long itemMsb, long itemLsb,
+ *              long scaledValue, int quantity, int attempts, long nextAttemptMillis,
+ *              u16 length + UTF-8 description, u16 length + UTF-8 vendor, padding to 8 bytes
+ *              (a length of 0xFFFF stands for null)
+ *   FAILED   : long entryId, int attempts, int reserved, long nextAttemptMillis
+ *   DELIVERED, ABANDONED : long entryId
+ * </pre>
+ * A record's length is stored after its body, so a record cut short by a crash reads as the
+ * end of the log and is overwritten on restart; written records live in the page cache and
+ * survive the process dying. With {@code syncOnWrite} each record is also forced to disk.
+ * <p>
+ * Opening the directory replays the log. A worker, once {@link #start() started}, hands due
+ * items to the {@link Delivery} in per-vendor batches, backs off exponentially after a failure
+ * and abandons an item after {@code maxAttempts}. Once enough items are settled the log is
+ * compacted: the pending items are rewritten to a fresh segment and older segments are deleted;
+ * a crash in between replays both, with the same result. Build instances with
+ * {@link RetryQueueBuilder}.
+ */
+public class RetryQueue implements Closeable {
+	static private final Logger logger = LoggerFactory.getLogger(RetryQueue.class);
+	static final long MAGIC = 0x31474C5952544552L; // "RETRYLG1", little endian
+	static final int VERSION = 1;
+	static final int SEGMENT_HEADER_SIZE = 16;
+	static final int RECORD_HEADER_SIZE = 16;
+	static final int ENQUEUED = 1;
+	static final int FAILED = 2;
+	static final int DELIVERED = 3;
+	static final int ABANDONED = 4;
+	static private final String SEGMENT_PREFIX = "retry-";
+	static private final String SEGMENT_SUFFIX = ".log";
+	static private final int MIN_SETTLED_TO_COMPACT = 1024;
+	static private final int NULL_STRING = 0xFFFF;
+
+	/**
+	 * Sends a batch of one vendor's items; items not in the returned collection failed and are
+	 * retried. Throwing fails the whole batch.
+	 */
+	@FunctionalInterface
+	public interface Delivery {
+		Collection<Entry> deliver(String vendor, List<Entry> batch) throws Exception;
+	}
+
+	private final Path _directory;
+	private final int _segmentSize;
+	private final int _batchSize;
+	private final long _initialBackoffMillis;
+	private final long _maxBackoffMillis;
+	private final int _maxAttempts;
+	private final boolean _syncOnWrite;
+	private final Duration _pollInterval;
+	private final Delivery _delivery;
+	private final Map<Long,Entry> _pending = new LinkedHashMap<>();
+	private final TreeMap<Integer,Path> _segments = new TreeMap<>();
+	private final LongAdder _delivered = new LongAdder();
+	private final LongAdder _abandoned = new LongAdder();
+	private final CRC32 _crc = new CRC32();
+	private ScheduledExecutorService _worker;
+	private FileChannel _channel;
+	private MappedByteBuffer _tail;
+	private long _nextEntryId;
+	private long _settledSinceCompaction;
+
+	RetryQueue(Path directory, int segmentSize, int batchSize, Duration initialBackoff, Duration maxBackoff,
+	           int maxAttempts, boolean syncOnWrite, Duration pollInterval, Delivery delivery) throws IOException {
+		this._directory = directory;
+		this._segmentSize = segmentSize;
+		this._batchSize = batchSize;
+		this._initialBackoffMillis = initialBackoff.toMillis();
+		this._maxBackoffMillis = maxBackoff.toMillis();
+		this._maxAttempts = maxAttempts;
+		this._syncOnWrite = syncOnWrite;
+		this._pollInterval = pollInterval;
+		this._delivery = delivery;
+		Files.createDirectories(directory);
+		recover();
+	}
+
+	/**
+	 * Starts redelivering due items every poll interval on a background thread.
+	 */
+	public synchronized RetryQueue start() {
+		if (null == _delivery) throw new IllegalStateException("No delivery configured");
+		if (null == _worker) {
+			_worker = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat("Retry-worker-%d").setDaemon(true).build());
+			final long interval = _pollInterval.toMillis();
+			_worker.scheduleWithFixedDelay(() -> {
+				try {
+					redeliverDue();
+				} catch (RuntimeException e) {
+					logger.error("Redelivery round failed", e);
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Records {@code item} of order {@code orderId} for redelivery, due at once.
+	 *
+	 * @return the id of the entry
+	 */
+	public synchronized long enqueue(UUID orderId, LineItem item) {
+		final Entry entry = new Entry(_nextEntryId++, orderId, item, 0, System.currentTimeMillis());
+		append(ENQUEUED, entry);
+		_pending.put(entry._id, entry);
+		return entry._id;
+	}
+
+	/**
+	 * Runs one redelivery round: every due item, batched per vendor. Called by the worker;
+	 * callable directly, e.g. to drain the queue before shutdown. Rounds may overlap: an item
+	 * handed to the delivery by one round is skipped by the others until it is settled.
+	 *
+	 * @return number of items delivered
+	 */
+	public int redeliverDue() {
+		final long now = System.currentTimeMillis();
+		final Map<String,List<Entry>> batches = new LinkedHashMap<>();
+		synchronized (this) {
+			for (Entry entry : _pending.values()) {
+				if (entry._inFlight || entry._nextAttemptMillis > now) continue;
+				final List<Entry> batch = batches.computeIfAbsent(entry._item.getFulfilledBy(), vendor -> new ArrayList<>());
+				if (batch.size() < _batchSize) {
+					batch.add(entry);
+					entry._inFlight = true;
+				}
+			}
+		}
+
+		int delivered = 0;
+		for (Map.Entry<String,List<Entry>> batch : batches.entrySet()) {
+			Collection<Entry> succeeded;
+			try {
+				succeeded = _delivery.deliver(batch.getKey(), Collections.unmodifiableList(batch.getValue()));
+			} catch (Exception e) {
+				logger.warn("Redelivery of {} items to {} failed", batch.getValue().size(), batch.getKey(), e);
+				succeeded = Collections.emptyList();
+			}
+			synchronized (this) {
+				for (Entry entry : batch.getValue()) {
+					entry._inFlight = false;
+					if (succeeded.contains(entry)) {
+						settle(DELIVERED, entry);
+						_delivered.increment();
+						delivered++;
+					} else if (entry._attempts + 1 >= _maxAttempts) {
+						settle(ABANDONED, entry);
+						_abandoned.increment();
+						logger.warn("Gave up on line item {} of order {} after {} attempts",
+								entry._item.getItemId(), entry._orderId, entry._attempts + 1);
+					} else {
+						entry._attempts++;
+						entry._nextAttemptMillis = System.currentTimeMillis() + backoffMillis(entry._attempts);
+						append(FAILED, entry);
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			if (_settledSinceCompaction >= Math.max(MIN_SETTLED_TO_COMPACT, _pending.size())) compact();
+		}
+		return delivered;
+	}
+
+	/**
+	 * Rewrites the pending items to a fresh segment and deletes the segments before it.
+	 */
+	public synchronized void compact() {
+		final int firstKept = _segments.lastKey() + 1;
+		openSegment(firstKept);
+		for (Entry entry : _pending.values()) { append(ENQUEUED, entry); }
+		_tail.force();
+		for (Path old : new ArrayList<>(_segments.headMap(firstKept).values())) {
+			try {
+				Files.deleteIfExists(old);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		_segments.headMap(firstKept).clear();
+		_settledSinceCompaction = 0;
+	}
+
+	/**
+	 * The items waiting for redelivery, oldest first.
+	 */
+	public synchronized List<Entry> getPending() {
+		return new ArrayList<>(_pending.values());
+	}
+
+	public synchronized int getPendingCount() {
+		return _pending.size();
+	}
+
+	/** Items delivered since the queue was opened */
+	public long getDeliveredCount() {
+		return _delivered.sum();
+	}
+
+	/** Items given up on since the queue was opened */
+	public long getAbandonedCount() {
+		return _abandoned.sum();
+	}
+
+	public synchronized int getSegmentCount() {
+		return _segments.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		final ScheduledExecutorService worker;
+		synchronized (this) {
+			worker = _worker;
+		}
+		if (null != worker) {
+			worker.shutdown();
+			try {
+				worker.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (null == _channel) return;
+			_tail.force();
+			_channel.close();
+			_channel = null;
+		}
+	}
+
+	private long backoffMillis(int attempts) {
+		final long factor = 1L << Math.min(30, attempts - 1);
+		return Math.min(_maxBackoffMillis, _initialBackoffMillis * factor);
+	}
+
+	private void settle(int type, Entry entry) {
+		append(type, entry);
+		_pending.remove(entry._id);
+		_settledSinceCompaction++;
+	}
+
+	private void append(int type, Entry entry) {
+		final byte[] description = type == ENQUEUED ? bytesOf(entry._item.getDescription()) : null;
+		final byte[] vendor = type == ENQUEUED ? bytesOf(entry._item.getFulfilledBy()) : null;
+		final int body;
+		switch (type) {
+			case ENQUEUED: body = align(64 + 2 + description.length + 2 + vendor.length); break;
+			case FAILED: body = 24; break;
+			default: body = 8;
+		}
+		final int length = RECORD_HEADER_SIZE + body;
+		if (length > _segmentSize - SEGMENT_HEADER_SIZE) {
+			throw new IllegalArgumentException("Record of " + length + " bytes does not fit a segment");
+		}
+		if (_tail.remaining() < length) openSegment(_segments.lastKey() + 1);
+
+		final int start = _tail.position();
+		_tail.position(start + RECORD_HEADER_SIZE);
+		_tail.putLong(entry._id);
+		if (type == ENQUEUED) {
+			_tail.putLong(entry._orderId.getMostSignificantBits()).putLong(entry._orderId.getLeastSignificantBits())
+					.putLong(entry._item.getIdMostSigBits()).putLong(entry._item.getIdLeastSigBits())
+					.putLong(entry._item.getScaledValue())
+					.putInt(entry._item.getQuantity()).putInt(entry._attempts)
+					.putLong(entry._nextAttemptMillis)
+					.putShort(lengthOf(entry._item.getDescription(), description)).put(description)
+					.putShort(lengthOf(entry._item.getFulfilledBy(), vendor)).put(vendor);
+		} else if (type == FAILED) {
+			_tail.putInt(entry._attempts).putInt(0).putLong(entry._nextAttemptMillis);
+		}
+		_tail.position(start + length);
+
+		_tail.putInt(start + 4, crcOf(start + RECORD_HEADER_SIZE, body)).putInt(start + 8, type);
+		//-- Written last: until it is there, the record reads as the end of the log
+		_tail.putInt(start, length);
+		if (_syncOnWrite) _tail.force();
+	}
+
+	private int crcOf(int from, int length) {
+		_crc.reset();
+		for (int i = from; i < from + length; i++) { _crc.update(_tail.get(i)); }
+		return (int) _crc.getValue();
+	}
+
+	static private int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	private void openSegment(int index) {
+		try {
+			if (null != _tail) _tail.force();
+			if (null != _channel) _channel.close();
+			final Path file = _directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+			_channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			_tail = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+			_tail.order(ByteOrder.LITTLE_ENDIAN);
+			_tail.putLong(MAGIC).putInt(VERSION).putInt(0);
+			_segments.put(index, file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void recover() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				final String name = file.getFileName().toString();
+				_segments.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+			}
+		}
+		if (_segments.isEmpty()) {
+			openSegment(0);
+			return;
+		}
+		for (Map.Entry<Integer,Path> segment : _segments.entrySet()) {
+			_channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			_tail = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _channel.size());
+			_tail.order(ByteOrder.LITTLE_ENDIAN);
+			if (_tail.getLong(0) != MAGIC || _tail.getInt(8) != VERSION) {
+				throw new IOException(segment.getValue() + " is not a retry log segment");
+			}
+			_tail.position(SEGMENT_HEADER_SIZE);
+			replay(segment.getValue());
+			if (!segment.getKey().equals(_segments.lastKey())) _channel.close();
+		}
+		logger.info("Recovered {} pending line items from {} segments in {}", _pending.size(), _segments.size(), _directory);
+	}
+
+	//-- Leaves the tail positioned after the last whole record
+	private void replay(Path file) {
+		while (_tail.remaining() >= RECORD_HEADER_SIZE) {
+			final int start = _tail.position();
+			final int length = _tail.getInt(start);
+			if (length == 0) return;
+			if (length < RECORD_HEADER_SIZE + 8 || length > _tail.limit() - start
+					|| crcOf(start + RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE) != _tail.getInt(start + 4)) {
+				logger.warn("Discarding a torn record at offset {} of {}", start, file);
+				//-- Clears what the crash left, so the next record written here cannot run into it
+				for (int i = start; i < _tail.limit(); i++) { _tail.put(i, (byte) 0); }
+				return;
+			}
+			_tail.position(start + RECORD_HEADER_SIZE);
+			final long id = _tail.getLong();
+			_nextEntryId = Math.max(_nextEntryId, id + 1);
+			switch (_tail.getInt(start + 8)) {
+				case ENQUEUED: {
+					final UUID orderId = new UUID(_tail.getLong(), _tail.getLong());
+					final UUID itemId = new UUID(_tail.getLong(), _tail.getLong());
+					final long value = _tail.getLong();
+					final int quantity = _tail.getInt();
+					final int attempts = _tail.getInt();
+					final long nextAttempt = _tail.getLong();
+					final String description = getString();
+					final String vendor = getString();
+					_pending.put(id, new Entry(id, orderId, new LineItem(itemId, description, vendor, value, quantity),
+							attempts, nextAttempt));
+					break;
+				}
+				case FAILED: {
+					final Entry entry = _pending.get(id);
+					final int attempts = _tail.getInt();
+					_tail.getInt();
+					final long nextAttempt = _tail.getLong();
+					if (null != entry) {
+						entry._attempts = attempts;
+						entry._nextAttemptMillis = nextAttempt;
+					}
+					break;
+				}
+				default:
+					if (null != _pending.remove(id)) _settledSinceCompaction++;
+			}
+			_tail.position(start + length);
+		}
+	}
+
+	private String getString() {
+		final int length = Short.toUnsignedInt(_tail.getShort());
+		if (length == NULL_STRING) return null;
+		final byte[] bytes = new byte[length];
+		_tail.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static private byte[] bytesOf(String value) {
+		if (null == value) return new byte[0];
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length >= NULL_STRING) throw new IllegalArgumentException("String of " + bytes.length + " bytes is too long to queue");
+		return bytes;
+	}
+
+	static private short lengthOf(String value, byte[] bytes) {
+		return (short) (null == value ? NULL_STRING : bytes.length);
+	}
+
+	/**
+	 * One line item waiting for redelivery.
+	 */
+	static public final class Entry {
+		private final long _id;
+		private final UUID _orderId;
+		private final LineItem _item;
+		private volatile int _attempts;
+		private volatile long _nextAttemptMillis;
+		//-- Handed to the delivery by a round that has not settled it yet; guarded by the queue
+		private boolean _inFlight;
+
+		private Entry(long id, UUID orderId, LineItem item, int attempts, long nextAttemptMillis) {
+			this._id = id;
+			this._orderId = orderId;
+			this._item = item;
+			this._attempts = attempts;
+			this._nextAttemptMillis = nextAttemptMillis;
+		}
+
+		public long getId() {
+			return _id;
+		}
+
+		public UUID getOrderId() {
+			return _orderId;
+		}
+
+		public LineItem getItem() {
+			return _item;
+		}
+
+		/** Failed redeliveries so far */
+		public int getAttempts() {
+			return _attempts;
+		}
+
+		public long getNextAttemptMillis() {
+			return _nextAttemptMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("line item %s of order %s, %d attempts", _item.getItemId(), _orderId, _attempts);
+		}
+	}
+}
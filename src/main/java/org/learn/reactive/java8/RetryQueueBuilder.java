@@ -0,0 +1,91 @@
+package org.learn.reactive.java8;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class RetryQueueBuilder {
+	private Path _directory;
+	private int _segmentSize = 4 * 1024 * 1024;
+	private int _batchSize = 50;
+	private Duration _initialBackoff = Duration.ofSeconds(1);
+	private Duration _maxBackoff = Duration.ofMinutes(5);
+	private int _maxAttempts = 10;
+	private boolean _syncOnWrite = false;
+	private Duration _pollInterval = Duration.ofSeconds(1);
+	private RetryQueue.Delivery _delivery;
+
+	/**
+	 * Directory holding the queue's segment files; created if missing.
+	 */
+	public RetryQueueBuilder withDirectory(Path directory) {
+		this._directory = directory;
+		return this;
+	}
+
+	public RetryQueueBuilder withSegmentSize(int segmentSize) {
+		this._segmentSize = segmentSize;
+		return this;
+	}
+
+	/**
+	 * Items of one vendor handed to the delivery at once.
+	 */
+	public RetryQueueBuilder withBatchSize(int batchSize) {
+		this._batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Wait before retrying an item that failed once, doubled on every further failure up to {@code max}.
+	 */
+	public RetryQueueBuilder withBackoff(Duration initial, Duration max) {
+		this._initialBackoff = initial;
+		this._maxBackoff = max;
+		return this;
+	}
+
+	/**
+	 * Failed redeliveries after which an item is abandoned.
+	 */
+	public RetryQueueBuilder withMaxAttempts(int maxAttempts) {
+		this._maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Forces every record to disk, so it survives the machine and not only the process failing.
+	 */
+	public RetryQueueBuilder withSyncOnWrite(boolean syncOnWrite) {
+		this._syncOnWrite = syncOnWrite;
+		return this;
+	}
+
+	public RetryQueueBuilder withPollInterval(Duration pollInterval) {
+		this._pollInterval = pollInterval;
+		return this;
+	}
+
+	public RetryQueueBuilder withDelivery(RetryQueue.Delivery delivery) {
+		this._delivery = delivery;
+		return this;
+	}
+
+	/**
+	 * Opens the queue, recovering the items left pending in its directory.
+	 */
+	public RetryQueue build() throws IOException {
+		if (null == _directory) throw new IllegalArgumentException("No directory given");
+		if (_segmentSize < 4 * 1024) throw new IllegalArgumentException("Segment size must be at least 4 KiB, got " + _segmentSize);
+		if (_batchSize < 1) throw new IllegalArgumentException("Batch size must be positive, got " + _batchSize);
+		if (_initialBackoff.isNegative() || _maxBackoff.compareTo(_initialBackoff) < 0) {
+			throw new IllegalArgumentException("Backoff " + _initialBackoff + ".." + _maxBackoff + " is empty or negative");
+		}
+		if (_maxAttempts < 1) throw new IllegalArgumentException("Attempts must be positive, got " + _maxAttempts);
+		if (_pollInterval.isNegative() || _pollInterval.isZero()) {
+			throw new IllegalArgumentException("Poll interval must be positive, got " + _pollInterval);
+		}
+		return new RetryQueue(_directory, _segmentSize, _batchSize, _initialBackoff, _maxBackoff,
+				_maxAttempts, _syncOnWrite, _pollInterval, _delivery);
+	}
+}
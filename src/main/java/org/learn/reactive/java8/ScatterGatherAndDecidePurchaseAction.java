@@ -6,65 +6,197 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.HashSet;
+import org.glassfish.jersey.client.ClientProperties;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class ScatterGatherAndDecidePurchaseAction implements PurchaseAction<Order> {
 	static private final AtomicInteger itemNumberGenerator = new AtomicInteger(0);
+	static private final EventJournal journal = EventJournal.getDefault();
+	static private final AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getDefault();
+	static private final IdempotencyCache idempotency = IdempotencyCache.getDefault();
+	static private final String PRIMARY = "primary";
+	static private final String FALLBACK = "fallback";
 
 	private final String ORDER_SUCCESS_MSG = "Purchase order for %s executed successfully";
 	private final String ORDER_FAILURE_MSG = "Purchase order for %s failed. Try again later";
 	private final String ITEM_FAILURE_MSG  = "Line item %s could not be fulfilled due to error: %s %n";
 
-	private final String FAILURE_SERVICE     = "https://requestb.in/1fyogcu1";
-	private final String FULFILLMENT_SERVICE = "https://requestb.in/1n0s7o91";
+	private final String FAILURE_SERVICE;
+	private final String FULFILLMENT_SERVICE;
+
+	//-- Added to from partner callbacks and, once an order runs out of time, its expiry actions
+	private final Set<LineItem> fulfilled = ConcurrentHashMap.newKeySet();
+	private final Set<LineItem> rejected  = ConcurrentHashMap.newKeySet();
+	private final Consumer<LineItem> itemCompleted;
+	private final RetryQueue retryQueue;
+
+	public ScatterGatherAndDecidePurchaseAction() {
+		this("https://requestb.in/1n0s7o91", "https://requestb.in/1fyogcu1");
+	}
 
-	private final Set<LineItem> fulfilled = new HashSet();
-	private final Set<LineItem> rejected  = new HashSet();
+	//-- e.g. endpoints of a PartnerStubServer, to run offline
+	public ScatterGatherAndDecidePurchaseAction(String fulfillmentService, String failureService) {
+		this(fulfillmentService, failureService, item -> { });
+	}
+
+	//-- itemCompleted is told when each line item is done with, fulfilled or not, e.g. to time it.
+	//-- Rejected items go to the queue in -Dretry.dir, if set; see DefaultRetryQueue
+	public ScatterGatherAndDecidePurchaseAction(String fulfillmentService, String failureService,
+	                                            Consumer<LineItem> itemCompleted) {
+		this(fulfillmentService, failureService, itemCompleted, DefaultRetryQueue.QUEUE);
+	}
+
+	//-- Rejected and failed line items are put on retryQueue, if given, to be redelivered on their own
+	public ScatterGatherAndDecidePurchaseAction(String fulfillmentService, String failureService,
+	                                            Consumer<LineItem> itemCompleted, RetryQueue retryQueue) {
+		this.FULFILLMENT_SERVICE = fulfillmentService;
+		this.FAILURE_SERVICE = failureService;
+		this.itemCompleted = itemCompleted;
+		this.retryQueue = retryQueue;
+	}
+
+	//-- Shared by the actions built without a queue of their own, opened on first use. Redelivery
+	//-- calls the partners in the background, so it is opted into by giving it a directory
+	static private final class DefaultRetryQueue {
+		static private final RetryQueue QUEUE = createDefault();
+
+		static private RetryQueue createDefault() {
+			final String directory = System.getProperty("retry.dir");
+			if (null == directory) return null;
+			try {
+				return new RetryQueueBuilder()
+						.withDirectory(Paths.get(directory))
+						.withDelivery(partnerRedelivery())
+						.build()
+						.start();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Redelivers queued line items the way they were first delivered: to the primary and the
+	 * fallback partner, an item counting as delivered once both accept it. Partners take one
+	 * item per request, so a batch is a run of requests rather than a single one; a partner
+	 * that already accepted the item is not notified again.
+	 */
+	static public RetryQueue.Delivery partnerRedelivery() {
+		return (vendor, batch) -> {
+			final List<RetryQueue.Entry> delivered = new ArrayList<>();
+			for (RetryQueue.Entry entry : batch) {
+				final LineItem item = entry.getItem();
+				final String message = item.getDescription() + "(" + item.getQuantity() + ")";
+				final String primary = notifyOnce(IdempotencyCache.keyOf(entry.getOrderId(), item, PRIMARY),
+						OrderHelper.getPrimaryServiceEndpoint(item), message, Deadline.none()).orElse("");
+				final String fallback = notifyOnce(IdempotencyCache.keyOf(entry.getOrderId(), item, FALLBACK),
+						OrderHelper.getFallbackServiceEndpoint(item), message, Deadline.none()).orElse("");
+				if (primary.contains("ok") && fallback.contains("ok")) delivered.add(entry);
+			}
+			return delivered;
+		};
+	}
 
 	@Override
 	public void execute(Order order) throws Exception {
+		execute(order, Deadline.none());
+	}
+
+	/**
+	 * Executes {@code order} within {@code budget}; see {@link #execute(Order, Deadline)}.
+	 */
+	public void execute(Order order, Duration budget) throws Exception {
+		final Deadline deadline = Deadline.after(budget);
+		try {
+			execute(order, deadline);
+		} finally {
+			deadline.release();
+		}
+	}
+
+	/**
+	 * Executes {@code order} until {@code deadline}. Partner calls time out by the deadline, and
+	 * when it expires the calls still queued are skipped and the order stops waiting for the
+	 * running ones; those hold their threads until their own timeouts fire, as the blocking HTTP
+	 * connector does not heed interrupts. The order is then wrapped up with the line items settled so far; the others are rejected
+	 * and queued for retry, without a failure notice each.
+	 */
+	public void execute(Order order, Deadline deadline) throws Exception {
 		CompletableFuture futureAction = new CompletableFuture();
 
 		final List<CompletableFuture<Void>> futures = order
 				.getItems()
 				.stream()
-				.map(li -> CompletableFuture
-						.supplyAsync(notifyViaPrimaryPartnerService(li))
-						.thenAcceptBothAsync(CompletableFuture.supplyAsync(notifyViaFallbackPartnerService(li)),
-								fulfillOnAllSuccessfulResponse(li))
-						.whenComplete(notifyOnError(li))
+				.map(li -> deadline
+						.supplyAsync(notifyViaPrimaryPartnerService(order, li, deadline), ForkJoinPool.commonPool())
+						.thenAcceptBothAsync(deadline.supplyAsync(notifyViaFallbackPartnerService(order, li, deadline), ForkJoinPool.commonPool()),
+								fulfillOnAllSuccessfulResponse(order, li))
+						.whenComplete(notifyOnError(order, li))
+						.whenComplete((none, error) -> itemCompleted.accept(li))
+						.exceptionally(settleOnTimeout())
 				).collect(Collectors.toList());
 
-		//-- We wait until all async tasks have completed and then take the final action
-		futureAction.allOf(futures.toArray(new CompletableFuture[futures.size()]))
-				.whenComplete(notifyFulfillmentService(order))
-				.join();
+		//-- We wait until all async tasks have completed, or timed out, and then take the final action
+		//-- on this thread, which waits for it anyway, rather than on whichever thread settled the last item
+		final CompletableFuture<Void> allItems = futureAction.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+		try {
+			allItems.join();
+		} finally {
+			notifyFulfillmentService(order).accept(null, null);
+		}
+
+		if (deadline.isExpired()) {
+			final long unfulfilled = order.getItems().stream().filter(li -> !fulfilled.contains(li)).count();
+			journal.log(EventJournal.Type.ORDER_DEADLINE_EXPIRED, unfulfilled, order.getId());
+		}
+		journal.log(EventJournal.Type.ORDER_EXECUTED, order.getId());
+	}
 
-		System.out.printf("%s -- Order with id %s was executed %n",Thread.currentThread().getName(),order.getId());
+	/** Line items fulfilled so far, by every order this action executed */
+	public Set<LineItem> getFulfilled() {
+		return Collections.unmodifiableSet(fulfilled);
+	}
+
+	/** Line items rejected so far, including those that ran out of time */
+	public Set<LineItem> getRejected() {
+		return Collections.unmodifiableSet(rejected);
 	}
 
 	private BiConsumer<Void,Throwable> notifyFulfillmentService(Order order) {
 		BiConsumer<Void,Throwable> notifyAction = (none,error) -> {
 			// Wrap up by notifying order status to an aggregation service
-			System.out.printf("%s -- All line items for order %s have been processed %n",
-					Thread.currentThread().getName(),
-					order.getId());
+			journal.log(EventJournal.Type.ORDER_PROCESSED, order.getId());
 
+			//-- The outcome is reported even past the deadline; it is what the caller is owed
 			if(allItemsCanBeFulfilled(order)) {
-				postMessageToEndpoint(FULFILLMENT_SERVICE,String.format(ORDER_SUCCESS_MSG,order.getId()));
+				postMessageToEndpoint(FULFILLMENT_SERVICE,String.format(ORDER_SUCCESS_MSG,order.getId()),Deadline.none());
 				return;
 			}
 
 			//-- We have detected some failure which needs to be attended to
-			postMessageToEndpoint(FULFILLMENT_SERVICE,String.format(ORDER_FAILURE_MSG,order.getId()));
+			postMessageToEndpoint(FULFILLMENT_SERVICE,String.format(ORDER_FAILURE_MSG,order.getId()),Deadline.none());
 		};
 		return notifyAction;
 	}
@@ -74,45 +206,69 @@ public class ScatterGatherAndDecidePurchaseAction implements PurchaseAction<Orde
 	}
 
 	//-- We want to keep track to individual line item failure so that they alone can be re-triggered
-	private BiConsumer<Void,Throwable> notifyOnError(LineItem lineItem) {
+	private BiConsumer<Void,Throwable> notifyOnError(Order order, LineItem lineItem) {
 		BiConsumer<Void,Throwable> finalAction = (none, throwable) -> {
+			if(isTimeout(throwable)) {
+				rejected.add(lineItem);
+				enqueueForRetry(order, lineItem);
+				return;
+			}
 			if(null != throwable) {
 				String message = String.format(ITEM_FAILURE_MSG,lineItem.getItemId(),throwable.getMessage());
-				System.out.println(message);
-				postMessageToEndpoint(FAILURE_SERVICE,message);
+				journal.log(EventJournal.Type.MESSAGE, message);
+				postMessageToEndpoint(FAILURE_SERVICE,message,Deadline.none());
+				enqueueForRetry(order, lineItem);
 				return;
 			}
 		};
 		return finalAction;
 	}
 
-	private BiConsumer<String,String> fulfillOnAllSuccessfulResponse(LineItem lineItem) {
+	private BiConsumer<String,String> fulfillOnAllSuccessfulResponse(Order order, LineItem lineItem) {
 		return (r1,r2) -> {
-			System.out.printf("%s -- checking fulfillment criteria...%n",Thread.currentThread().getName());
+			journal.log(EventJournal.Type.FULFILLMENT_CHECKED);
 			if(r1.contains("ok") && r2.contains("ok")) {
 				fulfilled.add(lineItem);
 			} else {
 				rejected.add(lineItem);
+				enqueueForRetry(order, lineItem);
 			}
 		};
 	}
 
-	private Supplier<String> notifyViaPrimaryPartnerService(LineItem item) {
+	//-- A line item that ran out of time has been rejected; it does not fail the order
+	static private Function<Throwable,Void> settleOnTimeout() {
+		return throwable -> {
+			if(isTimeout(throwable)) return null;
+			throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+		};
+	}
+
+	static private boolean isTimeout(Throwable throwable) {
+		return throwable instanceof TimeoutException
+				|| throwable instanceof CompletionException && throwable.getCause() instanceof TimeoutException;
+	}
+
+	private void enqueueForRetry(Order order, LineItem lineItem) {
+		if (null != retryQueue) retryQueue.enqueue(order.getId(), lineItem);
+	}
+
+	private Supplier<String> notifyViaPrimaryPartnerService(Order order, LineItem item, Deadline deadline) {
 		final String endpoint = OrderHelper.getPrimaryServiceEndpoint(item);
 		final String message  = item.getDescription() + "(" + item.getQuantity() + ")";
-		return notifyPartnerService(endpoint,message);
+		return notifyPartnerService(IdempotencyCache.keyOf(order.getId(), item, PRIMARY), endpoint, message, deadline);
 	}
 
-	private Supplier<String> notifyViaFallbackPartnerService(LineItem item) {
+	private Supplier<String> notifyViaFallbackPartnerService(Order order, LineItem item, Deadline deadline) {
 		final String endpoint = OrderHelper.getFallbackServiceEndpoint(item);
 		final String message  = item.getDescription() + "(" + item.getQuantity() + ")";
-		return notifyPartnerService(endpoint,message);
+		return notifyPartnerService(IdempotencyCache.keyOf(order.getId(), item, FALLBACK), endpoint, message, deadline);
 	}
 
 	// -- For each line item, notify partner service so that they can track it separately
-	private Supplier<String> notifyPartnerService(String endpoint, String request) {
+	private Supplier<String> notifyPartnerService(String key, String endpoint, String request, Deadline deadline) {
 		Supplier<String> responseSupplier = () -> {
-			final Optional<String> potentialResponse = postMessageToEndpoint(endpoint, request);
+			final Optional<String> potentialResponse = notifyOnce(key, endpoint, request, deadline);
 
 			String result = "";
 			itemNumberGenerator.incrementAndGet();
@@ -125,34 +281,64 @@ public class ScatterGatherAndDecidePurchaseAction implements PurchaseAction<Orde
 		return responseSupplier;
 	}
 
+	//-- A partner that accepted a line item is not told about it again; anything else is re-sent
+	static private Optional<String> notifyOnce(String key, String endpoint, String message, Deadline deadline) {
+		return idempotency.send(key, () -> postMessageToEndpoint(endpoint, message, deadline), response -> response.contains("ok"), deadline);
+	}
+
 	// -- This is a blocking network call. Thread will not be released until the
-	// calls returns successfully or with an error
-	private Optional<String> postMessageToEndpoint(String endpoint, String message) {
+	// calls returns successfully, with an error or, if the deadline is bounded, times out
+	static private Optional<String> postMessageToEndpoint(String endpoint, String message, Deadline deadline) {
 
-		if(null == endpoint || null == message) return Optional.empty();
+		if(null == endpoint || null == message || deadline.isExpired()) return Optional.empty();
 
 		Optional<String> result = Optional.empty();
 
+		//-- A shed call is answered like a failed one, without adding to the partner's load
+		final AdaptiveConcurrencyLimiter.Permit permit;
+		try {
+			permit = limiter.acquire(endpoint, deadline);
+		} catch (RejectedExecutionException shed) {
+			journal.log(EventJournal.Type.ENDPOINT_SHED, endpoint);
+			return result;
+		}
+
 		Client client = ClientBuilder.newClient();
+		if (deadline.isBounded()) {
+			//-- Connect and read share what is left, so together they end by the deadline; 0 would mean
+			//-- no timeout at all. The read timeout bounds each read, so only a response trickling in
+			//-- over several reads can still outlast it
+			final long remainingMillis = Math.max(2, Math.min(Integer.MAX_VALUE, deadline.remaining(TimeUnit.MILLISECONDS)));
+			final int connectMillis = (int) (remainingMillis / 2);
+			client.property(ClientProperties.CONNECT_TIMEOUT, connectMillis);
+			client.property(ClientProperties.READ_TIMEOUT, (int) (remainingMillis - connectMillis));
+		}
 		WebTarget webTarget = client.target(endpoint);
 		try {
 			final Response response = webTarget
 					.request(MediaType.TEXT_PLAIN)
 					.post(Entity.entity(message,MediaType.TEXT_PLAIN));
 			result = Optional.of(response.readEntity(String.class));
+			permit.release(response.getStatus() < 500);
 		} catch (Exception cause) {
-			System.err.printf("Failed to notify endpoint %s %n",endpoint);
-			cause.printStackTrace();
+			permit.release(false);
+			if (deadline.isExpired()) {
+				journal.log(EventJournal.Type.ENDPOINT_TIMED_OUT, endpoint);
+			} else {
+				System.err.printf("Failed to notify endpoint %s %n",endpoint);
+				cause.printStackTrace();
+			}
+		} finally {
+			client.close();
 		}
-		System.out.printf("%s -- Endpoint %s responded with: %s %n",
-				Thread.currentThread().getName(),
-				endpoint,result.orElse("<empty>"));
+		journal.log(EventJournal.Type.ENDPOINT_RESPONDED, endpoint, result.orElse("<empty>"));
 		return result;
 	}
 
 	public static void main(String[] args) throws Exception {
 		final PurchaseAction<Order> purchaseAction = new ScatterGatherAndDecidePurchaseAction();
 		purchaseAction.execute(OrderHelper.generateOrder());
+		journal.flush();
 		System.out.printf("Number of items notified: %d %n",itemNumberGenerator.get());
 	}
 }
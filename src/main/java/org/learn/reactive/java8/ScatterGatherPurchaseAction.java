@@ -12,6 +12,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -19,13 +20,25 @@ import java.util.stream.Collectors;
 
 public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 	private static final AtomicInteger itemNumberGenerator = new AtomicInteger(0);
+	private static final EventJournal journal = EventJournal.getDefault();
+	private static final AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getDefault();
+	private static final IdempotencyCache idempotency = IdempotencyCache.getDefault();
 	private static final String LS = System.lineSeparator();
 	private static final String ACTION_MSG = "Purchase order for %s executed successfully";
 	private static final String ORDER_FAILED_MSG = "Order %s cannot be fulfilled now. Try again later";
-	private static final String FULFILLMENT_SERVICE = "https://requestb.in/15086sx1";
 	private static final String LINE_ITEM_FULFILMENT_TEMPLATE = "Order for %s(%d) was a %s - Tracking id %s";
 	private static final Set<LineItem> fulfilled = new HashSet();
 	private static final Set<LineItem> rejected = new HashSet();
+	private final String FULFILLMENT_SERVICE;
+
+	public ScatterGatherPurchaseAction() {
+		this("https://requestb.in/15086sx1");
+	}
+
+	//-- e.g. an endpoint of a PartnerStubServer, to run offline
+	public ScatterGatherPurchaseAction(String fulfillmentService) {
+		this.FULFILLMENT_SERVICE = fulfillmentService;
+	}
 
 
 	public void execute(Order order) throws ExecutionException, InterruptedException {
@@ -34,7 +47,7 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 		final List<CompletableFuture<Void>> futures = order.getItems()
 				.stream()
 				.map(li -> CompletableFuture
-						.supplyAsync(notifyPartnerService(li))
+						.supplyAsync(notifyPartnerService(order, li))
 						.thenAcceptAsync(processPartnerResponse(li))) //-- Consume the result in any available thread
 				.collect(Collectors.toList());
 
@@ -101,21 +114,21 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 	}
 
 	// -- For each line item, notify partner service so that they can track it separately
-	private Supplier<String> notifyPartnerService(LineItem item) {
+	//-- Keyed like ScatterGatherAndDecidePurchaseAction's primary notification, so neither re-sends an accepted item
+	private Supplier<String> notifyPartnerService(Order order, LineItem item) {
 		final String endpoint = OrderHelper.getPrimaryServiceEndpoint(item);
+		final String key = IdempotencyCache.keyOf(order.getId(), item, "primary");
 		Supplier<String> responseSupplier = () -> {
-			final Optional<String> potentialResponse = postMessageToEndpoint(endpoint,
-					item.getDescription() + "(" + item.getQuantity() + ")");
+			final Optional<String> potentialResponse = idempotency.send(key,
+					() -> postMessageToEndpoint(endpoint, item.getDescription() + "(" + item.getQuantity() + ")"),
+					response -> response.contains("ok"));
 
 			String result = "";
 			itemNumberGenerator.incrementAndGet();
 
 			if(potentialResponse.isPresent()) {
 				result = potentialResponse.get();
-				System.out.printf("%s -- Received partner response %s for line item %s %n",
-						Thread.currentThread().getName(),
-						result,
-						item.getItemId());
+				journal.log(EventJournal.Type.PARTNER_RESPONDED, result, item.getItemId());
 			}
 			return result;
 		};
@@ -124,9 +137,7 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 
 	private Consumer<String> processPartnerResponse(LineItem lineItem) {
 		return (String response) -> {
-			System.out.printf("%s -- processing partner response for line item %s %n",
-					Thread.currentThread().getName(),
-					lineItem.getItemId());
+			journal.log(EventJournal.Type.PARTNER_RESPONSE_PROCESSED, lineItem.getItemId());
 			if(response.contains("ok")) {
 				fulfilled.add(lineItem);
 				return;
@@ -147,6 +158,15 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 
 		Optional<String> result = Optional.empty();
 
+		//-- A shed call is answered like a failed one, without adding to the partner's load
+		final AdaptiveConcurrencyLimiter.Permit permit;
+		try {
+			permit = limiter.acquire(endpoint);
+		} catch (RejectedExecutionException shed) {
+			journal.log(EventJournal.Type.ENDPOINT_SHED, endpoint);
+			return result;
+		}
+
 		Client client = ClientBuilder.newClient();
 		WebTarget webTarget = client.target(endpoint);
 		try {
@@ -154,13 +174,13 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 					.request(MediaType.TEXT_PLAIN)
 					.post(Entity.entity(message,MediaType.TEXT_PLAIN));
 			result = Optional.of(response.readEntity(String.class));
+			permit.release(response.getStatus() < 500);
 		} catch (Exception cause) {
+			permit.release(false);
 			System.err.printf("Failed to notify endpoint %s %n" + endpoint);
 			cause.printStackTrace();
 		}
-		System.out.printf("%s -- Endpoint %s responded with: %s %n",
-				Thread.currentThread().getName(),
-				endpoint,result.get());
+		journal.log(EventJournal.Type.ENDPOINT_RESPONDED, endpoint, result.get());
 		return result;
 	}
 
@@ -168,6 +188,7 @@ public class ScatterGatherPurchaseAction implements PurchaseAction<Order> {
 	public static void main(String[] args) throws Exception {
 		PurchaseAction<Order> purchaseAction = new ScatterGatherPurchaseAction();
 		purchaseAction.execute(OrderHelper.generateOrder());
+		journal.flush();
 		System.out.printf("Number of items notified: %d %n",itemNumberGenerator.get());
 	}
 }
@@ -9,12 +9,27 @@ public class ShoppingCart {
 	private final Customer _orderedBy;
 	private final List<LineItem> _items;
 	private final LocalDateTime _createdOn;
+	private final long _createdOnEpochDay;
 
 	public ShoppingCart(Customer orderedBy, List<LineItem> items, LocalDateTime createdOn) {
+		this(UUID.randomUUID(), orderedBy, items, createdOn);
+	}
+
+	ShoppingCart(UUID cartId, Customer orderedBy, List<LineItem> items, LocalDateTime createdOn) {
 		this._orderedBy = orderedBy;
 		this._items = items;
 		this._createdOn = createdOn;
-		_cartId = UUID.randomUUID();
+		this._createdOnEpochDay = createdOn.toLocalDate().toEpochDay();
+		_cartId = cartId;
+	}
+
+	//-- For views that keep their state elsewhere and override every getter
+	protected ShoppingCart() {
+		this._cartId = null;
+		this._orderedBy = null;
+		this._items = null;
+		this._createdOn = null;
+		this._createdOnEpochDay = 0;
 	}
 
 	public Customer getOrderedBy() {
@@ -29,6 +44,17 @@ public class ShoppingCart {
 		return _createdOn;
 	}
 
+	//-- Cached so date filters compare a long instead of building a LocalDate per cart
+	public long getCreationEpochDay() {
+		return _createdOnEpochDay;
+	}
+
+	public double getTotalValue() {
+		double total = 0;
+		for (LineItem item : getItems()) { total += item.getValue(); }
+		return total;
+	}
+
 	public UUID getId() {
 		return _cartId;
 	}
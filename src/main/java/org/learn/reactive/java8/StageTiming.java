@@ -0,0 +1,65 @@
+package org.learn.reactive.java8;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a single stage of a backup was submitted, picked up and finished, and by whom.
+ */
+public class StageTiming {
+	private final BackupStage _stage;
+	private final String _source;
+	private final String _threadName;
+	private final long _submittedNanos;
+	private final long _startedNanos;
+	private final long _finishedNanos;
+
+	public StageTiming(BackupStage stage, String source, String threadName,
+	                   long submittedNanos, long startedNanos, long finishedNanos) {
+		this._stage = stage;
+		this._source = source;
+		this._threadName = threadName;
+		this._submittedNanos = submittedNanos;
+		this._startedNanos = startedNanos;
+		this._finishedNanos = finishedNanos;
+	}
+
+	public BackupStage getStage() {
+		return _stage;
+	}
+
+	public String getSource() {
+		return _source;
+	}
+
+	public String getThreadName() {
+		return _threadName;
+	}
+
+	public long getSubmittedNanos() {
+		return _submittedNanos;
+	}
+
+	public long getStartedNanos() {
+		return _startedNanos;
+	}
+
+	public long getFinishedNanos() {
+		return _finishedNanos;
+	}
+
+	public long getQueueWait(TimeUnit unit) {
+		return unit.convert(_startedNanos - _submittedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getDuration(TimeUnit unit) {
+		return unit.convert(_finishedNanos - _startedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[%s] on %s waited %d ms, ran %d ms",
+				_stage, _source, _threadName,
+				getQueueWait(TimeUnit.MILLISECONDS),
+				getDuration(TimeUnit.MILLISECONDS));
+	}
+}
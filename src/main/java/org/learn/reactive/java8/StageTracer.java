@@ -0,0 +1,374 @@
+package org.learn.reactive.java8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Records when each stage of a {@link CompletableFuture} pipeline was enqueued, started and
+ * finished, and on which thread, so the time of a chain can be laid out as a timeline.
+ * Stage functions are wrapped with {@link #function}, {@link #supplier} and friends; executors
+ * wrapped with {@link #executor} stamp the time a task was handed over, which the stage run
+ * by that task reports as its enqueue time. Stages run without a hop are enqueued when they start.
+ * <p>
+ * Each thread writes to its own ring of the last {@code capacityPerThread} spans: recording is
+ * two clock reads and a handful of ordered stores, without locks, allocation or contention, and
+ * a disabled tracer costs one volatile read per stage. Rings are read by {@link #spans()} while
+ * threads keep writing; spans overwritten during the read are dropped, never torn.
+ * <p>
+ * The ring of a thread that has died is read one last time by the next {@link #spans()} and
+ * then dropped, as it is by {@link #clear()}. Pools that keep replacing their threads would
+ * otherwise leave a ring behind for every thread they ever ran; for the same reason, once there
+ * are more than 64 rings of dead threads nobody read, a new thread's ring
+ * replaces them.
+ */
+public class StageTracer {
+	static private final int MAX_DEAD_RINGS = 64;
+
+	private final int _mask;
+	private final long _originNanos = System.nanoTime();
+	private final Queue<Ring> _rings = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Ring> _ring = ThreadLocal.withInitial(this::newRing);
+	//-- Set by a traced executor for the task it runs, taken by the first stage of that task
+	private final ThreadLocal<long[]> _handedOver = ThreadLocal.withInitial(() -> new long[] { -1 });
+	private volatile boolean _enabled = true;
+
+	/**
+	 * A tracer keeping the last {@code capacityPerThread} spans of every thread, rounded up to a power of two.
+	 */
+	public StageTracer(int capacityPerThread) {
+		if (capacityPerThread < 1 || capacityPerThread > 1 << 24) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^24, got " + capacityPerThread);
+		}
+		this._mask = Integer.highestOneBit(Math.max(1, 2 * capacityPerThread - 1)) - 1;
+	}
+
+	public StageTracer() {
+		this(4 * 1024);
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this._enabled = enabled;
+	}
+
+	public <T> Supplier<T> supplier(String stage, Supplier<T> supplier) {
+		return () -> {
+			if (!_enabled) return supplier.get();
+			final long enqueued = takeHandover();
+			final long started = System.nanoTime();
+			try {
+				return supplier.get();
+			} finally {
+				record(stage, enqueued < 0 ? started : enqueued, started, System.nanoTime());
+			}
+		};
+	}
+
+	public <T,R> Function<T,R> function(String stage, Function<T,R> function) {
+		return input -> {
+			if (!_enabled) return function.apply(input);
+			final long enqueued = takeHandover();
+			final long started = System.nanoTime();
+			try {
+				return function.apply(input);
+			} finally {
+				record(stage, enqueued < 0 ? started : enqueued, started, System.nanoTime());
+			}
+		};
+	}
+
+	public <T> Consumer<T> consumer(String stage, Consumer<T> consumer) {
+		return input -> {
+			if (!_enabled) {
+				consumer.accept(input);
+				return;
+			}
+			final long enqueued = takeHandover();
+			final long started = System.nanoTime();
+			try {
+				consumer.accept(input);
+			} finally {
+				record(stage, enqueued < 0 ? started : enqueued, started, System.nanoTime());
+			}
+		};
+	}
+
+	public Runnable runnable(String stage, Runnable runnable) {
+		final Consumer<Void> traced = consumer(stage, none -> runnable.run());
+		return () -> traced.accept(null);
+	}
+
+	/**
+	 * An executor that marks the time each task is handed to {@code executor}; the first
+	 * traced stage run by the task is reported as enqueued at that time.
+	 */
+	public Executor executor(Executor executor) {
+		return task -> {
+			if (!_enabled) {
+				executor.execute(task);
+				return;
+			}
+			final long enqueued = System.nanoTime();
+			executor.execute(() -> {
+				final long[] handedOver = _handedOver.get();
+				handedOver[0] = enqueued;
+				try {
+					task.run();
+				} finally {
+					handedOver[0] = -1;
+				}
+			});
+		};
+	}
+
+	/**
+	 * Records a span timed by the caller, e.g. by an executor that already stamps its tasks.
+	 * Times are {@link System#nanoTime()} readings; the span is attributed to the calling thread.
+	 */
+	public void record(String stage, long enqueuedNanos, long startedNanos, long finishedNanos) {
+		if (_enabled) _ring.get().add(stage, enqueuedNanos, startedNanos, finishedNanos);
+	}
+
+	/**
+	 * The spans still held by the rings, ordered by start time.
+	 */
+	public List<Span> spans() {
+		final List<Span> spans = new ArrayList<>();
+		for (Ring ring : _rings) {
+			//-- Checked before copying, so that nothing a thread wrote before dying is missed
+			final boolean dead = !ring.isOwnerAlive();
+			ring.copyTo(spans);
+			if (dead) _rings.remove(ring);
+		}
+		spans.sort(Comparator.comparingLong(Span::getStartedNanos));
+		return spans;
+	}
+
+	/**
+	 * Forgets every span recorded so far.
+	 */
+	public void clear() {
+		_rings.forEach(Ring::clear);
+		_rings.removeIf(ring -> !ring.isOwnerAlive());
+	}
+
+	/**
+	 * Writes the spans in the Chrome trace event format, one complete event per span with
+	 * the queue wait as an argument; load the file in chrome://tracing or Perfetto.
+	 */
+	public void writeChromeTrace(Writer out) throws IOException {
+		out.write("{\"traceEvents\":[");
+		boolean first = true;
+		for (Span span : spans()) {
+			if (!first) out.write(',');
+			first = false;
+			out.write(String.format(Locale.ROOT, "%n{\"name\":\"%s\",\"cat\":\"stage\",\"ph\":\"X\",\"pid\":1,\"tid\":%d," +
+							"\"ts\":%.3f,\"dur\":%.3f,\"args\":{\"thread\":\"%s\",\"queued_us\":%.3f}}",
+					escape(span._stage), span._threadId, micros(span._startedNanos - _originNanos),
+					micros(span._finishedNanos - span._startedNanos), escape(span._threadName),
+					micros(span._startedNanos - span._enqueuedNanos)));
+		}
+		out.write(String.format("%n],\"displayTimeUnit\":\"ms\"}%n"));
+	}
+
+	public void writeChromeTrace(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writeChromeTrace(out);
+		}
+	}
+
+	private long takeHandover() {
+		final long[] handedOver = _handedOver.get();
+		final long enqueued = handedOver[0];
+		handedOver[0] = -1;
+		return enqueued;
+	}
+
+	private Ring newRing() {
+		final Ring ring = new Ring(Thread.currentThread(), _mask + 1);
+		int dead = 0;
+		for (Ring other : _rings) { if (!other.isOwnerAlive()) dead++; }
+		if (dead > MAX_DEAD_RINGS) _rings.removeIf(other -> !other.isOwnerAlive());
+		_rings.add(ring);
+		return ring;
+	}
+
+	//-- Rings of the threads still holding one, for tests
+	int ringCount() {
+		return _rings.size();
+	}
+
+	static private double micros(long nanos) {
+		return nanos / 1_000.0;
+	}
+
+	static private String escape(String value) {
+		final StringBuilder escaped = new StringBuilder(value.length());
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') escaped.append('\\').append(c);
+			else if (c < 0x20) escaped.append(String.format("\\u%04x", (int) c));
+			else escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	//-- Written by its own thread only. Every slot carries the sequence of its span, cleared
+	//-- while the slot is rewritten, so a reader can tell a span it read whole from a torn one
+	static private final class Ring {
+		//-- Weak, so that a ring never keeps its thread reachable
+		private final WeakReference<Thread> _owner;
+		private final String _threadName;
+		private final long _threadId;
+		private final int _mask;
+		private final AtomicReferenceArray<String> _stages;
+		private final AtomicLongArray _slots;
+		private final AtomicLong _written = new AtomicLong();
+		private volatile long _cleared;
+
+		private Ring(Thread owner, int capacity) {
+			this._owner = new WeakReference<>(owner);
+			this._threadName = owner.getName();
+			this._threadId = owner.getId();
+			this._mask = capacity - 1;
+			this._stages = new AtomicReferenceArray<>(capacity);
+			this._slots = new AtomicLongArray(4 * capacity);
+		}
+
+		private void add(String stage, long enqueued, long started, long finished) {
+			final long sequence = _written.get();
+			final int base = 4 * ((int) sequence & _mask);
+			_slots.set(base, -1);
+			_stages.lazySet(base / 4, stage);
+			_slots.lazySet(base + 1, enqueued);
+			_slots.lazySet(base + 2, started);
+			_slots.lazySet(base + 3, finished);
+			_slots.lazySet(base, sequence);
+			_written.lazySet(sequence + 1);
+		}
+
+		private void copyTo(List<Span> spans) {
+			final long end = _written.get();
+			for (long sequence = Math.max(_cleared, end - _mask - 1); sequence < end; sequence++) {
+				final int base = 4 * ((int) sequence & _mask);
+				if (_slots.get(base) != sequence) continue;
+				final Span span = new Span(_stages.get(base / 4), _threadName, _threadId,
+						_slots.get(base + 1), _slots.get(base + 2), _slots.get(base + 3));
+				if (_slots.get(base) == sequence) spans.add(span);
+			}
+		}
+
+		private void clear() {
+			_cleared = _written.get();
+		}
+
+		private boolean isOwnerAlive() {
+			final Thread owner = _owner.get();
+			return null != owner && owner.isAlive();
+		}
+	}
+
+	/**
+	 * One execution of a stage.
+	 */
+	static public final class Span {
+		private final String _stage;
+		private final String _threadName;
+		private final long _threadId;
+		private final long _enqueuedNanos;
+		private final long _startedNanos;
+		private final long _finishedNanos;
+
+		private Span(String stage, String threadName, long threadId,
+		             long enqueuedNanos, long startedNanos, long finishedNanos) {
+			this._stage = stage;
+			this._threadName = threadName;
+			this._threadId = threadId;
+			this._enqueuedNanos = enqueuedNanos;
+			this._startedNanos = startedNanos;
+			this._finishedNanos = finishedNanos;
+		}
+
+		public String getStage() {
+			return _stage;
+		}
+
+		public String getThreadName() {
+			return _threadName;
+		}
+
+		public long getEnqueuedNanos() {
+			return _enqueuedNanos;
+		}
+
+		public long getStartedNanos() {
+			return _startedNanos;
+		}
+
+		public long getFinishedNanos() {
+			return _finishedNanos;
+		}
+
+		public long getQueueWait(TimeUnit unit) {
+			return unit.convert(_startedNanos - _enqueuedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public long getDuration(TimeUnit unit) {
+			return unit.convert(_finishedNanos - _startedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s on %s waited %d us, ran %d us",
+					_stage, _threadName, getQueueWait(TimeUnit.MICROSECONDS), getDuration(TimeUnit.MICROSECONDS));
+		}
+	}
+
+	//-- Traces the discount pipeline with a hop to a separate pool and writes the timeline
+	public static void main(String[] args) throws IOException {
+		final Path file = args.length > 0 ? Paths.get(args[0]) : Files.createTempFile("stages", ".json");
+		final StageTracer tracer = new StageTracer();
+		final ExecutorService filterPool = InstrumentedExecutors.newFixedThreadPool("Filter-Worker", 2);
+		final Executor tracedPool = tracer.executor(filterPool);
+		final LocalDate endOfFY = LocalDate.of(2017, 3, 31);
+		try {
+			for (int round = 0; round < 5; round++) {
+				CompletableFuture
+						.supplyAsync(tracer.supplier("fetchAllShoppingCarts", () -> OrderHelper.fetchAllShoppingCarts(endOfFY)), tracedPool)
+						.thenApplyAsync(tracer.function("filterCartsByDate", FilterOperations.filterCartsByDate(LocalDate.of(2017, 12, 30))), tracedPool)
+						.thenApply(tracer.function("filterCustomersByPurchases", FilterOperations.filterCustomersByPurchases(1_000.00)))
+						.thenAcceptAsync(tracer.consumer("countCustomers", customers -> customers.count()), tracedPool)
+						.join();
+			}
+		} finally {
+			filterPool.shutdown();
+		}
+		tracer.spans().forEach(span -> System.out.printf("%s -- %s %n", Thread.currentThread().getName(), span));
+		tracer.writeChromeTrace(file);
+		System.out.printf("%s -- Wrote %d spans to %s %n", Thread.currentThread().getName(), tracer.spans().size(), file);
+	}
+}
@@ -0,0 +1,67 @@
+package org.learn.reactive.java8;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes a slowly growing set of strings, such as item types or vendor names, as dense
+ * {@code int} ordinals. Encoding is a hash lookup; decoding is an array read. {@code null}
+ * is encoded as {@link #NULL} without taking an ordinal.
+ * <p>
+ * Safe for concurrent use. Ordinals are never reused; a dictionary created with a
+ * {@code maxSize}, e.g. one whose ordinals are stored as 16 bits, refuses strings beyond
+ * it with an {@link IllegalStateException}, otherwise it grows as long as memory allows.
+ */
+public class StringDictionary {
+	static public final int NULL = -1;
+	//-- Largest array size every JVM allocates
+	static private final int UNBOUNDED = Integer.MAX_VALUE - 8;
+
+	private final int _maxSize;
+	private final Map<String,Integer> _ordinals = new ConcurrentHashMap<>();
+	//-- Doubles as it fills; slots past _size are unused
+	private volatile String[] _values = new String[16];
+	private volatile int _size;
+
+	public StringDictionary() {
+		this(UNBOUNDED);
+	}
+
+	public StringDictionary(int maxSize) {
+		if (maxSize < 1) throw new IllegalArgumentException("Dictionary must hold at least one string, got " + maxSize);
+		this._maxSize = Math.min(maxSize, UNBOUNDED);
+	}
+
+	public int encode(String value) {
+		if (null == value) return NULL;
+		final Integer known = _ordinals.get(value);
+		if (null != known) return known;
+		synchronized (this) {
+			final Integer raced = _ordinals.get(value);
+			if (null != raced) return raced;
+			final int ordinal = _size;
+			if (ordinal == _maxSize) {
+				throw new IllegalStateException("Dictionary is full at " + _maxSize + " strings, cannot encode " + value);
+			}
+			String[] values = _values;
+			if (ordinal == values.length) {
+				values = Arrays.copyOf(values, (int) Math.min(_maxSize, 2L * values.length));
+			}
+			values[ordinal] = value;
+			//-- Publish the value before the ordinal, so whoever sees the ordinal can decode it
+			_values = values;
+			_size = ordinal + 1;
+			_ordinals.put(value, ordinal);
+			return ordinal;
+		}
+	}
+
+	public String decode(int ordinal) {
+		return ordinal == NULL ? null : _values[ordinal];
+	}
+
+	public int size() {
+		return _size;
+	}
+}
@@ -0,0 +1,275 @@
+package org.learn.reactive.java8;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The {@code k} customers who spent the most on carts created inside a date window.
+ * <p>
+ * Spend is summed per customer in parallel, each worker into its own
+ * {@link LongLongHashMap} keyed by customer id, and the maps are merged as the
+ * workers finish. Only then, when every customer's total is complete, is the merged
+ * table cut into slot ranges and each range reduced to a bounded min-heap of {@code k}
+ * entries in parallel; the heaps are merged into the answer. Ranking partial per-worker
+ * totals instead would miss customers whose carts were spread across workers. Memory
+ * stays at one table entry per customer plus {@code k} per heap, and nothing is sorted
+ * except the final {@code k}.
+ * <p>
+ * Ids are only unique within a {@link CustomerDictionary}, so only customers interned in
+ * the ranking's dictionary are summed by id. Anyone else, e.g. customers read back from a
+ * record file, is summed by value and ranked as the same customer as their interned
+ * counterpart if the dictionary has one.
+ */
+public class TopCustomers {
+	private final LocalDate _createdAfter;
+	private final LocalDate _createdBefore;
+	private final int _k;
+	private final CustomerDictionary _customers;
+
+	public TopCustomers(LocalDate createdAfter, LocalDate createdBefore, int k) {
+		this(createdAfter, createdBefore, k, OrderHelper.getCustomerDictionary());
+	}
+
+	/**
+	 * @param customers the dictionary the ranked carts' customers were interned in
+	 */
+	public TopCustomers(LocalDate createdAfter, LocalDate createdBefore, int k, CustomerDictionary customers) {
+		if (k <= 0) throw new IllegalArgumentException("k must be positive, was " + k);
+		this._createdAfter = createdAfter;
+		this._createdBefore = createdBefore;
+		this._k = k;
+		this._customers = customers;
+	}
+
+	/**
+	 * Ranks the customers of {@code carts}, highest spend first. Runs on the pool of the
+	 * calling thread when that is a fork/join worker, otherwise on the common pool.
+	 */
+	public List<CustomerSpend> rank(Stream<ShoppingCart> carts) {
+		final long after = _createdAfter.toEpochDay();
+		final long before = _createdBefore.toEpochDay();
+
+		final SpendTable table = carts.parallel()
+				.filter(cart -> cart.getCreationEpochDay() > after && cart.getCreationEpochDay() < before)
+				.collect(SpendTable::new, SpendTable::add, SpendTable::addAll)
+				.settle();
+		final LongLongHashMap spend = table._byId;
+
+		final int partitions = Math.max(1, Math.min(spend.capacity() / 1024, 4 * Runtime.getRuntime().availableProcessors()));
+		final int capacity = spend.capacity();
+		final BoundedHeap top = IntStream.range(0, partitions).parallel()
+				.mapToObj(partition -> {
+					final BoundedHeap heap = new BoundedHeap(_k);
+					final int to = (int) ((long) capacity * (partition + 1) / partitions);
+					for (int slot = (int) ((long) capacity * partition / partitions); slot < to; slot++) {
+						if (spend.isUsed(slot)) heap.offer(spend.keyAt(slot), spend.valueAt(slot));
+					}
+					return heap;
+				})
+				.reduce(BoundedHeap::merge)
+				.orElseGet(() -> new BoundedHeap(_k));
+		table._others.forEach((customer, cents) -> top.offer(customer, -1, cents));
+
+		return top.drainDescending(_customers);
+	}
+
+	static private long centsOf(ShoppingCart cart) {
+		long cents = 0;
+		for (LineItem item : cart.getItems()) { cents += CartStore.toCents(item.getValue()); }
+		return cents;
+	}
+
+	//-- Spend by id for customers of the ranking's dictionary, by value for everyone else
+	private final class SpendTable {
+		private final LongLongHashMap _byId = new LongLongHashMap();
+		private final Map<Customer,Long> _others = new HashMap<>();
+
+		private void add(ShoppingCart cart) {
+			final Customer customer = cart.getOrderedBy();
+			if (customer.isInternedIn(_customers)) {
+				_byId.addTo(customer.getId(), centsOf(cart));
+			} else {
+				_others.merge(customer, centsOf(cart), Long::sum);
+			}
+		}
+
+		private void addAll(SpendTable other) {
+			_byId.addAll(other._byId);
+			other._others.forEach((customer, cents) -> _others.merge(customer, cents, Long::sum));
+		}
+
+		//-- Customers the dictionary knows under another instance join their interned self
+		private SpendTable settle() {
+			for (Iterator<Map.Entry<Customer,Long>> others = _others.entrySet().iterator(); others.hasNext(); ) {
+				final Map.Entry<Customer,Long> other = others.next();
+				final Customer known = null == _customers ? null : _customers.find(other.getKey());
+				if (null == known) continue;
+				_byId.addTo(known.getId(), other.getValue());
+				others.remove();
+			}
+			return this;
+		}
+	}
+
+	//-- Min-heap on spend over parallel arrays; the root is the entry to evict. Entries carry either
+	//-- a dictionary id, resolved once drained, or the customer itself
+	static private final class BoundedHeap {
+		private final long[] _keys;
+		private final Customer[] _customers;
+		private final long[] _values;
+		private int _size;
+
+		private BoundedHeap(int k) {
+			this._keys = new long[k];
+			this._customers = new Customer[k];
+			this._values = new long[k];
+		}
+
+		private void offer(long key, long value) {
+			offer(null, key, value);
+		}
+
+		private void offer(Customer customer, long key, long value) {
+			if (_size < _keys.length) {
+				_keys[_size] = key;
+				_customers[_size] = customer;
+				_values[_size] = value;
+				siftUp(_size++);
+			} else if (value > _values[0]) {
+				_keys[0] = key;
+				_customers[0] = customer;
+				_values[0] = value;
+				siftDown(0);
+			}
+		}
+
+		private BoundedHeap merge(BoundedHeap other) {
+			for (int i = 0; i < other._size; i++) { offer(other._customers[i], other._keys[i], other._values[i]); }
+			return this;
+		}
+
+		private List<CustomerSpend> drainDescending(CustomerDictionary customers) {
+			final List<CustomerSpend> ranked = new ArrayList<>(_size);
+			while (_size > 0) {
+				ranked.add(new CustomerSpend(null != _customers[0] ? _customers[0] : customers.get(_keys[0]), _values[0]));
+				_size--;
+				_keys[0] = _keys[_size];
+				_customers[0] = _customers[_size];
+				_values[0] = _values[_size];
+				_customers[_size] = null;
+				siftDown(0);
+			}
+			Collections.reverse(ranked);
+			return ranked;
+		}
+
+		private void siftUp(int index) {
+			while (index > 0) {
+				final int parent = (index - 1) >>> 1;
+				if (_values[parent] <= _values[index]) return;
+				swap(parent, index);
+				index = parent;
+			}
+		}
+
+		private void siftDown(int index) {
+			while (true) {
+				final int left = 2 * index + 1;
+				if (left >= _size) return;
+				final int right = left + 1;
+				final int smallest = right < _size && _values[right] < _values[left] ? right : left;
+				if (_values[index] <= _values[smallest]) return;
+				swap(index, smallest);
+				index = smallest;
+			}
+		}
+
+		private void swap(int a, int b) {
+			final long key = _keys[a];
+			final Customer customer = _customers[a];
+			final long value = _values[a];
+			_keys[a] = _keys[b];
+			_customers[a] = _customers[b];
+			_values[a] = _values[b];
+			_keys[b] = key;
+			_customers[b] = customer;
+			_values[b] = value;
+		}
+	}
+
+	/**
+	 * A customer and what they spent in the window.
+	 */
+	static public final class CustomerSpend {
+		private final Customer _customer;
+		private final long _cents;
+
+		private CustomerSpend(Customer customer, long cents) {
+			this._customer = customer;
+			this._cents = cents;
+		}
+
+		public Customer getCustomer() {
+			return _customer;
+		}
+
+		public long getCents() {
+			return _cents;
+		}
+
+		public double getValue() {
+			return _cents / 100.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s: %.2f", _customer.getFirstName(), _customer.getLastName(), getValue());
+		}
+	}
+
+	//-- Ranks carts spread over many customers and compares against sorting every total
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final int customers = count / 10;
+		final SplittableRandom random = new SplittableRandom(35);
+		final List<Customer> pool = OrderHelper.createCarts(customers).map(ShoppingCart::getOrderedBy).collect(Collectors.toList());
+		final List<ShoppingCart> carts = OrderHelper.createCarts(count)
+				.map(cart -> new ShoppingCart(pool.get(random.nextInt(customers)), cart.getItems(),
+						LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), cart.getCreationDateTime().toLocalTime())))
+				.collect(Collectors.toList());
+		final LocalDate after = LocalDate.of(2017, 3, 31);
+		final LocalDate before = LocalDate.of(2017, 12, 30);
+		final TopCustomers top = new TopCustomers(after, before, 10);
+
+		for (int round = 0; round < 5; round++) {
+			long started = System.nanoTime();
+			final List<CustomerSpend> ranked = top.rank(carts.stream());
+			final long topNanos = System.nanoTime() - started;
+
+			started = System.nanoTime();
+			final List<Long> sorted = carts.stream()
+					.filter(cart -> cart.getCreationEpochDay() > after.toEpochDay() && cart.getCreationEpochDay() < before.toEpochDay())
+					.collect(Collectors.groupingBy(ShoppingCart::getOrderedBy, Collectors.summingLong(TopCustomers::centsOf)))
+					.values().stream()
+					.sorted(Collections.reverseOrder())
+					.limit(10)
+					.collect(Collectors.toList());
+			final long sortNanos = System.nanoTime() - started;
+
+			System.out.printf("Round %d: %d carts, %d customers, top-%d in %d ms (leader %.2f), group and sort in %d ms (leader %.2f) %n",
+					round, count, customers, ranked.size(), TimeUnit.NANOSECONDS.toMillis(topNanos), ranked.get(0).getValue(),
+					TimeUnit.NANOSECONDS.toMillis(sortNanos), sorted.get(0) / 100.0);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+	static private final String PARTNER = "http://localhost:8080/partner";
+	static private final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	@DisplayName("The limit grows while the partner answers as fast as when unloaded")
+	void growsWhileLatencyIsFlat() {
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiterBuilder()
+				.withInitialLimit(4).withLimitRange(1, 16).build();
+		for (int round = 0; round < 50; round++) {
+			final List<AdaptiveConcurrencyLimiter.Permit> permits = acquireAll(limiter);
+			permits.forEach(permit -> permit.release(true, RTT));
+		}
+		assertEquals(16, limiter.getLimit(PARTNER));
+		assertEquals(0, limiter.getInFlightCount(PARTNER));
+		assertEquals(4, limiter.getLimit("http://localhost:8080/never-called"));
+	}
+
+	@Test
+	@DisplayName("Rising latency and failures bring the limit down")
+	void shrinksUnderLoad() {
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiterBuilder()
+				.withInitialLimit(20).withLimitRange(2, 50).build();
+		acquireAll(limiter).forEach(permit -> permit.release(true, RTT));
+		final int unloaded = limiter.getLimit(PARTNER);
+
+		//-- Ten times the unloaded latency: most of the calls in flight are queueing at the partner
+		for (int round = 0; round < 20; round++) {
+			acquireAll(limiter).forEach(permit -> permit.release(true, 10 * RTT));
+		}
+		final int loaded = limiter.getLimit(PARTNER);
+		assertTrue(loaded < unloaded && loaded <= 7, loaded + " after " + unloaded);
+
+		limiter.acquire(PARTNER).release(false, RTT);
+		assertEquals((int) (loaded * 0.9), limiter.getLimit(PARTNER));
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire(PARTNER).release(false, RTT);
+			sleep(2);
+		}
+		assertEquals(2, limiter.getLimit(PARTNER));
+		assertEquals(Integer.valueOf(2), limiter.getLimits().get(PARTNER));
+	}
+
+	@Test
+	@DisplayName("Calls beyond the limit wait for a permit, and are shed once the queue is full or the wait is over")
+	void queuesAndSheds() throws Exception {
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiterBuilder()
+				.withInitialLimit(2).withLimitRange(2, 2).withMaxQueued(1).withMaxWait(Duration.ofMillis(300)).build();
+		final AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(PARTNER);
+		limiter.acquire(PARTNER);
+		final CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting =
+				CompletableFuture.supplyAsync(() -> limiter.acquire(PARTNER));
+		sleep(50);
+		assertFalse(waiting.isDone());
+		assertThrows(RejectedExecutionException.class, () -> limiter.acquire(PARTNER));
+		assertEquals(1, limiter.getShedCount(PARTNER));
+
+		first.release(true);
+		first.release(true);
+		waiting.get(1, TimeUnit.SECONDS);
+		assertEquals(2, limiter.getInFlightCount(PARTNER));
+
+		final long started = System.nanoTime();
+		assertThrows(RejectedExecutionException.class, () -> limiter.acquire(PARTNER));
+		assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(250));
+		assertEquals(2, limiter.getShedCount(PARTNER));
+		assertEquals("http://localhost:8080", AdaptiveConcurrencyLimiter.hostOf(PARTNER + "/item/1.json?print=pretty"));
+	}
+
+	@Test
+	@DisplayName("A call waits for a permit no longer than its deadline leaves")
+	void waitsWithinDeadline() {
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiterBuilder()
+				.withInitialLimit(1).withLimitRange(1, 1).withMaxWait(Duration.ofSeconds(5)).build();
+		final AdaptiveConcurrencyLimiter.Permit held = limiter.acquire(PARTNER, Deadline.after(Duration.ofMillis(100)));
+
+		final long started = System.nanoTime();
+		assertThrows(RejectedExecutionException.class, () -> limiter.acquire(PARTNER, Deadline.after(Duration.ofMillis(100))));
+		assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(1, limiter.getShedCount(PARTNER));
+
+		//-- Out of time, a call still gets a permit that is free without waiting
+		final Deadline expired = Deadline.after(Duration.ZERO);
+		assertThrows(RejectedExecutionException.class, () -> limiter.acquire(PARTNER, expired));
+		held.release(true);
+		limiter.acquire(PARTNER, expired).release(true);
+		assertEquals(2, limiter.getShedCount(PARTNER));
+	}
+
+	static private List<AdaptiveConcurrencyLimiter.Permit> acquireAll(AdaptiveConcurrencyLimiter limiter) {
+		final List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+		for (int i = limiter.getLimit(PARTNER); i > 0; i--) { permits.add(limiter.acquire(PARTNER)); }
+		return permits;
+	}
+
+	static private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BackupExecutorTest {
+	private Path workDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		workDir = Files.createTempDirectory("backup-test");
+		BackupOperations.setLatencyUnit(TimeUnit.MILLISECONDS);
+	}
+
+	@AfterEach
+	void tearDown() {
+		BackupOperations.setLatencyUnit(TimeUnit.valueOf(System.getProperty("backup.latency.unit", "SECONDS")));
+	}
+
+	@Test
+	@DisplayName("Runs every stage of tables, files and directories into an artifact within the lane limits")
+	void executesStageGraph() throws IOException {
+		final List<Path> files = new ArrayList<>();
+		for (int i = 0; i < 4; i++) { files.add(Files.write(workDir.resolve("file-" + i + ".dat"), ("file " + i).getBytes())); }
+		final Path dir = Files.createDirectories(workDir.resolve("dir").resolve("nested"));
+		for (int i = 0; i < 20; i++) { Files.write(dir.resolve("entry-" + i + ".txt"), ("entry " + i).getBytes()); }
+		final Path stagingDir = Files.createDirectories(workDir.resolve("staging"));
+		final BackupTask task = new BackupTask(files, Collections.singletonList(workDir.resolve("dir")),
+				Arrays.asList("orders", "customers", "carts"), workDir.resolve("backup.tar"), stagingDir);
+
+		final Map<BackupStage.Resource,Integer> limits = new EnumMap<>(BackupStage.Resource.class);
+		limits.put(BackupStage.Resource.CPU, 1);
+		limits.put(BackupStage.Resource.DISK, 2);
+		limits.put(BackupStage.Resource.NETWORK, 2);
+		final BackupExecutorBuilder builder = new BackupExecutorBuilder().withMaxSourcesInFlight(3);
+		limits.forEach(builder::withConcurrency);
+
+		final BackupProgress progress = new BackupProgress();
+		final BackupReport report;
+		try (BackupExecutor executor = builder.build()) {
+			report = executor.execute(task, progress).join();
+		}
+
+		assertTrue(Files.size(report.getArtifact()) > 0);
+		try (RestoreEngine restore = new RestoreEngine(report.getArtifact(), ForkJoinPool.commonPool())) {
+			assertEquals(3 + 4 + 20, restore.getEntryNames().size());
+		}
+		final Set<BackupStage> ran = report.getTimings().stream().map(StageTiming::getStage).collect(toSet());
+		assertEquals(EnumSet.allOf(BackupStage.class), ran);
+		assertEquals(3, report.getTimings(BackupStage.EXPORT).size());
+		assertEquals(1, report.getTimings(BackupStage.ARCHIVE).size());
+		for (BackupStage stage : BackupStage.values()) {
+			assertEquals(0, progress.getStage(stage).getFailed(), stage.name());
+			assertEquals(progress.getStage(stage).getSubmitted(), progress.getStage(stage).getCompleted(), stage.name());
+		}
+		//-- Sources are credited with what they staged, once
+		assertEquals(progress.getStage(BackupStage.STAGE).getBytes(),
+				progress.getSources().values().stream().mapToLong(BackupProgress.SourceProgress::getBytes).sum());
+		assertEquals(3 + 4 + 20, progress.getSources().values().stream().mapToLong(BackupProgress.SourceProgress::getFiles).sum());
+		assertTrue(progress.getSources().values().stream().allMatch(BackupProgress.SourceProgress::isDone));
+		limits.forEach((resource, limit) -> {
+			final int overlap = maxOverlap(report.getTimings(), resource);
+			assertTrue(overlap <= limit, resource + " ran " + overlap + " stages at once, limit " + limit);
+		});
+	}
+
+	@Test
+	@DisplayName("Holds back the walk of a large directory while its batches are not yet staged")
+	void boundsBatchesInFlight() throws IOException {
+		final Path dir = Files.createDirectories(workDir.resolve("large"));
+		for (int i = 0; i < 40; i++) { Files.write(dir.resolve("entry-" + i + ".txt"), ("entry " + i).getBytes()); }
+		final BackupTask task = new BackupTask(Collections.emptyList(), Collections.singletonList(dir),
+				Collections.emptyList(), workDir.resolve("backup.tar"), Files.createDirectories(workDir.resolve("staging")));
+
+		final ForkJoinPool walkerPool = new ForkJoinPool(2);
+		final BackupReport report;
+		try (BackupExecutor executor = new BackupExecutorBuilder()
+				.withConcurrency(BackupStage.Resource.CPU, 1)
+				.withMaxBatchesInFlight(2)
+				.withDirectoryWalker(new ParallelDirectoryWalker(walkerPool).withBatchSize(1))
+				.build()) {
+			report = executor.execute(task).join();
+		} finally {
+			walkerPool.shutdown();
+		}
+
+		assertEquals(40, report.getTimings(BackupStage.STAGE).size());
+		//-- When a batch is handed to the lanes, earlier batches not yet staged hold the other permits
+		for (StageTiming compress : report.getTimings(BackupStage.COMPRESS)) {
+			final long submitted = compress.getSubmittedNanos();
+			final long before = report.getTimings(BackupStage.COMPRESS).stream().filter(t -> t.getSubmittedNanos() < submitted).count();
+			final long staged = report.getTimings(BackupStage.STAGE).stream().filter(t -> t.getFinishedNanos() < submitted).count();
+			assertTrue(before - staged < 2, (before - staged) + " batches were in flight");
+		}
+	}
+
+	//-- Most stages of a lane running at the same time; a finish sorts before a start at the same instant
+	static private int maxOverlap(List<StageTiming> timings, BackupStage.Resource resource) {
+		final List<long[]> events = new ArrayList<>();
+		for (StageTiming timing : timings) {
+			if (timing.getStage().getResource() != resource) continue;
+			events.add(new long[] { timing.getStartedNanos(), 1 });
+			events.add(new long[] { timing.getFinishedNanos(), -1 });
+		}
+		events.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		int running = 0;
+		int max = 0;
+		for (long[] event : events) {
+			running += event[1];
+			max = Math.max(max, running);
+		}
+		return max;
+	}
+}
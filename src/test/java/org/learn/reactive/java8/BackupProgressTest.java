@@ -0,0 +1,97 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BackupProgressTest {
+	static private final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	@DisplayName("Credits a source with what it staged once, while every stage keeps its own counters")
+	void countsSourceOnce() {
+		final BackupProgress progress = new BackupProgress();
+		progress.planStages("orders", 4);
+		final long base = submitAll(progress, "orders", BackupStage.EXPORT, BackupStage.SAVE, BackupStage.COMPRESS, BackupStage.STAGE);
+		progress.stageCompleted(timing(BackupStage.EXPORT, "orders", base, 10), 1000, 0, false);
+		progress.stageCompleted(timing(BackupStage.SAVE, "orders", base + 10 * MILLIS, 10), 1100, 1, false);
+		progress.stageCompleted(timing(BackupStage.COMPRESS, "orders", base + 20 * MILLIS, 10), 400, 1, false);
+		progress.stageCompleted(timing(BackupStage.STAGE, "orders", base + 30 * MILLIS, 10), 400, 1, false);
+
+		final BackupProgress.SourceProgress orders = progress.getSources().get("orders");
+		assertEquals(400, orders.getBytes());
+		assertEquals(1, orders.getFiles());
+		assertEquals(BackupStage.STAGE, orders.getLastStage());
+		assertTrue(orders.isDone());
+		assertEquals(0, orders.getEta(TimeUnit.MILLISECONDS));
+		assertEquals(40, orders.getServiceTime(TimeUnit.MILLISECONDS));
+		assertTrue(orders.getLatency(TimeUnit.MILLISECONDS) >= 40);
+		assertTrue(orders.getBytesPerSecond() > 0);
+
+		assertEquals(1000, progress.getStage(BackupStage.EXPORT).getBytes());
+		assertEquals(1100, progress.getStage(BackupStage.SAVE).getBytes());
+		assertEquals(1, progress.getStage(BackupStage.STAGE).getFiles());
+		assertEquals(1, progress.getStage(BackupStage.STAGE).getCompleted());
+		assertEquals(0, progress.getStage(BackupStage.ARCHIVE).getSubmitted());
+		assertEquals(0, progress.getEta(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	@DisplayName("Extrapolates the ETA of each source from its own planned and completed stages")
+	void estimatesPerSource() {
+		final BackupProgress progress = new BackupProgress();
+		progress.planStages("a.dat", 2);
+		progress.planStages("dir", 4);
+		progress.planStages("backup.tar", 1);
+		assertEquals(-1, progress.getEta(TimeUnit.MILLISECONDS));
+
+		final long base = submitAll(progress, "dir", BackupStage.COMPRESS);
+		progress.stageCompleted(timing(BackupStage.COMPRESS, "dir", base, 5), 64, 2, false);
+		submitAll(progress, "a.dat", BackupStage.COMPRESS);
+
+		final BackupProgress.SourceProgress dir = progress.getSources().get("dir");
+		assertFalse(dir.isDone());
+		assertEquals(0, dir.getBytes());
+		assertTrue(dir.getEta(TimeUnit.NANOSECONDS) >= 3 * dir.getLatency(TimeUnit.NANOSECONDS) - 3);
+		assertEquals(-1, progress.getSources().get("a.dat").getEta(TimeUnit.MILLISECONDS));
+		//-- Only planned, never submitted
+		assertFalse(progress.getSources().containsKey("backup.tar"));
+		assertTrue(progress.getEta(TimeUnit.NANOSECONDS) >= 0);
+	}
+
+	@Test
+	@DisplayName("Counts failed stages without their output and notifies listeners despite a failing one")
+	void countsFailures() {
+		final List<StageTiming> seen = new ArrayList<>();
+		final BackupProgress progress = new BackupProgress()
+				.subscribe((timing, p) -> { throw new IllegalStateException("broken listener"); })
+				.subscribe((timing, p) -> seen.add(timing));
+		progress.planStages("b.dat", 2);
+		final long base = submitAll(progress, "b.dat", BackupStage.COMPRESS, BackupStage.STAGE);
+		progress.stageCompleted(timing(BackupStage.COMPRESS, "b.dat", base, 1), 10, 1, false);
+		progress.stageCompleted(timing(BackupStage.STAGE, "b.dat", base + MILLIS, 1), 10, 1, true);
+
+		final BackupProgress.StageProgress stage = progress.getStage(BackupStage.STAGE);
+		assertEquals(1, stage.getFailed());
+		assertEquals(0, stage.getBytes());
+		assertEquals(0, stage.getPending());
+		assertEquals(0, progress.getSources().get("b.dat").getBytes());
+		assertEquals(2, seen.size());
+	}
+
+	static private long submitAll(BackupProgress progress, String source, BackupStage... stages) {
+		for (BackupStage stage : stages) { progress.stageSubmitted(stage, source); }
+		return System.nanoTime();
+	}
+
+	static private StageTiming timing(BackupStage stage, String source, long startedNanos, long serviceMillis) {
+		return new StageTiming(stage, source, "test", startedNanos, startedNanos, startedNanos + serviceMillis * MILLIS);
+	}
+}
@@ -0,0 +1,64 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CartDateIndexTest {
+
+	@Test
+	@DisplayName("Range queries return exactly the carts a full scan finds")
+	void matchesFullScan() {
+		final List<ShoppingCart> carts = OrderHelper.createCarts(2_000).collect(toList());
+		final CartDateIndex index = CartDateIndex.of(carts.stream());
+		final LocalDate after = LocalDate.of(2017, Month.MARCH, 31);
+		final LocalDate before = LocalDate.of(2017, Month.DECEMBER, 30);
+
+		final Set<ShoppingCart> expected = carts.stream()
+				.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(after))
+				.filter(cart -> cart.getCreationDateTime().toLocalDate().isBefore(before))
+				.collect(toSet());
+		assertEquals(expected, index.createdBetween(after, before).collect(toSet()));
+		assertEquals(expected.size(), index.countCreatedBetween(after, before));
+		assertEquals(OrderHelper.fetchAllShoppingCarts(index, after).count(),
+				carts.stream().filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(after)).count());
+	}
+
+	@Test
+	@DisplayName("Carts added or removed later show up in the next query")
+	void updatesIncrementally() {
+		final CartDateIndex index = new CartDateIndex();
+		final ShoppingCart march = cartOn(LocalDate.of(2017, Month.MARCH, 31));
+		final ShoppingCart april = cartOn(LocalDate.of(2017, Month.APRIL, 1));
+		index.add(march).add(april);
+
+		final LocalDate endOfFY = LocalDate.of(2017, Month.MARCH, 31);
+		assertEquals(Collections.singletonList(april), index.createdAfter(endOfFY).collect(toList()));
+
+		final ShoppingCart may = cartOn(LocalDate.of(2017, Month.MAY, 1));
+		index.add(may);
+		assertEquals(2, index.createdAfter(endOfFY).count());
+
+		assertTrue(index.remove(april));
+		assertFalse(index.remove(april));
+		assertEquals(Collections.singletonList(may), index.createdAfter(endOfFY).collect(toList()));
+		assertEquals(2, index.size());
+	}
+
+	private static ShoppingCart cartOn(LocalDate date) {
+		return new ShoppingCart(null, OrderHelper.generateLineItems(1), LocalDateTime.of(date, LocalTime.NOON));
+	}
+}
@@ -0,0 +1,94 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.learn.reactive.java8.FilterOperations.*;
+
+public class CartStoreTest {
+
+	@Test
+	@DisplayName("Columnar filters select the same customers as the object filters")
+	void matchesObjectFilters() {
+		final List<ShoppingCart> carts = OrderHelper.createCarts(5_000).collect(toList());
+		final CartStore store = CartStore.of(carts.stream());
+		assertEquals(carts.size(), store.size());
+
+		for (LocalDate after : new LocalDate[] { LocalDate.of(2016, Month.DECEMBER, 31), LocalDate.of(2017, Month.JUNE, 1) }) {
+			for (double value : new double[] { 0, 863.12, 1_000.00, 30_000 }) {
+				final List<Customer> expected = filterCartsByDate(after)
+						.andThen(filterCustomersByPurchases(value))
+						.apply(carts.stream())
+						.collect(toList());
+				final List<Customer> actual = filterCartRowsByDate(after)
+						.andThen(filterCustomerRowsByPurchases(value))
+						.apply(store.all())
+						.collect(toList());
+				assertEquals(expected, actual, "after " + after + ", value " + value);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Offers discount from the columnar store without revisiting line items")
+	void offerDiscountFromCartStore() {
+		final LocalDate endOfFY = LocalDate.of(2017, Month.MARCH, 31);
+		final CartStore store = CartStore.of(OrderHelper.createCarts(10_000));
+
+		final long eligible = CompletableFuture
+				.supplyAsync(() -> store.createdAfter(endOfFY))
+				.thenApply(filterCartRowsByDate(LocalDate.of(2017, Month.JUNE, 30)))
+				.thenApply(filterCustomerRowsByPurchases(1_000.00))
+				.join()
+				.count();
+
+		final long expected = store.all().rows()
+				.filter(row -> store.getCreationEpochDay(row) > LocalDate.of(2017, Month.JUNE, 30).toEpochDay())
+				.filter(row -> store.getTotalCents(row) >= 100_000)
+				.mapToObj(store::getCustomer)
+				.distinct()
+				.count();
+		assertEquals(expected, eligible);
+	}
+
+	@Test
+	@DisplayName("Parallel scan selects the same carts, in row order, as the sequential filters")
+	void parallelScanMatchesSequential() {
+		final CartStore store = CartStore.of(OrderHelper.createCarts(20_000));
+		final LocalDate after = LocalDate.of(2017, Month.MARCH, 31);
+
+		final CartStore.CartSelection sequential = store.purchasesAtLeast(store.createdAfter(after), 1_000.00);
+		try (ParallelCartScanner scanner = new ParallelCartScanner(4)) {
+			final ParallelCartScanner.EligibleCarts parallel = scanner.scan(store, after, 1_000.00);
+			assertArrayEquals(sequential.rows().toArray(), parallel.getSelection().rows().toArray());
+			assertEquals(sequential.rows().mapToLong(store::getTotalCents).sum(), parallel.getTotalCents());
+			assertEquals(store.customersOf(sequential).distinct().count(), parallel.customers().count());
+			assertEquals(store.customersOf(sequential).collect(toList()),
+					scanCustomersByDateAndPurchases(scanner, after, 1_000.00).apply(store).collect(toList()));
+		}
+	}
+
+	@Test
+	@DisplayName("Row spliterator reports exact sizes and splits in halves")
+	void rowSpliteratorSplitsEvenly() {
+		final CartStore store = CartStore.of(OrderHelper.createCarts(1_001));
+		final Spliterator.OfInt suffix = store.rowSpliterator();
+		assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+
+		final Spliterator.OfInt prefix = suffix.trySplit();
+		assertEquals(500, prefix.estimateSize());
+		assertEquals(501, suffix.estimateSize());
+		assertEquals(store.size(), StreamSupport.intStream(store.rowSpliterator(), true).count());
+	}
+}
@@ -0,0 +1,85 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.learn.reactive.java8.FilterOperations.filterCustomersByPurchases;
+
+public class CustomerDictionaryTest {
+
+	@Test
+	@DisplayName("Interns one customer per identity, even under concurrent first sight")
+	void internsConcurrently() {
+		final CustomerDictionary dictionary = new CustomerDictionary();
+		final List<Customer> customers = IntStream.range(0, 200_000).parallel()
+				.mapToObj(i -> dictionary.intern("John-" + (i % 1_000), "Wick", new String("1st, Developer Street"), "91"))
+				.collect(toList());
+
+		assertEquals(1_000, dictionary.size());
+		assertEquals(1_000, customers.stream().distinct().count());
+		for (Customer customer : customers) {
+			assertSame(customer, dictionary.get(customer.getId()));
+			assertSame(customers.get(0).getShippingAddress(), customer.getShippingAddress());
+		}
+		assertNull(dictionary.get(1_000));
+	}
+
+	@Test
+	@DisplayName("Customers of different dictionaries are told apart by value, not by their colliding ids")
+	void comparesAcrossDictionaries() {
+		final CustomerDictionary first = new CustomerDictionary();
+		final CustomerDictionary second = new CustomerDictionary();
+		final Customer john = first.intern("John", "Wick", "1st, Developer Street", "91");
+		final Customer jane = second.intern("Jane", "Wick", "1st, Developer Street", "91");
+		final Customer otherJohn = second.intern("John", "Wick", "1st, Developer Street", "91");
+
+		assertEquals(john.getId(), jane.getId());
+		assertNotEquals(john, jane);
+		assertEquals(john, otherJohn);
+		assertEquals(john.hashCode(), otherJohn.hashCode());
+		assertTrue(john.isInternedIn(first));
+		assertFalse(otherJohn.isInternedIn(first));
+		assertSame(john, first.find(otherJohn));
+		assertNull(first.find(jane));
+		//-- A customer built outside any dictionary is found by value too
+		final Customer standalone = new Customer("John", "Wick", "1st, Developer Street", "91");
+		assertEquals(john, standalone);
+		assertFalse(standalone.isInternedIn(first));
+		assertSame(john, first.find(standalone));
+		assertEquals(Arrays.asList(john, jane), filterCustomersByPurchases(0).apply(Stream.of(
+				new ShoppingCart(john, OrderHelper.generateLineItems(1), LocalDateTime.of(2017, Month.MAY, 1, 12, 0)),
+				new ShoppingCart(jane, OrderHelper.generateLineItems(1), LocalDateTime.of(2017, Month.MAY, 1, 12, 0))))
+				.collect(toList()));
+	}
+
+	@Test
+	@DisplayName("A customer with several qualifying carts is counted once")
+	void countsRepeatCustomersOnce() {
+		final CustomerDictionary dictionary = new CustomerDictionary();
+		final Customer repeat = dictionary.intern("John", "Wick", "1st, Developer Street", "91");
+		final Customer once = dictionary.intern("Jane", "Wick", "1st, Developer Street", "91");
+		final LocalDateTime createdOn = LocalDateTime.of(2017, Month.MAY, 1, 12, 0);
+		final List<ShoppingCart> carts = Arrays.asList(
+				new ShoppingCart(repeat, OrderHelper.generateLineItems(1), createdOn),
+				new ShoppingCart(once, OrderHelper.generateLineItems(1), createdOn),
+				new ShoppingCart(dictionary.intern("John", "Wick", "1st, Developer Street", "91"),
+						OrderHelper.generateLineItems(1), createdOn));
+
+		assertEquals(Arrays.asList(repeat, once), filterCustomersByPurchases(0).apply(carts.stream()).collect(toList()));
+		assertEquals(2, CartStore.of(carts.stream()).getCustomerCount());
+	}
+}
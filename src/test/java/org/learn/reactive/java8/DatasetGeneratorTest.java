@@ -0,0 +1,105 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.learn.reactive.java8.DatasetGenerator.Distribution;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatasetGeneratorTest {
+
+	@Test
+	@DisplayName("The same seed gives the same records, sequential or parallel")
+	void isDeterministic() {
+		final DatasetGenerator generator = new DatasetGeneratorBuilder().withSeed(7).withCustomerCount(1_000).build();
+		final DatasetGenerator again = new DatasetGeneratorBuilder().withSeed(7).withCustomerCount(1_000).build();
+		final DatasetGenerator other = new DatasetGeneratorBuilder().withSeed(8).withCustomerCount(1_000).build();
+
+		final List<UUID> sequential = generator.carts(20_000).map(ShoppingCart::getId).collect(toList());
+		assertEquals(sequential, again.carts(20_000).parallel().map(ShoppingCart::getId).collect(toList()));
+		assertNotEquals(sequential, other.carts(20_000).map(ShoppingCart::getId).collect(toList()));
+		assertEquals(20_000, sequential.stream().distinct().count());
+
+		final ShoppingCart cart = generator.cart(12_345);
+		final ShoppingCart copy = again.cart(12_345);
+		assertEquals(cart.getOrderedBy(), copy.getOrderedBy());
+		//-- Each builder interns into a dictionary of its own, whatever else was interned before
+		assertEquals(cart.getOrderedBy().getId(), copy.getOrderedBy().getId());
+		assertTrue(cart.getOrderedBy().getId() < 1_000);
+		assertFalse(cart.getOrderedBy().isInternedIn(OrderHelper.getCustomerDictionary()));
+		assertEquals(cart.getCreationDateTime(), copy.getCreationDateTime());
+		assertEquals(cart.getItems(), copy.getItems());
+		assertEquals(cart.getTotalValue(), copy.getTotalValue());
+		assertEquals(generator.order(3).getId(), again.orders(4).skip(3).findFirst().get().getId());
+	}
+
+	@Test
+	@DisplayName("Records follow the configured distributions")
+	void followsDistributions() {
+		final Map<String,Double> vendorWeights = new LinkedHashMap<>();
+		vendorWeights.put("Ezone", 3.0);
+		vendorWeights.put("Closed", 0.0);
+		vendorWeights.put("Patanjali", 1.0);
+		final LocalDateTime from = LocalDate.of(2018, 2, 1).atStartOfDay();
+		final DatasetGenerator generator = new DatasetGeneratorBuilder()
+				.withCustomerCount(10)
+				.withItemCounts(Distribution.between(2, 4))
+				.withVendors(Distribution.weighted(vendorWeights))
+				.withValues(Distribution.constant(10.5))
+				.withDates(Distribution.between(from, from.plusDays(7)))
+				.build();
+
+		final List<ShoppingCart> carts = generator.carts(10_000).parallel().collect(toList());
+		final List<LineItem> items = carts.stream().flatMap(cart -> cart.getItems().stream()).collect(toList());
+		assertTrue(carts.stream().allMatch(cart -> cart.getItems().size() >= 2 && cart.getItems().size() <= 4));
+		assertEquals(Arrays.asList(2, 3, 4), carts.stream().map(cart -> cart.getItems().size()).distinct().sorted().collect(toList()));
+		assertTrue(carts.stream().allMatch(cart -> !cart.getCreationDateTime().isBefore(from)
+				&& cart.getCreationDateTime().isBefore(from.plusDays(7))));
+		assertTrue(items.stream().allMatch(item -> item.getScaledValue() == 105_000));
+		assertEquals(10, carts.stream().map(ShoppingCart::getOrderedBy).distinct().count());
+
+		final long ezone = items.stream().filter(item -> item.getFulfilledBy().equals("Ezone")).count();
+		assertEquals(0, items.stream().filter(item -> item.getFulfilledBy().equals("Closed")).count());
+		assertEquals(0.75, ezone / (double) items.size(), 0.02);
+	}
+
+	@Test
+	@DisplayName("Generated records stream into the record file and the off-heap store")
+	void streamsIntoStores() throws IOException {
+		final DatasetGenerator generator = new DatasetGeneratorBuilder().withSeed(40).withCustomerCount(100).build();
+		final Path file = Files.createTempFile("carts", ".rec");
+		try {
+			try (RecordFileWriter writer = new RecordFileWriter(file)) {
+				generator.writeTo(writer, 70_000, 1_000);
+			}
+			try (RecordFileReader reader = new RecordFileReader(file);
+			     OffHeapCartStore store = new OffHeapCartStore()) {
+				generator.addTo(store, 70_000);
+				final Set<UUID> expected = generator.carts(70_000).map(ShoppingCart::getId).collect(toSet());
+				assertEquals(expected, reader.carts().map(ShoppingCart::getId).collect(toSet()));
+				assertEquals(expected, store.carts().map(ShoppingCart::getId).collect(toSet()));
+				assertEquals(generator.orders(1_000).map(Order::getId).collect(toList()),
+						reader.orders().map(Order::getId).collect(toList()));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
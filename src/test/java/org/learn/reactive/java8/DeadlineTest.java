@@ -0,0 +1,159 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeadlineTest {
+
+	@Test
+	@DisplayName("Counts down the budget and runs expiry actions once it is spent")
+	void expires() throws InterruptedException {
+		assertFalse(Deadline.none().isExpired());
+		assertEquals(Long.MAX_VALUE, Deadline.none().remaining(TimeUnit.MILLISECONDS));
+
+		final Deadline deadline = Deadline.after(Duration.ofMillis(100));
+		final CountDownLatch expired = new CountDownLatch(1);
+		deadline.onExpiry(expired::countDown);
+		assertTrue(deadline.remaining(TimeUnit.MILLISECONDS) <= 100);
+		assertFalse(deadline.isExpired());
+
+		assertTrue(expired.await(1, TimeUnit.SECONDS));
+		assertTrue(deadline.isExpired());
+		assertEquals(0, deadline.remaining(TimeUnit.NANOSECONDS));
+		final AtomicBoolean late = new AtomicBoolean();
+		deadline.onExpiry(() -> late.set(true));
+		assertTrue(late.get());
+	}
+
+	@Test
+	@DisplayName("A slow expiry action holds up neither the timer nor other deadlines")
+	void expiresOffTheTimer() throws InterruptedException {
+		final Deadline slow = Deadline.after(Duration.ofMillis(50));
+		final CountDownLatch release = new CountDownLatch(1);
+		slow.onExpiry(() -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			final Deadline other = Deadline.after(Duration.ofMillis(100));
+			final CountDownLatch expired = new CountDownLatch(1);
+			final AtomicBoolean onTimer = new AtomicBoolean();
+			other.onExpiry(() -> {
+				onTimer.set(Thread.currentThread().getName().startsWith("Deadline-timer"));
+				expired.countDown();
+			});
+			assertTrue(expired.await(1, TimeUnit.SECONDS));
+			assertFalse(onTimer.get());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	@DisplayName("Interrupts running work, skips queued work and leaves the pool thread clean")
+	void cancelsWork() throws Exception {
+		final ExecutorService pool = InstrumentedExecutors.newSingleThreadExecutor("Deadline-test");
+		try {
+			final Deadline deadline = Deadline.after(Duration.ofMillis(200));
+			final AtomicBoolean interrupted = new AtomicBoolean();
+			final AtomicBoolean queuedRan = new AtomicBoolean();
+			final CompletableFuture<String> running = deadline.supplyAsync(() -> {
+				try {
+					TimeUnit.SECONDS.sleep(10);
+				} catch (InterruptedException e) {
+					interrupted.set(true);
+				}
+				return "slept";
+			}, pool);
+			final CompletableFuture<String> queued = deadline.supplyAsync(() -> {
+				queuedRan.set(true);
+				return "ran";
+			}, pool);
+
+			final long started = System.nanoTime();
+			final ExecutionException failure = assertThrows(ExecutionException.class, () -> running.get(2, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof TimeoutException);
+			assertThrows(ExecutionException.class, () -> queued.get(2, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+
+			//-- The next task on the same thread starts uninterrupted, after the cancelled ones gave it up
+			assertFalse(pool.submit(() -> Thread.currentThread().isInterrupted()).get(2, TimeUnit.SECONDS));
+			assertTrue(interrupted.get());
+			assertFalse(queuedRan.get());
+
+			//-- A task reaching the thread after expiry is skipped even while its expiry action waits its turn
+			final CountDownLatch busy = new CountDownLatch(1);
+			final CountDownLatch actionsHeld = new CountDownLatch(1);
+			final CountDownLatch releaseActions = new CountDownLatch(1);
+			pool.execute(() -> await(busy));
+			final Deadline later = Deadline.after(Duration.ofMillis(50));
+			later.onExpiry(() -> {
+				actionsHeld.countDown();
+				await(releaseActions);
+			});
+			final CompletableFuture<String> late = later.supplyAsync(() -> {
+				queuedRan.set(true);
+				return "ran";
+			}, pool);
+			try {
+				assertTrue(actionsHeld.await(2, TimeUnit.SECONDS));
+				busy.countDown();
+				final ExecutionException skipped = assertThrows(ExecutionException.class, () -> late.get(2, TimeUnit.SECONDS));
+				assertTrue(skipped.getCause() instanceof TimeoutException);
+				assertFalse(queuedRan.get());
+			} finally {
+				busy.countDown();
+				releaseActions.countDown();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	static private void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	@DisplayName("An order out of time completes with its slow line items rejected")
+	void completesOrderPartially() throws Exception {
+		try (PartnerStubServer server = new PartnerStubServer(0, 41).start()) {
+			final PartnerStubServer.Endpoint primary = server.endpoint("/primary");
+			final PartnerStubServer.Endpoint fallback = server.endpoint("/fallback").withLatency(Duration.ofSeconds(5));
+			final PartnerStubServer.Endpoint fulfillment = server.endpoint("/fulfillment");
+			OrderHelper.routeVendorsTo(primary.getUrl(), fallback.getUrl());
+
+			final Order order = OrderHelper.generateOrder();
+			final ScatterGatherAndDecidePurchaseAction action = new ScatterGatherAndDecidePurchaseAction(
+					fulfillment.getUrl(), server.endpoint("/failures").getUrl());
+			final long started = System.nanoTime();
+			action.execute(order, Duration.ofMillis(500));
+
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(4), "execute waited for the slow partner");
+			assertTrue(action.getFulfilled().isEmpty());
+			assertEquals(order.getItems().size(), action.getRejected().size());
+			assertEquals(1, fulfillment.getRequestCount());
+		}
+	}
+}
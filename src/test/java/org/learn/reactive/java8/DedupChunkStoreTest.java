@@ -0,0 +1,75 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DedupChunkStoreTest {
+	private Path workDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		workDir = Files.createTempDirectory("dedup-test");
+	}
+
+	@Test
+	@DisplayName("Restores a deduplicated file byte for byte")
+	void roundTrip() throws IOException {
+		final byte[] content = randomBytes(3 * 1024 * 1024 + 17, 1);
+		final Path source = Files.write(workDir.resolve("data_file-1.dat"), content);
+
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			final Path recipe = store.deduplicate(source, workDir.resolve("data_file-1.dat.chunks"));
+			final Path restored = store.restore(recipe, workDir.resolve("restored.dat"));
+			assertArrayEquals(content, Files.readAllBytes(restored));
+		}
+	}
+
+	@Test
+	@DisplayName("Stores shared regions of shifted copies only once")
+	void deduplicatesShiftedContent() throws IOException {
+		final byte[] content = randomBytes(2 * 1024 * 1024, 2);
+		final byte[] shifted = new byte[content.length + 5];
+		System.arraycopy("extra".getBytes(), 0, shifted, 0, 5);
+		System.arraycopy(content, 0, shifted, 5, content.length);
+
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			store.deduplicate(Files.write(workDir.resolve("a.dat"), content), workDir.resolve("a.chunks"));
+			store.deduplicate(Files.write(workDir.resolve("b.dat"), shifted), workDir.resolve("b.chunks"));
+			assertTrue(store.getDedupRatio() > 1.8, "dedup ratio was " + store.getDedupRatio());
+		}
+	}
+
+	@Test
+	@DisplayName("Reloads the chunk index when the repository is reopened")
+	void reopensRepository() throws IOException {
+		final byte[] content = randomBytes(512 * 1024, 3);
+		final Path source = Files.write(workDir.resolve("data_file-3.dat"), content);
+		final Path recipe = workDir.resolve("data_file-3.dat.chunks");
+
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			store.deduplicate(source, recipe);
+		}
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			store.deduplicate(source, workDir.resolve("again.chunks"));
+			assertEquals(0, store.getStoredBytes());
+			assertArrayEquals(content, Files.readAllBytes(store.restore(recipe, workDir.resolve("restored.dat"))));
+		}
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		final byte[] bytes = new byte[length];
+		final SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < length; i++) { bytes[i] = (byte) random.nextInt(256); }
+		return bytes;
+	}
+}
@@ -0,0 +1,94 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.learn.reactive.java8.FilterOperations.filterCartsByDate;
+import static org.learn.reactive.java8.FilterOperations.filterCustomersByPurchases;
+
+public class DiscountEligibilityViewTest {
+
+	@Test
+	@DisplayName("Live view agrees with a batch recompute after every kind of cart event")
+	void matchesBatchRecompute() {
+		final LocalDate endOfFY = LocalDate.of(2017, Month.MARCH, 31);
+		final double threshold = 30_000.00;
+		final DiscountEligibilityView view = new DiscountEligibilityView(endOfFY, threshold);
+		final SplittableRandom random = new SplittableRandom(34);
+
+		//-- A few customers with many carts each, so customers join and leave the set repeatedly
+		final List<Customer> customers = OrderHelper.createCarts(20).map(ShoppingCart::getOrderedBy).collect(toList());
+		final List<ShoppingCart> open = new ArrayList<>();
+		for (int step = 0; step < 5_000; step++) {
+			final int action = random.nextInt(10);
+			if (open.isEmpty() || action < 3) {
+				final ShoppingCart template = OrderHelper.createCart(customers.get(random.nextInt(customers.size())));
+				final ShoppingCart cart = new ShoppingCart(template.getOrderedBy(),
+						new ArrayList<>(template.getItems()), template.getCreationDateTime());
+				open.add(cart);
+				view.accept(CartEvent.created(cart));
+			} else if (action < 9) {
+				final ShoppingCart cart = open.get(random.nextInt(open.size()));
+				final List<LineItem> added = random.nextBoolean() ? OrderHelper.generateLineItems(2) : Collections.emptyList();
+				final List<LineItem> removed = !cart.getItems().isEmpty() && random.nextBoolean()
+						? Collections.singletonList(cart.getItems().get(0)) : Collections.emptyList();
+				cart.getItems().addAll(added);
+				cart.getItems().removeAll(removed);
+				view.accept(CartEvent.updated(cart, added, removed));
+			} else {
+				final ShoppingCart cart = open.remove(random.nextInt(open.size()));
+				view.accept(CartEvent.closed(cart));
+			}
+
+			if (step % 250 == 0) assertMatches(view, open, endOfFY, threshold);
+		}
+		assertMatches(view, open, endOfFY, threshold);
+		assertEquals(0, view.getIgnoredEventCount());
+	}
+
+	@Test
+	@DisplayName("Late or duplicate events do not disturb the view")
+	void ignoresEventsForUnknownCarts() {
+		final DiscountEligibilityView view = new DiscountEligibilityView(LocalDate.of(2016, Month.DECEMBER, 31), 0);
+		final ShoppingCart cart = OrderHelper.createCart(OrderHelper.createCarts(1).findFirst().get().getOrderedBy());
+
+		view.accept(CartEvent.updated(cart, OrderHelper.generateLineItems(1), Collections.emptyList()));
+		view.accept(CartEvent.created(cart));
+		view.accept(CartEvent.created(cart));
+		assertEquals(1, view.getEligibleCartCount());
+		view.accept(CartEvent.closed(cart));
+		view.accept(CartEvent.closed(cart));
+
+		assertEquals(0, view.getEligibleCartCount());
+		assertEquals(0, view.getEligibleCustomerCount());
+		assertEquals(3, view.getIgnoredEventCount());
+	}
+
+	private static void assertMatches(DiscountEligibilityView view, List<ShoppingCart> open,
+	                                  LocalDate createdAfter, double threshold) {
+		final long eligibleCarts = filterCartsByDate(createdAfter)
+				.apply(open.stream())
+				.filter(cart -> cart.getItems().stream().mapToDouble(LineItem::getValue).sum() >= threshold)
+				.count();
+		final Set<Customer> expected = filterCartsByDate(createdAfter)
+				.andThen(filterCustomersByPurchases(threshold))
+				.apply(open.stream())
+				.collect(toSet());
+		assertEquals(eligibleCarts, view.getEligibleCartCount());
+		assertEquals(expected.size(), view.getEligibleCustomerCount());
+		assertEquals(expected, new HashSet<>(view.getEligibleCustomers()));
+		assertEquals(open.size(), view.getOpenCartCount());
+	}
+}
@@ -0,0 +1,110 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventJournalTest {
+
+	@Test
+	@DisplayName("Events are written as the messages the hot paths used to print")
+	void writesMessages() {
+		final StringWriter out = new StringWriter();
+		final UUID order = UUID.randomUUID();
+		final LocalDate date = LocalDate.of(2017, 12, 30);
+		final String thread = Thread.currentThread().getName();
+		try (EventJournal journal = new EventJournal(out, 16)) {
+			journal.log(EventJournal.Type.ORDER_EXECUTED, order);
+			journal.log(EventJournal.Type.CARTS_FILTERED_BY_VALUE, 1_000.00);
+			journal.log(EventJournal.Type.CARTS_SCANNED, 10_000, 4, date, 2.5);
+			journal.log(EventJournal.Type.FULFILLMENT_CHECKED);
+			journal.log(EventJournal.Type.MESSAGE, "as is");
+			journal.flush();
+
+			assertEquals(String.format("%s -- Order with id %s was executed %n", thread, order)
+					+ String.format("%s -- started filtering cart by purchase value %f %n", thread, 1_000.00)
+					+ String.format("%s -- started scanning %d carts on %d workers by date %s and purchase value %f %n",
+							thread, 10_000, 4, date, 2.5)
+					+ String.format("%s -- checking fulfillment criteria...%n", thread)
+					+ String.format("as is%n"), out.toString());
+		}
+	}
+
+	@Test
+	@DisplayName("Events of concurrent publishers all arrive, each thread's in order")
+	void keepsOrderPerThread() throws InterruptedException {
+		final StringWriter out = new StringWriter();
+		final int threads = 4;
+		final int perThread = 5_000;
+		//-- Room for every event, so none is dropped however far the writer falls behind
+		try (EventJournal journal = new EventJournal(out, threads * perThread)) {
+			final List<Thread> publishers = IntStream.range(0, threads)
+					.mapToObj(t -> new Thread(() -> {
+						for (int i = 0; i < perThread; i++) { journal.log(EventJournal.Type.DZONE_PARSED, i); }
+					}, "Publisher-" + t))
+					.collect(toList());
+			publishers.forEach(Thread::start);
+			for (Thread publisher : publishers) { publisher.join(); }
+			journal.flush();
+			assertEquals(0, journal.getDroppedCount());
+		}
+
+		final List<String> lines = Arrays.asList(out.toString().split(System.lineSeparator()));
+		assertEquals(threads * perThread, lines.size());
+		for (int t = 0; t < threads; t++) {
+			final String prefix = "Publisher-" + t + " -- ";
+			final List<String> own = lines.stream().filter(line -> line.startsWith(prefix)).collect(toList());
+			assertEquals(IntStream.range(0, perThread)
+							.mapToObj(i -> String.format("%sparsing Dzone response to return top %d result(s) ", prefix, i))
+							.collect(Collectors.toList()), own);
+		}
+	}
+
+	@Test
+	@DisplayName("Publishers drop and count events instead of waiting for a stalled writer")
+	void dropsWhenFull() throws InterruptedException {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final StringWriter written = new StringWriter();
+		final Writer out = new Writer() {
+			@Override
+			public void write(char[] chars, int offset, int length) throws IOException {
+				try {
+					stalled.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				written.write(chars, offset, length);
+			}
+
+			@Override
+			public void flush() { }
+
+			@Override
+			public void close() { }
+		};
+		final EventJournal journal = new EventJournal(out, 8);
+		for (int i = 0; i < 1_000; i++) { journal.log(EventJournal.Type.HN_PARSED, i); }
+		assertTrue(journal.getDroppedCount() > 0);
+
+		stalled.countDown();
+		journal.close();
+		final long lines = written.toString().split(System.lineSeparator()).length;
+		assertEquals(1_000, lines + journal.getDroppedCount());
+		journal.log(EventJournal.Type.HN_PARSED, 1);
+		assertEquals(1_001, lines + journal.getDroppedCount());
+	}
+}
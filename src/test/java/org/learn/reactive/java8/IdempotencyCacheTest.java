@@ -0,0 +1,165 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IdempotencyCacheTest {
+
+	@Test
+	@DisplayName("Concurrent sends of one key make a single call and share its response")
+	void coalescesConcurrentSends() throws Exception {
+		final IdempotencyCache cache = new IdempotencyCacheBuilder().build();
+		final String key = IdempotencyCache.keyOf(UUID.randomUUID(), new LineItem("book", "A", 10, 1), "primary");
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("Idempotency-test", 4);
+		try {
+			final List<CompletableFuture<Optional<String>>> sends = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				sends.add(CompletableFuture.supplyAsync(() -> cache.send(key, () -> {
+					calls.incrementAndGet();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return Optional.of("ok");
+				}), pool));
+			}
+			TimeUnit.MILLISECONDS.sleep(100);
+			release.countDown();
+			for (CompletableFuture<Optional<String>> send : sends) { assertEquals(Optional.of("ok"), send.get(5, TimeUnit.SECONDS)); }
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(7, cache.getHitCount());
+		assertEquals(7 / 8.0, cache.getHitRate());
+	}
+
+	@Test
+	@DisplayName("Keeps only settling responses, for their time to live and within the size bound")
+	void keepsSettlingResponses() throws Exception {
+		final IdempotencyCache cache = new IdempotencyCacheBuilder()
+				.withMaxEntries(3)
+				.withTimeToLive(Duration.ofMillis(200))
+				.build();
+		final AtomicInteger calls = new AtomicInteger();
+
+		//-- Failed and rejected notifications are sent again
+		assertFalse(cache.send("failed", () -> { calls.incrementAndGet(); return Optional.empty(); }).isPresent());
+		cache.send("failed", () -> { calls.incrementAndGet(); return Optional.empty(); });
+		cache.send("rejected", () -> { calls.incrementAndGet(); return Optional.of("nok"); }, r -> r.equals("ok"));
+		cache.send("rejected", () -> { calls.incrementAndGet(); return Optional.of("nok"); }, r -> r.equals("ok"));
+		assertEquals(4, calls.get());
+		assertEquals(0, cache.size());
+
+		for (int i = 0; i < 5; i++) { cache.send("key-" + i, () -> Optional.of("ok")); }
+		assertEquals(3, cache.size());
+		assertEquals(2, cache.getEvictionCount());
+		assertEquals(Optional.of("ok"), cache.send("key-4", () -> Optional.of("again")));
+		assertEquals(Optional.of("again"), cache.send("key-0", () -> Optional.of("again")));
+
+		TimeUnit.MILLISECONDS.sleep(250);
+		assertEquals(Optional.of("expired"), cache.send("key-4", () -> Optional.of("expired")));
+	}
+
+	@Test
+	@DisplayName("Reloads kept responses after a restart, skipping a line cut short")
+	void persistsAcrossRestarts() throws IOException {
+		final Path file = Files.createTempDirectory("idempotency-test").resolve("keys.tsv");
+		try (IdempotencyCache cache = new IdempotencyCacheBuilder().withFile(file).build()) {
+			cache.send("order/item/primary", () -> Optional.of("ok\ttracking 42"));
+			cache.send("order/item/fallback", () -> Optional.empty());
+		}
+		Files.write(file, "1234".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (IdempotencyCache cache = new IdempotencyCacheBuilder().withFile(file).build()) {
+			assertEquals(1, cache.size());
+			assertEquals(Optional.of("ok\ttracking 42"), cache.send("order/item/primary", () -> Optional.of("duplicate")));
+			assertEquals(Optional.of("ok"), cache.send("order/item/fallback", () -> Optional.of("ok")));
+		}
+		try (IdempotencyCache cache = new IdempotencyCacheBuilder().withFile(file).build()) {
+			assertEquals(2, cache.size());
+			assertTrue(Files.readAllLines(file).stream().allMatch(line -> line.split("\t").length == 3));
+		}
+	}
+
+	@Test
+	@DisplayName("Releases callers joined to a call that threw, or once their deadline expires")
+	void releasesJoinedCallers() throws Exception {
+		final IdempotencyCache cache = new IdempotencyCacheBuilder().build();
+		final CountDownLatch calling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("Idempotency-test", 3);
+		try {
+			final CompletableFuture<Optional<String>> failing = CompletableFuture.supplyAsync(() -> cache.send("key", () -> {
+				calling.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new AssertionError("partner client broke");
+			}, r -> true), pool);
+			assertTrue(calling.await(5, TimeUnit.SECONDS));
+			final CompletableFuture<Optional<String>> joined = CompletableFuture.supplyAsync(
+					() -> cache.send("key", () -> Optional.of("second call")), pool);
+
+			//-- A caller out of time stops waiting for the call in flight
+			final long started = System.nanoTime();
+			assertFalse(cache.send("key", () -> Optional.of("third call"), r -> true, Deadline.after(Duration.ofMillis(100))).isPresent());
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+
+			release.countDown();
+			final ExecutionException failure = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof AssertionError);
+			assertThrows(ExecutionException.class, () -> joined.get(5, TimeUnit.SECONDS));
+			assertThrows(CompletionException.class, joined::join);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, cache.size());
+		assertEquals(Optional.of("ok"), cache.send("key", () -> Optional.of("ok")));
+	}
+
+	@Test
+	@DisplayName("Compacts its file once expired and evicted lines outnumber the kept ones")
+	void compactsFile() throws IOException {
+		final Path file = Files.createTempDirectory("idempotency-test").resolve("keys.tsv");
+		try (IdempotencyCache cache = new IdempotencyCacheBuilder().withMaxEntries(10).withFile(file).build()) {
+			for (int i = 0; i < 2000; i++) { cache.send("key-" + i, () -> Optional.of("ok")); }
+			assertEquals(10, cache.size());
+			assertTrue(Files.readAllLines(file).size() < 1100, Files.readAllLines(file).size() + " lines");
+		}
+		try (IdempotencyCache cache = new IdempotencyCacheBuilder().withMaxEntries(10).withFile(file).build()) {
+			assertEquals(10, cache.size());
+			assertEquals(10, Files.readAllLines(file).size());
+			assertEquals(Optional.of("ok"), cache.send("key-1999", () -> Optional.of("duplicate")));
+		}
+	}
+}
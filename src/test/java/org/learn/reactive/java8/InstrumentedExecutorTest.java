@@ -0,0 +1,122 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstrumentedExecutorTest {
+
+	@Test
+	@DisplayName("Tasks queued behind a single thread show up as queue wait, their own work as execution time")
+	void timesQueueWaitAndExecution() throws InterruptedException {
+		final InstrumentedExecutor executor = InstrumentedExecutors.newSingleThreadExecutor("Timed");
+		try {
+			final List<CompletableFuture<String>> futures = IntStream.range(0, 5)
+					.mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+						sleep(20);
+						return Thread.currentThread().getName();
+					}, executor))
+					.collect(toList());
+			futures.forEach(future -> assertEquals("Timed-0", future.join()));
+			//-- A task's future completes before its run is recorded; once the pool is done, every run is
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+			final InstrumentedExecutor.Snapshot snapshot = executor.snapshot();
+			assertEquals(5, snapshot.getSubmittedCount());
+			assertEquals(5, snapshot.getCompletedCount());
+			assertEquals(0, snapshot.getQueuedCount());
+			assertEquals(5, snapshot.getExecutionTime().getCount());
+			assertTrue(snapshot.getExecutionTime().getValueAtPercentile(50, TimeUnit.MILLISECONDS) >= 19);
+			//-- The last task waited for the four ahead of it
+			assertTrue(snapshot.getQueueWait().getMax() >= TimeUnit.MILLISECONDS.toNanos(4 * 19));
+			assertTrue(snapshot.getUtilization() > 0 && snapshot.getUtilization() <= 1);
+
+			executor.reset();
+			assertEquals(0, executor.snapshot().getCompletedCount());
+			assertEquals(0, executor.snapshot().getQueueWait().getCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("Running, queued and rejected tasks are counted while the pool is saturated")
+	void countsSaturation() throws InterruptedException {
+		final InstrumentedExecutor executor = InstrumentedExecutors.newBoundedThreadPool("Bounded",
+				2, 2, 0, TimeUnit.SECONDS, 3);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch running = new CountDownLatch(2);
+		try {
+			for (int i = 0; i < 5; i++) {
+				executor.execute(() -> {
+					running.countDown();
+					await(release);
+				});
+			}
+			assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+
+			final InstrumentedExecutor.Snapshot saturated = executor.snapshot();
+			assertEquals(2, saturated.getActiveCount());
+			assertEquals(3, saturated.getQueuedCount());
+			assertEquals(1, saturated.getRejectedCount());
+			assertEquals(5, saturated.getSubmittedCount());
+			assertEquals(2.5, saturated.getSaturation(), 1e-9);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(0, executor.getActiveCount());
+		assertEquals(5, executor.snapshot().getCompletedCount());
+	}
+
+	@Test
+	@DisplayName("Suggested pool size follows Little's law from observed throughput and execution time")
+	void suggestsThreads() {
+		final InstrumentedExecutor executor = InstrumentedExecutors.newFixedThreadPool("Sized", 4);
+		try {
+			final List<CompletableFuture<Void>> futures = IntStream.range(0, 40)
+					.mapToObj(i -> CompletableFuture.runAsync(() -> sleep(10), executor))
+					.collect(toList());
+			futures.forEach(CompletableFuture::join);
+
+			//-- Kept all four threads busy, so about four are running on average
+			final InstrumentedExecutor.Snapshot snapshot = executor.snapshot();
+			final int suggested = snapshot.getSuggestedThreads(1.0);
+			assertTrue(suggested >= 2 && suggested <= 4, "suggested " + suggested + " for " + snapshot);
+			assertTrue(snapshot.getSuggestedThreads(0.5) >= suggested);
+			assertThrows(IllegalArgumentException.class, () -> snapshot.getSuggestedThreads(0));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	static private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static private void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
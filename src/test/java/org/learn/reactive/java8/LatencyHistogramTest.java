@@ -0,0 +1,71 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+	@Test
+	@DisplayName("Counts small values exactly and ranks percentiles by count")
+	void ranksSmallValuesExactly() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for (int value = 1; value <= 50; value++) { histogram.record(value); }
+		histogram.record(-5);
+
+		assertEquals(51, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(0));
+		assertEquals(25, histogram.getValueAtPercentile(50));
+		assertEquals(45, histogram.getValueAtPercentile(90));
+		assertEquals(50, histogram.getValueAtPercentile(100));
+		assertEquals(50, histogram.getValueAtPercentile(200));
+		assertEquals(25.0, histogram.getMean(), 1e-9);
+	}
+
+	@Test
+	@DisplayName("Buckets larger values within 1/32 of their magnitude, up to the largest long")
+	void boundsRelativeError() {
+		final Random random = new Random(29);
+		long previous = -1;
+		for (int i = 0; i < 100_000; i++) {
+			final long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			final long bound = LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(value));
+			assertTrue(bound >= value && bound - value <= value / 32, value + " landed in a bucket up to " + bound);
+		}
+		for (long value = 0; value < 1 << 16; value++) {
+			final int index = LatencyHistogram.indexOf(value);
+			assertTrue(index >= previous, "bucket of " + value + " precedes the one of " + (value - 1));
+			previous = index;
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	@DisplayName("Finds the tail of a mixed distribution, also after merging and resetting")
+	void findsTail() {
+		final LatencyHistogram fast = new LatencyHistogram();
+		final LatencyHistogram slow = new LatencyHistogram();
+		for (int i = 0; i < 990; i++) { fast.record(TimeUnit.MICROSECONDS.toNanos(100)); }
+		for (int i = 0; i < 10; i++) { slow.record(TimeUnit.MILLISECONDS.toNanos(20)); }
+		fast.add(slow);
+
+		assertEquals(1000, fast.getCount());
+		assertEquals(0.1, fast.getValueAtPercentile(50, TimeUnit.MILLISECONDS), 0.1 / 32);
+		assertEquals(0.1, fast.getValueAtPercentile(99, TimeUnit.MILLISECONDS), 0.1 / 32);
+		assertEquals(20, fast.getValueAtPercentile(99.9, TimeUnit.MILLISECONDS), 20.0 / 32);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), fast.getValueAtPercentile(100));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), fast.getMax());
+
+		fast.reset();
+		assertEquals(0, fast.getCount());
+		assertEquals(0, fast.getMax());
+		assertEquals(0, fast.getValueAtPercentile(99));
+		assertEquals(10, slow.getCount());
+	}
+}
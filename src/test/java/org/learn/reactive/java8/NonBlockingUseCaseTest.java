@@ -1,6 +1,5 @@
 package org.learn.reactive.java8;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
@@ -30,20 +29,12 @@ public class NonBlockingUseCaseTest {
 	private final int poolSize = Runtime.getRuntime().availableProcessors();
 	private final ScheduledExecutorService tPoolService = Executors
 			.newScheduledThreadPool(poolSize);
-	private final ThreadFactory diskThreadFactory = new ThreadFactoryBuilder()
-			.setNameFormat("Disk-Worker-%d")
-			.build();
-	private final ThreadFactory networkThreadFactory = new ThreadFactoryBuilder()
-			.setNameFormat("Network-Worker-%d")
-			.build();
-
-	private final ExecutorService DISK_READ_THREAD_POOL = Executors.newSingleThreadExecutor(diskThreadFactory);
-	private final ExecutorService NETWORK_WRITE_THREAD_POOL = Executors.newSingleThreadExecutor(networkThreadFactory);
+	private final InstrumentedExecutor DISK_READ_THREAD_POOL = InstrumentedExecutors.newSingleThreadExecutor("Disk-Worker");
+	private final InstrumentedExecutor NETWORK_WRITE_THREAD_POOL = InstrumentedExecutors.newSingleThreadExecutor("Network-Worker");
 	private final Path DISK_FILE_PATH = Paths.get("/","Users","disen","speakers.json");
 
-	private final BlockingQueue boundedTaskQueue = new ArrayBlockingQueue(poolSize * 3 );
-	private final ThreadPoolExecutor DISK_IO_THREAD_POOL = new ThreadPoolExecutor(poolSize,2*poolSize,
-			10,TimeUnit.SECONDS, boundedTaskQueue);
+	private final InstrumentedExecutor DISK_IO_THREAD_POOL = InstrumentedExecutors.newBoundedThreadPool("Disk-IO",
+			poolSize, 2*poolSize, 10, TimeUnit.SECONDS, poolSize * 3);
 	static private BackupTask backupTask = null;
 
 	private final Logger logger = LoggerFactory.getLogger(NonBlockingUseCaseTest.class);
@@ -192,13 +183,11 @@ public class NonBlockingUseCaseTest {
 		// Backup all single files
 		final List<CompletableFuture<Void>> potentialFileBackup = backupFiles();
 
-		final CompletableFuture<Void> futureLogger = CompletableFuture.runAsync(() -> {
-			while(DISK_IO_THREAD_POOL.getActiveCount() != 0) {
-				logger.info("{} tasks are scheduled for disk i/o operation", DISK_IO_THREAD_POOL.getTaskCount());
-				logger.info("{} threads are performing disk i/o", DISK_IO_THREAD_POOL.getActiveCount());
-				addLatency(4);
-			}
-		});
+		//-- Reports on a timer instead of a thread sleeping in a loop, and stops once cancelled
+		final ScheduledFuture<?> futureLogger = tPoolService.scheduleAtFixedRate(() -> {
+			logger.info("{} tasks are queued for disk i/o operation", DISK_IO_THREAD_POOL.getQueuedCount());
+			logger.info("{} threads are performing disk i/o", DISK_IO_THREAD_POOL.getActiveCount());
+		}, 0, 4, TimeUnit.SECONDS);
 
 		// Backup all directories
 		final List<CompletableFuture<Void>> potentialDirBackup = backupFolders();
@@ -208,7 +197,9 @@ public class NonBlockingUseCaseTest {
 
 		// Zip contents of staging directory to generate final artifact
 		awaitFutureCompletion(potentialFileBackup, potentialDirBackup, potentialDbBackup);
-		futureLogger.complete(null);
+		futureLogger.cancel(false);
+		logger.info("{}", DISK_IO_THREAD_POOL.snapshot());
+		logger.info("{}", NETWORK_WRITE_THREAD_POOL.snapshot());
 		logger.info("All futures completed. Backup Artifact {} can now be generated",
 				backupTask.getTargetArtifactLocation().toString());
 	}
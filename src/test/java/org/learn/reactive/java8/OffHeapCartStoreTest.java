@@ -0,0 +1,145 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.learn.reactive.java8.FilterOperations.filterCartsByDate;
+import static org.learn.reactive.java8.FilterOperations.filterCustomersByPurchases;
+
+public class OffHeapCartStoreTest {
+
+	@Test
+	@DisplayName("Carts read back from their slots as they were added, across mapped chunks")
+	void roundTrips() throws IOException {
+		final Path file = Files.createTempFile("carts", ".slots");
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try (OffHeapCartStore store = new OffHeapCartStore(channel, OrderHelper.getCustomerDictionary(), 3, 4096)) {
+			final List<ShoppingCart> carts = carts(500, 3);
+			final List<Long> slots = carts.stream().map(store::add).collect(toList());
+
+			assertEquals(carts.size(), store.size());
+			for (int i = 0; i < carts.size(); i++) {
+				assertSameCart(carts.get(i), store.get(slots.get(i)));
+				assertSameCart(carts.get(i), store.get(slots.get(i)).detach());
+			}
+			assertEquals(carts.stream().map(ShoppingCart::getId).collect(toList()),
+					store.carts().map(ShoppingCart::getId).collect(toList()));
+			assertThrows(IllegalArgumentException.class, () -> store.add(new ShoppingCart(carts.get(0).getOrderedBy(),
+					OrderHelper.generateLineItems(4), carts.get(0).getCreationDateTime())));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	@DisplayName("Removed slots are reused and updates land in place")
+	void reusesFreedSlots() throws IOException {
+		try (OffHeapCartStore store = new OffHeapCartStore(null, OrderHelper.getCustomerDictionary(), 4, 1024)) {
+			final List<ShoppingCart> carts = carts(10, 2);
+			final List<Long> slots = carts.stream().map(store::add).collect(toList());
+
+			assertTrue(store.remove(slots.get(3)));
+			assertTrue(store.remove(slots.get(7)));
+			assertFalse(store.remove(slots.get(7)));
+			assertThrows(IllegalArgumentException.class, () -> store.get(slots.get(3)));
+			assertEquals(8, store.carts().count());
+
+			final long reserved = store.getReservedBytes();
+			assertEquals((long) slots.get(7), store.add(carts.get(7)));
+			assertEquals((long) slots.get(3), store.add(carts.get(3)));
+			assertEquals(reserved, store.getReservedBytes());
+
+			final ShoppingCart cart = carts.get(5);
+			final List<LineItem> items = new ArrayList<>(cart.getItems());
+			items.addAll(OrderHelper.generateLineItems(2));
+			final ShoppingCart grown = new ShoppingCart(cart.getId(), cart.getOrderedBy(), items, cart.getCreationDateTime());
+			store.update(slots.get(5), grown);
+			assertSameCart(grown, store.get(slots.get(5)));
+			assertEquals(10, store.size());
+		}
+	}
+
+	@Test
+	@DisplayName("Carts of customers from other dictionaries read back as those customers")
+	void internsForeignCustomers() throws IOException {
+		final Customer alice = new CustomerDictionary().intern("Alice", "Liddell", "1st, Developer Street", "91");
+		final Customer bob = new CustomerDictionary().intern("Bob", "Builder", "2nd, Developer Street", "92");
+		final CustomerDictionary own = new CustomerDictionary();
+		final Customer carol = own.intern("Carol", "Danvers", "3rd, Developer Street", "93");
+		final LocalDateTime at = LocalDateTime.of(2017, 1, 1, 0, 0);
+		try (OffHeapCartStore store = new OffHeapCartStore(own, 2)) {
+			final long carolSlot = store.add(new ShoppingCart(carol, OrderHelper.generateLineItems(1), at));
+			final long aliceSlot = store.add(new ShoppingCart(alice, OrderHelper.generateLineItems(1), at));
+			final long bobSlot = store.add(new ShoppingCart(bob, OrderHelper.generateLineItems(1), at));
+
+			assertSame(carol, store.get(carolSlot).getOrderedBy());
+			assertEquals(alice, store.get(aliceSlot).getOrderedBy());
+			assertEquals(bob, store.get(bobSlot).getOrderedBy());
+			assertTrue(store.get(bobSlot).getOrderedBy().isInternedIn(own));
+		}
+		try (OffHeapCartStore store = new OffHeapCartStore()) {
+			assertEquals(alice, store.get(store.add(new ShoppingCart(alice, OrderHelper.generateLineItems(1), at))).getOrderedBy());
+		}
+	}
+
+	@Test
+	@DisplayName("The discount pipeline gives the same customers over the store as over heap carts")
+	void feedsThePipeline() throws IOException {
+		final LocalDate endOfFY = LocalDate.of(2017, Month.MARCH, 31);
+		try (OffHeapCartStore store = new OffHeapCartStore()) {
+			final List<ShoppingCart> carts = carts(5_000, 3);
+			carts.forEach(store::add);
+
+			assertEquals(filterCartsByDate(endOfFY).andThen(filterCustomersByPurchases(60_000)).apply(carts.stream()).collect(toSet()),
+					filterCustomersByPurchases(60_000).apply(OrderHelper.fetchAllShoppingCarts(store, endOfFY).parallel()).collect(toSet()));
+		}
+	}
+
+	static private List<ShoppingCart> carts(int count, int maxItems) {
+		final SplittableRandom random = new SplittableRandom(39);
+		final List<Customer> customers = OrderHelper.createCarts(50).map(ShoppingCart::getOrderedBy).collect(toList());
+		final List<ShoppingCart> carts = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			carts.add(new ShoppingCart(customers.get(random.nextInt(customers.size())),
+					OrderHelper.generateLineItems(maxItems - random.nextInt(maxItems)),
+					LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), LocalTime.of(random.nextInt(24), 30, 0, 1_000))));
+		}
+		return carts;
+	}
+
+	static private void assertSameCart(ShoppingCart expected, ShoppingCart actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getOrderedBy(), actual.getOrderedBy());
+		assertEquals(expected.getCreationDateTime(), actual.getCreationDateTime());
+		assertEquals(expected.getCreationEpochDay(), actual.getCreationEpochDay());
+		assertEquals(expected.getTotalValue(), actual.getTotalValue(), 1e-9);
+		assertEquals(expected.getItems(), actual.getItems());
+		for (int i = 0; i < expected.getItems().size(); i++) {
+			final LineItem item = expected.getItems().get(i);
+			assertEquals(item.getDescription(), actual.getItems().get(i).getDescription());
+			assertEquals(item.getFulfilledBy(), actual.getItems().get(i).getFulfilledBy());
+			assertEquals(item.getScaledValue(), actual.getItems().get(i).getScaledValue());
+			assertEquals(item.getQuantity(), actual.getItems().get(i).getQuantity());
+		}
+	}
+}
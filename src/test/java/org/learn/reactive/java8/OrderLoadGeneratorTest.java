@@ -0,0 +1,86 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrderLoadGeneratorTest {
+
+	@Test
+	@DisplayName("Orders arrive at the target rate and every line item is timed")
+	void holdsTheRate() throws InterruptedException {
+		final AtomicLong items = new AtomicLong();
+		try (OrderLoadGenerator generator = new OrderLoadGeneratorBuilder()
+				.withActions(itemDone -> order -> order.getItems().forEach(item -> {
+					items.incrementAndGet();
+					itemDone.accept(item);
+				}))
+				.withWarmup(Duration.ZERO)
+				.withDuration(Duration.ofSeconds(1))
+				.build()) {
+			final OrderLoadGenerator.Result result = generator.run(200);
+
+			assertEquals(200, result.getSucceededCount(), 2);
+			assertEquals(200, result.getThroughput(), 30);
+			assertEquals(items.get(), result.getItemLatency().getCount());
+			assertEquals(0, result.getShedCount());
+			assertTrue(result.hasValidLatency());
+		}
+	}
+
+	@Test
+	@DisplayName("A stall is charged to every order queued behind it, not just the one that stalled")
+	void correctsCoordinatedOmission() throws InterruptedException {
+		final Object singleThreadedService = new Object();
+		final AtomicLong orders = new AtomicLong();
+		try (OrderLoadGenerator generator = new OrderLoadGeneratorBuilder()
+				.withActions(itemDone -> order -> {
+					synchronized (singleThreadedService) {
+						if (orders.incrementAndGet() == 10) Thread.sleep(300);
+					}
+				})
+				.withWarmup(Duration.ZERO)
+				.withDuration(Duration.ofSeconds(1))
+				.build()) {
+			final OrderLoadGenerator.Result result = generator.run(100);
+
+			assertTrue(result.getOrderLatency().getMax() >= TimeUnit.MILLISECONDS.toNanos(300));
+			//-- About 30 of the 100 orders were due while the service stalled
+			assertTrue(result.getOrderLatency().getValueAtPercentile(80) >= TimeUnit.MILLISECONDS.toNanos(20),
+					result.getOrderLatency().summary());
+		}
+	}
+
+	@Test
+	@DisplayName("Orders beyond the in-flight limit are shed and counted, and the rate's latencies flagged as invalid")
+	void shedsBeyondCapacity() throws InterruptedException {
+		try (OrderLoadGenerator generator = new OrderLoadGeneratorBuilder()
+				.withActions(itemDone -> order -> Thread.sleep(200))
+				.withWarmup(Duration.ZERO)
+				.withDuration(Duration.ofMillis(500))
+				.withMaxInFlight(4)
+				.build()) {
+			final OrderLoadGenerator.Result result = generator.run(100);
+
+			assertTrue(result.getShedCount() > 0);
+			assertEquals(50, result.getShedCount() + result.getSucceededCount() + result.getFailedCount(), 1);
+			assertTrue(result.getThroughput() < 25);
+			assertFalse(result.hasValidLatency());
+
+			final ByteArrayOutputStream report = new ByteArrayOutputStream();
+			OrderLoadGenerator.report(Collections.singletonList(result), new PrintStream(report, true));
+			final String row = report.toString().split("\n")[1];
+			assertEquals(4, row.split("invalid", -1).length - 1, row);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OrderTest {
+
+	@Test
+	@DisplayName("Compact orders and line items hand back what they were built from")
+	void gettersRoundTrip() {
+		final LineItem phone = new LineItem("Smartphone", "MobileWorld", 56000, 2);
+		final LineItem food = new LineItem("food", "Patanjali", 863.123, 1);
+		final LocalDateTime purchasedAt = LocalDateTime.of(2017, 3, 31, 23, 59, 59, 123_456_789);
+		final Order order = new Order(purchasedAt, Arrays.asList(phone, food), null);
+
+		assertEquals("Smartphone", phone.getDescription());
+		assertEquals("MobileWorld", phone.getFulfilledBy());
+		assertEquals(56000, phone.getValue());
+		assertEquals(863.123, food.getValue());
+		assertEquals(8_631_230, food.getScaledValue());
+		assertEquals(2, phone.getQuantity());
+		assertEquals(phone.getItemId(), UUID.fromString(phone.getItemId()).toString());
+		assertNotEquals(phone, food);
+
+		assertEquals(purchasedAt, order.getPurchaseDateTime());
+		assertEquals(Arrays.asList(phone, food), order.getItems());
+		assertEquals(order.getId(), order.getId());
+	}
+
+	@Test
+	@DisplayName("Line items keep null descriptions and vendors and any number of distinct ones")
+	void encodesUnboundedDescriptions() {
+		final LineItem unnamed = new LineItem(null, null, 1, 1);
+		assertNull(unnamed.getDescription());
+		assertNull(unnamed.getFulfilledBy());
+
+		final List<LineItem> items = IntStream.range(0, 70_001)
+				.mapToObj(i -> new LineItem("description-" + i, "vendor-" + i, i, 1))
+				.collect(toList());
+		assertEquals("description-70000", items.get(70_000).getDescription());
+		assertEquals("vendor-65546", items.get(65_546).getFulfilledBy());
+
+		final StringDictionary bounded = new StringDictionary(2);
+		assertEquals(0, bounded.encode("a"));
+		assertEquals(1, bounded.encode("b"));
+		assertEquals(0, bounded.encode("a"));
+		assertEquals(StringDictionary.NULL, bounded.encode(null));
+		assertThrows(IllegalStateException.class, () -> bounded.encode("c"));
+		assertEquals("b", bounded.decode(1));
+	}
+}
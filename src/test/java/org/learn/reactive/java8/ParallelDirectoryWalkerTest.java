@@ -0,0 +1,77 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelDirectoryWalkerTest {
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private Path root;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		root = Files.createTempDirectory("walker-test");
+		for (int dir = 0; dir < 5; dir++) {
+			final Path subDir = Files.createDirectories(root.resolve("dir-" + dir).resolve("nested"));
+			for (int file = 0; file < 100; file++) {
+				Files.createFile(subDir.getParent().resolve("file-" + file + ".dat"));
+				Files.createFile(subDir.resolve("file-" + file + ".log"));
+			}
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	@DisplayName("Reports every file of the tree exactly once")
+	void walksWholeTree() {
+		final Set<Path> found = walk(new ParallelDirectoryWalker(pool).withBatchSize(16));
+		assertEquals(1000, found.size());
+	}
+
+	@Test
+	@DisplayName("Applies include and exclude globs to paths relative to the root")
+	void appliesGlobs() {
+		final Set<Path> found = walk(new ParallelDirectoryWalker(pool)
+				.withIncludes("**.dat", "**.log")
+				.withExcludes("dir-0", "**/nested"));
+		assertEquals(400, found.size());
+		assertEquals(IntStream.range(1, 5).mapToObj(dir -> "dir-" + dir).collect(Collectors.toSet()),
+				found.stream().map(file -> root.relativize(file).getName(0).toString()).collect(Collectors.toSet()));
+	}
+
+	@Test
+	@DisplayName("Follows directory links without looping on cycles")
+	void followsLinksOnce() throws IOException {
+		Files.createSymbolicLink(root.resolve("dir-1").resolve("loop"), root);
+
+		assertEquals(1000, walk(new ParallelDirectoryWalker(pool)
+				.withSymlinkPolicy(ParallelDirectoryWalker.SymlinkPolicy.FOLLOW)).size());
+		assertEquals(1000, walk(new ParallelDirectoryWalker(pool)
+				.withSymlinkPolicy(ParallelDirectoryWalker.SymlinkPolicy.SKIP)).size());
+		assertEquals(1001, walk(new ParallelDirectoryWalker(pool)
+				.withSymlinkPolicy(ParallelDirectoryWalker.SymlinkPolicy.AS_LINK)).size());
+	}
+
+	private Set<Path> walk(ParallelDirectoryWalker walker) {
+		final Set<Path> found = ConcurrentHashMap.newKeySet();
+		final long reported = walker.walk(root, found::addAll).join();
+		assertEquals(reported, found.size());
+		return found;
+	}
+}
@@ -0,0 +1,114 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.learn.reactive.java8.DatasetGenerator.Distribution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartnerStubServerTest {
+
+	@Test
+	@DisplayName("Endpoints answer with their bodies, failure rate and latency, reproducibly")
+	void followsProfiles() throws IOException {
+		final String[] bodies = new String[2];
+		for (int run = 0; run < 2; run++) {
+			try (PartnerStubServer server = new PartnerStubServer(0, 41).start()) {
+				final PartnerStubServer.Endpoint partner = server.endpoint("/partner")
+						.withFailureRate(0.25).withFailureStatus(200)
+						.withLatency(Distribution.between(Duration.ofMillis(2), Duration.ofMillis(4)));
+				final StringBuilder seen = new StringBuilder();
+				final long started = System.nanoTime();
+				for (int i = 0; i < 200; i++) { seen.append(post(partner.getUrl(), "item(" + i + ")")[1]).append(','); }
+
+				assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(2 * 200));
+				assertEquals(200, partner.getRequestCount());
+				assertEquals(200, partner.getSucceededCount() + partner.getFailedCount());
+				assertEquals(0.25, partner.getFailedCount() / 200.0, 0.1);
+				assertEquals(partner.getFailedCount(), seen.toString().split("fail", -1).length - 1);
+				bodies[run] = seen.toString();
+			}
+		}
+		assertEquals(bodies[0], bodies[1]);
+	}
+
+	@Test
+	@DisplayName("Requests beyond the concurrency limit are turned away")
+	void limitsConcurrency() throws Exception {
+		final ExecutorService clients = Executors.newFixedThreadPool(12);
+		try (PartnerStubServer server = new PartnerStubServer(0, 41).start()) {
+			final PartnerStubServer.Endpoint slow = server.endpoint("/slow")
+					.withLatency(Duration.ofMillis(500)).withMaxConcurrent(4).withBodies("done", "fail");
+			final List<CompletableFuture<String[]>> responses = IntStream.range(0, 12)
+					.mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+						try {
+							return post(slow.getUrl(), "hello");
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}, clients))
+					.collect(toList());
+			final List<String[]> answers = responses.stream().map(CompletableFuture::join).collect(toList());
+
+			assertEquals(12, slow.getRequestCount());
+			assertEquals(slow.getRejectedCount(), answers.stream().filter(a -> a[0].equals("503")).count());
+			assertEquals(slow.getSucceededCount(), answers.stream().filter(a -> a[1].equals("done")).count());
+			assertTrue(slow.getRejectedCount() > 0);
+			assertEquals(12, slow.getRejectedCount() + slow.getSucceededCount());
+			assertEquals(0, slow.getInFlightCount());
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	@DisplayName("A purchase fans out to stubbed partners through the vendor endpoint maps")
+	void servesScatterGather() throws Exception {
+		try (PartnerStubServer server = new PartnerStubServer(0, 41).start()) {
+			final PartnerStubServer.Endpoint primary = server.endpoint("/primary");
+			final PartnerStubServer.Endpoint fallback = server.endpoint("/fallback");
+			final PartnerStubServer.Endpoint fulfillment = server.endpoint("/fulfillment");
+			OrderHelper.routeVendorsTo(primary.getUrl(), fallback.getUrl());
+
+			final Order order = OrderHelper.generateOrder();
+			new ScatterGatherAndDecidePurchaseAction(fulfillment.getUrl(), server.endpoint("/failures").getUrl()).execute(order);
+
+			assertEquals(order.getItems().size(), primary.getRequestCount());
+			assertEquals(order.getItems().size(), fallback.getRequestCount());
+			assertEquals(1, fulfillment.getSucceededCount());
+		}
+	}
+
+	static private String[] post(String url, String body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		final int status = connection.getResponseCode();
+		final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			final byte[] buffer = new byte[256];
+			for (int n; (n = in.read(buffer)) >= 0; ) { response.write(buffer, 0, n); }
+		}
+		return new String[] { String.valueOf(status), new String(response.toByteArray(), StandardCharsets.UTF_8) };
+	}
+}
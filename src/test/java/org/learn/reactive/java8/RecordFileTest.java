@@ -0,0 +1,183 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.learn.reactive.java8.FilterOperations.filterCartsByDate;
+import static org.learn.reactive.java8.FilterOperations.filterCustomersByPurchases;
+
+public class RecordFileTest {
+
+	@Test
+	@DisplayName("Carts and orders read back field for field, across segments and chunks")
+	void roundTrips() throws IOException {
+		final Path file = Files.createTempFile("records", ".rec");
+		final List<ShoppingCart> carts = carts(3_000);
+		final List<Order> orders = new ArrayList<>();
+		final ShoppingCart anonymous = new ShoppingCart(null, OrderHelper.generateLineItems(0), LocalDateTime.of(2017, 1, 1, 0, 0));
+
+		//-- Tiny chunks and segments so records straddle segment boundaries and streams split often
+		try (RecordFileWriter writer = new RecordFileWriter(file, 4096)) {
+			for (int i = 0; i < carts.size(); i++) {
+				writer.write(carts.get(i));
+				if (i % 3 == 0) {
+					final Order order = OrderHelper.generateOrder();
+					orders.add(order);
+					writer.write(order);
+				}
+			}
+			writer.write(anonymous);
+		}
+
+		try (RecordFileReader reader = new RecordFileReader(file, 8192)) {
+			assertEquals(carts.size() + 1, reader.getCartCount());
+			assertEquals(orders.size(), reader.getOrderCount());
+
+			final List<ShoppingCart> read = reader.carts().collect(toList());
+			for (int i = 0; i < carts.size(); i++) {
+				final ShoppingCart expected = carts.get(i);
+				final ShoppingCart actual = ((RecordFileReader.CartView) read.get(i)).detach();
+				assertEquals(expected.getId(), actual.getId());
+				assertEquals(expected.getOrderedBy(), actual.getOrderedBy());
+				assertEquals(expected.getOrderedBy().getFirstName(), actual.getOrderedBy().getFirstName());
+				assertEquals(expected.getCreationDateTime(), actual.getCreationDateTime());
+				assertEquals(expected.getCreationEpochDay(), read.get(i).getCreationEpochDay());
+				assertEquals(expected.getTotalValue(), read.get(i).getTotalValue(), 1e-6);
+				assertItems(expected.getItems(), actual.getItems());
+			}
+			assertNull(read.get(carts.size()).getOrderedBy());
+
+			final List<Order> readOrders = reader.orders().collect(toList());
+			for (int i = 0; i < orders.size(); i++) {
+				assertEquals(orders.get(i).getId(), readOrders.get(i).getId());
+				assertEquals(orders.get(i).getPurchaseDateTime(), readOrders.get(i).getPurchaseDateTime());
+				assertEquals(orders.get(i).getCustomer().getLastName(), readOrders.get(i).getCustomer().getLastName());
+				assertItems(orders.get(i).getItems(), ((RecordFileReader.OrderView) readOrders.get(i)).detach().getItems());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	@DisplayName("FilterOperations select the same customers from mapped views as from heap carts, in parallel too")
+	void filtersScanViews() throws IOException {
+		final Path file = Files.createTempFile("records", ".rec");
+		final List<ShoppingCart> carts = carts(20_000);
+		try (RecordFileWriter writer = new RecordFileWriter(file, 16 * 1024)) {
+			for (ShoppingCart cart : carts) { writer.write(cart); }
+		}
+
+		final LocalDate after = LocalDate.of(2017, Month.MARCH, 31);
+		try (RecordFileReader reader = new RecordFileReader(file)) {
+			final List<Customer> expected = filterCartsByDate(after).andThen(filterCustomersByPurchases(30_000))
+					.apply(carts.stream()).collect(toList());
+			assertEquals(expected, filterCartsByDate(after).andThen(filterCustomersByPurchases(30_000))
+					.apply(reader.carts()).collect(toList()));
+			assertEquals(expected.stream().collect(toSet()), filterCartsByDate(after).andThen(filterCustomersByPurchases(30_000))
+					.apply(reader.carts().parallel()).collect(toSet()));
+			assertEquals(carts.size(), reader.carts().parallel().count());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	@DisplayName("Tells apart customers of different dictionaries whose ids collide")
+	void writesCustomersOfSeveralDictionaries() throws IOException {
+		final Path file = Files.createTempFile("records", ".rec");
+		final Customer alice = new CustomerDictionary().intern("Alice", "Liddell", "1st, Developer Street", "91");
+		final Customer bob = new CustomerDictionary().intern("Bob", "Builder", "2nd, Developer Street", "92");
+		final Customer aliceAgain = new CustomerDictionary().intern("Alice", "Liddell", "1st, Developer Street", "91");
+		final LocalDateTime at = LocalDateTime.of(2017, 1, 1, 0, 0);
+		try (RecordFileWriter writer = new RecordFileWriter(file)) {
+			writer.write(new ShoppingCart(alice, OrderHelper.generateLineItems(1), at));
+			writer.write(new ShoppingCart(bob, OrderHelper.generateLineItems(1), at));
+			writer.write(new ShoppingCart(aliceAgain, OrderHelper.generateLineItems(1), at));
+		}
+
+		try (RecordFileReader reader = new RecordFileReader(file)) {
+			final List<Customer> read = reader.carts().map(ShoppingCart::getOrderedBy).collect(toList());
+			assertEquals(Arrays.asList("Alice", "Bob", "Alice"), read.stream().map(Customer::getFirstName).collect(toList()));
+			assertSame(read.get(0), read.get(2));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	@DisplayName("Fails a scan at a record whose length is corrupt instead of looping")
+	void rejectsCorruptRecords() throws IOException {
+		final Path file = Files.createTempFile("records", ".rec");
+		try (RecordFileWriter writer = new RecordFileWriter(file)) {
+			for (ShoppingCart cart : carts(3)) { writer.write(cart); }
+		}
+		for (int length : new int[] { 0, -8, Integer.MAX_VALUE }) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write((ByteBuffer) ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(length).flip(),
+						RecordFileWriter.HEADER_SIZE + RecordFileWriter.LENGTH);
+			}
+			try (RecordFileReader reader = new RecordFileReader(file)) {
+				assertThrows(UncheckedIOException.class, () -> reader.carts().count());
+			}
+		}
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	@DisplayName("Refuses files it did not write")
+	void rejectsForeignFiles() throws IOException {
+		final Path file = Files.write(Files.createTempFile("records", ".rec"), new byte[100]);
+		try {
+			assertThrows(IOException.class, () -> new RecordFileReader(file));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static List<ShoppingCart> carts(int count) {
+		final SplittableRandom random = new SplittableRandom(38);
+		final List<Customer> customers = OrderHelper.createCarts(200).map(ShoppingCart::getOrderedBy).collect(toList());
+		final List<ShoppingCart> carts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			carts.add(new ShoppingCart(customers.get(random.nextInt(customers.size())),
+					OrderHelper.generateLineItems(1 + random.nextInt(4)),
+					LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), LocalTime.of(random.nextInt(24), 30, 15, 999))));
+		}
+		return carts;
+	}
+
+	private static void assertItems(List<LineItem> expected, List<LineItem> actual) {
+		assertEquals(expected, actual);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getItemId(), actual.get(i).getItemId());
+			assertEquals(expected.get(i).getDescription(), actual.get(i).getDescription());
+			assertEquals(expected.get(i).getFulfilledBy(), actual.get(i).getFulfilledBy());
+			assertEquals(expected.get(i).getScaledValue(), actual.get(i).getScaledValue());
+			assertEquals(expected.get(i).getQuantity(), actual.get(i).getQuantity());
+		}
+	}
+}
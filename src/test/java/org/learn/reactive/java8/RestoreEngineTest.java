@@ -0,0 +1,179 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RestoreEngineTest {
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private Path workDir;
+	private Path stagingDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		workDir = Files.createTempDirectory("restore-test");
+		stagingDir = Files.createDirectories(workDir.resolve("staging"));
+	}
+
+	@AfterEach
+	void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	@DisplayName("Restores every staged file, including multi-block and empty ones")
+	void restoresAll() throws IOException {
+		final byte[] large = randomBytes(5 * 1024 * 1024 + 3, 1);
+		Files.write(stagingDir.resolve("data_table-1"), large);
+		Files.write(Files.createDirectories(stagingDir.resolve("data_dir-1").resolve("nested")).resolve("a.txt"),
+				"hello".getBytes());
+		Files.createFile(stagingDir.resolve("data_file-1.dat"));
+
+		final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+		try (RestoreEngine engine = new RestoreEngine(artifact, pool)) {
+			assertEquals(3, engine.getEntryNames().size());
+			final Path restored = workDir.resolve("restored");
+			assertEquals(large.length + 5, engine.restoreAll(restored));
+			assertArrayEquals(large, Files.readAllBytes(restored.resolve("data_table-1")));
+			assertArrayEquals("hello".getBytes(), Files.readAllBytes(restored.resolve("data_dir-1/nested/a.txt")));
+			assertEquals(0, Files.size(restored.resolve("data_file-1.dat")));
+		}
+	}
+
+	@Test
+	@DisplayName("Refuses to restore an entry whose blocks were damaged")
+	void detectsCorruption() throws IOException {
+		Files.write(stagingDir.resolve("data_table-1"), randomBytes(64 * 1024, 2));
+		final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+
+		// The first entry's data starts right after its 512 byte tar header
+		try (FileChannel channel = FileChannel.open(artifact, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer damaged = ByteBuffer.allocate(1);
+			channel.read(damaged, 512 + 100);
+			damaged.put(0, (byte) (damaged.get(0) ^ 0xff)).rewind();
+			channel.write(damaged, 512 + 100);
+		}
+		try (RestoreEngine engine = new RestoreEngine(artifact, pool)) {
+			assertThrows(IOException.class, () -> engine.restore("data_table-1", workDir.resolve("restored")));
+		}
+	}
+
+	@Test
+	@DisplayName("Turns deduplicated recipes back into the original files")
+	void restoresRecipes() throws IOException {
+		final byte[] content = randomBytes(300 * 1024, 3);
+		final Path source = Files.write(workDir.resolve("data_file-2.dat"), content);
+
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			BackupOperations.moveToStagingDir(stagingDir)
+					.accept(BackupOperations.deduplicate(store, workDir).apply(source));
+			final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+
+			try (RestoreEngine engine = new RestoreEngine(artifact, pool).withChunkStore(store)) {
+				engine.restoreAll(workDir.resolve("restored"));
+				assertArrayEquals(content, Files.readAllBytes(workDir.resolve("restored").resolve("data_file-2.dat")));
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Rejects entry names that escape the target directory and forged block headers")
+	void rejectsMaliciousEntries() throws IOException {
+		Files.write(stagingDir.resolve("xxxxxxxxxx"), "escaped".getBytes());
+		Files.write(stagingDir.resolve("yyyyyyyyyy"), "escaped".getBytes());
+		Files.write(stagingDir.resolve("data_table-1"), randomBytes(1024, 4));
+		final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+		//-- Index lines start with the name followed by a tab; tar headers pad names with NULs
+		final String content = new String(Files.readAllBytes(artifact), StandardCharsets.ISO_8859_1)
+				.replace("xxxxxxxxxx\t", "../../evil\t")
+				.replace("yyyyyyyyyy\t", "/tmp/evil1\t");
+		Files.write(artifact, content.getBytes(StandardCharsets.ISO_8859_1));
+
+		final Path restored = workDir.resolve("target").resolve("restored");
+		try (RestoreEngine engine = new RestoreEngine(artifact, pool)) {
+			assertTrue(engine.getEntryNames().contains("../../evil"));
+			assertThrows(IOException.class, () -> engine.restoreAll(restored));
+			assertThrows(IOException.class, () -> engine.restore("/tmp/evil1", restored.resolve("evil")));
+		}
+		assertFalse(Files.exists(workDir.resolve("evil")));
+		assertFalse(Files.exists(Paths.get("/tmp/evil1")));
+
+		//-- A stored length far beyond the entry must not be trusted, let alone allocated
+		try (FileChannel channel = FileChannel.open(artifact, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final long dataOffset = Long.parseLong(content.substring(content.indexOf("data_table-1\t")).split("\t")[1]);
+			channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).flip(), dataOffset + Integer.BYTES);
+		}
+		try (RestoreEngine engine = new RestoreEngine(artifact, pool)) {
+			final IOException failure = assertThrows(IOException.class,
+					() -> engine.restore("data_table-1", workDir.resolve("table")));
+			assertTrue(failure.getMessage().contains("Corrupt block header"), failure.getMessage());
+			assertFalse(Files.exists(workDir.resolve("table")));
+		}
+	}
+
+	@Test
+	@DisplayName("Refuses an index footer pointing outside the artifact")
+	void rejectsCorruptFooter() throws IOException {
+		Files.write(stagingDir.resolve("data_table-1"), randomBytes(1024, 6));
+		final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+		final String content = new String(Files.readAllBytes(artifact), StandardCharsets.ISO_8859_1);
+		final int footer = content.lastIndexOf(BackupArchive.FOOTER_MAGIC + " ");
+		final long indexOffset = Long.parseLong(content.substring(footer).split("[ \n]")[1]);
+
+		for (String length : new String[] { "-1", "2000000000", "12x" }) {
+			try (FileChannel channel = FileChannel.open(artifact, StandardOpenOption.WRITE)) {
+				final byte[] forged = Arrays.copyOf((BackupArchive.FOOTER_MAGIC + " " + indexOffset + " " + length + "\n")
+						.getBytes(StandardCharsets.US_ASCII), 64);
+				channel.write(ByteBuffer.wrap(forged), footer);
+			}
+			assertThrows(IOException.class, () -> new RestoreEngine(artifact, pool).close());
+		}
+	}
+
+	@Test
+	@DisplayName("Refuses deduplicated content whose chunks no longer match their digests")
+	void verifiesRestoredChunks() throws IOException {
+		final Path source = Files.write(workDir.resolve("data_file-3.dat"), randomBytes(64 * 1024, 5));
+
+		try (DedupChunkStore store = DedupChunkStore.open(workDir.resolve("repository"))) {
+			BackupOperations.moveToStagingDir(stagingDir)
+					.accept(BackupOperations.deduplicate(store, workDir).apply(source));
+			final Path artifact = BackupArchive.write(stagingDir, workDir.resolve("data_backup.tar"));
+			try (FileChannel pack = FileChannel.open(workDir.resolve("repository").resolve("packs").resolve("pack-00000.pack"),
+					StandardOpenOption.WRITE)) {
+				pack.write(ByteBuffer.wrap(new byte[] { 0x5a, 0x5a, 0x5a, 0x5a }), 10);
+			}
+
+			try (RestoreEngine engine = new RestoreEngine(artifact, pool).withChunkStore(store)) {
+				assertThrows(IOException.class, () -> engine.restoreAll(workDir.resolve("restored")));
+				assertFalse(Files.exists(workDir.resolve("restored").resolve("data_file-3.dat")));
+			}
+		}
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		final byte[] bytes = new byte[length];
+		final SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < length; i++) { bytes[i] = (byte) random.nextInt(256); }
+		return bytes;
+	}
+}
@@ -0,0 +1,190 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryQueueTest {
+	private Path workDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		workDir = Files.createTempDirectory("retry-test");
+	}
+
+	@Test
+	@DisplayName("Redelivers in per-vendor batches and keeps only undelivered items across a restart")
+	void redeliversInBatches() throws IOException {
+		final UUID orderId = UUID.randomUUID();
+		final Map<String,Integer> batches = new TreeMap<>();
+		final RetryQueue.Delivery delivery = (vendor, batch) -> {
+			batches.merge(vendor, 1, Integer::sum);
+			//-- Vendor B takes nothing, so its items stay queued
+			return "B".equals(vendor) ? Collections.emptyList() : batch;
+		};
+		try (RetryQueue queue = builder().withBatchSize(3).withDelivery(delivery).build()) {
+			for (int i = 0; i < 5; i++) { queue.enqueue(orderId, new LineItem("item-" + i, "A", 10.5 + i, i + 1)); }
+			queue.enqueue(orderId, new LineItem("item-b", "B", 99.99, 1));
+			assertEquals(6, queue.getPendingCount());
+
+			assertEquals(3, queue.redeliverDue());
+			assertEquals(2, queue.redeliverDue());
+			assertEquals(0, queue.redeliverDue());
+			assertEquals(5, queue.getDeliveredCount());
+			assertEquals(2, (int) batches.get("A"));
+		}
+
+		try (RetryQueue queue = builder().build()) {
+			final List<RetryQueue.Entry> pending = queue.getPending();
+			assertEquals(1, pending.size());
+			final LineItem item = pending.get(0).getItem();
+			assertEquals(orderId, pending.get(0).getOrderId());
+			assertEquals("item-b", item.getDescription());
+			assertEquals("B", item.getFulfilledBy());
+			assertEquals(99.99, item.getValue());
+			assertEquals(3, pending.get(0).getAttempts());
+		}
+	}
+
+	@Test
+	@DisplayName("Overlapping rounds hand every item to the delivery once, and null strings survive a restart")
+	void overlappingRoundsDeliverOnce() throws Exception {
+		final CountDownLatch delivering = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger handedOver = new AtomicInteger();
+		final RetryQueue.Delivery delivery = (vendor, batch) -> {
+			handedOver.addAndGet(batch.size());
+			delivering.countDown();
+			release.await(2, TimeUnit.SECONDS);
+			return batch;
+		};
+		final ExecutorService rounds = Executors.newSingleThreadExecutor();
+		try (RetryQueue queue = builder().withDelivery(delivery).build()) {
+			for (int i = 0; i < 5; i++) { queue.enqueue(UUID.randomUUID(), new LineItem("item-" + i, "A", i, 1)); }
+			final Future<Integer> first = rounds.submit(queue::redeliverDue);
+			assertTrue(delivering.await(5, TimeUnit.SECONDS));
+			//-- Runs while the first round still holds every item
+			assertEquals(0, queue.redeliverDue());
+			release.countDown();
+			assertEquals(5, (int) first.get(5, TimeUnit.SECONDS));
+			assertEquals(5, handedOver.get());
+			assertEquals(5, queue.getDeliveredCount());
+			queue.enqueue(UUID.randomUUID(), new LineItem(null, null, 1, 1));
+		} finally {
+			rounds.shutdown();
+		}
+
+		try (RetryQueue queue = builder().build()) {
+			assertEquals(1, queue.getPendingCount());
+			assertNull(queue.getPending().get(0).getItem().getDescription());
+			assertNull(queue.getPending().get(0).getItem().getFulfilledBy());
+		}
+	}
+
+	@Test
+	@DisplayName("Discards a torn record at the tail and appends over it")
+	void recoversFromTornTail() throws IOException {
+		final List<String> enqueued = new ArrayList<>();
+		try (RetryQueue queue = builder().build()) {
+			for (int i = 0; i < 3; i++) {
+				final LineItem item = new LineItem("item-" + i, "A", i, 1);
+				queue.enqueue(UUID.randomUUID(), item);
+				enqueued.add(item.getItemId());
+			}
+		}
+
+		//-- A record whose body did not make it to the file before the crash
+		final Path segment = Files.list(workDir).findFirst().get();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			long end = RetryQueue.SEGMENT_HEADER_SIZE;
+			while (true) {
+				header.clear();
+				channel.read(header, end);
+				final int length = header.getInt(0);
+				if (length == 0) break;
+				end += length;
+			}
+			final ByteBuffer torn = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+			torn.putInt(96).putInt(0xBAD).putInt(RetryQueue.ENQUEUED).putInt(0).putLong(42).flip();
+			channel.write(torn, end);
+		}
+
+		try (RetryQueue queue = builder().build()) {
+			assertEquals(enqueued, itemIds(queue));
+			final LineItem item = new LineItem("item-3", "A", 3, 1);
+			queue.enqueue(UUID.randomUUID(), item);
+			enqueued.add(item.getItemId());
+		}
+		try (RetryQueue queue = builder().build()) {
+			assertEquals(enqueued, itemIds(queue));
+		}
+	}
+
+	@Test
+	@DisplayName("Abandons items after their last attempt and compacts rolled segments into one")
+	void abandonsAndCompacts() throws IOException {
+		final RetryQueue.Delivery delivery = (vendor, batch) -> {
+			if ("B".equals(vendor)) throw new IOException("Vendor B is down");
+			return batch;
+		};
+		try (RetryQueue queue = builder().withSegmentSize(4 * 1024).withBatchSize(200).withMaxAttempts(2).withDelivery(delivery).build()) {
+			for (int i = 0; i < 200; i++) {
+				queue.enqueue(UUID.randomUUID(), new LineItem("item-" + i, i % 10 == 0 ? "B" : "A", i, 1));
+			}
+			assertTrue(queue.getSegmentCount() > 1, "segments " + queue.getSegmentCount());
+
+			queue.redeliverDue();
+			assertEquals(180, queue.getDeliveredCount());
+			assertEquals(20, queue.getPendingCount());
+			queue.redeliverDue();
+			assertEquals(20, queue.getAbandonedCount());
+			assertEquals(0, queue.getPendingCount());
+
+			queue.enqueue(UUID.randomUUID(), new LineItem("late", "A", 1, 1));
+			queue.compact();
+			assertEquals(1, queue.getSegmentCount());
+		}
+		try (RetryQueue queue = builder().build()) {
+			assertEquals(1, queue.getSegmentCount());
+			assertEquals(Collections.singletonList("late"),
+					queue.getPending().stream().map(entry -> entry.getItem().getDescription()).collect(Collectors.toList()));
+		}
+	}
+
+	private RetryQueueBuilder builder() {
+		return new RetryQueueBuilder()
+				.withDirectory(workDir)
+				.withBackoff(Duration.ZERO, Duration.ZERO);
+	}
+
+	static private List<String> itemIds(RetryQueue queue) {
+		return queue.getPending().stream().map(entry -> entry.getItem().getItemId()).collect(Collectors.toList());
+	}
+}
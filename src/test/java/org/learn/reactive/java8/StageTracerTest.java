@@ -0,0 +1,139 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StageTracerTest {
+
+	@Test
+	@DisplayName("Stages report the thread they ran on and the wait behind a hop to another pool")
+	void tracesStagesAcrossHops() {
+		final StageTracer tracer = new StageTracer(16);
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			//-- Keeps the only worker busy so the first traced stage queues behind it
+			pool.execute(() -> sleep(30));
+			final int length = CompletableFuture
+					.supplyAsync(tracer.supplier("fetch", () -> "carts"), tracer.executor(pool))
+					.thenApply(tracer.function("filter", String::length))
+					.join();
+			assertEquals(5, length);
+
+			final List<StageTracer.Span> spans = tracer.spans();
+			assertEquals(2, spans.size());
+			final StageTracer.Span fetch = spans.get(0);
+			final StageTracer.Span filter = spans.get(1);
+			assertEquals("fetch", fetch.getStage());
+			assertEquals("filter", filter.getStage());
+			assertTrue(fetch.getQueueWait(TimeUnit.MILLISECONDS) >= 20, fetch.toString());
+			//-- Ran right after fetch on the same thread, with no hop to wait for
+			assertEquals(0, filter.getQueueWait(TimeUnit.NANOSECONDS));
+			assertEquals(fetch.getThreadName(), filter.getThreadName());
+			assertTrue(fetch.getFinishedNanos() <= filter.getStartedNanos());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	@DisplayName("Rings keep the latest spans; a disabled or cleared tracer keeps none")
+	void keepsLatestSpans() throws IOException {
+		final StageTracer tracer = new StageTracer(8);
+		for (int i = 0; i < 20; i++) { tracer.record("stage \"" + i + "\"", i, i, i + 1); }
+		final List<String> stages = tracer.spans().stream().map(StageTracer.Span::getStage).collect(toList());
+		assertEquals(8, stages.size());
+		assertEquals("stage \"12\"", stages.get(0));
+		assertEquals("stage \"19\"", stages.get(7));
+
+		final StringWriter json = new StringWriter();
+		tracer.writeChromeTrace(json);
+		assertTrue(json.toString().startsWith("{\"traceEvents\":["));
+		assertTrue(json.toString().contains("\"name\":\"stage \\\"19\\\"\""));
+		assertEquals(8, json.toString().split("\"ph\":\"X\"", -1).length - 1);
+
+		tracer.clear();
+		assertEquals(0, tracer.spans().size());
+		tracer.setEnabled(false);
+		tracer.runnable("ignored", () -> { }).run();
+		assertEquals(0, tracer.spans().size());
+		tracer.setEnabled(true);
+		tracer.runnable("counted", () -> { }).run();
+		assertEquals(1, tracer.spans().size());
+	}
+
+	@Test
+	@DisplayName("Spans read while their thread keeps writing are whole or missing, never torn")
+	void readsWhileWriting() throws InterruptedException {
+		final StageTracer tracer = new StageTracer(64);
+		final String[] names = new String[1024];
+		for (int i = 0; i < names.length; i++) { names[i] = "s" + i; }
+		final AtomicBoolean stop = new AtomicBoolean();
+		final Thread writer = new Thread(() -> {
+			for (long i = 0; !stop.get(); i++) {
+				tracer.record(names[(int) (i % names.length)], i, i + 1, i + 2);
+			}
+		});
+		writer.start();
+		try {
+			int seen = 0;
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+			while (System.nanoTime() < deadline) {
+				for (StageTracer.Span span : tracer.spans()) {
+					final long i = span.getEnqueuedNanos();
+					assertEquals(names[(int) (i % names.length)], span.getStage());
+					assertEquals(i + 1, span.getStartedNanos());
+					assertEquals(i + 2, span.getFinishedNanos());
+					seen++;
+				}
+			}
+			assertTrue(seen > 0);
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+	}
+
+	@Test
+	@DisplayName("Rings of threads that died are read once more and then dropped, or bounded if never read")
+	void dropsRingsOfDeadThreads() throws InterruptedException {
+		final StageTracer tracer = new StageTracer(16);
+		for (int i = 0; i < 10; i++) { runOnNewThread(tracer.runnable("short-lived", () -> { })); }
+		assertEquals(10, tracer.ringCount());
+		assertEquals(10, tracer.spans().size());
+		assertEquals(0, tracer.ringCount());
+		assertEquals(0, tracer.spans().size());
+
+		for (int i = 0; i < 500; i++) { runOnNewThread(tracer.runnable("unread", () -> { })); }
+		//-- Up to 64 dead rings are kept unread, the next new ring then replaces them
+		assertTrue(tracer.ringCount() <= 65, tracer.ringCount() + " rings held");
+		tracer.clear();
+		assertEquals(0, tracer.ringCount());
+	}
+
+	static private void runOnNewThread(Runnable task) throws InterruptedException {
+		final Thread thread = new Thread(task);
+		thread.start();
+		thread.join();
+	}
+
+	static private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.learn.reactive.java8;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.summingLong;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.learn.reactive.java8.FilterOperations.topCustomersByPurchases;
+
+public class TopCustomersTest {
+
+	@Test
+	@DisplayName("Ranks customers by their whole spend in the window, even when carts land on different workers")
+	void ranksLikeGroupAndSort() {
+		final SplittableRandom random = new SplittableRandom(35);
+		final List<Customer> customers = OrderHelper.createCarts(500).map(ShoppingCart::getOrderedBy).collect(toList());
+		final List<ShoppingCart> carts = OrderHelper.createCarts(20_000)
+				.map(cart -> new ShoppingCart(customers.get(random.nextInt(customers.size())), cart.getItems(),
+						LocalDateTime.of(LocalDate.ofYearDay(2017, 1 + random.nextInt(365)), LocalTime.NOON)))
+				.collect(toList());
+		final LocalDate after = LocalDate.of(2017, Month.MARCH, 31);
+		final LocalDate before = LocalDate.of(2017, Month.DECEMBER, 30);
+
+		final Map<Customer,Long> expected = carts.stream()
+				.filter(cart -> cart.getCreationDateTime().toLocalDate().isAfter(after))
+				.filter(cart -> cart.getCreationDateTime().toLocalDate().isBefore(before))
+				.collect(groupingBy(ShoppingCart::getOrderedBy, summingLong(cart -> cart.getItems().stream()
+						.mapToLong(item -> Math.round(item.getValue() * 100)).sum())));
+		final List<Long> expectedTop = expected.values().stream()
+				.sorted(Collections.reverseOrder()).limit(25).collect(toList());
+
+		final List<TopCustomers.CustomerSpend> top = topCustomersByPurchases(after, before, 25).apply(carts.stream());
+		assertEquals(expectedTop, top.stream().map(TopCustomers.CustomerSpend::getCents).collect(toList()));
+		for (TopCustomers.CustomerSpend spend : top) {
+			assertEquals(expected.get(spend.getCustomer()).longValue(), spend.getCents());
+		}
+	}
+
+	@Test
+	@DisplayName("Ranks customers of another dictionary as themselves, merged with their interned counterparts")
+	void ranksForeignCustomers() {
+		final CustomerDictionary foreign = new CustomerDictionary();
+		final Customer stranger = foreign.intern("Nobody", "Known", "Nowhere", "00");
+		final Customer shared = foreign.intern("John", "Wick", "1st, Developer Street", "91");
+		final Customer interned = OrderHelper.getCustomerDictionary().intern("John", "Wick", "1st, Developer Street", "91");
+		final LocalDateTime createdOn = LocalDateTime.of(2017, Month.MAY, 1, 12, 0);
+		final List<LineItem> items = OrderHelper.generateLineItems(2);
+		final long cents = items.stream().mapToLong(item -> Math.round(item.getValue() * 100)).sum();
+		final List<ShoppingCart> carts = Arrays.asList(
+				new ShoppingCart(stranger, items, createdOn),
+				new ShoppingCart(stranger, items, createdOn),
+				new ShoppingCart(stranger, items, createdOn),
+				new ShoppingCart(shared, items, createdOn),
+				new ShoppingCart(interned, items, createdOn));
+
+		final List<TopCustomers.CustomerSpend> top = new TopCustomers(LocalDate.of(2017, Month.JANUARY, 1),
+				LocalDate.of(2017, Month.DECEMBER, 31), 10).rank(carts.stream());
+		assertEquals(2, top.size());
+		assertSame(stranger, top.get(0).getCustomer());
+		assertEquals(3 * cents, top.get(0).getCents());
+		assertSame(interned, top.get(1).getCustomer());
+		assertEquals(2 * cents, top.get(1).getCents());
+	}
+
+	@Test
+	@DisplayName("Returns everyone when fewer customers than k bought in the window")
+	void returnsFewerThanK() {
+		final List<ShoppingCart> carts = OrderHelper.createCarts(3).collect(toList());
+		final List<TopCustomers.CustomerSpend> top = new TopCustomers(LocalDate.of(2016, Month.DECEMBER, 31),
+				LocalDate.of(2018, Month.JANUARY, 1), 10).rank(carts.stream());
+		assertEquals(3, top.size());
+		assertThrows(IllegalArgumentException.class, () -> new TopCustomers(LocalDate.MIN, LocalDate.MAX, 0));
+	}
+
+	@Test
+	@DisplayName("Primitive map sums like a HashMap across resizes")
+	void longLongHashMapSums() {
+		final SplittableRandom random = new SplittableRandom(1);
+		final LongLongHashMap map = new LongLongHashMap();
+		final Map<Long,Long> reference = new HashMap<>();
+		for (int i = 0; i < 100_000; i++) {
+			final long key = random.nextLong(20_000) - 10_000;
+			final long delta = random.nextLong(1_000);
+			map.addTo(key, delta);
+			reference.merge(key, delta, Long::sum);
+		}
+		assertEquals(reference.size(), map.size());
+		reference.forEach((key, sum) -> assertEquals(sum.longValue(), map.get(key)));
+		assertEquals(0, map.get(1_000_000));
+		assertThrows(IllegalArgumentException.class, () -> map.addTo(Long.MIN_VALUE, 1));
+	}
+}